@@ -56,6 +56,7 @@ public class Configuration {
     private boolean globalEnabled = true;
     private StartupConfiguration startupConfiguration;
     private MetricRegistryConfiguration registryConfiguration;
+    private ArchiveStoreConfiguration archiveStoreConfiguration;
     private RuleConfiguration ruleConfiguration;
     private List<MetricReservoirConfiguration> metricReservoirConfigurations;
     private List<NodeConfiguration> nodeConfigurations = Collections.emptyList();
@@ -77,6 +78,14 @@ public class Configuration {
         this.registryConfiguration = registryConfiguration;
     }
 
+    public ArchiveStoreConfiguration getArchiveStoreConfiguration() {
+        return archiveStoreConfiguration;
+    }
+    
+    public void setArchiveStoreConfiguration(ArchiveStoreConfiguration archiveStoreConfiguration) {
+        this.archiveStoreConfiguration = archiveStoreConfiguration;
+    }
+
     public StartupConfiguration getStartupConfiguration() {
         return startupConfiguration;
     }
@@ -46,6 +46,18 @@ package org.dcm4chee.archive.monitoring.impl.config;
 public class MetricRegistryConfiguration {
     private long consumedMetricTimeout = -1;
     private long metricCleanupDaemonRunPeriod = -1;
+    // period of the ticker moving on the archives of round-robin reservoirs, disabled if <= 0
+    private long rolloverTickPeriod = -1;
+    // number of timer stops buffered per thread before they are applied to the reservoirs, disabled if <= 0
+    private int recordingBufferSize = -1;
+    // period of the flushes of the recording buffers
+    private long recordingFlushPeriod = 1000;
+    // period of the sampler recording the values of sampled metrics, disabled if <= 0
+    private long samplePeriod = 1000;
+    // number of values the pipeline forwarding to parent aggregates asynchronously holds, disabled if <= 0
+    private int forwardingBufferSize = -1;
+    // period of the drains of the forwarding pipeline
+    private long forwardingDrainPeriod = 10;
     
     public long getConsumedMetricTimeout() {
         return consumedMetricTimeout;
@@ -59,5 +71,41 @@ public class MetricRegistryConfiguration {
     public void setMetricCleanupDaemonRunPeriod(long metricCleanupDaemonRunPeriod) {
         this.metricCleanupDaemonRunPeriod = metricCleanupDaemonRunPeriod;
     }
+    public long getRolloverTickPeriod() {
+        return rolloverTickPeriod;
+    }
+    public void setRolloverTickPeriod(long rolloverTickPeriod) {
+        this.rolloverTickPeriod = rolloverTickPeriod;
+    }
+    public int getRecordingBufferSize() {
+        return recordingBufferSize;
+    }
+    public void setRecordingBufferSize(int recordingBufferSize) {
+        this.recordingBufferSize = recordingBufferSize;
+    }
+    public long getRecordingFlushPeriod() {
+        return recordingFlushPeriod;
+    }
+    public void setRecordingFlushPeriod(long recordingFlushPeriod) {
+        this.recordingFlushPeriod = recordingFlushPeriod;
+    }
+    public long getSamplePeriod() {
+        return samplePeriod;
+    }
+    public void setSamplePeriod(long samplePeriod) {
+        this.samplePeriod = samplePeriod;
+    }
+    public int getForwardingBufferSize() {
+        return forwardingBufferSize;
+    }
+    public void setForwardingBufferSize(int forwardingBufferSize) {
+        this.forwardingBufferSize = forwardingBufferSize;
+    }
+    public long getForwardingDrainPeriod() {
+        return forwardingDrainPeriod;
+    }
+    public void setForwardingDrainPeriod(long forwardingDrainPeriod) {
+        this.forwardingDrainPeriod = forwardingDrainPeriod;
+    }
     
 }
@@ -39,7 +39,11 @@
 
 package org.dcm4chee.archive.monitoring.impl.config;
 
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.ARCHIVE_CONTAINER_TYPE;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.ARCHIVE_UPDATE_MODE;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.LogLinearHistogram;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.START_SPECIFICATION;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.VALUE_ARCHIVE_TYPE;
 
 /**
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
@@ -48,7 +52,10 @@ import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.STAR
 public class MetricReservoirConfiguration {
     public static enum RESERVOIR_TYPE {
         OPEN_RESOLUTION,
-        ROUND_ROBIN
+        ROUND_ROBIN,
+        STRIPED_ROUND_ROBIN,
+        // aggregate of the last resolutions[0] milliseconds, moving on in steps of resolutionStepSize
+        SLIDING_WINDOW
     }
     
     private String name;
@@ -58,6 +65,10 @@ public class MetricReservoirConfiguration {
     private int[] maxRawValues;
     private int[] retentions;
     private START_SPECIFICATION start;
+    private ARCHIVE_CONTAINER_TYPE containerType = ARCHIVE_CONTAINER_TYPE.OBJECT;
+    private VALUE_ARCHIVE_TYPE valueArchiveType = VALUE_ARCHIVE_TYPE.RAW;
+    private int histogramPrecision = LogLinearHistogram.DEFAULT_PRECISION;
+    private ARCHIVE_UPDATE_MODE updateMode = ARCHIVE_UPDATE_MODE.PER_SAMPLE;
     
     public String getName() {
         return name;
@@ -114,5 +125,37 @@ public class MetricReservoirConfiguration {
     public void setStart(START_SPECIFICATION start) {
         this.start = start;
     }
+
+    public ARCHIVE_CONTAINER_TYPE getContainerType() {
+        return containerType;
+    }
+
+    public void setContainerType(ARCHIVE_CONTAINER_TYPE containerType) {
+        this.containerType = containerType;
+    }
+
+    public VALUE_ARCHIVE_TYPE getValueArchiveType() {
+        return valueArchiveType;
+    }
+
+    public void setValueArchiveType(VALUE_ARCHIVE_TYPE valueArchiveType) {
+        this.valueArchiveType = valueArchiveType;
+    }
+
+    public int getHistogramPrecision() {
+        return histogramPrecision;
+    }
+
+    public void setHistogramPrecision(int histogramPrecision) {
+        this.histogramPrecision = histogramPrecision;
+    }
+
+    public ARCHIVE_UPDATE_MODE getUpdateMode() {
+        return updateMode;
+    }
+
+    public void setUpdateMode(ARCHIVE_UPDATE_MODE updateMode) {
+        this.updateMode = updateMode;
+    }
     
 }
@@ -39,19 +39,26 @@
 
 package org.dcm4chee.archive.monitoring.impl.config;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.dcm4chee.archive.monitoring.impl.core.Constants;
 import org.dcm4chee.archive.monitoring.impl.core.MetricFactory;
 import org.dcm4chee.archive.monitoring.impl.core.MetricProvider;
+import org.dcm4chee.archive.monitoring.impl.core.MetricSampler;
+import org.dcm4chee.archive.monitoring.impl.core.RecordingBuffer;
 import org.dcm4chee.archive.monitoring.impl.core.Util;
 import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
 import org.dcm4chee.archive.monitoring.impl.core.context.AttachedContextResolverProvider;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContextProvider;
 import org.dcm4chee.archive.monitoring.impl.core.module.MonitoringModuleManager;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ForwardingPipeline;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.MappedArchiveStore;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilderFactory;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.RolloverTicker;
 import org.dcm4chee.archive.monitoring.impl.util.UnitOfTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +70,8 @@ import org.slf4j.LoggerFactory;
 public class MonitoringBuilder {
     private static final Logger LOGGER = LoggerFactory.getLogger(MonitoringBuilder.class);
     
+    private static final String SERVER_DATA_DIR_PROPERTY = "jboss.server.data.dir";
+    
     private final Configuration cfg;
     
     public MonitoringBuilder(Configuration cfg) {
@@ -76,7 +85,14 @@ public class MonitoringBuilder {
             Clock clock = cfg.getClockProvider().getClock();
             metricProvider.setClock(clock);
             
-            ReservoirBuilderFactory reservoirFactory = new ReservoirBuilderFactory(cfg.getMetricReservoirConfigurations(), clock);
+            RolloverTicker rolloverTicker = createRolloverTicker(clock);
+            metricProvider.setRolloverTicker(rolloverTicker);
+            metricProvider.setRecordingBuffer(createRecordingBuffer());
+            metricProvider.setMetricSampler(createMetricSampler(clock));
+            metricProvider.setForwardingPipeline(createForwardingPipeline());
+            
+            ReservoirBuilderFactory reservoirFactory = new ReservoirBuilderFactory(cfg.getMetricReservoirConfigurations(), clock, 
+                    openArchiveStore(), rolloverTicker);
             metricProvider.setReservoirFactory(reservoirFactory);
             
             metricProvider.setInitialNodeConfigurations(cfg.isGlobalEnabled(), cfg.getNodeConfigurations());
@@ -96,6 +112,69 @@ public class MonitoringBuilder {
         
     }
     
+    /*
+     * Opens the store of persisted archives. The archives of a reservoir are re-attached as soon as 
+     * its metric is created again, so the history continues where it left off.
+     */
+    private MappedArchiveStore openArchiveStore() {
+        ArchiveStoreConfiguration storeCfg = cfg.getArchiveStoreConfiguration();
+        if (storeCfg == null || storeCfg.getDirectory() == null) {
+            return null;
+        }
+        
+        File directory = new File(storeCfg.getDirectory());
+        String serverDataDir = System.getProperty(SERVER_DATA_DIR_PROPERTY);
+        if (!directory.isAbsolute() && serverDataDir != null) {
+            directory = new File(serverDataDir, storeCfg.getDirectory());
+        }
+        
+        try {
+            MappedArchiveStore store = new MappedArchiveStore(directory);
+            LOGGER.info("Opened monitoring archive store {} holding the archives of {} reservoirs", directory, store.getKeys().size());
+            return store;
+        } catch (IOException e) {
+            LOGGER.error("Could not open monitoring archive store {}, archives will not be persisted", directory, e);
+            return null;
+        }
+    }
+    
+    private RolloverTicker createRolloverTicker(Clock clock) {
+        MetricRegistryConfiguration registryCfg = cfg.getRegistryConfiguration();
+        if (registryCfg == null || registryCfg.getRolloverTickPeriod() <= 0) {
+            return null;
+        }
+        
+        return new RolloverTicker(clock, registryCfg.getRolloverTickPeriod());
+    }
+    
+    private RecordingBuffer createRecordingBuffer() {
+        MetricRegistryConfiguration registryCfg = cfg.getRegistryConfiguration();
+        if (registryCfg == null || registryCfg.getRecordingBufferSize() <= 0) {
+            return null;
+        }
+        
+        return new RecordingBuffer(registryCfg.getRecordingBufferSize(), registryCfg.getRecordingFlushPeriod());
+    }
+    
+    private ForwardingPipeline createForwardingPipeline() {
+        MetricRegistryConfiguration registryCfg = cfg.getRegistryConfiguration();
+        if (registryCfg == null || registryCfg.getForwardingBufferSize() <= 0) {
+            return null;
+        }
+        
+        return new ForwardingPipeline(registryCfg.getForwardingBufferSize(), registryCfg.getForwardingDrainPeriod());
+    }
+    
+    private MetricSampler createMetricSampler(Clock clock) {
+        MetricRegistryConfiguration registryCfg = cfg.getRegistryConfiguration();
+        long samplePeriod = (registryCfg != null) ? registryCfg.getSamplePeriod() : MetricSampler.DEFAULT_SAMPLE_PERIOD;
+        if (samplePeriod <= 0) {
+            return null;
+        }
+        
+        return new MetricSampler(clock, samplePeriod);
+    }
+    
     private void setupMetricCleanDeamon(MetricProvider metricProvider) {
         MetricRegistryConfiguration registryCfg = cfg.getRegistryConfiguration();
         if(registryCfg != null) {
@@ -42,6 +42,7 @@ package org.dcm4chee.archive.monitoring.impl.core;
 import java.util.List;
 
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
 
 /**
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
@@ -66,4 +67,16 @@ public interface Counter extends Metric, Sampling<AggregatedReservoirSnapshot> {
 	
 	List<AggregatedReservoirSnapshot> getSnapshots();
 	
+	/**
+	 * Visits the archives like {@link #getSnapshots()} without creating a snapshot per archive.
+	 * The visitor is called on copies of the archives after the metric was unlocked.
+	 */
+	void forEachArchive(ArchiveVisitor visitor);
+	
+	/**
+	 * Visits the archives like {@link #getSnapshots(long, long, long)} without creating a snapshot 
+	 * per archive. The visitor is called on copies of the archives after the metric was unlocked.
+	 */
+	void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor);
+	
 }
@@ -47,31 +47,53 @@ import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveRecordCollector;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AugmentingArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ConcurrentReservoir;
 import org.dcm4chee.archive.monitoring.impl.util.LongAdder;
 
 
 /**
+ * In sampled mode increments and decrements only touch a striped adder. The current count is 
+ * recorded to the reservoir when sampled by a {@link MetricSampler} and before the counter is read, 
+ * so the reservoir holds the last, minimum and maximum sampled count per archive.
+ * 
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
  *
  */
-public class CounterImpl extends AbstractMetric implements Counter {
+public class CounterImpl extends AbstractMetric implements Counter, MetricSampler.Sampled {
     private final MonitoringContext context;
     private final Clock clock;
 
     private final CounterImplState state;
     private final AtomicReference<CounterImplState> stateRef;
+    private final boolean concurrentReservoir;
+    private final boolean sampled;
 
     public CounterImpl(MonitoringContext context, AggregatedReservoir reservoir,
             Clock clock) {
+        this(context, reservoir, clock, false);
+    }
+    
+    /**
+     * @param sampled If <code>true</code> the count is only recorded to the reservoir when sampled
+     */
+    public CounterImpl(MonitoringContext context, AggregatedReservoir reservoir,
+            Clock clock, boolean sampled) {
         this.context = context;
         this.clock = clock;
         this.state = new CounterImplState(reservoir);
         this.stateRef = new AtomicReference<>(state);
+        this.concurrentReservoir = reservoir instanceof ConcurrentReservoir;
+        this.sampled = sampled;
     }
 	
     protected class CounterImplState {
         protected final AggregatedReservoir reservoir;
         private final LongAdder count;
+        // count recorded by the last sample
+        private long lastSample;
 
         protected CounterImplState(AggregatedReservoir reservoir) {
             this.reservoir = reservoir;
@@ -82,6 +104,14 @@ public class CounterImpl extends AbstractMetric implements Counter {
             count.add(n);
             reservoir.update(context, now, count.sum());
         }
+        
+        protected void sample(long now) {
+            long value = sampleCount(now);
+            if (value != lastSample) {
+                reservoir.update(context, now, value);
+                lastSample = value;
+            }
+        }
     }
 
     /**
@@ -119,6 +149,16 @@ public class CounterImpl extends AbstractMetric implements Counter {
     }
 
     private void updateCount(long n) {
+        if (sampled) {
+            state.count.add(n);
+            return;
+        }
+        
+        if (concurrentReservoir) {
+            state.update(clock.getTime(), n);
+            return;
+        }
+        
         CounterImplState state = lockState();
         try {
             long now = clock.getTime();
@@ -128,6 +168,47 @@ public class CounterImpl extends AbstractMetric implements Counter {
         }
     }
 
+    public boolean isSampled() {
+        return sampled;
+    }
+    
+    /**
+     * @return Returns the count recorded by the next sample at the given time, in sampled mode
+     */
+    protected long sampleCount(long now) {
+        return state.count.sum();
+    }
+    
+    /**
+     * @return Returns the count of the increments and decrements of this counter
+     */
+    protected long getLocalCount() {
+        return state.count.sum();
+    }
+    
+    @Override
+    public void sample(long now) {
+        if (!sampled) {
+            return;
+        }
+        
+        CounterImplState state = lockState();
+        try {
+            state.sample(now);
+        } finally {
+            unlockState(state);
+        }
+    }
+    
+    /*
+     * Records the current count before reading the reservoir, the state must be locked
+     */
+    private void sampleForRead(CounterImplState state) {
+        if (sampled) {
+            state.sample(clock.getTime());
+        }
+    }
+
     private CounterImplState lockState() {
         /*
          * Mark the state as locked by replacing the referenced state with NULL
@@ -152,6 +233,7 @@ public class CounterImpl extends AbstractMetric implements Counter {
     public AggregatedReservoirSnapshot getSnapshot() {
         CounterImplState state = lockState();
         try {
+            sampleForRead(state);
             AggregatedReservoirSnapshot reservoirSnapshot = state.reservoir.getCurrentSnapshot();
             reservoirSnapshot.setPath(Util.createPath(context.getPath()));
             reservoirSnapshot.setAttributes(getAttributes(true));
@@ -165,6 +247,7 @@ public class CounterImpl extends AbstractMetric implements Counter {
     public List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
         CounterImplState state = lockState();
         try {
+            sampleForRead(state);
             List<AggregatedReservoirSnapshot> reservoirSnapshots = state.reservoir.getSnapshots(start, end, resolution);
 
             // augment snapshots with path & attributes
@@ -187,6 +270,7 @@ public class CounterImpl extends AbstractMetric implements Counter {
     public List<AggregatedReservoirSnapshot> getSnapshots() {
         CounterImplState state = lockState();
         try {
+            sampleForRead(state);
             List<AggregatedReservoirSnapshot> reservoirSnapshots = state.reservoir.getSnapshots();
 
             // augment snapshots with path & attributes
@@ -205,4 +289,47 @@ public class CounterImpl extends AbstractMetric implements Counter {
         }
     }
 
+    /*
+     * Creates a collector whose records look up quantiles while holding the lock of the metric
+     */
+    private ArchiveRecordCollector createArchiveRecordCollector() {
+        return new ArchiveRecordCollector(new ArchiveRecordCollector.Guard() {
+            @Override
+            public void lock() {
+                lockState();
+            }
+            
+            @Override
+            public void unlock() {
+                unlockState(state);
+            }
+        });
+    }
+    
+    @Override
+    public void forEachArchive(ArchiveVisitor visitor) {
+        ArchiveRecordCollector records = createArchiveRecordCollector();
+        CounterImplState state = lockState();
+        try {
+            sampleForRead(state);
+            state.reservoir.forEachArchive(records);
+        } finally {
+            unlockState(state);
+        }
+        records.visitAll(new AugmentingArchiveVisitor(Util.createPath(context.getPath()), getAttributes(true), visitor));
+    }
+    
+    @Override
+    public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+        ArchiveRecordCollector records = createArchiveRecordCollector();
+        CounterImplState state = lockState();
+        try {
+            sampleForRead(state);
+            state.reservoir.forEachArchive(start, end, resolution, records);
+        } finally {
+            unlockState(state);
+        }
+        records.visitAll(new AugmentingArchiveVisitor(Util.createPath(context.getPath()), getAttributes(true), visitor));
+    }
+
 }
@@ -0,0 +1,299 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.archive.monitoring.impl.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
+import org.dcm4chee.archive.monitoring.impl.core.clocks.Clocks;
+import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoir;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.Reservoir;
+
+/**
+ * Timer recording the wall-clock time of every split and the CPU time of the current thread 
+ * of a random sample of splits. The CPU time and the wait time (wall-clock time minus CPU time)
+ * of a sampled split are recorded to paired reservoirs under the same lock as the wall-clock time.
+ * 
+ * Reading the CPU time is more expensive than reading the wall-clock time, so only every 
+ * n-th split is sampled on average. Splits stopped by another thread than the one they were 
+ * started by are not sampled.
+ * 
+ * Stops of this timer are never buffered by a {@link RecordingBuffer}. Measurements by 
+ * {@link #startNanos()} and {@link #stopNanos(long)} are sampled as well. The CPU time at the 
+ * start is kept in a single slot per thread, so of nested measurements on the same thread only 
+ * the innermost one is sampled.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class CpuTimerImpl extends TimerImpl implements CpuTimer {
+    public static final int DEFAULT_CPU_SAMPLE_RATE = 10;
+    
+    // start of the last sampled measurement without split of the current thread
+    private static final ThreadLocal<CpuStart> CPU_STARTS = new ThreadLocal<CpuStart>() {
+        @Override
+        protected CpuStart initialValue() {
+            return new CpuStart();
+        }
+    };
+    
+    private final AggregatedReservoir cpuReservoir;
+    private final AggregatedReservoir waitReservoir;
+    private final Clock cpuClock;
+    private final int cpuSampleRate;
+    private final Reservoir forwardReservoir;
+    
+    public CpuTimerImpl(MonitoringContext context, AggregatedReservoir reservoir, AggregatedReservoir cpuReservoir, 
+            AggregatedReservoir waitReservoir, Clock clock, Reservoir forwardReservoir, int cpuSampleRate) {
+        this(context, reservoir, cpuReservoir, waitReservoir, clock, new Clocks.CpuTimeClock(), forwardReservoir, cpuSampleRate);
+    }
+    
+    /**
+     * @param cpuClock Clock whose ticks are the CPU time of the current thread
+     * @param forwardReservoir Reservoir the wall-clock times are forwarded to, may be <code>null</code>
+     * @param cpuSampleRate Every n-th split on average measures the CPU time, 1 measures all splits
+     */
+    public CpuTimerImpl(MonitoringContext context, AggregatedReservoir reservoir, AggregatedReservoir cpuReservoir, 
+            AggregatedReservoir waitReservoir, Clock clock, Clock cpuClock, Reservoir forwardReservoir, int cpuSampleRate) {
+        super(context, reservoir, clock);
+        if (cpuSampleRate <= 0) {
+            throw new IllegalArgumentException("CPU sample rate must be greater 0");
+        }
+        
+        this.cpuReservoir = cpuReservoir;
+        this.waitReservoir = waitReservoir;
+        this.cpuClock = cpuClock;
+        this.cpuSampleRate = cpuSampleRate;
+        this.forwardReservoir = forwardReservoir;
+    }
+    
+    protected static class CpuTimerSplitImpl implements Timer.Split {
+        private final CpuTimerImpl timer;
+        private final long startTime;
+        // thread measuring the CPU time, null if not sampled
+        private final Thread thread;
+        private final long startCpuTime;
+        
+        protected CpuTimerSplitImpl(CpuTimerImpl timer, boolean sampleCpu) {
+            this.timer = timer;
+            this.thread = sampleCpu ? Thread.currentThread() : null;
+            this.startCpuTime = sampleCpu ? timer.cpuClock.getTick() : -1;
+            this.startTime = timer.clock.getTick();
+        }
+        
+        @Override
+        public long stop() {
+            final long elapsed = timer.clock.getTick() - startTime;
+            long cpuTime = -1;
+            if (thread == Thread.currentThread() && startCpuTime >= 0) {
+                long stopCpuTime = timer.cpuClock.getTick();
+                if (stopCpuTime >= 0) {
+                    cpuTime = stopCpuTime - startCpuTime;
+                }
+            }
+            
+            timer.updateStateAtStop(elapsed, cpuTime, timer.clock.getTime());
+            return elapsed;
+        }
+        
+        @Override
+        public void close() {
+            stop();
+        }
+    }
+    
+    private static class CpuStart {
+        // null if no measurement is pending
+        private CpuTimerImpl timer;
+        private long startNanos;
+        private long startCpuTime;
+    }
+    
+    @Override
+    protected Timer.Split newSplit() {
+        return new CpuTimerSplitImpl(this, isCpuSampled());
+    }
+    
+    private boolean isCpuSampled() {
+        return cpuSampleRate == 1 || ThreadLocalRandom.current().nextInt(cpuSampleRate) == 0;
+    }
+    
+    @Override
+    public long startNanos() {
+        long startCpuTime = isCpuSampled() ? cpuClock.getTick() : -1;
+        long startNanos = clock.getTick();
+        if (startCpuTime >= 0) {
+            CpuStart start = CPU_STARTS.get();
+            start.timer = this;
+            start.startNanos = startNanos;
+            start.startCpuTime = startCpuTime;
+        }
+        return startNanos;
+    }
+    
+    /**
+     * The CPU time is only recorded if the measurement was sampled by {@link #startNanos()} 
+     * of the current thread and no other measurement was started on the thread meanwhile
+     */
+    @Override
+    public long stopNanos(long startNanos) {
+        long now = clock.getTime();
+        final long elapsed = clock.getTick() - startNanos;
+        long cpuTime = -1;
+        CpuStart start = CPU_STARTS.get();
+        if (start.timer == this && start.startNanos == startNanos) {
+            // release the timer
+            start.timer = null;
+            long stopCpuTime = cpuClock.getTick();
+            if (stopCpuTime >= 0) {
+                cpuTime = stopCpuTime - start.startCpuTime;
+            }
+        }
+        
+        updateStateAtStop(elapsed, cpuTime, now);
+        return elapsed;
+    }
+    
+    /**
+     * Batches only record the wall-clock time
+     */
+    @Override
+    public void recordAll(long[] durations, int len) {
+        long now = clock.getTime();
+        TimerImplState state = lockState();
+        try {
+            state.updateAtStops(now, durations, len);
+        } finally {
+            unlockState(state);
+        }
+        
+        if (forwardReservoir != null) {
+            for (int i = 0; i < len; i++) {
+                forwardReservoir.update(context, now, durations[i]);
+            }
+        }
+    }
+    
+    /**
+     * @param cpuTime CPU time of the split, negative if not sampled
+     */
+    protected void updateStateAtStop(long duration, long cpuTime, long now) {
+        TimerImplState state = lockState();
+        try {
+            state.updateAtStop(duration, now);
+            if (duration >= 0 && cpuTime >= 0) {
+                cpuReservoir.update(context, now, cpuTime);
+                // both clocks have their own granularity
+                waitReservoir.update(context, now, Math.max(0, duration - cpuTime));
+            }
+        } finally {
+            unlockState(state);
+        }
+        
+        if (forwardReservoir != null) {
+            forwardReservoir.update(context, now, duration);
+        }
+    }
+    
+    @Override
+    public AggregatedReservoirSnapshot getCpuSnapshot() {
+        return getPairedSnapshot(cpuReservoir);
+    }
+    
+    @Override
+    public List<AggregatedReservoirSnapshot> getCpuSnapshots(long start, long end, long resolution) {
+        return getPairedSnapshots(cpuReservoir, start, end, resolution);
+    }
+    
+    @Override
+    public AggregatedReservoirSnapshot getWaitSnapshot() {
+        return getPairedSnapshot(waitReservoir);
+    }
+    
+    @Override
+    public List<AggregatedReservoirSnapshot> getWaitSnapshots(long start, long end, long resolution) {
+        return getPairedSnapshots(waitReservoir, start, end, resolution);
+    }
+    
+    private AggregatedReservoirSnapshot getPairedSnapshot(AggregatedReservoir reservoir) {
+        TimerImplState state = lockState();
+        try {
+            AggregatedReservoirSnapshot reservoirSnapshot = reservoir.getCurrentSnapshot();
+            reservoirSnapshot.setPath(Util.createPath(context.getPath()));
+            reservoirSnapshot.setAttributes(getAttributes(true));
+            return reservoirSnapshot;
+        } finally {
+            unlockState(state);
+        }
+    }
+    
+    private List<AggregatedReservoirSnapshot> getPairedSnapshots(AggregatedReservoir reservoir, long start, long end, long resolution) {
+        TimerImplState state = lockState();
+        try {
+            List<AggregatedReservoirSnapshot> reservoirSnapshots = reservoir.getSnapshots(start, end, resolution);
+            
+            // augment snapshots with path & attributes
+            if (!reservoirSnapshots.isEmpty()) {
+                String path = Util.createPath(context.getPath());
+                Map<String,Object> attrs = getAttributes(true);
+                for (AggregatedReservoirSnapshot reservoirSnapshot : reservoirSnapshots) {
+                    reservoirSnapshot.setPath(path);
+                    reservoirSnapshot.setAttributes(attrs);
+                }
+            }
+            
+            return reservoirSnapshots;
+        } finally {
+            unlockState(state);
+        }
+    }
+    
+    public int getCpuSampleRate() {
+        return cpuSampleRate;
+    }
+    
+    public String toString() {
+        return String.format("CpuTimerImpl(%s)", context);
+    }
+
+}
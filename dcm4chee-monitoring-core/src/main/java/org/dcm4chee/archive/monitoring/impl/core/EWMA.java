@@ -0,0 +1,104 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.archive.monitoring.impl.core;
+
+import org.dcm4chee.archive.monitoring.impl.util.UnitOfTime;
+
+/**
+ * Exponentially weighted moving average of a rate. The average is ticked with the number of 
+ * events since the last tick, ticks do not need to be equidistant as the weight of a tick 
+ * is derived from its interval.
+ * 
+ * Ticks must not be concurrent, the rate may be read concurrently.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class EWMA {
+    private final double window;
+    
+    // events per millisecond
+    private volatile double rate;
+    private boolean initialized;
+    
+    /**
+     * @param window Time window of the average, events older than the window weigh less than 1/e 
+     */
+    public EWMA(long window, UnitOfTime unit) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be greater 0");
+        }
+        this.window = unit.toMillis(window);
+    }
+    
+    public static EWMA oneMinute() {
+        return new EWMA(1, UnitOfTime.MINUTES);
+    }
+    
+    public static EWMA fiveMinutes() {
+        return new EWMA(5, UnitOfTime.MINUTES);
+    }
+    
+    public static EWMA fifteenMinutes() {
+        return new EWMA(15, UnitOfTime.MINUTES);
+    }
+    
+    /**
+     * @param count Number of events since the last tick
+     * @param interval Milliseconds passed since the last tick, must be greater 0
+     */
+    public void tick(long count, long interval) {
+        double instantRate = (double) count / interval;
+        if (initialized) {
+            double alpha = 1.0 - Math.exp(-interval / window);
+            rate += alpha * (instantRate - rate);
+        } else {
+            rate = instantRate;
+            initialized = true;
+        }
+    }
+    
+    /**
+     * @return Returns the rate as number of events per given unit of time
+     */
+    public double getRate(UnitOfTime unit) {
+        return rate * unit.toNanos(1) / UnitOfTime.MILLISECONDS.toNanos(1);
+    }
+
+}
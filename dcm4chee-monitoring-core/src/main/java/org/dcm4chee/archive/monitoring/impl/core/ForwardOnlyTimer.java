@@ -46,6 +46,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.Reservoir;
 
 /**
@@ -140,6 +141,32 @@ public class ForwardOnlyTimer extends AbstractMetric implements Timer {
         return newSplit();
     }
     
+    @Override
+    public long startNanos() {
+        return clock.getTick();
+    }
+    
+    @Override
+    public long stopNanos(long startNanos) {
+        long now = clock.getTime();
+        final long elapsed = clock.getTick() - startNanos;
+        updateStateAtStop(elapsed, now);
+        return elapsed;
+    }
+    
+    @Override
+    public void recordAll(long[] durations, int len) {
+        long now = clock.getTime();
+        TimerImplState state = lockState();
+        try {
+            for (int i = 0; i < len; i++) {
+                state.updateAtStop(durations[i], now);
+            }
+        } finally {
+            unlockState(state);
+        }
+    }
+    
     protected Timer.Split newSplit() {
         return new TimerSplitImpl(this, clock);
     }
@@ -163,4 +190,14 @@ public class ForwardOnlyTimer extends AbstractMetric implements Timer {
         return String.format("ForwardOnlyTimer(%s)", context);
     }
 
+    @Override
+    public void forEachArchive(ArchiveVisitor visitor) {
+        // NOOP
+    }
+    
+    @Override
+    public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+        // NOOP
+    }
+
 }
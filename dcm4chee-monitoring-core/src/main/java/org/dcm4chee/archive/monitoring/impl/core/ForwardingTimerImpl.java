@@ -46,10 +46,21 @@ import org.dcm4chee.archive.monitoring.impl.core.reservoir.Reservoir;
 
 
 /**
+ * Timer forwarding its stops to a parent reservoir. Like the timer itself the parent skips 
+ * stops of negative duration. A batch of stops is forwarded as a whole.
+ * 
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
  *
  */
 public class ForwardingTimerImpl extends TimerImpl {
+	// re-used to forward a part of a batch, per thread as forwarding is not synchronized
+	private static final ThreadLocal<ForwardedBatch> FORWARDED_BATCHES = new ThreadLocal<ForwardedBatch>() {
+		@Override
+		protected ForwardedBatch initialValue() {
+			return new ForwardedBatch();
+		}
+	};
+	
 	private final Reservoir forwardReservoir;
 	
 	public ForwardingTimerImpl(MonitoringContext context, AggregatedReservoir aggregatedReservoir, Clock clock, Reservoir forwardReservoir) {
@@ -57,29 +68,63 @@ public class ForwardingTimerImpl extends TimerImpl {
 		this.forwardReservoir = forwardReservoir;
 	}
 	
-	protected static class AggregatableTimerSplitImpl extends TimerImpl.TimerSplitImpl {
-		private final MonitoringContext context;
-		private final Reservoir forwardReservoir;
-		
-		protected AggregatableTimerSplitImpl(MonitoringContext context, Reservoir forwardReservoir, TimerImpl timer, Clock clock)
-		{
-			super(timer, clock);
-			this.context = context;
-			this.forwardReservoir = forwardReservoir;
+	@Override
+	protected void applyStop(long duration, long now) {
+		super.applyStop(duration, now);
+		if (duration >= 0) {
+			forwardReservoir.update(context, now, duration);
+		}
+	}
+	
+	@Override
+	protected void applyStops(long[] times, long[] durations, int from, int to) {
+		super.applyStops(times, durations, from, to);
+		if (from == 0 && allNonNegative(durations, to)) {
+			forwardReservoir.updateBatch(context, times, durations, to);
+			return;
 		}
 		
-		@Override
-		public long stop() {
-			long duration = super.stop();
-			forwardReservoir.update(context, now, duration);
-			return duration;
+		ForwardedBatch batch = FORWARDED_BATCHES.get();
+		int len = batch.fill(times, 0, durations, from, to);
+		if (len > 0) {
+			forwardReservoir.updateBatch(context, batch.times, batch.durations, len);
 		}
-
 	}
 	
 	@Override
-	protected Timer.Split newSplit() {
-		return new AggregatableTimerSplitImpl(context, forwardReservoir, this, clock);
+	protected void applyStops(long now, long[] durations, int len) {
+		super.applyStops(now, durations, len);
+		ForwardedBatch batch = FORWARDED_BATCHES.get();
+		int forwarded = batch.fill(null, now, durations, 0, len);
+		if (forwarded > 0) {
+			forwardReservoir.updateBatch(context, batch.times, batch.durations, forwarded);
+		}
+	}
+	
+	private static class ForwardedBatch {
+		private long[] times = new long[0];
+		private long[] durations = new long[0];
+		
+		/*
+		 * Copies the stops [from, to) of non-negative duration, at the given time if times is null
+		 * 
+		 * @return Returns the number of copied stops
+		 */
+		private int fill(long[] times, long now, long[] durations, int from, int to) {
+			if (this.times.length < to - from) {
+				this.times = new long[to - from];
+				this.durations = new long[to - from];
+			}
+			
+			int len = 0;
+			for (int i = from; i < to; i++) {
+				if (durations[i] >= 0) {
+					this.times[len] = (times != null) ? times[i] : now;
+					this.durations[len++] = durations[i];
+				}
+			}
+			return len;
+		}
 	}
 
 }
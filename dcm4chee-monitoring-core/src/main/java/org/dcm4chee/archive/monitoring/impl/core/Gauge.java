@@ -0,0 +1,84 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core;
+
+import java.util.List;
+
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
+
+/**
+ * Point-in-time value, e.g. a pool size or queue depth, polled by a {@link MetricSampler} 
+ * and recorded to a reservoir.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public interface Gauge extends Metric, Sampling<AggregatedReservoirSnapshot> {
+    
+    /**
+     * Callback providing the current value of a gauge, called from the sampler thread
+     */
+    public interface ValueSupplier {
+        long getValue();
+    }
+    
+    /**
+     * @return Returns the current value of the supplier, it is not recorded
+     */
+    long getValue();
+    
+    List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution);
+    
+    List<AggregatedReservoirSnapshot> getSnapshots();
+    
+    /**
+     * Visits the archives like {@link #getSnapshots()} without creating a snapshot per archive.
+     * The visitor is called on copies of the archives after the metric was unlocked.
+     */
+    void forEachArchive(ArchiveVisitor visitor);
+    
+    /**
+     * Visits the archives like {@link #getSnapshots(long, long, long)} without creating a snapshot 
+     * per archive. The visitor is called on copies of the archives after the metric was unlocked.
+     */
+    void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor);
+    
+}
@@ -0,0 +1,202 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoir;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveRecordCollector;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AugmentingArchiveVisitor;
+
+
+/**
+ * The value is only polled and recorded when sampled by a {@link MetricSampler}, so recording 
+ * a gauge never costs an application thread anything.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class GaugeImpl extends AbstractMetric implements Gauge, MetricSampler.Sampled {
+    private final MonitoringContext context;
+    private final ValueSupplier supplier;
+    
+    private final AggregatedReservoir reservoir;
+    private final AtomicReference<AggregatedReservoir> stateRef;
+
+    public GaugeImpl(MonitoringContext context, AggregatedReservoir reservoir, ValueSupplier supplier) {
+        this.context = context;
+        this.reservoir = reservoir;
+        this.stateRef = new AtomicReference<>(reservoir);
+        this.supplier = supplier;
+    }
+    
+    @Override
+    public long getValue() {
+        return supplier.getValue();
+    }
+    
+    @Override
+    public void sample(long now) {
+        // poll outside of the lock, the supplier might be slow
+        long value = supplier.getValue();
+        
+        AggregatedReservoir reservoir = lockState();
+        try {
+            reservoir.update(context, now, value);
+        } finally {
+            unlockState(reservoir);
+        }
+    }
+
+    private AggregatedReservoir lockState() {
+        /*
+         * Mark the state as locked by replacing the referenced state with NULL
+         */
+        while (!stateRef.compareAndSet(reservoir, null)) {
+            ;
+        }
+        return reservoir;
+    }
+
+    private void unlockState(AggregatedReservoir updatedState) {
+        /*
+         * Mark the state as unlocked by replacing NULL with the updated state
+         */
+        if (!stateRef.compareAndSet(null, updatedState)) {
+            throw new IllegalArgumentException(
+                    "Invalid synchronization state: Seems like trying to unlock without locking before");
+        }
+    }
+
+    @Override
+    public AggregatedReservoirSnapshot getSnapshot() {
+        AggregatedReservoir reservoir = lockState();
+        try {
+            AggregatedReservoirSnapshot reservoirSnapshot = reservoir.getCurrentSnapshot();
+            reservoirSnapshot.setPath(Util.createPath(context.getPath()));
+            reservoirSnapshot.setAttributes(getAttributes(true));
+            return reservoirSnapshot;
+        } finally {
+            unlockState(reservoir);
+        }
+    }
+
+    @Override
+    public List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
+        AggregatedReservoir reservoir = lockState();
+        try {
+            return augment(reservoir.getSnapshots(start, end, resolution));
+        } finally {
+            unlockState(reservoir);
+        }
+    }
+    
+    @Override
+    public List<AggregatedReservoirSnapshot> getSnapshots() {
+        AggregatedReservoir reservoir = lockState();
+        try {
+            return augment(reservoir.getSnapshots());
+        } finally {
+            unlockState(reservoir);
+        }
+    }
+    
+    /*
+     * Augments the snapshots with path & attributes
+     */
+    private List<AggregatedReservoirSnapshot> augment(List<AggregatedReservoirSnapshot> reservoirSnapshots) {
+        if (!reservoirSnapshots.isEmpty()) {
+            String path = Util.createPath(context.getPath());
+            Map<String, Object> attrs = getAttributes(true);
+            for (AggregatedReservoirSnapshot reservoirSnapshot : reservoirSnapshots) {
+                reservoirSnapshot.setPath(path);
+                reservoirSnapshot.setAttributes(attrs);
+            }
+        }
+        return reservoirSnapshots;
+    }
+
+    /*
+     * Creates a collector whose records look up quantiles while holding the lock of the metric
+     */
+    private ArchiveRecordCollector createArchiveRecordCollector() {
+        return new ArchiveRecordCollector(new ArchiveRecordCollector.Guard() {
+            @Override
+            public void lock() {
+                lockState();
+            }
+            
+            @Override
+            public void unlock() {
+                unlockState(reservoir);
+            }
+        });
+    }
+    
+    @Override
+    public void forEachArchive(ArchiveVisitor visitor) {
+        ArchiveRecordCollector records = createArchiveRecordCollector();
+        AggregatedReservoir reservoir = lockState();
+        try {
+            reservoir.forEachArchive(records);
+        } finally {
+            unlockState(reservoir);
+        }
+        records.visitAll(new AugmentingArchiveVisitor(Util.createPath(context.getPath()), getAttributes(true), visitor));
+    }
+    
+    @Override
+    public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+        ArchiveRecordCollector records = createArchiveRecordCollector();
+        AggregatedReservoir reservoir = lockState();
+        try {
+            reservoir.forEachArchive(start, end, resolution, records);
+        } finally {
+            unlockState(reservoir);
+        }
+        records.visitAll(new AugmentingArchiveVisitor(Util.createPath(context.getPath()), getAttributes(true), visitor));
+    }
+
+}
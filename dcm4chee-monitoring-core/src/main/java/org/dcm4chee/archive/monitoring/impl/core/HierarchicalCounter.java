@@ -39,44 +39,126 @@
 
 package org.dcm4chee.archive.monitoring.impl.core;
 
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoir;
 
 /**
+ * Counter whose count includes the counts of its child counters.
+ * 
+ * Increments and decrements only update the striped adder of the counter itself. The total of a 
+ * counter is computed lazily by summing up its own count and the totals of its children when the 
+ * counter is sampled or read. The total is cached for the time it was computed at, so a sampler tick 
+ * computes the total of every subtree only once. An increment or decrement drops the cached totals of 
+ * the counter and its ancestors.
+ * 
+ * Children are only weakly referenced, the counters of disposed contexts are dropped from the total.
+ * 
+ * A parent counter which is not hierarchical is still updated on every increment and decrement.
+ * 
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
  *
  */
 public class HierarchicalCounter extends CounterImpl {
 	private final Counter parentCounter;
+	private final HierarchicalCounter hierarchicalParent;
+	private final List<WeakReference<HierarchicalCounter>> children = new CopyOnWriteArrayList<>();
+	private volatile CachedTotal cachedTotal;
 	
+	/**
+	 * @param parentCounter Parent counter, may be <code>null</code>
+	 */
 	public HierarchicalCounter(MonitoringContext context, Counter parentCounter, AggregatedReservoir reservoir, Clock clock) {
-		super(context, reservoir, clock);
-		this.parentCounter = parentCounter;
+		super(context, reservoir, clock, true);
+		if (parentCounter instanceof HierarchicalCounter) {
+			this.hierarchicalParent = (HierarchicalCounter)parentCounter;
+			this.parentCounter = null;
+			hierarchicalParent.children.add(new WeakReference<>(this));
+		} else {
+			this.hierarchicalParent = null;
+			this.parentCounter = parentCounter;
+		}
+	}
+	
+	private static class CachedTotal {
+		private final long time;
+		private final long total;
+		
+		private CachedTotal(long time, long total) {
+			this.time = time;
+			this.total = total;
+		}
 	}
 	
 	@Override
 	public void inc() {
-		parentCounter.inc(1);
-		super.inc(1);
+		inc(1);
 	}
 	
 	@Override
 	public void inc(long n) {
-		parentCounter.inc(n);
+		if (parentCounter != null) {
+			parentCounter.inc(n);
+		}
 		super.inc(n);
+		invalidateTotals();
 	}
 
 	@Override
 	public void dec() {
-		parentCounter.dec(1);
-		super.dec(1);
+		dec(1);
 	}
 	
 	@Override
 	public void dec(long n) {
-		parentCounter.dec(n);
+		if (parentCounter != null) {
+			parentCounter.dec(n);
+		}
 		super.dec(n);
+		invalidateTotals();
+	}
+	
+	/*
+	 * Drops the cached totals including the count of this counter, only written if set to keep 
+	 * increments from writing to the shared ancestors
+	 */
+	private void invalidateTotals() {
+		for (HierarchicalCounter counter = this; counter != null; counter = counter.hierarchicalParent) {
+			if (counter.cachedTotal != null) {
+				counter.cachedTotal = null;
+			}
+		}
+	}
+	
+	/**
+	 * @return Returns the count of this counter including the counts of all its descendants
+	 */
+	public long getTotal(long now) {
+		CachedTotal cached = cachedTotal;
+		if (cached != null && cached.time == now) {
+			return cached.total;
+		}
+		
+		long total = getLocalCount();
+		for (WeakReference<HierarchicalCounter> childRef : children) {
+			HierarchicalCounter child = childRef.get();
+			if (child != null) {
+				total += child.getTotal(now);
+			} else {
+				children.remove(childRef);
+			}
+		}
+		cachedTotal = new CachedTotal(now, total);
+		return total;
+	}
+	
+	@Override
+	protected long sampleCount(long now) {
+		return getTotal(now);
 	}
 
 }
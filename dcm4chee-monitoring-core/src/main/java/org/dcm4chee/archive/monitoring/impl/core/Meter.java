@@ -15,6 +15,28 @@ public interface Meter extends Metric, Sampling<AggregatedReservoirSnapshot> {
     
     void mark(long n);
     
+    /**
+     * Marks a batch of occurrences at the current time, the meter is synchronized only once for the whole batch
+     * @param counts Number of occurrences per mark
+     * @param len Number of counts of the array to mark
+     */
+    void markAll(long[] counts, int len);
+    
     List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution);
     
+    /**
+     * @return Returns the exponentially weighted moving average of the marks per second over one minute
+     */
+    double getOneMinuteRate();
+    
+    /**
+     * @return Returns the exponentially weighted moving average of the marks per second over five minutes
+     */
+    double getFiveMinuteRate();
+    
+    /**
+     * @return Returns the exponentially weighted moving average of the marks per second over fifteen minutes
+     */
+    double getFifteenMinuteRate();
+    
 }
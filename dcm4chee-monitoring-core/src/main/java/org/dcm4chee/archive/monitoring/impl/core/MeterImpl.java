@@ -39,6 +39,7 @@
 
 package org.dcm4chee.archive.monitoring.impl.core;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
@@ -47,25 +48,42 @@ import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ConcurrentReservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshotImpl.MEAN_RATE_CALC_METHOD;
+import org.dcm4chee.archive.monitoring.impl.util.LongAdder;
+import org.dcm4chee.archive.monitoring.impl.util.UnitOfTime;
 
 
 /**
+ * The moving average rates are fed from a striped adder and ticked by a {@link MetricSampler}, 
+ * so they do not add any locking to {@link #mark(long)}. Without sampler the rates stay 0.
+ * 
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
  *
  */
-public class MeterImpl extends AbstractMetric implements Meter {
+public class MeterImpl extends AbstractMetric implements Meter, MetricSampler.Sampled {
     private final MonitoringContext context;
     private final Clock clock;
     
     private final MeterImplState state;
     private final AtomicReference<MeterImplState> stateRef;
+    private final boolean concurrentReservoir;
+    
+    // marks not yet ticked into the moving averages
+    private final LongAdder uncounted = new LongAdder();
+    private final EWMA oneMinuteRate = EWMA.oneMinute();
+    private final EWMA fiveMinuteRate = EWMA.fiveMinutes();
+    private final EWMA fifteenMinuteRate = EWMA.fifteenMinutes();
+    private final Object rateLock = new Object();
+    private long lastRateTick;
     
 	public MeterImpl(MonitoringContext context, AggregatedReservoir reservoir, Clock clock) {
 	    this.context = context;
         this.clock = clock;
         this.state = new MeterImplState(reservoir);
         this.stateRef = new AtomicReference<>(state);
+        this.concurrentReservoir = reservoir instanceof ConcurrentReservoir;
+        this.lastRateTick = clock.getTime();
 	}
     
     protected class MeterImplState {
@@ -78,6 +96,10 @@ public class MeterImpl extends AbstractMetric implements Meter {
         protected void update(long now, long n) {
             reservoir.update(context, now, n);
         }
+        
+        protected void updateBatch(long[] times, long[] counts, int len) {
+            reservoir.updateBatch(context, times, counts, len);
+        }
     }
     
     @Override
@@ -88,9 +110,72 @@ public class MeterImpl extends AbstractMetric implements Meter {
     @Override
     public void mark(long n) {
         updateCount(n);
+        uncounted.add(n);
+    }
+    
+    @Override
+    public void markAll(long[] counts, int len) {
+        long total = 0;
+        for (int i = 0; i < len; i++) {
+            total += counts[i];
+        }
+        
+        long[] times = new long[len];
+        if (concurrentReservoir) {
+            Arrays.fill(times, clock.getTime());
+            state.updateBatch(times, counts, len);
+        } else {
+            MeterImplState state = lockState();
+            try {
+                Arrays.fill(times, clock.getTime());
+                state.updateBatch(times, counts, len);
+            } finally {
+                unlockState(state);
+            }
+        }
+        uncounted.add(total);
+    }
+    
+    /**
+     * Ticks the moving averages with the marks since the last tick
+     */
+    @Override
+    public void sample(long now) {
+        synchronized (rateLock) {
+            long interval = now - lastRateTick;
+            if (interval <= 0) {
+                return;
+            }
+            
+            long count = uncounted.sumThenReset();
+            oneMinuteRate.tick(count, interval);
+            fiveMinuteRate.tick(count, interval);
+            fifteenMinuteRate.tick(count, interval);
+            lastRateTick = now;
+        }
+    }
+    
+    @Override
+    public double getOneMinuteRate() {
+        return oneMinuteRate.getRate(UnitOfTime.SECONDS);
+    }
+    
+    @Override
+    public double getFiveMinuteRate() {
+        return fiveMinuteRate.getRate(UnitOfTime.SECONDS);
+    }
+    
+    @Override
+    public double getFifteenMinuteRate() {
+        return fifteenMinuteRate.getRate(UnitOfTime.SECONDS);
     }
     
     private void updateCount(long n) {
+        if (concurrentReservoir) {
+            state.update(clock.getTime(), n);
+            return;
+        }
+        
         MeterImplState state = lockState();
         try {
             long now = clock.getTime();
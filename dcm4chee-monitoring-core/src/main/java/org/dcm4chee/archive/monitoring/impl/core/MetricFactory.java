@@ -45,19 +45,24 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.dcm4chee.archive.monitoring.impl.core.Meter.TYPE;
+import org.dcm4chee.archive.monitoring.impl.core.MetricRegistry.MetricCreator;
 import org.dcm4chee.archive.monitoring.impl.core.aggregate.Aggregate;
 import org.dcm4chee.archive.monitoring.impl.core.aggregate.ForwardOnlyAggregate;
 import org.dcm4chee.archive.monitoring.impl.core.aggregate.SimpleAggregate;
+import org.dcm4chee.archive.monitoring.impl.core.aggregate.StripedSumAggregate;
 import org.dcm4chee.archive.monitoring.impl.core.aggregate.SumAggregate;
 import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContextProvider;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContextTree;
 import org.dcm4chee.archive.monitoring.impl.core.metric.NoCounter;
+import org.dcm4chee.archive.monitoring.impl.core.metric.NoGauge;
 import org.dcm4chee.archive.monitoring.impl.core.metric.NoMeter;
 import org.dcm4chee.archive.monitoring.impl.core.metric.NoSumAggregate;
 import org.dcm4chee.archive.monitoring.impl.core.metric.NoTimer;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ForwardingPipeline;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.ForwardingReservoir;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.MappedArchiveStore.METRIC_TYPE;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.Reservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilderFactory;
 import org.slf4j.Logger;
@@ -77,6 +82,9 @@ public class MetricFactory {
 	private final MonitoringContextProvider cxtProvider;
 	private final Clock clock;
 	private final ReservoirBuilderFactory reservoirFactory;
+	private RecordingBuffer recordingBuffer;
+	private MetricSampler metricSampler;
+	private ForwardingPipeline forwardingPipeline;
 	
 	public MetricFactory(MonitoringContextProvider cxtProvider, MonitoringContextTree metricRegistry, Clock clock, ReservoirBuilderFactory reservoirFactory) {
 		this.cxtProvider = cxtProvider;
@@ -85,40 +93,80 @@ public class MetricFactory {
 		this.reservoirFactory = reservoirFactory;
 	}
 	
+	/**
+	 * Sets the buffer the timers created from now on record their stops to, 
+	 * if <code>null</code> stops are applied to the reservoirs immediately
+	 */
+	public void setRecordingBuffer(RecordingBuffer recordingBuffer) {
+	    this.recordingBuffer = recordingBuffer;
+	}
+	
+	/**
+	 * Sets the sampler recording the values of the sampled counters and ticking the rates of the 
+	 * meters and polling the gauges created from now on, if <code>null</code> counters are only 
+	 * sampled when read and gauges are never recorded
+	 */
+	public void setMetricSampler(MetricSampler metricSampler) {
+	    this.metricSampler = metricSampler;
+	}
+	
+	/**
+	 * Sets the pipeline the metrics created from now on forward their values to the parent 
+	 * aggregates through, if <code>null</code> values are forwarded on the recording thread
+	 */
+	public void setForwardingPipeline(ForwardingPipeline forwardingPipeline) {
+	    this.forwardingPipeline = forwardingPipeline;
+	}
+	
 	public <T extends MonitoredObject> T register(MonitoringContext context, T monitoredObject) throws IllegalArgumentException {
 		return null;
 	}
 	
-	public Aggregate simpleAggregate(MonitoringContext cxt) {
+	public Aggregate simpleAggregate(final MonitoringContext cxt) {
         final Aggregate metric = metricRegistry.getMetric(Aggregate.class, cxt);
         if (metric != null) {
             return metric;
         } else {
-            ForwardingReservoir forwarding = addAttachedContexts(cxt, null);
-            return createAggregateInt(forwarding, cxt, "SIMPLE");
+            return metricRegistry.getOrRegister(Aggregate.class, cxt, new MetricCreator<Aggregate>() {
+                @Override
+                public Aggregate create() {
+                    ForwardingReservoir forwarding = addAttachedContexts(cxt, null);
+                    return createAggregateInt(forwarding, cxt, "SIMPLE");
+                }
+            });
         }
     }
 	
-	public Aggregate simpleAggregateWithForward(MonitoringContext cxt, MonitoringContext forwardCxt) {
+	public Aggregate simpleAggregateWithForward(final MonitoringContext cxt, final MonitoringContext forwardCxt) {
         final Aggregate metric = metricRegistry.getMetric(Aggregate.class, cxt);
         if (metric != null) {
             return metric;
         } else {
-            ForwardingReservoir forwarding = createForward(forwardCxt);
-            forwarding = addAttachedContexts(cxt, forwarding);
-            
-            return createAggregateInt(forwarding, cxt, "SIMPLE");
+            return metricRegistry.getOrRegister(Aggregate.class, cxt, new MetricCreator<Aggregate>() {
+                @Override
+                public Aggregate create() {
+                    ForwardingReservoir forwarding = createForward(forwardCxt);
+                    forwarding = addAttachedContexts(cxt, forwarding);
+                    
+                    return createAggregateInt(forwarding, cxt, "SIMPLE");
+                }
+            });
         }
     }
 	
-	public Aggregate forwardAggregate(MonitoringContext cxt, MonitoringContext forwardCxt) {
+	public Aggregate forwardAggregate(final MonitoringContext cxt, final MonitoringContext forwardCxt) {
 	    final Aggregate metric = metricRegistry.getMetric(Aggregate.class, cxt);
         if (metric != null) {
             return metric;
         } else {
-            ForwardingReservoir forwarding = createForward(forwardCxt);
-            forwarding = addAttachedContexts(cxt, forwarding);
-            return createAggregateInt(forwarding, cxt, "FORWARDING");
+            return metricRegistry.getOrRegister(Aggregate.class, cxt, new MetricCreator<Aggregate>() {
+                @Override
+                public Aggregate create() {
+                    ForwardingReservoir forwarding = createForward(forwardCxt);
+                    forwarding = addAttachedContexts(cxt, forwarding);
+                    return createAggregateInt(forwarding, cxt, "FORWARDING");
+                }
+            });
         }
 	}
 	
@@ -129,14 +177,17 @@ public class MetricFactory {
 	}
 	
 	private boolean createStartupMetric(MonitoringContext cxt, String type) {
-		if( !type.equals("SumAggregate")) {
+		if(type.equals("SumAggregate")) {
+			sumAggregate(cxt);
+		} else if(type.equals("StripedSumAggregate")) {
+			stripedSumAggregate(cxt);
+		} else {
 			LOGGER.error("Unknown metric type {}", type);
 			return false;
-		} else {
-			sumAggregate(cxt);
-			LOGGER.info("Created startup metric {} {}", type, cxt);
-			return true;
 		}
+		
+		LOGGER.info("Created startup metric {} {}", type, cxt);
+		return true;
 	}
 	
 	public void recreateRegisteredStartupMetrics() {
@@ -146,25 +197,54 @@ public class MetricFactory {
 		}
 	}
 	
-	public Aggregate sumAggregate(MonitoringContext monitoringContext) {
+	public Aggregate sumAggregate(final MonitoringContext monitoringContext) {
 		final Aggregate metric = metricRegistry.getMetric(Aggregate.class, monitoringContext);
 		if (metric != null) {
 			return metric;
 		} else {
-		    ForwardingReservoir forwarding = addAttachedContexts(monitoringContext, null);
-			return createAggregateInt(forwarding, monitoringContext, "SUM");
+		    return metricRegistry.getOrRegister(Aggregate.class, monitoringContext, new MetricCreator<Aggregate>() {
+		        @Override
+		        public Aggregate create() {
+		            ForwardingReservoir forwarding = addAttachedContexts(monitoringContext, null);
+		            return createAggregateInt(forwarding, monitoringContext, "SUM");
+		        }
+		    });
 		}
 	}
 	
-	public Aggregate sumAggregateWithForward(MonitoringContext cxt, MonitoringContext forwardCxt) {
+	/**
+	 * Creates a sum aggregate whose updates only add to a striped adder, the running total is 
+	 * recorded periodically and when the aggregate is read instead
+	 */
+	public Aggregate stripedSumAggregate(final MonitoringContext monitoringContext) {
+	    final Aggregate metric = metricRegistry.getMetric(Aggregate.class, monitoringContext);
+	    if (metric != null) {
+	        return metric;
+	    } else {
+	        return metricRegistry.getOrRegister(Aggregate.class, monitoringContext, new MetricCreator<Aggregate>() {
+	            @Override
+	            public Aggregate create() {
+	                ForwardingReservoir forwarding = addAttachedContexts(monitoringContext, null);
+	                return createAggregateInt(forwarding, monitoringContext, "STRIPED_SUM");
+	            }
+	        });
+	    }
+	}
+	
+	public Aggregate sumAggregateWithForward(final MonitoringContext cxt, final MonitoringContext forwardCxt) {
         final Aggregate metric = metricRegistry.getMetric(Aggregate.class, cxt);
         if (metric != null) {
             return metric;
         } else {
-            ForwardingReservoir forwarding = createForward(forwardCxt);
-            forwarding = addAttachedContexts(cxt, forwarding);
-            
-            return createAggregateInt(forwarding, cxt, "SUM");
+            return metricRegistry.getOrRegister(Aggregate.class, cxt, new MetricCreator<Aggregate>() {
+                @Override
+                public Aggregate create() {
+                    ForwardingReservoir forwarding = createForward(forwardCxt);
+                    forwarding = addAttachedContexts(cxt, forwarding);
+                    
+                    return createAggregateInt(forwarding, cxt, "SUM");
+                }
+            });
         }
     }
 	
@@ -172,68 +252,203 @@ public class MetricFactory {
 		return timer(monitoringContext, Timer.TYPE.DEFAULT);
 	}
 	
-	public Timer timerOnlyForward(MonitoringContext cxt, MonitoringContext forwardCxt) {
+	public Timer timerOnlyForward(final MonitoringContext cxt, final MonitoringContext forwardCxt) {
 	    final Timer metric = metricRegistry.getMetric(Timer.class, cxt);
         if (metric != null) {
             return metric;
         } else {
-            ForwardingReservoir forwarding = createForward(forwardCxt);
-            forwarding = addAttachedContexts(cxt, forwarding);
-            
-            Timer t = new ForwardOnlyTimer(cxt, forwarding, clock);
-            metricRegistry.register(cxt, t);
-            return t;
+            return metricRegistry.getOrRegister(Timer.class, cxt, new MetricCreator<Timer>() {
+                @Override
+                public Timer create() {
+                    ForwardingReservoir forwarding = createForward(forwardCxt);
+                    forwarding = addAttachedContexts(cxt, forwarding);
+                    
+                    return new ForwardOnlyTimer(cxt, forwarding, clock);
+                }
+            });
         }
 
 	}
 	
-	public Timer timerWithForward(MonitoringContext cxt, Timer.TYPE type, MonitoringContext forwardCxt) {
+	public Timer timerWithForward(final MonitoringContext cxt, final Timer.TYPE type, final MonitoringContext forwardCxt) {
 	    final Timer metric = metricRegistry.getMetric(Timer.class, cxt);
         if (metric != null) {
             return metric;
         } else {
-            ForwardingReservoir forwarding = createForward(forwardCxt);
-            forwarding = addAttachedContexts(cxt, forwarding);
-            
-            return createTimerInt(forwarding, cxt, type);
+            return metricRegistry.getOrRegister(Timer.class, cxt, new MetricCreator<Timer>() {
+                @Override
+                public Timer create() {
+                    ForwardingReservoir forwarding = createForward(forwardCxt);
+                    forwarding = addAttachedContexts(cxt, forwarding);
+                    
+                    return createTimerInt(forwarding, cxt, type);
+                }
+            });
         }
     }
 	
-	public Timer timer(MonitoringContext monitoringContext, Timer.TYPE type) {
+	public Timer timer(final MonitoringContext monitoringContext, final Timer.TYPE type) {
 		final Timer metric = metricRegistry.getMetric(Timer.class, monitoringContext);
 		if (metric != null) {
 			return metric;
 		} else {
-		    ForwardingReservoir forwarding = addAttachedContexts(monitoringContext, null);
-		    return createTimerInt(forwarding, monitoringContext, type);
+		    return metricRegistry.getOrRegister(Timer.class, monitoringContext, new MetricCreator<Timer>() {
+		        @Override
+		        public Timer create() {
+		            ForwardingReservoir forwarding = addAttachedContexts(monitoringContext, null);
+		            return createTimerInt(forwarding, monitoringContext, type);
+		        }
+		    });
 		}
 	}
 	
-	public Counter counter(MonitoringContext monitoringContext, Counter.TYPE type) {
+	/**
+	 * Creates a timer measuring the CPU time besides the wall-clock time of every 
+	 * {@link CpuTimerImpl#DEFAULT_CPU_SAMPLE_RATE}-th split on average
+	 * 
+	 * @return Returns a {@link CpuTimer} if the context is enabled
+	 */
+	public Timer cpuTimer(MonitoringContext monitoringContext, Timer.TYPE type) {
+	    return cpuTimer(monitoringContext, type, CpuTimerImpl.DEFAULT_CPU_SAMPLE_RATE);
+	}
+	
+	/**
+	 * @param cpuSampleRate Every n-th split on average measures the CPU time, 1 measures all splits
+	 * @return Returns a {@link CpuTimer} if the context is enabled
+	 */
+	public Timer cpuTimer(final MonitoringContext monitoringContext, final Timer.TYPE type, final int cpuSampleRate) {
+	    final Timer metric = metricRegistry.getMetric(Timer.class, monitoringContext);
+	    if (metric != null) {
+	        return metric;
+	    }
+	    
+	    return metricRegistry.getOrRegister(Timer.class, monitoringContext, new MetricCreator<Timer>() {
+	        @Override
+	        public Timer create() {
+	            if (!monitoringContext.isEnabled()) {
+	                return NoTimer.INSTANCE;
+	            }
+	            
+	            String[] path = monitoringContext.getPath();
+	            return new CpuTimerImpl(monitoringContext, 
+	                    reservoirFactory.createTimerReservoirContainer(type, METRIC_TYPE.TIMER, path), 
+	                    reservoirFactory.createTimerReservoirContainer(type, METRIC_TYPE.CPU_TIMER, path),
+	                    reservoirFactory.createTimerReservoirContainer(type, METRIC_TYPE.WAIT_TIMER, path),
+	                    clock, addAttachedContexts(monitoringContext, null), cpuSampleRate);
+	        }
+	    });
+	}
+	
+	public Counter counter(final MonitoringContext monitoringContext, final Counter.TYPE type) {
         final Counter counter = metricRegistry.getMetric(Counter.class, monitoringContext);
         if (counter != null) {
             return counter;
         } else {
-            Counter parentTimer = null; //metricRegistry.getParentMetric(Counter.class, monitoringContext);
-            return createCounterInt(parentTimer, monitoringContext, type);
+            return metricRegistry.getOrRegister(Counter.class, monitoringContext, new MetricCreator<Counter>() {
+                @Override
+                public Counter create() {
+                    Counter parentTimer = null; //metricRegistry.getParentMetric(Counter.class, monitoringContext);
+                    return createCounterInt(parentTimer, monitoringContext, type, false);
+                }
+            });
         }
     }
 	
-	public Meter meter(MonitoringContext monitoringContext, TYPE meterCfg) {
+	/**
+	 * Creates a counter whose increments and decrements do not update the reservoir, 
+	 * the count is recorded periodically and when the counter is read instead
+	 */
+	public Counter sampledCounter(final MonitoringContext monitoringContext, final Counter.TYPE type) {
+	    final Counter counter = metricRegistry.getMetric(Counter.class, monitoringContext);
+	    if (counter != null) {
+	        return counter;
+	    } else {
+	        return metricRegistry.getOrRegister(Counter.class, monitoringContext, new MetricCreator<Counter>() {
+	            @Override
+	            public Counter create() {
+	                return createCounterInt(null, monitoringContext, type, true);
+	            }
+	        });
+	    }
+	}
+	
+	/**
+	 * Creates a counter whose count includes the counts of the hierarchical counters of its 
+	 * sub-contexts. The count of the next counter up the context hierarchy includes the count of 
+	 * the created counter. Increments only update the created counter, the totals are computed 
+	 * when the counters are sampled or read.
+	 */
+	public Counter hierarchicalCounter(final MonitoringContext monitoringContext, final Counter.TYPE type) {
+	    final Counter counter = metricRegistry.getMetric(Counter.class, monitoringContext);
+	    if (counter != null) {
+	        return counter;
+	    }
+	    
+	    return metricRegistry.getOrRegister(Counter.class, monitoringContext, new MetricCreator<Counter>() {
+	        @Override
+	        public Counter create() {
+	            if (!monitoringContext.isEnabled()) {
+	                return NoCounter.INSTANCE;
+	            }
+	            
+	            HierarchicalCounter hierarchicalCounter = new HierarchicalCounter(monitoringContext, 
+	                    metricRegistry.getParentMetric(Counter.class, monitoringContext),
+	                    reservoirFactory.createCounterReservoirContainer(type, monitoringContext.getPath()), clock);
+	            if (metricSampler != null) {
+	                metricSampler.register(hierarchicalCounter);
+	            }
+	            return hierarchicalCounter;
+	        }
+	    });
+	}
+	
+	public Meter meter(final MonitoringContext monitoringContext, final TYPE meterCfg) {
         final Meter meter = metricRegistry.getMetric(Meter.class, monitoringContext);
         if (meter != null) {
             return meter;
         } else {
-            return createMeterInt(monitoringContext, meterCfg);
+            return metricRegistry.getOrRegister(Meter.class, monitoringContext, new MetricCreator<Meter>() {
+                @Override
+                public Meter create() {
+                    return createMeterInt(monitoringContext, meterCfg);
+                }
+            });
         }
     }
 	
+	/**
+	 * Creates a gauge recording the value of the supplier at the step of its reservoir, 
+	 * gauges of the same step are polled in the same batch by the sampler thread
+	 */
+	public Gauge gauge(final MonitoringContext monitoringContext, final Gauge.ValueSupplier supplier) {
+	    final Gauge gauge = metricRegistry.getMetric(Gauge.class, monitoringContext);
+	    if (gauge != null) {
+	        return gauge;
+	    }
+	    
+	    return metricRegistry.getOrRegister(Gauge.class, monitoringContext, new MetricCreator<Gauge>() {
+	        @Override
+	        public Gauge create() {
+	            if (!monitoringContext.isEnabled()) {
+	                return NoGauge.INSTANCE;
+	            }
+	            
+	            GaugeImpl gaugeImpl = new GaugeImpl(monitoringContext, 
+	                    reservoirFactory.createGaugeReservoirContainer(monitoringContext.getPath()), supplier);
+	            if (metricSampler != null) {
+	                metricSampler.register(gaugeImpl, reservoirFactory.getGaugeSampleStep());
+	            }
+	            return gaugeImpl;
+	        }
+	    });
+	}
+	
     private ForwardingReservoir createForward(MonitoringContext forwardCxt) {
         Aggregate forwardAggregate = metricRegistry.getAggregate(forwardCxt);
 
         ForwardingReservoir forwarding = null;
         if (forwardAggregate != null) {
-            forwarding = new ForwardingReservoir();
+            forwarding = new ForwardingReservoir(forwardingPipeline);
             forwarding.addReservoir(forwardAggregate);
         }
 
@@ -245,7 +460,7 @@ public class MetricFactory {
         List<MonitoringContext> attachedContexts = cxt.getAttachedContexts();
         if (!attachedContexts.isEmpty()) {
             if (forwarding == null) {
-                forwarding = new ForwardingReservoir();
+                forwarding = new ForwardingReservoir(forwardingPipeline);
             }
 
             for (MonitoringContext attachedContext : attachedContexts) {
@@ -264,11 +479,23 @@ public class MetricFactory {
             aggregate = NoSumAggregate.INSTANCE;
         } else {
             if("SUM".equals(type)) {
-                aggregate = new SumAggregate(context.getPath(), forwardReservoir,
-                        reservoirFactory.createAggregateReservoirContainer());
+                SumAggregate sumAggregate = new SumAggregate(context.getPath(), forwardReservoir,
+                        reservoirFactory.createAggregateReservoirContainer(METRIC_TYPE.SUM_AGGREGATE, context.getPath()));
+                sumAggregate.setForwardingPipeline(forwardingPipeline);
+                aggregate = sumAggregate;
             } else if("SIMPLE".equals(type)) {
-                aggregate = new SimpleAggregate(context.getPath(), forwardReservoir,
-                        reservoirFactory.createAggregateReservoirContainer());
+                SimpleAggregate simpleAggregate = new SimpleAggregate(context.getPath(), forwardReservoir,
+                        reservoirFactory.createAggregateReservoirContainer(METRIC_TYPE.SIMPLE_AGGREGATE, context.getPath()));
+                simpleAggregate.setForwardingPipeline(forwardingPipeline);
+                aggregate = simpleAggregate;
+            } else if("STRIPED_SUM".equals(type)) {
+                StripedSumAggregate stripedAggregate = new StripedSumAggregate(context, forwardReservoir,
+                        reservoirFactory.createAggregateReservoirContainer(METRIC_TYPE.SUM_AGGREGATE, context.getPath()), clock);
+                stripedAggregate.setForwardingPipeline(forwardingPipeline);
+                if (metricSampler != null) {
+                    metricSampler.register(stripedAggregate);
+                }
+                aggregate = stripedAggregate;
             } else if("FORWARDING".equals(type)) {
                     aggregate = new ForwardOnlyAggregate(context.getPath(), forwardReservoir);
             } else {
@@ -276,8 +503,6 @@ public class MetricFactory {
             }
         }
         
-        metricRegistry.register(context, aggregate);
-        
         return aggregate;
 	}
 	
@@ -286,41 +511,57 @@ public class MetricFactory {
 	    if(!context.isEnabled()) {
 	        timer = NoTimer.INSTANCE;
 	    } else {
-            if (forwardReservoir != null) {
-                timer = new ForwardingTimerImpl(context,
-                        reservoirFactory.createTimerReservoirContainer(type),
-                        clock, forwardReservoir);
+            if (type == Timer.TYPE.ONE_SHOT && reservoirFactory.isOneValueReservoir(type.toString())) {
+                // flyweight instead of a one-value reservoir per instance
+                timer = new OneShotTimer(context, forwardReservoir, clock);
             } else {
-                timer = new TimerImpl(context,
-                        reservoirFactory.createTimerReservoirContainer(type),
-                        clock);
+                TimerImpl timerImpl;
+                if (forwardReservoir != null) {
+                    timerImpl = new ForwardingTimerImpl(context,
+                            reservoirFactory.createTimerReservoirContainer(type, context.getPath()),
+                            clock, forwardReservoir);
+                } else {
+                    timerImpl = new TimerImpl(context,
+                            reservoirFactory.createTimerReservoirContainer(type, context.getPath()),
+                            clock);
+                }
+                timerImpl.setRecordingBuffer(recordingBuffer);
+                timer = timerImpl;
             }
 	        
 	    }
 	  
-		metricRegistry.register(context, timer);
-		
 		return timer;
 	}
 	
-	private Counter createCounterInt(Counter parentCounter, MonitoringContext context, Counter.TYPE type) {
+	private Counter createCounterInt(Counter parentCounter, MonitoringContext context, Counter.TYPE type, boolean sampled) {
         Counter counter = null;
         if(!context.isEnabled()) {
             counter = NoCounter.INSTANCE;
         } else {
             if (parentCounter != null) {
-                counter = new HierarchicalCounter(context, parentCounter,
-                        reservoirFactory.createCounterReservoirContainer(type),
+                HierarchicalCounter hierarchicalCounter = new HierarchicalCounter(context, parentCounter,
+                        reservoirFactory.createCounterReservoirContainer(type, context.getPath()),
                         clock);
+                if (metricSampler != null) {
+                    metricSampler.register(hierarchicalCounter);
+                }
+                counter = hierarchicalCounter;
+            } else if (sampled) {
+                CounterImpl sampledCounter = new CounterImpl(context,
+                        reservoirFactory.createCounterReservoirContainer(type, context.getPath()),
+                        clock, true);
+                if (metricSampler != null) {
+                    metricSampler.register(sampledCounter);
+                }
+                counter = sampledCounter;
             } else {
                 counter = new CounterImpl(context,
-                        reservoirFactory.createCounterReservoirContainer(type),
+                        reservoirFactory.createCounterReservoirContainer(type, context.getPath()),
                         clock);
             }
         }
         
-        metricRegistry.register(context, counter);
-        
         return counter;
     }
 	
@@ -329,10 +570,13 @@ public class MetricFactory {
 	    if(!context.isEnabled()) {
 	        meter = NoMeter.INSTANCE;
 	    } else {
-	        meter = new MeterImpl(context, reservoirFactory.createMeterReservoirContainer(type), clock);
+	        MeterImpl meterImpl = new MeterImpl(context, reservoirFactory.createMeterReservoirContainer(type, context.getPath()), clock);
+	        if (metricSampler != null) {
+	            metricSampler.register(meterImpl);
+	        }
+	        meter = meterImpl;
 	    }
 
-        metricRegistry.register(context, meter);
         return meter;
     }
 	
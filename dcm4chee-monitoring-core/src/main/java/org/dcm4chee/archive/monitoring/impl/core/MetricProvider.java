@@ -52,7 +52,10 @@ import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContextProvider;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContextTree;
 import org.dcm4chee.archive.monitoring.impl.core.context.NodeEnabledProvider;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ForwardingPipeline;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.MappedArchiveStore;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilderFactory;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.RolloverTicker;
 
 /**
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
@@ -61,6 +64,10 @@ import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilderFacto
 public class MetricProvider implements NodeEnabledProvider {
 	private Clock clock;
 	private ReservoirBuilderFactory reservoirFactory;
+	private RolloverTicker rolloverTicker;
+	private RecordingBuffer recordingBuffer;
+	private MetricSampler metricSampler;
+	private ForwardingPipeline forwardingPipeline;
 	private MetricFactory metricFactory;
 	private MonitoringContextTree metricRegistry;
 	private Map<PathContainer,NodeConfiguration> initialNodeConfigurationMap;
@@ -95,6 +102,68 @@ public class MetricProvider implements NodeEnabledProvider {
 		this.reservoirFactory = reservoirFactory;
 	}
 	
+	/**
+	 * Sets the ticker moving on the archives of the round-robin reservoirs of the metrics, 
+	 * it is started by {@link #init()} and stopped by {@link #shutdown()}
+	 */
+	public void setRolloverTicker(RolloverTicker rolloverTicker) {
+	    this.rolloverTicker = rolloverTicker;
+	}
+	
+	public RolloverTicker getRolloverTicker() {
+	    return rolloverTicker;
+	}
+	
+	/**
+	 * Sets the buffer the timers record their stops to, it is started by {@link #init()} 
+	 * and stopped by {@link #shutdown()}. If not set, stops are applied immediately.
+	 */
+	public void setRecordingBuffer(RecordingBuffer recordingBuffer) {
+	    this.recordingBuffer = recordingBuffer;
+	}
+	
+	public RecordingBuffer getRecordingBuffer() {
+	    return recordingBuffer;
+	}
+	
+	/**
+	 * Sets the sampler recording the values of sampled metrics, it is started by {@link #init()} 
+	 * and stopped by {@link #shutdown()}. If not set, sampled metrics are only sampled when read.
+	 */
+	public void setMetricSampler(MetricSampler metricSampler) {
+	    this.metricSampler = metricSampler;
+	}
+	
+	public MetricSampler getMetricSampler() {
+	    return metricSampler;
+	}
+	
+	/**
+	 * Sets the pipeline forwarding values to the parent aggregates asynchronously, it is started by 
+	 * {@link #init()} and stopped by {@link #shutdown()}. If not set, values are forwarded on the 
+	 * recording thread.
+	 */
+	public void setForwardingPipeline(ForwardingPipeline forwardingPipeline) {
+	    this.forwardingPipeline = forwardingPipeline;
+	}
+	
+	public ForwardingPipeline getForwardingPipeline() {
+	    return forwardingPipeline;
+	}
+	
+	/**
+	 * Applies the buffered stops of all timers to their reservoirs and the pending forwarded 
+	 * values to the parent aggregates
+	 */
+	public void flushRecordings() {
+	    if (recordingBuffer != null) {
+	        recordingBuffer.flush();
+	    }
+	    if (forwardingPipeline != null) {
+	        forwardingPipeline.flush();
+	    }
+	}
+	
 	public void setInitialNodeConfigurations(boolean globalEnabled, List<NodeConfiguration> initialNodeConfigurations) {
 	    initialNodeConfigurationMap = new HashMap<>();
         for(NodeConfiguration cfg : initialNodeConfigurations) {
@@ -114,6 +183,42 @@ public class MetricProvider implements NodeEnabledProvider {
 	public void init() {
 		metricRegistry = new MonitoringContextTree(clock, this, globalEnabled);
 		metricFactory = new MetricFactory(metricRegistry.getMonitoringContextProvider(), metricRegistry, clock, reservoirFactory);
+		metricFactory.setRecordingBuffer(recordingBuffer);
+		metricFactory.setMetricSampler(metricSampler);
+		metricFactory.setForwardingPipeline(forwardingPipeline);
+		if (rolloverTicker != null) {
+		    rolloverTicker.start();
+		}
+		if (recordingBuffer != null) {
+		    recordingBuffer.start();
+		}
+		if (metricSampler != null) {
+		    metricSampler.start();
+		}
+		if (forwardingPipeline != null) {
+		    forwardingPipeline.start();
+		}
+	}
+	
+	public void shutdown() {
+	    if (rolloverTicker != null) {
+	        rolloverTicker.stop();
+	    }
+	    if (recordingBuffer != null) {
+	        recordingBuffer.stop();
+	    }
+	    if (metricSampler != null) {
+	        metricSampler.stop();
+	    }
+	    // stopped after the recording buffer, as stopping the recording buffer forwards the flushed values
+	    if (forwardingPipeline != null) {
+	        forwardingPipeline.stop();
+	    }
+	    // closed last, once all pending values were applied to the persisted archives
+	    MappedArchiveStore archiveStore = (reservoirFactory != null) ? reservoirFactory.getArchiveStore() : null;
+	    if (archiveStore != null) {
+	        archiveStore.close();
+	    }
 	}
 	
 	public void setGlobalEnable(boolean globalEnable) {
@@ -50,6 +50,15 @@ import org.dcm4chee.archive.monitoring.impl.util.UnitOfTime;
  *
  */
 public interface MetricRegistry {
+    
+    /**
+     * Creates a metric that is not registered yet
+     */
+    interface MetricCreator<T extends Metric> {
+        
+        T create();
+        
+    }
 
     <T extends Metric> T getParentMetric(Class<T> metricType, MonitoringContext monitoringContext);
 
@@ -62,6 +71,13 @@ public interface MetricRegistry {
     Metric consumeMetric(MetricFilter filter, MonitoringContext context);
 
     <T extends Metric> T register(MonitoringContext monitoringContext, T metric);
+    
+    /**
+     * Returns the metric of the context if it is of the given type, otherwise a metric is created 
+     * by the creator and registered. Concurrent callers for the same context share the metric 
+     * created by the first caller, the creator is called at most once per registration.
+     */
+    <T extends Metric> T getOrRegister(Class<T> metricType, MonitoringContext monitoringContext, MetricCreator<T> creator);
 
     void setConsumedMetricTimeout(long timeout, UnitOfTime timeUnit);
 
@@ -0,0 +1,219 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.archive.monitoring.impl.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.TreeMap;
+
+import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared scheduler periodically recording the current value of sampled metrics to their 
+ * reservoirs, so the metrics do not need to update their reservoirs on every change.
+ * 
+ * Metrics may be registered with their own period, e.g. gauges with the step of their reservoir. 
+ * Metrics of the same period are sampled together by one task of the sampler thread.
+ * 
+ * Metrics are only weakly referenced, the metrics of disposed contexts are dropped.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class MetricSampler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricSampler.class);
+    
+    public static final long DEFAULT_SAMPLE_PERIOD = 1000;
+    
+    /**
+     * Metric recording its current value when sampled
+     */
+    public interface Sampled {
+        void sample(long now);
+    }
+    
+    private final Clock clock;
+    private final long samplePeriod;
+    // sampled metrics by period
+    private final Map<Long,List<WeakReference<Sampled>>> sampled = new TreeMap<>();
+    
+    private java.util.Timer timer;
+    
+    public MetricSampler(Clock clock) {
+        this(clock, DEFAULT_SAMPLE_PERIOD);
+    }
+    
+    /**
+     * @param samplePeriod Period of the samples in milliseconds
+     */
+    public MetricSampler(Clock clock, long samplePeriod) {
+        if (samplePeriod <= 0) {
+            throw new IllegalArgumentException("Sample period must be greater 0");
+        }
+        
+        this.clock = clock;
+        this.samplePeriod = samplePeriod;
+    }
+    
+    /**
+     * Starts sampling in a daemon thread
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        
+        timer = new java.util.Timer("MonitoringMetricSampler", true);
+        for (long period : sampled.keySet()) {
+            schedule(period);
+        }
+    }
+    
+    private void schedule(final long period) {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    sample(period);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error while sampling metrics", e);
+                }
+            }
+        }, period, period);
+    }
+    
+    /**
+     * Stops sampling, the metrics are sampled when read from then on
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+    
+    /**
+     * Registers the metric to be sampled with the default sample period
+     */
+    public void register(Sampled metric) {
+        register(metric, samplePeriod);
+    }
+    
+    /**
+     * Registers the metric to be sampled with the given period
+     * 
+     * @param period Period of the samples in milliseconds, the default sample period is used if <= 0
+     */
+    public synchronized void register(Sampled metric, long period) {
+        if (period <= 0) {
+            period = samplePeriod;
+        }
+        
+        List<WeakReference<Sampled>> metrics = sampled.get(period);
+        if (metrics == null) {
+            metrics = new ArrayList<>();
+            sampled.put(period, metrics);
+            if (timer != null) {
+                schedule(period);
+            }
+        }
+        metrics.add(new WeakReference<>(metric));
+    }
+    
+    /**
+     * Samples all registered metrics
+     */
+    public void sample() {
+        List<Long> periods;
+        synchronized (this) {
+            periods = new ArrayList<>(sampled.keySet());
+        }
+        
+        for (long period : periods) {
+            sample(period);
+        }
+    }
+    
+    /**
+     * Samples the metrics registered with the given period
+     */
+    public void sample(long period) {
+        List<Sampled> metrics = new ArrayList<>();
+        synchronized (this) {
+            List<WeakReference<Sampled>> registered = sampled.get(period);
+            if (registered == null) {
+                return;
+            }
+            
+            Iterator<WeakReference<Sampled>> refs = registered.iterator();
+            while (refs.hasNext()) {
+                Sampled metric = refs.next().get();
+                if (metric != null) {
+                    metrics.add(metric);
+                } else {
+                    refs.remove();
+                }
+            }
+        }
+        
+        long now = clock.getTime();
+        for (Sampled metric : metrics) {
+            try {
+                metric.sample(now);
+            } catch (RuntimeException e) {
+                // a failing gauge supplier must not keep the other metrics from being sampled
+                LOGGER.warn("Error while sampling metric " + metric, e);
+            }
+        }
+    }
+    
+    /**
+     * @return Returns the default sample period
+     */
+    public long getSamplePeriod() {
+        return samplePeriod;
+    }
+
+}
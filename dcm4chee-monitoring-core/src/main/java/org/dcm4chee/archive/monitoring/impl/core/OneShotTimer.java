@@ -0,0 +1,231 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
+import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshotImpl;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveRecord;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AugmentingArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.Reservoir;
+
+/**
+ * Flyweight timer measuring a single call (e.g. a service or statement instance). 
+ * 
+ * Instead of a reservoir the timer only keeps the start and the duration, the timer is its own
+ * split so timing does not allocate. The snapshots equal the ones of a timer backed by a
+ * {@link org.dcm4chee.archive.monitoring.impl.core.reservoir.OneValueReservoir} which was
+ * updated once. Only the first measurement is kept, further ones are only forwarded.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class OneShotTimer implements Timer, Timer.Split {
+    private final MonitoringContext context;
+    private final Reservoir forwardReservoir;
+    private final Clock clock;
+    // creation time, start of the snapshot
+    private final long created;
+    
+    private long startTick;
+    private long stopTime = Long.MIN_VALUE;
+    private long duration = Long.MIN_VALUE;
+    
+    private Map<String, Object> attributes = Collections.emptyMap();
+    
+    /**
+     * @param forwardReservoir Reservoir the measurement is forwarded to, may be <code>null</code>
+     */
+    public OneShotTimer(MonitoringContext context, Reservoir forwardReservoir, Clock clock) {
+        this.context = context;
+        this.forwardReservoir = forwardReservoir;
+        this.clock = clock;
+        this.created = clock.getTime();
+    }
+    
+    @Override
+    public Split time() {
+        long tick = clock.getTick();
+        synchronized (this) {
+            startTick = tick;
+        }
+        return this;
+    }
+    
+    @Override
+    public long stop() {
+        long now = clock.getTime();
+        long elapsed;
+        synchronized (this) {
+            elapsed = clock.getTick() - startTick;
+        }
+        
+        record(elapsed, now);
+        return elapsed;
+    }
+    
+    @Override
+    public long startNanos() {
+        return clock.getTick();
+    }
+    
+    @Override
+    public long stopNanos(long startNanos) {
+        long now = clock.getTime();
+        long elapsed = clock.getTick() - startNanos;
+        record(elapsed, now);
+        return elapsed;
+    }
+    
+    /**
+     * The first non-negative duration is the measurement, all durations are forwarded
+     */
+    @Override
+    public void recordAll(long[] durations, int len) {
+        long now = clock.getTime();
+        for (int i = 0; i < len; i++) {
+            record(durations[i], now);
+        }
+    }
+    
+    private void record(long elapsed, long now) {
+        synchronized (this) {
+            if (elapsed >= 0 && stopTime == Long.MIN_VALUE) {
+                stopTime = now;
+                duration = elapsed;
+            }
+        }
+        
+        if (forwardReservoir != null) {
+            forwardReservoir.update(context, now, elapsed);
+        }
+    }
+    
+    @Override
+    public void close() {
+        stop();
+    }
+    
+    @Override
+    public AggregatedReservoirSnapshot getSnapshot() {
+        AggregatedReservoirSnapshotImpl snapshot = new AggregatedReservoirSnapshotImpl();
+        synchronized (this) {
+            boolean stopped = stopTime != Long.MIN_VALUE;
+            snapshot.setStart(created);
+            snapshot.setEnd(clock.getTime());
+            snapshot.setLastValue(duration);
+            snapshot.setSum(duration);
+            snapshot.setFirstUsageTimestamp(stopTime);
+            snapshot.setLastUsageTimestamp(stopTime);
+            snapshot.setMinTimestamp(stopTime);
+            snapshot.setMaxTimestamp(stopTime);
+            snapshot.setMax(duration);
+            snapshot.setMin(stopped ? duration : Long.MAX_VALUE);
+            snapshot.setSize(stopped ? 1 : 0);
+            snapshot.setMean(stopped ? duration : Double.NaN);
+            snapshot.setStdDev(Double.NaN);
+        }
+        snapshot.setPath(Util.createPath(context.getPath()));
+        snapshot.setAttributes(getAttributes(true));
+        return snapshot;
+    }
+    
+    @Override
+    public List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
+        return Collections.emptyList();
+    }
+    
+    @Override
+    public List<AggregatedReservoirSnapshot> getSnapshots() {
+        return Collections.singletonList(getSnapshot());
+    }
+    
+    @Override
+    public void forEachArchive(ArchiveVisitor visitor) {
+        ArchiveRecord.forEach(getSnapshots(), new AugmentingArchiveVisitor(Util.createPath(context.getPath()), getAttributes(true), visitor));
+    }
+    
+    @Override
+    public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+        // NOOP, there are no archives of fixed resolution
+    }
+    
+    @Override
+    public synchronized void setAttribute(String name, Object value) {
+        if (attributes == Collections.<String,Object>emptyMap()) {
+            attributes = new HashMap<String, Object>();
+        }
+        attributes.put(name, value);
+    }
+    
+    @Override
+    public synchronized void setAttributes(Map<String, Object> attributes) {
+        this.attributes = attributes;
+    }
+    
+    @Override
+    public synchronized Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+    
+    @Override
+    public synchronized Map<String, Object> getAttributes(boolean copy) {
+        return copy ? new HashMap<>(attributes) : Collections.<String,Object>unmodifiableMap(attributes);
+    }
+    
+    @Override
+    public synchronized void removeAttribute(String name) {
+        if (attributes != Collections.<String,Object>emptyMap()) {
+            attributes.remove(name);
+        }
+    }
+    
+    public String toString() {
+        return String.format("OneShotTimer(%s)", context);
+    }
+
+}
@@ -0,0 +1,437 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.archive.monitoring.impl.core;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers the stops of timers in thread-local primitive buffers instead of updating the 
+ * reservoirs of the timers on every stop.
+ * 
+ * Appending to the buffer of a thread does not lock, the owner thread publishes the size of the 
+ * buffer to the flushing thread. If the buffer of a thread is full, it is handed off to the daemon 
+ * thread which is asked to flush immediately, while the owner thread goes on with a spare buffer. 
+ * Recording threads therefore never apply values themselves, unless the daemon thread is not started.
+ * 
+ * The buffers are drained into the reservoirs in batches: by the daemon thread, periodically or when 
+ * a buffer was handed off, and before the snapshots of a timer are read. A flush always drains the 
+ * buffers of all threads and merges them by time, so the values reach every reservoir (including the 
+ * forward reservoirs) in the order they were recorded. Otherwise values older than the values already 
+ * applied by another thread would be skipped by the reservoirs. Consecutive values of the same timer 
+ * are applied under a single lock of the timer.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class RecordingBuffer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordingBuffer.class);
+    
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_FLUSH_PERIOD = 1000;
+    
+    private final int capacity;
+    private final long flushPeriod;
+    private final List<ThreadBuffer> buffers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ThreadBuffer> localBuffer = new ThreadLocal<ThreadBuffer>() {
+        @Override
+        protected ThreadBuffer initialValue() {
+            ThreadBuffer buffer = new ThreadBuffer(Thread.currentThread(), capacity);
+            buffers.add(buffer);
+            return buffer;
+        }
+    };
+    
+    // merge state, guarded by flushLock
+    private final Object flushLock = new Object();
+    private ThreadBuffer[] heap = new ThreadBuffer[8];
+    private TimerImpl[] mergedTimers = new TimerImpl[0];
+    private long[] mergedTimes = new long[0];
+    private long[] mergedValues = new long[0];
+    
+    private volatile java.util.Timer timer;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    
+    public RecordingBuffer() {
+        this(DEFAULT_CAPACITY, DEFAULT_FLUSH_PERIOD);
+    }
+    
+    /**
+     * @param capacity Number of stops buffered per thread before the buffers are flushed
+     * @param flushPeriod Period in milliseconds of the flushes by the daemon thread
+     */
+    public RecordingBuffer(int capacity, long flushPeriod) {
+        if (capacity <= 0 || flushPeriod <= 0) {
+            throw new IllegalArgumentException("Capacity and flush period must be greater 0");
+        }
+        
+        this.capacity = capacity;
+        this.flushPeriod = flushPeriod;
+    }
+    
+    /**
+     * Starts flushing periodically in a daemon thread
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        
+        timer = new java.util.Timer("MonitoringRecordingFlush", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error while flushing recorded timer values", e);
+                }
+            }
+        }, flushPeriod, flushPeriod);
+    }
+    
+    /**
+     * Stops flushing periodically and flushes the buffered values a last time
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        
+        flush();
+    }
+    
+    /**
+     * Appends the stop of the timer to the buffer of the current thread
+     */
+    public void record(TimerImpl timer, long now, long duration) {
+        ThreadBuffer buffer = localBuffer.get();
+        if (buffer.isFull()) {
+            buffer.handOff();
+            requestFlush();
+        }
+        buffer.append(timer, now, duration);
+    }
+    
+    /*
+     * Asks the daemon thread to flush as soon as possible, 
+     * flushes on the calling thread if the daemon thread is not started
+     */
+    private void requestFlush() {
+        java.util.Timer daemon = timer;
+        if (daemon == null) {
+            flush();
+            return;
+        }
+        
+        if (flushRequested.compareAndSet(false, true)) {
+            try {
+                daemon.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        flushRequested.set(false);
+                        try {
+                            flush();
+                        } catch (RuntimeException e) {
+                            LOGGER.error("Error while flushing recorded timer values", e);
+                        }
+                    }
+                }, 0);
+            } catch (IllegalStateException e) {
+                // stopped concurrently, the stop flushes
+                flushRequested.set(false);
+            }
+        }
+    }
+    
+    /**
+     * Drains the buffers of all threads into the reservoirs of the timers
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            int heapSize = 0;
+            int total = 0;
+            for (ThreadBuffer buffer : buffers) {
+                int size = buffer.drain();
+                if (size > 0) {
+                    if (heapSize == heap.length) {
+                        heap = Arrays.copyOf(heap, heapSize * 2);
+                    }
+                    heap[heapSize++] = buffer;
+                    total += size;
+                } else if (buffer.isOwnerDead()) {
+                    buffers.remove(buffer);
+                }
+            }
+            
+            if (total == 0) {
+                return;
+            }
+            
+            merge(heapSize, total);
+            apply(total);
+        }
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public long getFlushPeriod() {
+        return flushPeriod;
+    }
+    
+    /*
+     * K-way merge of the drained buffers by time, the order within a buffer is kept
+     */
+    private void merge(int heapSize, int total) {
+        if (mergedTimes.length < total) {
+            int length = Math.max(total, mergedTimes.length * 2);
+            mergedTimers = new TimerImpl[length];
+            mergedTimes = new long[length];
+            mergedValues = new long[length];
+        }
+        
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i, heapSize);
+        }
+        
+        for (int i = 0; i < total; i++) {
+            ThreadBuffer buffer = heap[0];
+            int pos = buffer.drainedPos++;
+            mergedTimers[i] = buffer.drainedTimers[pos];
+            mergedTimes[i] = buffer.drainedTimes[pos];
+            mergedValues[i] = buffer.drainedValues[pos];
+            buffer.drainedTimers[pos] = null;
+            
+            if (buffer.drainedPos == buffer.drainedSize) {
+                heap[0] = heap[--heapSize];
+                heap[heapSize] = null;
+            }
+            siftDown(0, heapSize);
+        }
+    }
+    
+    private void siftDown(int i, int heapSize) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                return;
+            }
+            if (child + 1 < heapSize && heap[child + 1].headTime() < heap[child].headTime()) {
+                child++;
+            }
+            if (heap[i].headTime() <= heap[child].headTime()) {
+                return;
+            }
+            ThreadBuffer tmp = heap[i];
+            heap[i] = heap[child];
+            heap[child] = tmp;
+            i = child;
+        }
+    }
+    
+    /*
+     * Applies runs of values of the same timer at once
+     */
+    private void apply(int total) {
+        int from = 0;
+        while (from < total) {
+            TimerImpl timer = mergedTimers[from];
+            int to = from + 1;
+            while (to < total && mergedTimers[to] == timer) {
+                to++;
+            }
+            
+            try {
+                timer.applyStops(mergedTimes, mergedValues, from, to);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error while applying recorded values to {}", timer, e);
+            }
+            
+            Arrays.fill(mergedTimers, from, to, null);
+            from = to;
+        }
+    }
+    
+    /*
+     * Fixed-size array of stops, filled by the owner thread which publishes the size 
+     * with a lazy set after every stop
+     */
+    private static class Chunk {
+        private static final AtomicIntegerFieldUpdater<Chunk> SIZE = AtomicIntegerFieldUpdater.newUpdater(Chunk.class, "size");
+        
+        private final TimerImpl[] timers;
+        private final long[] times;
+        private final long[] values;
+        private volatile int size;
+        
+        private Chunk(int capacity) {
+            this.timers = new TimerImpl[capacity];
+            this.times = new long[capacity];
+            this.values = new long[capacity];
+        }
+    }
+    
+    /*
+     * Buffer appended to by its owner thread only. Full chunks are handed off to the flushing thread, 
+     * which hands them back as spare chunks after draining them. The chunk currently appended to is 
+     * drained up to its published size and remembers the drained position.
+     */
+    private static class ThreadBuffer {
+        private final WeakReference<Thread> owner;
+        private final int capacity;
+        
+        // chunk appended to by the owner thread
+        private volatile Chunk current;
+        // full chunks handed off by the owner thread, oldest first
+        private final Queue<Chunk> handedOff = new ConcurrentLinkedQueue<>();
+        // drained chunks to be reused by the owner thread
+        private final Queue<Chunk> spare = new ConcurrentLinkedQueue<>();
+        
+        // drained values, only accessed by the flushing thread
+        private Chunk partiallyDrained;
+        private int partiallyDrainedPos;
+        private TimerImpl[] drainedTimers;
+        private long[] drainedTimes;
+        private long[] drainedValues;
+        private int drainedSize;
+        private int drainedPos;
+        
+        private ThreadBuffer(Thread owner, int capacity) {
+            this.owner = new WeakReference<>(owner);
+            this.capacity = capacity;
+            this.current = new Chunk(capacity);
+            this.drainedTimers = new TimerImpl[capacity];
+            this.drainedTimes = new long[capacity];
+            this.drainedValues = new long[capacity];
+        }
+        
+        private boolean isFull() {
+            return current.size == capacity;
+        }
+        
+        /*
+         * Hands the full chunk off to the flushing thread and continues with a spare chunk
+         */
+        private void handOff() {
+            handedOff.add(current);
+            Chunk next = spare.poll();
+            current = (next != null) ? next : new Chunk(capacity);
+        }
+        
+        private void append(TimerImpl timer, long now, long value) {
+            Chunk chunk = current;
+            int size = chunk.size;
+            chunk.timers[size] = timer;
+            chunk.times[size] = now;
+            chunk.values[size] = value;
+            Chunk.SIZE.lazySet(chunk, size + 1);
+        }
+        
+        /*
+         * Copies the handed off chunks and the published part of the current chunk to the drained arrays
+         */
+        private int drain() {
+            drainedSize = 0;
+            drainedPos = 0;
+            
+            // chunks handed off after reading the current chunk are younger than the drained values
+            Chunk last = current;
+            Chunk chunk;
+            while ((chunk = handedOff.poll()) != null) {
+                copyToDrained(chunk, chunk.size);
+                partiallyDrained = null;
+                Arrays.fill(chunk.timers, null);
+                chunk.size = 0;
+                spare.add(chunk);
+                if (chunk == last) {
+                    return drainedSize;
+                }
+            }
+            
+            copyToDrained(last, last.size);
+            return drainedSize;
+        }
+        
+        private void copyToDrained(Chunk chunk, int size) {
+            int from = (chunk == partiallyDrained) ? partiallyDrainedPos : 0;
+            partiallyDrained = chunk;
+            partiallyDrainedPos = size;
+            
+            int n = size - from;
+            if (n <= 0) {
+                return;
+            }
+            
+            if (drainedSize + n > drainedTimes.length) {
+                int length = Math.max(drainedSize + n, drainedTimes.length * 2);
+                drainedTimers = Arrays.copyOf(drainedTimers, length);
+                drainedTimes = Arrays.copyOf(drainedTimes, length);
+                drainedValues = Arrays.copyOf(drainedValues, length);
+            }
+            
+            System.arraycopy(chunk.timers, from, drainedTimers, drainedSize, n);
+            System.arraycopy(chunk.times, from, drainedTimes, drainedSize, n);
+            System.arraycopy(chunk.values, from, drainedValues, drainedSize, n);
+            drainedSize += n;
+        }
+        
+        private long headTime() {
+            return drainedTimes[drainedPos];
+        }
+        
+        private boolean isOwnerDead() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.archive.monitoring.impl.core;
+
+/**
+ * Split reused by the measurements of a thread, so try-with-resources measurements do not allocate:
+ * 
+ * <pre>
+ * try (Timer.Split split = ReusableSplit.start(timer)) {
+ *     ...
+ * }
+ * </pre>
+ * 
+ * Every thread keeps a stack of splits, nested measurements use the next split of the stack. 
+ * Splits must be stopped in reverse order of their start by the thread which started them and 
+ * must not be used after they were stopped.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public final class ReusableSplit implements Timer.Split {
+    // next free split of the current thread
+    private static final ThreadLocal<ReusableSplit> FREE_SPLIT = new ThreadLocal<ReusableSplit>() {
+        @Override
+        protected ReusableSplit initialValue() {
+            return new ReusableSplit();
+        }
+    };
+    
+    private ReusableSplit next;
+    private Timer timer;
+    private long startNanos;
+    
+    private ReusableSplit() {
+        // NOOP
+    }
+    
+    /**
+     * Starts a measurement of the timer with the next free split of the current thread
+     */
+    public static Timer.Split start(Timer timer) {
+        ReusableSplit split = FREE_SPLIT.get();
+        if (split.next == null) {
+            split.next = new ReusableSplit();
+        }
+        FREE_SPLIT.set(split.next);
+        
+        split.timer = timer;
+        split.startNanos = timer.startNanos();
+        return split;
+    }
+    
+    @Override
+    public long stop() {
+        Timer timer = this.timer;
+        if (timer == null) {
+            // already stopped
+            return 0;
+        }
+        
+        long elapsed = timer.stopNanos(startNanos);
+        this.timer = null;
+        FREE_SPLIT.set(this);
+        return elapsed;
+    }
+    
+    @Override
+    public void close() {
+        stop();
+    }
+
+}
@@ -43,6 +43,7 @@ import java.io.Closeable;
 import java.util.List;
 
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
 
 /**
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
@@ -66,8 +67,44 @@ public interface Timer extends Metric, Sampling<AggregatedReservoirSnapshot> {
 	
 	Split time();
 	
+	/**
+	 * Starts a measurement without allocating a split. 
+	 * Use {@link ReusableSplit#start(Timer)} for a try-with-resources form.
+	 * 
+	 * @return Returns the start to pass to {@link #stopNanos(long)}
+	 */
+	long startNanos();
+	
+	/**
+	 * Stops a measurement started by {@link #startNanos()}
+	 * 
+	 * @return Returns the elapsed time in nanoseconds
+	 */
+	long stopNanos(long startNanos);
+	
+	/**
+	 * Records a batch of measurements taken elsewhere, all at the current time. 
+	 * The timer is synchronized only once for the whole batch.
+	 * 
+	 * @param durations Durations in nanoseconds, negative durations are skipped
+	 * @param len Number of durations of the array to record
+	 */
+	void recordAll(long[] durations, int len);
+	
 	List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution);
 	
 	List<AggregatedReservoirSnapshot> getSnapshots();
 	
+	/**
+	 * Visits the archives like {@link #getSnapshots()} without creating a snapshot per archive.
+	 * The visitor is called on copies of the archives after the metric was unlocked.
+	 */
+	void forEachArchive(ArchiveVisitor visitor);
+	
+	/**
+	 * Visits the archives like {@link #getSnapshots(long, long, long)} without creating a snapshot 
+	 * per archive. The visitor is called on copies of the archives after the metric was unlocked.
+	 */
+	void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor);
+	
 }
@@ -39,6 +39,7 @@
 
 package org.dcm4chee.archive.monitoring.impl.core;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
@@ -48,6 +49,10 @@ import org.dcm4chee.archive.monitoring.impl.core.clocks.Clocks;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveRecordCollector;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AugmentingArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ConcurrentReservoir;
 
 
 /**
@@ -55,6 +60,11 @@ import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSn
  * Implementation note: The class uses an atomic reference which holds the state of the timer. 
  * The purpose is to ensure correct update isolation of values (stored in the state) 
  * when using the timer in a multi-threaded environment. 
+ * Updates of a {@link ConcurrentReservoir} are not isolated by the timer as the reservoir
+ * synchronizes them itself.
+ * 
+ * If a {@link RecordingBuffer} is set, stops are buffered thread-locally and applied in batches 
+ * by {@link #applyStops(long[], long[], int, int)}. Reading snapshots flushes the buffer before.
  * 
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
  */
@@ -63,6 +73,8 @@ public class TimerImpl extends AbstractMetric implements Timer {
 	protected final Clock clock;
 	protected final TimerImplState state;
 	protected final AtomicReference<TimerImplState> stateRef;
+	private final boolean concurrentReservoir;
+	private volatile RecordingBuffer recordingBuffer;
     
     public TimerImpl(MonitoringContext context, AggregatedReservoir reservoir) {
         this(context, reservoir, Clocks.defaultClock());
@@ -74,10 +86,13 @@ public class TimerImpl extends AbstractMetric implements Timer {
     	
         this.state = new TimerImplState(reservoir);
         this.stateRef = new AtomicReference<>(state);
+        this.concurrentReservoir = reservoir instanceof ConcurrentReservoir;
     }
     
     protected class TimerImplState {
     	private final AggregatedReservoir reservoir;
+    	// time-stamps of a batch of stops recorded at the same time, re-used under the lock
+    	private long[] batchTimes = new long[0];
     	
     	protected TimerImplState(AggregatedReservoir reservoir) {
     		this.reservoir = reservoir;
@@ -88,6 +103,28 @@ public class TimerImpl extends AbstractMetric implements Timer {
 				reservoir.update(context, now, duration);
 			}
 		}
+		
+		protected void updateAtStops(long[] times, long[] durations, int from, int to) {
+			if (from == 0 && allNonNegative(durations, to)) {
+				reservoir.updateBatch(context, times, durations, to);
+				return;
+			}
+			
+			for (int i = from; i < to; i++) {
+				updateAtStop(durations[i], times[i]);
+			}
+		}
+		
+		/*
+		 * Updates the reservoir with a batch of stops recorded at the same time, only called under the lock
+		 */
+		protected void updateAtStops(long now, long[] durations, int len) {
+			if (batchTimes.length < len) {
+				batchTimes = new long[len];
+			}
+			Arrays.fill(batchTimes, 0, len, now);
+			updateAtStops(batchTimes, durations, 0, len);
+		}
     }
     
 	protected TimerImplState lockState() {
@@ -111,7 +148,82 @@ public class TimerImpl extends AbstractMetric implements Timer {
 		}
 	}
     
+	public void setRecordingBuffer(RecordingBuffer recordingBuffer) {
+	    this.recordingBuffer = recordingBuffer;
+	}
+	
+	protected void recordStop(long duration, long now) {
+	    RecordingBuffer buffer = recordingBuffer;
+	    if (buffer != null) {
+	        buffer.record(this, now, duration);
+	    } else {
+	        applyStop(duration, now);
+	    }
+	}
+	
+	protected void applyStop(long duration, long now) {
+	    updateStateAtStop(duration, now);
+	}
+	
+	/**
+	 * Applies a batch of buffered stops in the given order
+	 */
+	protected void applyStops(long[] times, long[] durations, int from, int to) {
+	    if (concurrentReservoir) {
+	        state.updateAtStops(times, durations, from, to);
+	        return;
+	    }
+	    
+	    TimerImplState state = lockState();
+	    try {
+	        state.updateAtStops(times, durations, from, to);
+	    } finally {
+	        unlockState(state);
+	    }
+	}
+	
+	/**
+	 * Applies a batch of stops recorded at the same time, stops of negative duration are skipped
+	 */
+	protected void applyStops(long now, long[] durations, int len) {
+	    if (concurrentReservoir) {
+	        // the batch time-stamps of the state may only be used under the lock
+	        for (int i = 0; i < len; i++) {
+	            state.updateAtStop(durations[i], now);
+	        }
+	        return;
+	    }
+	    
+	    TimerImplState state = lockState();
+	    try {
+	        state.updateAtStops(now, durations, len);
+	    } finally {
+	        unlockState(state);
+	    }
+	}
+	
+	static boolean allNonNegative(long[] durations, int len) {
+	    for (int i = 0; i < len; i++) {
+	        if (durations[i] < 0) {
+	            return false;
+	        }
+	    }
+	    return true;
+	}
+	
+	private void flushRecordings() {
+	    RecordingBuffer buffer = recordingBuffer;
+	    if (buffer != null) {
+	        buffer.flush();
+	    }
+	}
+    
 	protected void updateStateAtStop(long duration, long now) {
+		if (concurrentReservoir) {
+			state.updateAtStop(duration, now);
+			return;
+		}
+		
 		TimerImplState state = lockState();
 		try {
 			state.updateAtStop(duration, now);
@@ -135,7 +247,7 @@ public class TimerImpl extends AbstractMetric implements Timer {
         public long stop() {
         	now = clock.getTime();
             final long elapsed = clock.getTick() - startTime;
-            timer.updateStateAtStop(elapsed, now);
+            timer.recordStop(elapsed, now);
             return elapsed;
         }
 
@@ -149,12 +261,40 @@ public class TimerImpl extends AbstractMetric implements Timer {
         return newSplit();
     }
     
+    @Override
+    public long startNanos() {
+        return clock.getTick();
+    }
+    
+    @Override
+    public long stopNanos(long startNanos) {
+        long now = clock.getTime();
+        final long elapsed = clock.getTick() - startNanos;
+        recordStop(elapsed, now);
+        return elapsed;
+    }
+    
+    @Override
+    public void recordAll(long[] durations, int len) {
+        long now = clock.getTime();
+        RecordingBuffer buffer = recordingBuffer;
+        if (buffer != null) {
+            for (int i = 0; i < len; i++) {
+                buffer.record(this, now, durations[i]);
+            }
+            return;
+        }
+        
+        applyStops(now, durations, len);
+    }
+    
     protected Timer.Split newSplit() {
 		return new TimerSplitImpl(this, clock);
 	}
     
     @Override
    	public AggregatedReservoirSnapshot getSnapshot() {
+        flushRecordings();
    		TimerImplState state = lockState();
    		try {
    			AggregatedReservoirSnapshot reservoirSnapshot = state.reservoir.getCurrentSnapshot();
@@ -168,6 +308,7 @@ public class TimerImpl extends AbstractMetric implements Timer {
     
     @Override
     public List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
+        flushRecordings();
 		TimerImplState state = lockState();
 		try {
 			List<AggregatedReservoirSnapshot> reservoirSnapshots = state.reservoir.getSnapshots(start, end, resolution);
@@ -190,6 +331,7 @@ public class TimerImpl extends AbstractMetric implements Timer {
     
     @Override
     public List<AggregatedReservoirSnapshot> getSnapshots() {
+        flushRecordings();
 		TimerImplState state = lockState();
 		try {
 			List<AggregatedReservoirSnapshot> reservoirSnapshots = state.reservoir.getSnapshots();
@@ -214,4 +356,47 @@ public class TimerImpl extends AbstractMetric implements Timer {
         return String.format("TimerImpl(%s)", context);
     }
 
+    /*
+     * Creates a collector whose records look up quantiles while holding the lock of the metric
+     */
+    private ArchiveRecordCollector createArchiveRecordCollector() {
+        return new ArchiveRecordCollector(new ArchiveRecordCollector.Guard() {
+            @Override
+            public void lock() {
+                lockState();
+            }
+            
+            @Override
+            public void unlock() {
+                unlockState(state);
+            }
+        });
+    }
+    
+    @Override
+    public void forEachArchive(ArchiveVisitor visitor) {
+        flushRecordings();
+        ArchiveRecordCollector records = createArchiveRecordCollector();
+        TimerImplState state = lockState();
+        try {
+            state.reservoir.forEachArchive(records);
+        } finally {
+            unlockState(state);
+        }
+        records.visitAll(new AugmentingArchiveVisitor(Util.createPath(context.getPath()), getAttributes(true), visitor));
+    }
+    
+    @Override
+    public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+        flushRecordings();
+        ArchiveRecordCollector records = createArchiveRecordCollector();
+        TimerImplState state = lockState();
+        try {
+            state.reservoir.forEachArchive(start, end, resolution, records);
+        } finally {
+            unlockState(state);
+        }
+        records.visitAll(new AugmentingArchiveVisitor(Util.createPath(context.getPath()), getAttributes(true), visitor));
+    }
+
 }
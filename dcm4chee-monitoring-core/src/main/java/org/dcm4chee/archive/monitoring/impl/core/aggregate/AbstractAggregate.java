@@ -45,6 +45,8 @@ import java.util.List;
 import org.dcm4chee.archive.monitoring.impl.core.AbstractMetric;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ForwardingPipeline;
 
 /**
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
@@ -52,14 +54,39 @@ import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSn
  */
 public abstract class AbstractAggregate extends AbstractMetric implements Aggregate {
 	protected final String[] name;
+	private ForwardingPipeline forwardingPipeline;
 	
     public AbstractAggregate(String[] name) {
     	this.name = name;
     }
+    
+    /**
+     * Sets the pipeline values are forwarded to this aggregate through, it is drained before the 
+     * aggregate is read. Otherwise enqueued values older than the read would be skipped by the reservoir.
+     */
+    public void setForwardingPipeline(ForwardingPipeline forwardingPipeline) {
+        this.forwardingPipeline = forwardingPipeline;
+    }
+    
+    /*
+     * Applies the values still enqueued in the forwarding pipeline, must not be called while the state is locked
+     */
+    protected void flushForwardedValues() {
+        if (forwardingPipeline != null) {
+            forwardingPipeline.flush();
+        }
+    }
    
     @Override
     public abstract void update(MonitoringContext context, long now, long value);
     
+    @Override
+    public void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+        for (int i = 0; i < len; i++) {
+            update(context, timestamps[i], values[i]);
+        }
+    }
+    
     @Override
     public AggregateSnapshot getSnapshot() {
         return null;
@@ -75,4 +102,14 @@ public abstract class AbstractAggregate extends AbstractMetric implements Aggreg
         return Collections.emptyList();
     }
 
+    @Override
+    public void forEachArchive(ArchiveVisitor visitor) {
+        // NOOP
+    }
+    
+    @Override
+    public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+        // NOOP
+    }
+
 }
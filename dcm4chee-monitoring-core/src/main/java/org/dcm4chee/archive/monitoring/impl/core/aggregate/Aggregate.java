@@ -44,6 +44,7 @@ import java.util.List;
 import org.dcm4chee.archive.monitoring.impl.core.Metric;
 import org.dcm4chee.archive.monitoring.impl.core.Sampling;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.Reservoir;
 
 /**
@@ -56,4 +57,16 @@ public interface Aggregate extends Metric, Sampling<AggregateSnapshot>, Reservoi
 	
 	List<AggregatedReservoirSnapshot> getSnapshots();
 	
+	/**
+	 * Visits the archives like {@link #getSnapshots()} without creating a snapshot per archive.
+	 * The visitor is called on copies of the archives after the metric was unlocked.
+	 */
+	void forEachArchive(ArchiveVisitor visitor);
+	
+	/**
+	 * Visits the archives like {@link #getSnapshots(long, long, long)} without creating a snapshot 
+	 * per archive. The visitor is called on copies of the archives after the metric was unlocked.
+	 */
+	void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor);
+	
 }
@@ -58,5 +58,10 @@ public class ForwardOnlyAggregate extends AbstractAggregate implements Aggregate
     public void update(MonitoringContext context, long now, long value) {
         forwardReservoir.update(context, now, value);
     }
+    
+    @Override
+    public void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+        forwardReservoir.updateBatch(context, timestamps, values, len);
+    }
 
 }
@@ -47,6 +47,10 @@ import org.dcm4chee.archive.monitoring.impl.core.Util;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveRecordCollector;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AugmentingArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ConcurrentReservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.Reservoir;
 
 
@@ -58,15 +62,22 @@ import org.dcm4chee.archive.monitoring.impl.core.reservoir.Reservoir;
 public class SimpleAggregate extends AbstractAggregate implements Aggregate {
 	protected final AggregateState state;
     protected final AtomicReference<AggregateState> stateRef;
+    private final boolean concurrentReservoir;
 	
 	public SimpleAggregate(String[] name, Reservoir forwardReservoir, AggregatedReservoir reservoir) {
 	    super(name);
 	    this.state = new AggregateState(reservoir, forwardReservoir);
         this.stateRef = new AtomicReference<>(state);
+        this.concurrentReservoir = reservoir instanceof ConcurrentReservoir;
 	}
 	
 	@Override
 	public void update(MonitoringContext context, long now, long value) {
+	    if (concurrentReservoir) {
+	        state.update(context, value, now);
+	        return;
+	    }
+	    
 	    AggregateState state = lockState();
         try {
             state.update(context, value, now);
@@ -75,6 +86,21 @@ public class SimpleAggregate extends AbstractAggregate implements Aggregate {
         }
 	}
 	
+	@Override
+	public void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+	    if (concurrentReservoir) {
+	        state.updateBatch(context, timestamps, values, len);
+	        return;
+	    }
+	    
+	    AggregateState state = lockState();
+	    try {
+	        state.updateBatch(context, timestamps, values, len);
+	    } finally {
+	        unlockState(state);
+	    }
+	}
+	
 	protected class AggregateState {
         private final AggregatedReservoir reservoir;
         private final Reservoir forwardReservoir;
@@ -91,6 +117,13 @@ public class SimpleAggregate extends AbstractAggregate implements Aggregate {
                forwardReservoir.update(context, now, value);
            }
         }
+        
+        protected void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+            reservoir.updateBatch(context, timestamps, values, len);
+            if (forwardReservoir != null) {
+                forwardReservoir.updateBatch(context, timestamps, values, len);
+            }
+        }
     }
 	
 	protected AggregateState lockState() {
@@ -116,6 +149,7 @@ public class SimpleAggregate extends AbstractAggregate implements Aggregate {
 
     @Override
     public AggregateSnapshot getSnapshot() {
+        flushForwardedValues();
         AggregateState state = lockState();
         try {
             AggregateSnapshotImpl snapshot = new AggregateSnapshotImpl();
@@ -143,6 +177,7 @@ public class SimpleAggregate extends AbstractAggregate implements Aggregate {
 	    
 	@Override
 	public List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
+        flushForwardedValues();
         AggregateState state = lockState();
         try {
 
@@ -166,6 +201,7 @@ public class SimpleAggregate extends AbstractAggregate implements Aggregate {
 	
 	@Override
 	public List<AggregatedReservoirSnapshot> getSnapshots() {
+        flushForwardedValues();
         AggregateState state = lockState();
         try {
 
@@ -187,4 +223,47 @@ public class SimpleAggregate extends AbstractAggregate implements Aggregate {
         }
 	}
 
+	/*
+	 * Creates a collector whose records look up quantiles while holding the lock of the metric
+	 */
+	private ArchiveRecordCollector createArchiveRecordCollector() {
+	    return new ArchiveRecordCollector(new ArchiveRecordCollector.Guard() {
+	        @Override
+	        public void lock() {
+	            lockState();
+	        }
+	        
+	        @Override
+	        public void unlock() {
+	            unlockState(state);
+	        }
+	    });
+	}
+	
+	@Override
+	public void forEachArchive(ArchiveVisitor visitor) {
+	    flushForwardedValues();
+	    ArchiveRecordCollector records = createArchiveRecordCollector();
+	    AggregateState state = lockState();
+	    try {
+	        state.reservoir.forEachArchive(records);
+	    } finally {
+	        unlockState(state);
+	    }
+	    records.visitAll(new AugmentingArchiveVisitor(Util.createPath(name), getAttributes(true), visitor));
+	}
+	
+	@Override
+	public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+	    flushForwardedValues();
+	    ArchiveRecordCollector records = createArchiveRecordCollector();
+	    AggregateState state = lockState();
+	    try {
+	        state.reservoir.forEachArchive(start, end, resolution, records);
+	    } finally {
+	        unlockState(state);
+	    }
+	    records.visitAll(new AugmentingArchiveVisitor(Util.createPath(name), getAttributes(true), visitor));
+	}
+
 }
@@ -0,0 +1,120 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.aggregate;
+
+import org.dcm4chee.archive.monitoring.impl.core.MetricSampler;
+import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
+import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoir;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.Reservoir;
+import org.dcm4chee.archive.monitoring.impl.util.LongAdder;
+
+
+/**
+ * Sum aggregate for high fan-in: updates only add the value to a striped adder and forward it, 
+ * without locking the aggregate.
+ * 
+ * The running total is recorded to the reservoir when sampled by a {@link MetricSampler} and 
+ * before the aggregate is read, so the reservoir holds the last, minimum and maximum sampled 
+ * total per archive instead of the total after every update.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class StripedSumAggregate extends SumAggregate implements MetricSampler.Sampled {
+    private final MonitoringContext context;
+    private final Reservoir forwardReservoir;
+    private final Clock clock;
+    private final LongAdder sum = new LongAdder();
+    
+    // total recorded by the last sample, guarded by the state lock
+    private long lastSample;
+    
+    public StripedSumAggregate(MonitoringContext context, Reservoir forwardReservoir, AggregatedReservoir reservoir, Clock clock) {
+        super(context.getPath(), forwardReservoir, reservoir);
+        this.context = context;
+        this.forwardReservoir = forwardReservoir;
+        this.clock = clock;
+    }
+    
+    @Override
+    public void update(MonitoringContext context, long now, long value) {
+        sum.add(value);
+        if (forwardReservoir != null) {
+            forwardReservoir.update(context, now, value);
+        }
+    }
+    
+    @Override
+    public void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+        long total = 0;
+        for (int i = 0; i < len; i++) {
+            total += values[i];
+        }
+        sum.add(total);
+        if (forwardReservoir != null) {
+            forwardReservoir.updateBatch(context, timestamps, values, len);
+        }
+    }
+    
+    @Override
+    public void sample(long now) {
+        AggregateState state = lockState();
+        try {
+            sample(state, now);
+        } finally {
+            unlockState(state);
+        }
+    }
+    
+    @Override
+    protected void sampleForRead(AggregateState state) {
+        sample(state, clock.getTime());
+    }
+    
+    private void sample(AggregateState state, long now) {
+        long total = sum.sum();
+        if (total != lastSample) {
+            state.reservoir.update(context, now, total);
+            lastSample = total;
+        }
+    }
+    
+}
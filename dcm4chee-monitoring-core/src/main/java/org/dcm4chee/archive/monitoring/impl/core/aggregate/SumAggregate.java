@@ -41,12 +41,17 @@ package org.dcm4chee.archive.monitoring.impl.core.aggregate;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.dcm4chee.archive.monitoring.impl.core.Util;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveRecordCollector;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.AugmentingArchiveVisitor;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ConcurrentReservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.Reservoir;
 
 
@@ -60,16 +65,23 @@ public class SumAggregate extends AbstractAggregate implements Aggregate {
 	
 	protected final AggregateState state;
     protected final AtomicReference<AggregateState> stateRef;
+    private final boolean concurrentReservoir;
 	
 	public SumAggregate(String[] name, Reservoir forwardReservoir, AggregatedReservoir reservoir) {
 	    super(name);
 	    this.state = new AggregateState(reservoir, forwardReservoir);
         this.stateRef = new AtomicReference<>(state);
+        this.concurrentReservoir = reservoir instanceof ConcurrentReservoir;
 	}
 	
 	@Override
 	public void update(MonitoringContext context, long now, long value) {
 //	    LOGGER.info("Updating sum aggregate " + Arrays.toString(name) + " from " + context);
+	    if (concurrentReservoir) {
+	        state.update(context, value, now);
+	        return;
+	    }
+	    
 	    AggregateState state = lockState();
         try {
             state.update(context, value, now);
@@ -78,10 +90,25 @@ public class SumAggregate extends AbstractAggregate implements Aggregate {
         }
 	}
 	
+	@Override
+	public void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+	    if (concurrentReservoir) {
+	        state.updateBatch(context, timestamps, values, len);
+	        return;
+	    }
+	    
+	    AggregateState state = lockState();
+	    try {
+	        state.updateBatch(context, timestamps, values, len);
+	    } finally {
+	        unlockState(state);
+	    }
+	}
+	
 	protected class AggregateState {
-        private final AggregatedReservoir reservoir;
+        protected final AggregatedReservoir reservoir;
         private final Reservoir forwardReservoir;
-        private long sum;
+        private final AtomicLong sum = new AtomicLong();
         
         protected AggregateState(AggregatedReservoir reservoir, Reservoir forwardReservoir) {
             this.reservoir = reservoir;
@@ -89,15 +116,30 @@ public class SumAggregate extends AbstractAggregate implements Aggregate {
         }
         
         protected void update(MonitoringContext context, long value, long now) {
-           sum += value;
-           reservoir.update(context, now, sum);
+           reservoir.update(context, now, sum.addAndGet(value));
            if (forwardReservoir != null) {
                //TODO propagate original context or context of this aggregate?
                forwardReservoir.update(context, now, value);
            }
         }
+        
+        protected void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+            for (int i = 0; i < len; i++) {
+                reservoir.update(context, timestamps[i], sum.addAndGet(values[i]));
+            }
+            if (forwardReservoir != null) {
+                forwardReservoir.updateBatch(context, timestamps, values, len);
+            }
+        }
     }
 	
+	/*
+	 * Hook called before the reservoir is read, the state is locked
+	 */
+	protected void sampleForRead(AggregateState state) {
+	    // NOOP
+	}
+	
 	protected AggregateState lockState() {
         /*
          * Mark the state as locked by replacing 
@@ -121,8 +163,10 @@ public class SumAggregate extends AbstractAggregate implements Aggregate {
 
     @Override
     public AggregateSnapshot getSnapshot() {
+        flushForwardedValues();
         AggregateState state = lockState();
         try {
+            sampleForRead(state);
             AggregateSnapshotImpl snapshot = new AggregateSnapshotImpl();
             AggregatedReservoirSnapshot primarySnapshot = state.reservoir.getCurrentSnapshot();
             snapshot.setValues(primarySnapshot.getValues(false));
@@ -148,8 +192,10 @@ public class SumAggregate extends AbstractAggregate implements Aggregate {
 	    
 	@Override
 	public List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
+        flushForwardedValues();
         AggregateState state = lockState();
         try {
+            sampleForRead(state);
 
             List<AggregatedReservoirSnapshot> reservoirSnapshots = state.reservoir.getSnapshots(start, end, resolution);
 
@@ -171,8 +217,10 @@ public class SumAggregate extends AbstractAggregate implements Aggregate {
 	
 	@Override
 	public List<AggregatedReservoirSnapshot> getSnapshots() {
+        flushForwardedValues();
         AggregateState state = lockState();
         try {
+            sampleForRead(state);
 
             List<AggregatedReservoirSnapshot> reservoirSnapshots = state.reservoir.getSnapshots();
 
@@ -192,4 +240,49 @@ public class SumAggregate extends AbstractAggregate implements Aggregate {
         }
 	}
 
+	/*
+	 * Creates a collector whose records look up quantiles while holding the lock of the metric
+	 */
+	private ArchiveRecordCollector createArchiveRecordCollector() {
+	    return new ArchiveRecordCollector(new ArchiveRecordCollector.Guard() {
+	        @Override
+	        public void lock() {
+	            lockState();
+	        }
+	        
+	        @Override
+	        public void unlock() {
+	            unlockState(state);
+	        }
+	    });
+	}
+	
+	@Override
+	public void forEachArchive(ArchiveVisitor visitor) {
+	    flushForwardedValues();
+	    ArchiveRecordCollector records = createArchiveRecordCollector();
+	    AggregateState state = lockState();
+	    try {
+	        sampleForRead(state);
+	        state.reservoir.forEachArchive(records);
+	    } finally {
+	        unlockState(state);
+	    }
+	    records.visitAll(new AugmentingArchiveVisitor(Util.createPath(name), getAttributes(true), visitor));
+	}
+	
+	@Override
+	public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+	    flushForwardedValues();
+	    ArchiveRecordCollector records = createArchiveRecordCollector();
+	    AggregateState state = lockState();
+	    try {
+	        sampleForRead(state);
+	        state.reservoir.forEachArchive(start, end, resolution, records);
+	    } finally {
+	        unlockState(state);
+	    }
+	    records.visitAll(new AugmentingArchiveVisitor(Util.createPath(name), getAttributes(true), visitor));
+	}
+
 }
@@ -144,12 +144,12 @@ public class ServiceMonitoringInterceptor implements MonitoringInterceptor {
                 throw new IllegalArgumentException("Unknown monitoring level " + level);
             }
            
-            Timer.Split split = timer.time();
+            long start = timer.startNanos();
             
             try {
                 return context.proceed();
             } finally {
-                split.stop();
+                timer.stopNanos(start);
 
                 // make sure service monitoring context gets disposed
                 cxtProvider.disposeActiveContext();
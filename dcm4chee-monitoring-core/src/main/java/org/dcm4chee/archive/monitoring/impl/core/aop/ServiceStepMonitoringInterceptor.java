@@ -132,12 +132,12 @@ public class ServiceStepMonitoringInterceptor implements MonitoringInterceptor {
                 throw new IllegalArgumentException("Unknown monitoring level " + level);
             }
 			
-            Timer.Split split = timer.time();
+            long start = timer.startNanos();
             
             try {
                 return context.proceed();
             } finally {
-                split.stop();
+                timer.stopNanos(start);
             }
 		} else {
 			return context.proceed();
@@ -45,6 +45,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.dcm4chee.archive.monitoring.impl.core.Metric;
+import org.dcm4chee.archive.monitoring.impl.core.MetricRegistry.MetricCreator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,7 +67,8 @@ public class MonitoringContextNode implements MonitoringContext {
 	private boolean disposed;
 	
 	private boolean metricEnabled;
-	private MetricContainer<? extends Metric> metricContainer;
+	// volatile so looking up an existing metric does not need to synchronize
+	private volatile MetricContainer<? extends Metric> metricContainer;
 	
 	private boolean inheritedFromParent;
 	private boolean enabled;
@@ -221,21 +223,23 @@ public class MonitoringContextNode implements MonitoringContext {
             propagateToChildren(disposalCxt, force);
         }
         
-        if (metricContainer != null) {
+        // read once, the container may be replaced concurrently by getOrCreateMetric()
+        MetricContainer<? extends Metric> container = metricContainer;
+        if (container != null) {
             long now = tree.getClock().getTime();
 
             if (DISPOSAL_CONTEXT.CONSUME.equals(disposalCxt)) {
-                metricContainer.markConsumed(now);
+                container.markConsumed(now);
             } else if (DISPOSAL_CONTEXT.EXTERNAL.equals(disposalCxt)) {
                 externallyDisposed = true;
-                metricContainer.markExternallyDisposed(now);
+                container.markExternallyDisposed(now);
             }
 
-            if (!force && !metricContainer.checkDispose(now)) {
+            if (!force && !container.checkDispose(now)) {
                 return;
             }
 
-            metricContainer = null;
+            clearMetricContainer(container);
         } else {
             if (DISPOSAL_CONTEXT.EXTERNAL.equals(disposalCxt)) {
                 externallyDisposed = true;
@@ -274,15 +278,51 @@ public class MonitoringContextNode implements MonitoringContext {
         }
     }
 
+    /*
+     * Removes the given container, unless it was replaced by a new one meanwhile
+     */
+    private synchronized void clearMetricContainer(MetricContainer<? extends Metric> container) {
+        if (metricContainer == container) {
+            metricContainer = null;
+        }
+    }
+
     public MetricContainer<? extends Metric> getMetricContainer() {
         return metricContainer;
     }
 
-    public void setMetricContainer(MetricContainer<? extends Metric> container) {
+    public synchronized void setMetricContainer(MetricContainer<? extends Metric> container) {
         this.metricContainer = container;
         this.metricEnabled = isMetricEnabled();
     }
     
+    /**
+     * @return Returns the metric of the context if it is of the given type, otherwise <code>null</code>
+     */
+    public <T extends Metric> T getMetric(Class<T> metricType) {
+        MetricContainer<? extends Metric> container = metricContainer;
+        if (container != null) {
+            Metric metric = container.getMetric();
+            if (metric != null && metricType.isInstance(metric)) {
+                return metricType.cast(metric);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the metric of the context if it is of the given type, otherwise the metric created by 
+     * the creator is set. Creations are serialized per context, so concurrent callers share one metric.
+     */
+    public synchronized <T extends Metric> T getOrCreateMetric(Class<T> metricType, MetricCreator<T> creator, long consumedMetricTimeout) {
+        T metric = getMetric(metricType);
+        if (metric == null) {
+            metric = creator.create();
+            setMetricContainer(new MetricContainer<T>(metric, consumedMetricTimeout));
+        }
+        return metric;
+    }
+    
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
         this.inheritedFromParent = false;
@@ -194,17 +194,7 @@ public class MonitoringContextTree implements MetricRegistry {
     
     @Override
     public <T extends Metric> T getMetric(Class<T> metricType, MonitoringContext cxt) {
-        MonitoringContextNode cxtNode = dirtyCast(cxt);
-        MetricContainer<? extends Metric> metricContainer = cxtNode.getMetricContainer();
-        if (metricContainer != null) {
-            Metric metric = metricContainer.getMetric();
-            if (metric != null && metricType.isInstance(metric)) {
-                @SuppressWarnings("unchecked")
-                T t = (T) metric;
-                return t;
-            }
-        }
-        return null;
+        return dirtyCast(cxt).getMetric(metricType);
     }
     
     @Override
@@ -241,6 +231,16 @@ public class MonitoringContextTree implements MetricRegistry {
         return metric;
     }
     
+    @Override
+    public <T extends Metric> T getOrRegister(Class<T> metricType, MonitoringContext cxt, MetricCreator<T> creator) {
+        MonitoringContextNode cxtNode = dirtyCast(cxt);
+        T metric = cxtNode.getMetric(metricType);
+        if (metric != null) {
+            return metric;
+        }
+        return cxtNode.getOrCreateMetric(metricType, creator, consumedMetricTimeout);
+    }
+    
     public static MonitoringContextNode dirtyCast(MonitoringContext cxt) {
         return (MonitoringContextNode)cxt;
     }
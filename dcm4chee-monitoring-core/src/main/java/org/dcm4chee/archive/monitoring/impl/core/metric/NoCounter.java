@@ -45,6 +45,7 @@ import java.util.List;
 import org.dcm4chee.archive.monitoring.impl.core.AbstractMetric;
 import org.dcm4chee.archive.monitoring.impl.core.Counter;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
 
 /**
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
@@ -92,4 +93,14 @@ public class NoCounter extends AbstractMetric implements Counter {
 		return Collections.emptyList();
 	}
 
+    @Override
+    public void forEachArchive(ArchiveVisitor visitor) {
+        // NOOP
+    }
+    
+    @Override
+    public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+        // NOOP
+    }
+
 }
@@ -72,9 +72,29 @@ public class NoMeter extends AbstractMetric implements Meter {
         // NOOP
     }
     
+    @Override
+    public void markAll(long[] counts, int len) {
+        // NOOP
+    }
+    
     @Override
     public List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
         return Collections.emptyList();
     }
+    
+    @Override
+    public double getOneMinuteRate() {
+        return 0.0;
+    }
+    
+    @Override
+    public double getFiveMinuteRate() {
+        return 0.0;
+    }
+    
+    @Override
+    public double getFifteenMinuteRate() {
+        return 0.0;
+    }
 
 }
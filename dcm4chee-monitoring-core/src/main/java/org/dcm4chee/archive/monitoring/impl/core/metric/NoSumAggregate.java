@@ -58,5 +58,10 @@ public class NoSumAggregate extends AbstractAggregate implements Aggregate {
     public void update(MonitoringContext context, long now, long value) {
         // NOOP
     }
+    
+    @Override
+    public void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+        // NOOP
+    }
 
 }
@@ -45,6 +45,7 @@ import java.util.List;
 import org.dcm4chee.archive.monitoring.impl.core.AbstractMetric;
 import org.dcm4chee.archive.monitoring.impl.core.Timer;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
 
 /**
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
@@ -69,6 +70,21 @@ public class NoTimer extends AbstractMetric implements Timer {
         return noSplit;
     }
     
+    @Override
+    public long startNanos() {
+        return 0;
+    }
+    
+    @Override
+    public long stopNanos(long startNanos) {
+        return 0;
+    }
+    
+    @Override
+    public void recordAll(long[] durations, int len) {
+        // NOOP
+    }
+    
     @Override
 	public List<AggregatedReservoirSnapshot> getSnapshots() {
 		return Collections.emptyList();
@@ -93,4 +109,14 @@ public class NoTimer extends AbstractMetric implements Timer {
         
     }
 
+    @Override
+    public void forEachArchive(ArchiveVisitor visitor) {
+        // NOOP
+    }
+    
+    @Override
+    public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+        // NOOP
+    }
+
 }
@@ -40,6 +40,8 @@
 package org.dcm4chee.archive.monitoring.impl.core.registry;
 
 import org.dcm4chee.archive.monitoring.impl.core.Counter;
+import org.dcm4chee.archive.monitoring.impl.core.Gauge;
+import org.dcm4chee.archive.monitoring.impl.core.Meter;
 import org.dcm4chee.archive.monitoring.impl.core.Metric;
 import org.dcm4chee.archive.monitoring.impl.core.Timer;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
@@ -64,6 +66,20 @@ public class MetricFilters {
 		}
 	};
 	
+	public static final MetricFilter METER_FILTER = new MetricFilter() {
+		@Override
+		public boolean matches(MonitoringContext cxt, Metric metric) {
+			return metric instanceof Meter;
+		}
+	};
+	
+	public static final MetricFilter GAUGE_FILTER = new MetricFilter() {
+		@Override
+		public boolean matches(MonitoringContext cxt, Metric metric) {
+			return metric instanceof Gauge;
+		}
+	};
+	
 	public static final MetricFilter ALL_FILTER = new MetricFilter() {
 		@Override
 		public boolean matches(MonitoringContext cxt, Metric metric) {
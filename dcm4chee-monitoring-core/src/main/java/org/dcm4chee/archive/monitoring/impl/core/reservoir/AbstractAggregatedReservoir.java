@@ -39,6 +39,8 @@
 
 package org.dcm4chee.archive.monitoring.impl.core.reservoir;
 
+import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
+
 /**
  * Abstract implementation of a primary reservoir.
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
@@ -81,5 +83,22 @@ public abstract class AbstractAggregatedReservoir implements AggregatedReservoir
 	    max = Long.MIN_VALUE;
 	    maxTimestamp = Long.MIN_VALUE;
     }
+	
+	@Override
+	public void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+	    for (int i = 0; i < len; i++) {
+	        update(context, timestamps[i], values[i]);
+	    }
+	}
+	
+	@Override
+	public void forEachArchive(ArchiveVisitor visitor) {
+	    ArchiveRecord.forEach(getSnapshots(), visitor);
+	}
+	
+	@Override
+	public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+	    ArchiveRecord.forEach(getSnapshots(start, end, resolution), visitor);
+	}
 
 }
@@ -55,4 +55,16 @@ public interface AggregatedReservoir extends Reservoir {
     
 	List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution);
 	
+	/**
+	 * Visits the archives of the finest resolution like {@link #getSnapshots()} without 
+	 * creating a snapshot per archive.
+	 */
+	void forEachArchive(ArchiveVisitor visitor);
+	
+	/**
+	 * Visits the archives spanning the given time range like {@link #getSnapshots(long, long, long)}
+	 * without creating a snapshot per archive.
+	 */
+	void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor);
+	
 }
@@ -70,10 +70,32 @@ public interface AggregatedReservoirSnapshot extends ReservoirSnapshot {
     
     long[] getValues(boolean copy);
     
+    /**
+     * @return Returns the number of samples represented by each of the values, 
+     * 1.0 unless the values are a random sample of the samples of the archive
+     */
+    double getValueWeight();
+    
     long getLastValue();
     
     long getSum();
     
+    /**
+     * @return Returns a mergeable sketch of the value distribution or <code>null</code> 
+     * if neither values nor a value histogram were kept
+     */
+    QuantileSketch getSketch();
+    
+    /**
+     * Merges this snapshot with the given snapshots of the same metric, e.g. to roll up
+     * consecutive archives into a larger time span or to combine snapshots of several nodes.
+     * Quantiles of the merged snapshot are computed from the merged value distribution.
+     * 
+     * @param snapshots Snapshots to merge with this snapshot
+     * @return Returns a new snapshot, this snapshot is not changed
+     */
+    AggregatedReservoirSnapshot merge(AggregatedReservoirSnapshot... snapshots);
+    
     void setMeanRateCalculatiuonMethod(MEAN_RATE_CALC_METHOD meanRateCalcMethod);
     
     double getMeanRate(long resolution, UnitOfTime timeUnit);
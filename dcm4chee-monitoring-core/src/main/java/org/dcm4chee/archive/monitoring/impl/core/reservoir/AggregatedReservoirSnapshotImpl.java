@@ -41,8 +41,10 @@ package org.dcm4chee.archive.monitoring.impl.core.reservoir;
 
 import static java.lang.Math.floor;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.dcm4chee.archive.monitoring.impl.util.UnitOfTime;
@@ -60,6 +62,13 @@ public class AggregatedReservoirSnapshotImpl implements
     private long size;
 
     private long[] values;
+    // number of samples represented by each value
+    private double valueWeight = 1.0;
+    // values in ascending order for quantile calculation, created on demand
+    private long[] sortedValues;
+    private LogLinearHistogram histogram;
+    // mergeable value distribution, derived from values or histogram on demand
+    private QuantileSketch sketch;
     private long lastValue;
     private long sum;
     private double mean;
@@ -82,6 +91,148 @@ public class AggregatedReservoirSnapshotImpl implements
     public AggregatedReservoirSnapshotImpl() {
         // NOOP
     }
+    
+    /**
+     * Merges snapshots of the same metric into a single snapshot (e.g. snapshots of the
+     * stripes of a {@link StripedRoundRobinReservoir}).
+     * 
+     * Mean and standard deviation are combined with the parallel variant of the online variance
+     * algorithm (Chan et al.), so the result equals the snapshot of a single archive which has
+     * seen all values. Raw values and histograms are only kept if all merged snapshots provide
+     * them, otherwise the value distributions are combined in a {@link QuantileSketch}.
+     * 
+     * @param snapshots Snapshots to merge
+     * @return Returns the merged snapshot
+     */
+    public static AggregatedReservoirSnapshotImpl merge(List<? extends AggregatedReservoirSnapshot> snapshots) {
+        AggregatedReservoirSnapshotImpl merged = new AggregatedReservoirSnapshotImpl();
+        merged.start = Long.MAX_VALUE;
+        merged.end = Long.MIN_VALUE;
+        merged.sum = Long.MIN_VALUE;
+        merged.mean = Double.NaN;
+        merged.stdDev = Double.NaN;
+        merged.max = Long.MIN_VALUE;
+        merged.min = Long.MAX_VALUE;
+        merged.maxTimestamp = Long.MIN_VALUE;
+        merged.minTimestamp = Long.MIN_VALUE;
+        merged.firstUsageTimestamp = Long.MIN_VALUE;
+        merged.lastUsageTimestamp = Long.MIN_VALUE;
+        merged.lastValue = Long.MIN_VALUE;
+        
+        if (snapshots.isEmpty()) {
+            merged.start = 0;
+            merged.end = 0;
+            return merged;
+        }
+        
+        AggregatedReservoirSnapshot first = snapshots.get(0);
+        merged.path = first.getPath();
+        merged.attributes = first.getAttributes();
+        
+        double m2 = 0.0;
+        boolean valuesAvailable = true;
+        int valueCount = 0;
+        boolean histogramsAvailable = true;
+        boolean sketchesAvailable = true;
+        for (AggregatedReservoirSnapshot snapshot : snapshots) {
+            merged.start = Math.min(merged.start, snapshot.getStart());
+            merged.end = Math.max(merged.end, snapshot.getEnd());
+            
+            long[] values = snapshot.getValues(false);
+            if (values == null || snapshot.getValueWeight() != 1.0) {
+                // sampled values of different archives can not be concatenated
+                valuesAvailable = false;
+            } else {
+                valueCount += values.length;
+            }
+            
+            if (getHistogram(snapshot) == null) {
+                histogramsAvailable = false;
+            }
+            
+            long n = snapshot.size();
+            if (n == 0) {
+                continue;
+            }
+            
+            if (snapshot.getSketch() == null) {
+                sketchesAvailable = false;
+            }
+            
+            double snapshotM2 = (n < 2) ? 0.0 : snapshot.getStdDev() * snapshot.getStdDev() * (n - 1);
+            if (merged.size == 0) {
+                merged.mean = snapshot.getMean();
+                m2 = snapshotM2;
+            } else {
+                long total = merged.size + n;
+                double delta = snapshot.getMean() - merged.mean;
+                merged.mean += delta * n / total;
+                m2 += snapshotM2 + delta * delta * ((double) merged.size * n / total);
+            }
+            merged.size += n;
+            
+            merged.sum = (merged.sum == Long.MIN_VALUE) ? snapshot.getSum() : merged.sum + snapshot.getSum();
+            
+            if (snapshot.getMin() < merged.min) {
+                merged.min = snapshot.getMin();
+                merged.minTimestamp = snapshot.getMinTimestamp();
+            }
+            if (snapshot.getMax() > merged.max) {
+                merged.max = snapshot.getMax();
+                merged.maxTimestamp = snapshot.getMaxTimestamp();
+            }
+            
+            if (merged.firstUsageTimestamp == Long.MIN_VALUE || snapshot.getFirstUsageTimestamp() < merged.firstUsageTimestamp) {
+                merged.firstUsageTimestamp = snapshot.getFirstUsageTimestamp();
+            }
+            if (snapshot.getLastUsageTimestamp() >= merged.lastUsageTimestamp) {
+                merged.lastUsageTimestamp = snapshot.getLastUsageTimestamp();
+                merged.lastValue = snapshot.getLastValue();
+            }
+        }
+        
+        if (merged.size > 1) {
+            merged.stdDev = Math.sqrt(m2 / (merged.size - 1));
+        }
+        
+        if (valuesAvailable) {
+            merged.values = new long[valueCount];
+            int pos = 0;
+            for (AggregatedReservoirSnapshot snapshot : snapshots) {
+                long[] values = snapshot.getValues(false);
+                System.arraycopy(values, 0, merged.values, pos, values.length);
+                pos += values.length;
+            }
+        }
+        
+        if (histogramsAvailable) {
+            merged.histogram = getHistogram(first).copy();
+            for (int i = 1; i < snapshots.size(); i++) {
+                merged.histogram.add(getHistogram(snapshots.get(i)));
+            }
+        } else if (!valuesAvailable && sketchesAvailable && merged.size > 0) {
+            merged.sketch = new QuantileSketch();
+            for (AggregatedReservoirSnapshot snapshot : snapshots) {
+                if (snapshot.size() > 0) {
+                    merged.sketch.merge(snapshot.getSketch());
+                }
+            }
+        }
+        
+        return merged;
+    }
+    
+    @Override
+    public AggregatedReservoirSnapshot merge(AggregatedReservoirSnapshot... snapshots) {
+        List<AggregatedReservoirSnapshot> all = new ArrayList<>(snapshots.length + 1);
+        all.add(this);
+        all.addAll(Arrays.asList(snapshots));
+        return merge(all);
+    }
+    
+    private static LogLinearHistogram getHistogram(AggregatedReservoirSnapshot snapshot) {
+        return (snapshot instanceof AggregatedReservoirSnapshotImpl) ? ((AggregatedReservoirSnapshotImpl) snapshot).getHistogram() : null;
+    }
 
     @Override
     public void setMeanRateCalculatiuonMethod(MEAN_RATE_CALC_METHOD meanRateCalcMethod) {
@@ -214,6 +365,10 @@ public class AggregatedReservoirSnapshotImpl implements
     
     /**
      * Returns the value at the given quantile.
+     * 
+     * If the snapshot holds a value histogram the quantile is looked up in the
+     * histogram, otherwise it is interpolated over the sorted raw values. Merged 
+     * snapshots without raw values or histogram look up the quantile in their sketch.
      *
      * @param quantile
      *            a given quantile, in {@code [0..1]}
@@ -224,11 +379,26 @@ public class AggregatedReservoirSnapshotImpl implements
         if (quantile < 0.0 || quantile > 1.0) {
             throw new IllegalArgumentException(quantile + " is not in [0..1]");
         }
+        
+        if (histogram != null) {
+            return histogram.getValueAtQuantile(quantile);
+        }
 
         if (values == null || values.length == 0) {
-            return Double.NaN;
+            return (sketch != null) ? sketch.getValueAtQuantile(quantile) : Double.NaN;
         }
-
+        
+        if (sortedValues == null) {
+            sortedValues = Arrays.copyOf(values, values.length);
+            Arrays.sort(sortedValues);
+        }
+        return getValueAtQuantile(sortedValues, quantile);
+    }
+    
+    /*
+     * Interpolates the value at the given quantile over the given sorted values
+     */
+    static double getValueAtQuantile(long[] values, double quantile) {
         final double pos = quantile * (values.length + 1);
 
         if (pos < 1) {
@@ -251,6 +421,46 @@ public class AggregatedReservoirSnapshotImpl implements
     
     public void setValues(long[] values) {
         this.values = values;
+        this.sortedValues = null;
+        this.sketch = null;
+    }
+    
+    @Override
+    public double getValueWeight() {
+        return valueWeight;
+    }
+    
+    public void setValueWeight(double valueWeight) {
+        this.valueWeight = valueWeight;
+        this.sketch = null;
+    }
+    
+    /**
+     * @return Returns the value histogram or <code>null</code> if the archive did not keep one
+     */
+    public LogLinearHistogram getHistogram() {
+        return histogram;
+    }
+    
+    public void setHistogram(LogLinearHistogram histogram) {
+        this.histogram = histogram;
+        this.sketch = null;
+    }
+    
+    @Override
+    public QuantileSketch getSketch() {
+        if (sketch == null) {
+            if (histogram != null) {
+                sketch = QuantileSketch.of(histogram);
+            } else if (values != null) {
+                sketch = QuantileSketch.of(values, Math.max(1, Math.round(valueWeight)));
+            }
+        }
+        return sketch;
+    }
+    
+    public void setSketch(QuantileSketch sketch) {
+        this.sketch = sketch;
     }
     
     @Override
@@ -0,0 +1,319 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only view on a single archive of a reservoir handed to an {@link ArchiveVisitor}.
+ * 
+ * A record is filled with the primitive values of one archive after the other, so visiting 
+ * the archives of a reservoir does not materialize a snapshot per archive. Quantiles are looked 
+ * up in the value distribution of the archive on request.
+ * 
+ * Metrics collect copies of the records while they are locked and hand them to the visitor 
+ * after the lock was released, see {@link ArchiveRecordCollector}.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class ArchiveRecord {
+    private String path;
+    private Map<String,Object> attributes;
+    
+    private long start;
+    private long end;
+    private long size;
+    private long sum;
+    private double mean;
+    private double stdDev;
+    private long min;
+    private long minTimestamp;
+    private long max;
+    private long maxTimestamp;
+    private long firstUsageTimestamp;
+    private long lastUsageTimestamp;
+    private long lastValue;
+    
+    // source of the value distribution, either a slot of a container or a snapshot
+    private RoundRobinReservoir.ArchiveContainer container;
+    private int slotIdx;
+    private AggregatedReservoirSnapshot snapshot;
+    // lock the container of a copy is accessed with
+    private ArchiveRecordCollector.Guard guard;
+    
+    /**
+     * Visits the given snapshots, used by reservoirs that do not store their archives themselves
+     */
+    public static void forEach(List<AggregatedReservoirSnapshot> snapshots, ArchiveVisitor visitor) {
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        
+        ArchiveRecord record = new ArchiveRecord();
+        for (AggregatedReservoirSnapshot snapshot : snapshots) {
+            record.set(snapshot);
+            visitor.visit(record);
+        }
+    }
+    
+    void set(AggregatedReservoirSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.container = null;
+        
+        start = snapshot.getStart();
+        end = snapshot.getEnd();
+        size = snapshot.size();
+        sum = snapshot.getSum();
+        mean = snapshot.getMean();
+        stdDev = snapshot.getStdDev();
+        min = snapshot.getMin();
+        minTimestamp = snapshot.getMinTimestamp();
+        max = snapshot.getMax();
+        maxTimestamp = snapshot.getMaxTimestamp();
+        firstUsageTimestamp = snapshot.getFirstUsageTimestamp();
+        lastUsageTimestamp = snapshot.getLastUsageTimestamp();
+        lastValue = snapshot.getLastValue();
+    }
+    
+    /*
+     * Sets the slot of the container holding the value distribution of the archive
+     */
+    void setSlot(RoundRobinReservoir.ArchiveContainer container, int slotIdx) {
+        this.container = container;
+        this.slotIdx = slotIdx;
+        this.snapshot = null;
+    }
+    
+    /*
+     * Returns a copy of the aggregated values, which stays valid after the reservoir was changed. 
+     * The value distribution is not copied, quantiles are looked up in the container slot holding 
+     * the given guard. An empty archive has no value distribution.
+     */
+    ArchiveRecord copy(ArchiveRecordCollector.Guard guard) {
+        ArchiveRecord copy = new ArchiveRecord();
+        copy.path = path;
+        copy.attributes = attributes;
+        copy.start = start;
+        copy.end = end;
+        copy.size = size;
+        copy.sum = sum;
+        copy.mean = mean;
+        copy.stdDev = stdDev;
+        copy.min = min;
+        copy.minTimestamp = minTimestamp;
+        copy.max = max;
+        copy.maxTimestamp = maxTimestamp;
+        copy.firstUsageTimestamp = firstUsageTimestamp;
+        copy.lastUsageTimestamp = lastUsageTimestamp;
+        copy.lastValue = lastValue;
+        
+        if (size > 0) {
+            copy.container = container;
+            copy.slotIdx = slotIdx;
+            copy.snapshot = snapshot;
+            copy.guard = guard;
+        }
+        return copy;
+    }
+    
+    /**
+     * Returns the value at the given quantile of the value distribution of the archive, 
+     * see {@link AggregatedReservoirSnapshot#getValue(double)}.
+     * 
+     * The value distribution of a copied record is looked up in the reservoir, so it includes 
+     * values recorded since the copy was taken. If the archive was rolled over in the 
+     * meantime, NaN is returned.
+     */
+    public double getValue(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        
+        if (snapshot != null) {
+            return snapshot.getValue(quantile);
+        } else if (container == null) {
+            return Double.NaN;
+        } else if (guard == null) {
+            return getSlotValue(quantile);
+        }
+        
+        guard.lock();
+        try {
+            return getSlotValue(quantile);
+        } finally {
+            guard.unlock();
+        }
+    }
+    
+    private double getSlotValue(double quantile) {
+        if (!container.isSlotUsed(slotIdx) || container.getSlotStart(slotIdx) != start) {
+            // the slot holds a later archive by now
+            return Double.NaN;
+        }
+        return container.getSlotValue(slotIdx, quantile);
+    }
+    
+    public double getMedian() {
+        return getValue(0.5);
+    }
+    
+    public String getPath() {
+        return path;
+    }
+    
+    public void setPath(String path) {
+        this.path = path;
+    }
+    
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+    
+    public void setAttributes(Map<String, Object> attributes) {
+        this.attributes = attributes;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    void setStart(long start) {
+        this.start = start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    void setEnd(long end) {
+        this.end = end;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    void setSum(long sum) {
+        this.sum = sum;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    void setMean(double mean) {
+        this.mean = mean;
+    }
+
+    public double getStdDev() {
+        return stdDev;
+    }
+
+    void setStdDev(double stdDev) {
+        this.stdDev = stdDev;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    void setMin(long min) {
+        this.min = min;
+    }
+
+    public long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    void setMinTimestamp(long minTimestamp) {
+        this.minTimestamp = minTimestamp;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    void setMax(long max) {
+        this.max = max;
+    }
+
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    void setMaxTimestamp(long maxTimestamp) {
+        this.maxTimestamp = maxTimestamp;
+    }
+
+    public long getFirstUsageTimestamp() {
+        return firstUsageTimestamp;
+    }
+
+    void setFirstUsageTimestamp(long firstUsageTimestamp) {
+        this.firstUsageTimestamp = firstUsageTimestamp;
+    }
+
+    public long getLastUsageTimestamp() {
+        return lastUsageTimestamp;
+    }
+
+    void setLastUsageTimestamp(long lastUsageTimestamp) {
+        this.lastUsageTimestamp = lastUsageTimestamp;
+    }
+
+    public long getLastValue() {
+        return lastValue;
+    }
+
+    void setLastValue(long lastValue) {
+        this.lastValue = lastValue;
+    }
+    
+}
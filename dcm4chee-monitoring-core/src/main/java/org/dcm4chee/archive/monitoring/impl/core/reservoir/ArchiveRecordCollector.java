@@ -0,0 +1,97 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Visitor collecting copies of the visited archives.
+ * 
+ * Metrics collect the archives while they are locked and hand the copies on to the actual 
+ * visitor after the lock was released, so a slow visitor does not block the recording threads.
+ * A copy only holds the aggregated values of its archive. Quantiles are looked up in the 
+ * reservoir on request, while holding the {@link Guard} of the metric.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class ArchiveRecordCollector implements ArchiveVisitor {
+    private final List<ArchiveRecord> records = new ArrayList<>();
+    private final Guard guard;
+    
+    /**
+     * Creates a collector for archives not updated concurrently
+     */
+    public ArchiveRecordCollector() {
+        this(null);
+    }
+    
+    /**
+     * @param guard Lock of the metric owning the visited reservoir
+     */
+    public ArchiveRecordCollector(Guard guard) {
+        this.guard = guard;
+    }
+
+    @Override
+    public void visit(ArchiveRecord archive) {
+        records.add(archive.copy(guard));
+    }
+    
+    /**
+     * Hands the collected records on to the given visitor
+     */
+    public void visitAll(ArchiveVisitor visitor) {
+        for (ArchiveRecord record : records) {
+            visitor.visit(record);
+        }
+    }
+    
+    /**
+     * Lock of a metric, taken by the collected records to look up quantiles in the reservoir
+     */
+    public interface Guard {
+        void lock();
+        
+        void unlock();
+    }
+    
+}
@@ -0,0 +1,581 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.Arrays;
+
+/**
+ * Archive container for long retentions that keeps the archives which rolled out of the hot
+ * window in compact encoded blocks.
+ * 
+ * The ring-buffer is divided into blocks of {@link #BLOCK_SIZE} slots stored column-wise. The 
+ * block of the current archive and the one before are kept as plain arrays, older blocks are 
+ * frozen: timestamps are encoded as delta-of-delta, the other integers as deltas and doubles
+ * by XOR with the previous value (see T. Pelkonen et al., "Gorilla: A Fast, Scalable, In-Memory 
+ * Time Series Database"). Frozen blocks are only decoded on query, the last decoded block is 
+ * cached. Writing to a frozen block (e.g. merging a late archive of a finer resolution) thaws it 
+ * until the current archive moves on again.
+ * 
+ * Only the aggregated values are kept, containers of archives keeping raw values or histograms 
+ * are created as {@link PrimitiveArchiveContainer}.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+class CompressedArchiveContainer extends RoundRobinReservoir.ArchiveContainer {
+    static final int BLOCK_SIZE = 32;
+    
+    private static final long UNUSED = Long.MIN_VALUE;
+    
+    // column layout, one column of BLOCK_SIZE longs per field
+    private static final int START = 0;
+    private static final int END = 1;
+    private static final int SIZE = 2;
+    private static final int SUM = 3;
+    private static final int MEAN = 4;
+    private static final int M2 = 5;
+    private static final int MIN = 6;
+    private static final int MAX = 7;
+    private static final int MIN_TIMESTAMP = 8;
+    private static final int MAX_TIMESTAMP = 9;
+    private static final int FIRST_USAGE = 10;
+    private static final int LAST_USAGE = 11;
+    private static final int LAST_VALUE = 12;
+    private static final int FIELD_COUNT = 13;
+    
+    private static enum ENCODING {
+        DELTA_OF_DELTA,
+        DELTA,
+        XOR
+    }
+    
+    private static final ENCODING[] FIELD_ENCODINGS = new ENCODING[] {
+        ENCODING.DELTA_OF_DELTA, // START
+        ENCODING.DELTA_OF_DELTA, // END
+        ENCODING.DELTA,          // SIZE
+        ENCODING.DELTA,          // SUM
+        ENCODING.XOR,            // MEAN
+        ENCODING.XOR,            // M2
+        ENCODING.DELTA,          // MIN
+        ENCODING.DELTA,          // MAX
+        ENCODING.DELTA_OF_DELTA, // MIN_TIMESTAMP
+        ENCODING.DELTA_OF_DELTA, // MAX_TIMESTAMP
+        ENCODING.DELTA_OF_DELTA, // FIRST_USAGE
+        ENCODING.DELTA_OF_DELTA, // LAST_USAGE
+        ENCODING.DELTA           // LAST_VALUE
+    };
+    
+    // block of slots never used
+    private static final long[] UNUSED_BLOCK = new long[FIELD_COUNT * BLOCK_SIZE];
+    static {
+        Arrays.fill(UNUSED_BLOCK, START * BLOCK_SIZE, (START + 1) * BLOCK_SIZE, UNUSED);
+    }
+    
+    // per block either the plain columns or the encoded columns, both null if never used
+    private final long[][] hotBlocks;
+    private final long[][] frozenBlocks;
+    
+    // last decoded frozen block
+    private final long[] decoded = new long[FIELD_COUNT * BLOCK_SIZE];
+    private int decodedBlockIdx = -1;
+    
+    CompressedArchiveContainer(long resolution, int size, long start, long end) {
+        super(resolution, size, start, end);
+        
+        int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        hotBlocks = new long[blockCount][];
+        frozenBlocks = new long[blockCount][];
+        
+        resetSlot(0, start);
+        put(0, END, end);
+    }
+    
+    private long get(int idx, int field) {
+        return readBlock(idx / BLOCK_SIZE)[field * BLOCK_SIZE + idx % BLOCK_SIZE];
+    }
+    
+    private double getDouble(int idx, int field) {
+        return Double.longBitsToDouble(get(idx, field));
+    }
+    
+    private void put(int idx, int field, long value) {
+        writeBlock(idx / BLOCK_SIZE)[field * BLOCK_SIZE + idx % BLOCK_SIZE] = value;
+    }
+    
+    private void putDouble(int idx, int field, double value) {
+        put(idx, field, Double.doubleToRawLongBits(value));
+    }
+    
+    private long[] readBlock(int blockIdx) {
+        long[] block = hotBlocks[blockIdx];
+        if (block != null) {
+            return block;
+        }
+        
+        long[] frozen = frozenBlocks[blockIdx];
+        if (frozen == null) {
+            return UNUSED_BLOCK;
+        }
+        
+        if (decodedBlockIdx != blockIdx) {
+            decode(frozen, getBlockLength(blockIdx), decoded);
+            decodedBlockIdx = blockIdx;
+        }
+        return decoded;
+    }
+    
+    private long[] writeBlock(int blockIdx) {
+        long[] block = hotBlocks[blockIdx];
+        if (block == null) {
+            block = hotBlocks[blockIdx] = Arrays.copyOf(readBlock(blockIdx), FIELD_COUNT * BLOCK_SIZE);
+            frozenBlocks[blockIdx] = null;
+            if (decodedBlockIdx == blockIdx) {
+                decodedBlockIdx = -1;
+            }
+        }
+        return block;
+    }
+    
+    /*
+     * Freezes the hot blocks except the ones of the given and the preceding block
+     */
+    private void freezeColdBlocks(int currentBlockIdx) {
+        int previousBlockIdx = mod(currentBlockIdx - 1, hotBlocks.length);
+        for (int i = 0; i < hotBlocks.length; i++) {
+            if (hotBlocks[i] != null && i != currentBlockIdx && i != previousBlockIdx) {
+                frozenBlocks[i] = encode(hotBlocks[i], getBlockLength(i));
+                hotBlocks[i] = null;
+            }
+        }
+    }
+    
+    private int getBlockLength(int blockIdx) {
+        return Math.min(BLOCK_SIZE, size - blockIdx * BLOCK_SIZE);
+    }
+    
+    /**
+     * @return Returns the number of frozen blocks
+     */
+    int getFrozenBlockCount() {
+        int count = 0;
+        for (long[] frozen : frozenBlocks) {
+            if (frozen != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * @return Returns the number of longs allocated for the archives, hot blocks and encoded blocks
+     */
+    long getAllocatedLongs() {
+        long count = 0;
+        for (int i = 0; i < hotBlocks.length; i++) {
+            if (hotBlocks[i] != null) {
+                count += hotBlocks[i].length;
+            } else if (frozenBlocks[i] != null) {
+                count += frozenBlocks[i].length;
+            }
+        }
+        return count;
+    }
+    
+    @Override
+    protected void resetSlot(int idx, long start) {
+        put(idx, START, start);
+        put(idx, END, start + resolution - 1);
+        put(idx, SIZE, 0);
+        put(idx, SUM, Long.MIN_VALUE);
+        putDouble(idx, MEAN, Double.NaN);
+        putDouble(idx, M2, 0.0);
+        put(idx, MIN, Long.MAX_VALUE);
+        put(idx, MAX, Long.MIN_VALUE);
+        put(idx, MIN_TIMESTAMP, Long.MIN_VALUE);
+        put(idx, MAX_TIMESTAMP, Long.MIN_VALUE);
+        put(idx, FIRST_USAGE, Long.MIN_VALUE);
+        put(idx, LAST_USAGE, Long.MIN_VALUE);
+        put(idx, LAST_VALUE, Long.MIN_VALUE);
+        
+        freezeColdBlocks(idx / BLOCK_SIZE);
+    }
+
+    @Override
+    protected boolean isSlotUsed(int idx) {
+        return get(idx, START) != UNUSED;
+    }
+
+    @Override
+    protected long getSlotStart(int idx) {
+        return get(idx, START);
+    }
+
+    @Override
+    protected long getSlotEnd(int idx) {
+        return get(idx, END);
+    }
+
+    @Override
+    protected void updateSlot(int idx, long now, long value) {
+        long[] block = writeBlock(idx / BLOCK_SIZE);
+        int i = idx % BLOCK_SIZE;
+        
+        block[LAST_USAGE * BLOCK_SIZE + i] = now;
+        if (block[FIRST_USAGE * BLOCK_SIZE + i] == Long.MIN_VALUE) {
+            block[FIRST_USAGE * BLOCK_SIZE + i] = now;
+        }
+        
+        block[LAST_VALUE * BLOCK_SIZE + i] = value;
+        
+        long sum = block[SUM * BLOCK_SIZE + i];
+        block[SUM * BLOCK_SIZE + i] = (sum == Long.MIN_VALUE) ? value : sum + value;
+        
+        long size = ++block[SIZE * BLOCK_SIZE + i];
+        
+        // D. Knuths Online Variance algorithm, see PrimitiveArchiveContainer
+        double mean = (size == 1) ? 0.0 : Double.longBitsToDouble(block[MEAN * BLOCK_SIZE + i]);
+        double delta = value - mean;
+        mean = mean + delta / size;
+        double m2 = Double.longBitsToDouble(block[M2 * BLOCK_SIZE + i]) + delta * (value - mean);
+        block[MEAN * BLOCK_SIZE + i] = Double.doubleToRawLongBits(mean);
+        block[M2 * BLOCK_SIZE + i] = Double.doubleToRawLongBits(m2);
+        
+        if (value < block[MIN * BLOCK_SIZE + i]) {
+            block[MIN * BLOCK_SIZE + i] = value;
+            block[MIN_TIMESTAMP * BLOCK_SIZE + i] = now;
+        }
+        if (value > block[MAX * BLOCK_SIZE + i]) {
+            block[MAX * BLOCK_SIZE + i] = value;
+            block[MAX_TIMESTAMP * BLOCK_SIZE + i] = now;
+        }
+    }
+    
+    @Override
+    protected void mergeSlot(int idx, AggregatedReservoirSnapshotImpl snapshot) {
+        long n = snapshot.size();
+        if (n == 0) {
+            return;
+        }
+        
+        if (get(idx, FIRST_USAGE) == Long.MIN_VALUE) {
+            put(idx, FIRST_USAGE, snapshot.getFirstUsageTimestamp());
+        }
+        if (snapshot.getLastUsageTimestamp() >= get(idx, LAST_USAGE)) {
+            put(idx, LAST_USAGE, snapshot.getLastUsageTimestamp());
+            put(idx, LAST_VALUE, snapshot.getLastValue());
+        }
+        
+        long sum = get(idx, SUM);
+        put(idx, SUM, (sum == Long.MIN_VALUE) ? snapshot.getSum() : sum + snapshot.getSum());
+        
+        // parallel variant of the online variance algorithm (Chan et al.)
+        long size = get(idx, SIZE);
+        double snapshotM2 = (n < 2) ? 0.0 : snapshot.getStdDev() * snapshot.getStdDev() * (n - 1);
+        if (size == 0) {
+            putDouble(idx, MEAN, snapshot.getMean());
+            putDouble(idx, M2, snapshotM2);
+        } else {
+            long total = size + n;
+            double mean = getDouble(idx, MEAN);
+            double delta = snapshot.getMean() - mean;
+            putDouble(idx, MEAN, mean + delta * n / total);
+            putDouble(idx, M2, getDouble(idx, M2) + (snapshotM2 + delta * delta * ((double) size * n / total)));
+        }
+        put(idx, SIZE, size + n);
+        
+        if (snapshot.getMin() < get(idx, MIN)) {
+            put(idx, MIN, snapshot.getMin());
+            put(idx, MIN_TIMESTAMP, snapshot.getMinTimestamp());
+        }
+        if (snapshot.getMax() > get(idx, MAX)) {
+            put(idx, MAX, snapshot.getMax());
+            put(idx, MAX_TIMESTAMP, snapshot.getMaxTimestamp());
+        }
+    }
+
+    @Override
+    protected AggregatedReservoirSnapshotImpl copySlotToSnapshot(int idx) {
+        long size = get(idx, SIZE);
+        
+        AggregatedReservoirSnapshotImpl snapshot = new AggregatedReservoirSnapshotImpl();
+        snapshot.setStart(get(idx, START));
+        snapshot.setEnd(get(idx, END));
+        snapshot.setSize(size);
+        snapshot.setValues(null);
+        snapshot.setLastValue(get(idx, LAST_VALUE));
+        snapshot.setSum(get(idx, SUM));
+        snapshot.setMean((size == 0) ? Double.NaN : getDouble(idx, MEAN));
+        snapshot.setStdDev((size < 2) ? Double.NaN : Math.sqrt(getDouble(idx, M2) / (size - 1)));
+        snapshot.setMin(get(idx, MIN));
+        snapshot.setMinTimestamp(get(idx, MIN_TIMESTAMP));
+        snapshot.setMax(get(idx, MAX));
+        snapshot.setMaxTimestamp(get(idx, MAX_TIMESTAMP));
+        snapshot.setFirstUsageTimestamp(get(idx, FIRST_USAGE));
+        snapshot.setLastUsageTimestamp(get(idx, LAST_USAGE));
+        return snapshot;
+    }
+    
+    @Override
+    protected void copySlotToRecord(int idx, ArchiveRecord record) {
+        long size = get(idx, SIZE);
+        
+        record.setStart(get(idx, START));
+        record.setEnd(get(idx, END));
+        record.setSize(size);
+        record.setLastValue(get(idx, LAST_VALUE));
+        record.setSum(get(idx, SUM));
+        record.setMean((size == 0) ? Double.NaN : getDouble(idx, MEAN));
+        record.setStdDev((size < 2) ? Double.NaN : Math.sqrt(getDouble(idx, M2) / (size - 1)));
+        record.setMin(get(idx, MIN));
+        record.setMinTimestamp(get(idx, MIN_TIMESTAMP));
+        record.setMax(get(idx, MAX));
+        record.setMaxTimestamp(get(idx, MAX_TIMESTAMP));
+        record.setFirstUsageTimestamp(get(idx, FIRST_USAGE));
+        record.setLastUsageTimestamp(get(idx, LAST_USAGE));
+    }
+    
+    @Override
+    protected double getSlotValue(int idx, double quantile) {
+        // value distributions are not kept
+        return Double.NaN;
+    }
+    
+    /*
+     * Encodes the columns of the first length slots of the block
+     */
+    static long[] encode(long[] block, int length) {
+        BitWriter writer = new BitWriter(FIELD_COUNT * length / 8 + 2);
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            int offset = field * BLOCK_SIZE;
+            switch (FIELD_ENCODINGS[field]) {
+            case DELTA_OF_DELTA:
+                writer.write(block[offset], 64);
+                long delta = 0;
+                for (int i = 1; i < length; i++) {
+                    long newDelta = block[offset + i] - block[offset + i - 1];
+                    writer.writeVariable(newDelta - delta);
+                    delta = newDelta;
+                }
+                break;
+            case DELTA:
+                writer.write(block[offset], 64);
+                for (int i = 1; i < length; i++) {
+                    writer.writeVariable(block[offset + i] - block[offset + i - 1]);
+                }
+                break;
+            case XOR:
+                writer.write(block[offset], 64);
+                int leadingZeros = -1;
+                int trailingZeros = -1;
+                for (int i = 1; i < length; i++) {
+                    long xor = block[offset + i] ^ block[offset + i - 1];
+                    if (xor == 0) {
+                        writer.write(0, 1);
+                        continue;
+                    }
+                    
+                    writer.write(1, 1);
+                    int newLeadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                    int newTrailingZeros = Long.numberOfTrailingZeros(xor);
+                    if (leadingZeros >= 0 && newLeadingZeros >= leadingZeros && newTrailingZeros >= trailingZeros) {
+                        // meaningful bits fit into the window of the previous value
+                        writer.write(0, 1);
+                        writer.write(xor >>> trailingZeros, 64 - leadingZeros - trailingZeros);
+                    } else {
+                        leadingZeros = newLeadingZeros;
+                        trailingZeros = newTrailingZeros;
+                        int meaningfulBits = 64 - leadingZeros - trailingZeros;
+                        writer.write(1, 1);
+                        writer.write(leadingZeros, 5);
+                        writer.write(meaningfulBits - 1, 6);
+                        writer.write(xor >>> trailingZeros, meaningfulBits);
+                    }
+                }
+                break;
+            }
+        }
+        return writer.toArray();
+    }
+    
+    /*
+     * Decodes the columns of the first length slots into the block
+     */
+    static void decode(long[] encoded, int length, long[] block) {
+        BitReader reader = new BitReader(encoded);
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            int offset = field * BLOCK_SIZE;
+            block[offset] = reader.read(64);
+            switch (FIELD_ENCODINGS[field]) {
+            case DELTA_OF_DELTA:
+                long delta = 0;
+                for (int i = 1; i < length; i++) {
+                    delta += reader.readVariable();
+                    block[offset + i] = block[offset + i - 1] + delta;
+                }
+                break;
+            case DELTA:
+                for (int i = 1; i < length; i++) {
+                    block[offset + i] = block[offset + i - 1] + reader.readVariable();
+                }
+                break;
+            case XOR:
+                int leadingZeros = 0;
+                int trailingZeros = 0;
+                for (int i = 1; i < length; i++) {
+                    long xor = 0;
+                    if (reader.read(1) == 1) {
+                        if (reader.read(1) == 1) {
+                            leadingZeros = (int) reader.read(5);
+                            trailingZeros = 64 - leadingZeros - ((int) reader.read(6) + 1);
+                        }
+                        xor = reader.read(64 - leadingZeros - trailingZeros) << trailingZeros;
+                    }
+                    block[offset + i] = block[offset + i - 1] ^ xor;
+                }
+                break;
+            }
+        }
+    }
+    
+    /*
+     * Bit stream of 64 bit words, values are written most significant bit first
+     */
+    private static class BitWriter {
+        private long[] words;
+        private int position;
+        
+        private BitWriter(int initialWords) {
+            words = new long[initialWords];
+        }
+        
+        /*
+         * Writes the given number (1 - 64) of low-order bits of the value
+         */
+        private void write(long value, int bits) {
+            if (bits < 64) {
+                value &= (1L << bits) - 1;
+            }
+            
+            int wordIdx = position >>> 6;
+            if (wordIdx + 1 >= words.length) {
+                words = Arrays.copyOf(words, 2 * words.length + 2);
+            }
+            
+            int free = 64 - (position & 63);
+            if (bits <= free) {
+                words[wordIdx] |= value << (free - bits);
+            } else {
+                int rest = bits - free;
+                words[wordIdx] |= value >>> rest;
+                words[wordIdx + 1] |= value << (64 - rest);
+            }
+            position += bits;
+        }
+        
+        /*
+         * Writes the zig-zag encoded value with a prefix code selecting the number of bits
+         */
+        private void writeVariable(long value) {
+            long zigZag = (value << 1) ^ (value >> 63);
+            if (zigZag == 0) {
+                write(0, 1);
+            } else if (zigZag >>> 7 == 0) {
+                write(0b10, 2);
+                write(zigZag, 7);
+            } else if (zigZag >>> 12 == 0) {
+                write(0b110, 3);
+                write(zigZag, 12);
+            } else if (zigZag >>> 20 == 0) {
+                write(0b1110, 4);
+                write(zigZag, 20);
+            } else {
+                write(0b1111, 4);
+                write(zigZag, 64);
+            }
+        }
+        
+        private long[] toArray() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+    
+    private static class BitReader {
+        private final long[] words;
+        private int position;
+        
+        private BitReader(long[] words) {
+            this.words = words;
+        }
+        
+        /*
+         * Reads the given number (1 - 64) of bits
+         */
+        private long read(int bits) {
+            int wordIdx = position >>> 6;
+            int free = 64 - (position & 63);
+            long value;
+            if (bits <= free) {
+                value = words[wordIdx] >>> (free - bits);
+            } else {
+                int rest = bits - free;
+                value = (words[wordIdx] << rest) | (words[wordIdx + 1] >>> (64 - rest));
+            }
+            position += bits;
+            return (bits == 64) ? value : value & ((1L << bits) - 1);
+        }
+        
+        private long readVariable() {
+            long zigZag;
+            if (read(1) == 0) {
+                return 0;
+            } else if (read(1) == 0) {
+                zigZag = read(7);
+            } else if (read(1) == 0) {
+                zigZag = read(12);
+            } else if (read(1) == 0) {
+                zigZag = read(20);
+            } else {
+                zigZag = read(64);
+            }
+            return (zigZag >>> 1) ^ -(zigZag & 1);
+        }
+    }
+
+}
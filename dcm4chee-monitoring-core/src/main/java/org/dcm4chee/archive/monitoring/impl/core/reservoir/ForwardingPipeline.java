@@ -0,0 +1,300 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
+import org.dcm4chee.archive.monitoring.impl.util.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decouples the forwarding of values to parent aggregates from the recording thread.
+ * 
+ * A {@link ForwardingReservoir} using the pipeline only enqueues the value into a bounded lock-free 
+ * multi-producer ring buffer. The ring is drained in batches by a single consumer, periodically by a 
+ * daemon thread and on {@link #flush()}, which applies the values to the parent aggregates. Values 
+ * forwarded further up by the parent aggregates while draining are applied directly, so a whole 
+ * forward chain is applied within the same batch.
+ * 
+ * If the ring is full the value is appended to an unbounded overflow queue and counted as overflow, 
+ * so values are never dropped. The consumer applies the overflow queue after the ring. As long as 
+ * the overflow queue is not empty further values are appended to it as well, as the reservoirs skip 
+ * values older than the last one. The recording thread never drains itself: it may hold the lock of 
+ * an aggregate one of the enqueued values is forwarded to.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class ForwardingPipeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ForwardingPipeline.class);
+    
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_DRAIN_PERIOD = 10;
+    
+    private final int mask;
+    private final long drainPeriod;
+    
+    /*
+     * Slot i is free for the producer claiming position p if sequences[i] == p and 
+     * holds the value of position p for the consumer if sequences[i] == p + 1
+     */
+    private final AtomicLongArray sequences;
+    private final ForwardingReservoir[] targets;
+    private final MonitoringContext[] contexts;
+    private final long[] times;
+    private final long[] values;
+    
+    private final AtomicLong tail = new AtomicLong();
+    // only written by the consumer holding the drain lock
+    private volatile long head;
+    private final ReentrantLock drainLock = new ReentrantLock();
+    
+    private final ConcurrentLinkedQueue<ForwardedValue> overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicLong overflowLag = new AtomicLong();
+    private final LongAdder overflowCount = new LongAdder();
+    private volatile long maxLag;
+    
+    private java.util.Timer timer;
+    
+    public ForwardingPipeline() {
+        this(DEFAULT_CAPACITY, DEFAULT_DRAIN_PERIOD);
+    }
+    
+    /**
+     * @param capacity Number of values the ring buffer holds, rounded up to the next power of 2
+     * @param drainPeriod Period in milliseconds of the drains by the daemon thread
+     */
+    public ForwardingPipeline(int capacity, long drainPeriod) {
+        if (capacity <= 0 || drainPeriod <= 0) {
+            throw new IllegalArgumentException("Capacity and drain period must be greater 0");
+        }
+        
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        
+        this.mask = size - 1;
+        this.drainPeriod = drainPeriod;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.targets = new ForwardingReservoir[size];
+        this.contexts = new MonitoringContext[size];
+        this.times = new long[size];
+        this.values = new long[size];
+    }
+    
+    /**
+     * Starts draining periodically in a daemon thread
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        
+        timer = new java.util.Timer("MonitoringForwardingPipeline", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error while applying forwarded values", e);
+                }
+            }
+        }, drainPeriod, drainPeriod);
+    }
+    
+    /**
+     * Stops draining periodically and drains the enqueued values a last time
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        
+        flush();
+    }
+    
+    /*
+     * Enqueues the value or forwards it directly if called while draining
+     */
+    void forward(ForwardingReservoir target, MonitoringContext context, long now, long value) {
+        if (drainLock.isHeldByCurrentThread()) {
+            target.forward(context, now, value);
+        } else if (overflowLag.get() > 0 || !offer(target, context, now, value)) {
+            overflowCount.increment();
+            overflowLag.incrementAndGet();
+            overflow.add(new ForwardedValue(target, context, now, value));
+        }
+    }
+    
+    private boolean offer(ForwardingReservoir target, MonitoringContext context, long now, long value) {
+        long pos;
+        int index;
+        while (true) {
+            pos = tail.get();
+            index = (int)pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // slot of the previous round not consumed yet
+                return false;
+            }
+        }
+        
+        targets[index] = target;
+        contexts[index] = context;
+        times[index] = now;
+        values[index] = value;
+        // publish the slot to the consumer
+        sequences.lazySet(index, pos + 1);
+        return true;
+    }
+    
+    /**
+     * Applies all values enqueued so far to the parent aggregates
+     */
+    public void flush() {
+        drainLock.lock();
+        try {
+            drain();
+        } finally {
+            drainLock.unlock();
+        }
+    }
+    
+    /*
+     * Applies the enqueued values in the order they were enqueued, the drain lock must be held
+     */
+    private void drain() {
+        long lag = getLag();
+        if (lag > maxLag) {
+            maxLag = lag;
+        }
+        
+        long pos = head;
+        while (true) {
+            int index = (int)pos & mask;
+            if (sequences.get(index) != pos + 1) {
+                // empty or the producer claiming the slot has not published yet
+                break;
+            }
+            
+            ForwardingReservoir target = targets[index];
+            MonitoringContext context = contexts[index];
+            long now = times[index];
+            long value = values[index];
+            targets[index] = null;
+            contexts[index] = null;
+            // free the slot for the next round
+            sequences.lazySet(index, pos + mask + 1);
+            head = ++pos;
+            
+            try {
+                target.forward(context, now, value);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error while applying forwarded value", e);
+            }
+        }
+        
+        ForwardedValue forwarded;
+        while ((forwarded = overflow.poll()) != null) {
+            overflowLag.decrementAndGet();
+            try {
+                forwarded.target.forward(forwarded.context, forwarded.now, forwarded.value);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error while applying forwarded value", e);
+            }
+        }
+    }
+    
+    /**
+     * @return Returns the number of values appended to the overflow queue because the ring was full
+     */
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+    
+    /**
+     * @return Returns the number of values enqueued but not yet applied
+     */
+    public long getLag() {
+        return Math.max(0, tail.get() - head) + overflowLag.get();
+    }
+    
+    /**
+     * @return Returns the maximum lag seen at the start of a drain
+     */
+    public long getMaxLag() {
+        return maxLag;
+    }
+    
+    public int getCapacity() {
+        return mask + 1;
+    }
+    
+    private static class ForwardedValue {
+        private final ForwardingReservoir target;
+        private final MonitoringContext context;
+        private final long now;
+        private final long value;
+        
+        private ForwardedValue(ForwardingReservoir target, MonitoringContext context, long now, long value) {
+            this.target = target;
+            this.context = context;
+            this.now = now;
+            this.value = value;
+        }
+    }
+    
+}
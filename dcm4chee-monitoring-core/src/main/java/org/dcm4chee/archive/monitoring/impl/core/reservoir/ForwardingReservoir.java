@@ -51,9 +51,18 @@ import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
  */
 public class ForwardingReservoir implements Reservoir {
 	private final List<Reservoir> reservoirs = new ArrayList<>();
+	private final ForwardingPipeline pipeline;
 	
 	public ForwardingReservoir() {
-		// NOOP
+		this(null);
+	}
+	
+	/**
+	 * @param pipeline Pipeline applying the forwarded values asynchronously, 
+	 * if <code>null</code> values are forwarded on the calling thread
+	 */
+	public ForwardingReservoir(ForwardingPipeline pipeline) {
+		this.pipeline = pipeline;
 	}
 	
 	public void addReservoir(Reservoir reservoir) {
@@ -62,6 +71,33 @@ public class ForwardingReservoir implements Reservoir {
 	
 	@Override
 	public void update(MonitoringContext context, long now, long value) {
+		if (pipeline != null) {
+			pipeline.forward(this, context, now, value);
+		} else {
+			forward(context, now, value);
+		}
+	}
+	
+	@Override
+	public void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+		if (pipeline != null) {
+			for (int i = 0; i < len; i++) {
+				pipeline.forward(this, context, timestamps[i], values[i]);
+			}
+			return;
+		}
+		
+		for (Reservoir reservoir : reservoirs) {
+			if (reservoir != null) {
+				reservoir.updateBatch(context, timestamps, values, len);
+			}
+		}
+	}
+	
+	/*
+	 * Updates the target reservoirs on the calling thread
+	 */
+	void forward(MonitoringContext context, long now, long value) {
 		for (Reservoir reservoir : reservoirs) {
 			if (reservoir != null) {
 				reservoir.update(context, now, value);
@@ -0,0 +1,268 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear bucket histogram (in the style of HdrHistogram).
+ * 
+ * Values below 2^p are counted exactly, larger values are counted in buckets
+ * whose width doubles with every power of two, each power of two being split 
+ * into 2^(p-1) linear sub-buckets. The number of sub-bucket bits p is derived from 
+ * the precision (number of significant decimal digits) so that the relative error 
+ * of a reported quantile is at most 10^-precision. 
+ * 
+ * The bucket array only covers the buckets up to the highest value recorded so far, it grows 
+ * when a larger value is recorded for the first time and is kept on {@link #reset()}. 
+ * Copies and merges only touch the used buckets. Negative values are counted as 0.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class LogLinearHistogram {
+    public static final int DEFAULT_PRECISION = 2;
+    
+    private final int precision;
+    private final int subBucketBits;
+    private final int subBucketCount;
+    private final int subBucketHalfCount;
+    // number of buckets needed to cover the whole positive long range
+    private final int bucketCount;
+    private long[] counts;
+    
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    // highest bucket index used, bounds the work of reset() and quantile lookups
+    private int maxIndex = -1;
+    
+    /**
+     * @param precision Number of significant decimal digits (1 - 3)
+     */
+    public LogLinearHistogram(int precision) {
+        if (precision < 1 || precision > 3) {
+            throw new IllegalArgumentException("Histogram precision must be between 1 and 3 significant digits");
+        }
+        
+        this.precision = precision;
+        this.subBucketBits = (int) Math.ceil(Math.log(Math.pow(10, precision)) / Math.log(2));
+        this.subBucketCount = 1 << subBucketBits;
+        this.subBucketHalfCount = subBucketCount >> 1;
+        this.bucketCount = subBucketCount + (63 - subBucketBits) * subBucketHalfCount;
+        this.counts = new long[0];
+    }
+    
+    private LogLinearHistogram(LogLinearHistogram histogram) {
+        this.precision = histogram.precision;
+        this.subBucketBits = histogram.subBucketBits;
+        this.subBucketCount = histogram.subBucketCount;
+        this.subBucketHalfCount = histogram.subBucketHalfCount;
+        this.bucketCount = histogram.bucketCount;
+        this.counts = Arrays.copyOf(histogram.counts, histogram.maxIndex + 1);
+        this.totalCount = histogram.totalCount;
+        this.min = histogram.min;
+        this.max = histogram.max;
+        this.maxIndex = histogram.maxIndex;
+    }
+    
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        
+        int idx = getIndex(value);
+        if (idx >= counts.length) {
+            grow(idx);
+        }
+        counts[idx]++;
+        totalCount++;
+        
+        if (idx > maxIndex) {
+            maxIndex = idx;
+        }
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+    
+    /**
+     * Adds the counts of the given histogram to this histogram.
+     * @param histogram Histogram of the same precision
+     */
+    public void add(LogLinearHistogram histogram) {
+        if (histogram.precision != precision) {
+            throw new IllegalArgumentException("Histograms of different precision can not be added");
+        }
+        
+        if (histogram.maxIndex >= counts.length) {
+            grow(histogram.maxIndex);
+        }
+        for (int i = 0; i <= histogram.maxIndex; i++) {
+            counts[i] += histogram.counts[i];
+        }
+        totalCount += histogram.totalCount;
+        maxIndex = Math.max(maxIndex, histogram.maxIndex);
+        min = Math.min(min, histogram.min);
+        max = Math.max(max, histogram.max);
+    }
+    
+    public void reset() {
+        if (maxIndex >= 0) {
+            Arrays.fill(counts, 0, maxIndex + 1, 0L);
+        }
+        totalCount = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+        maxIndex = -1;
+    }
+    
+    /*
+     * Grows the bucket array to cover the given index, by at least half of its length 
+     * so that values growing over time do not copy the array on every new bucket
+     */
+    private void grow(int idx) {
+        int length = Math.max(idx + 1, counts.length + (counts.length >> 1));
+        counts = Arrays.copyOf(counts, Math.min(length, bucketCount));
+    }
+    
+    public LogLinearHistogram copy() {
+        return new LogLinearHistogram(this);
+    }
+    
+    /**
+     * Returns the value at the given quantile.
+     * 
+     * @param quantile a given quantile, in {@code [0..1]}
+     * @return the value at {@code quantile} or NaN if the histogram is empty
+     */
+    public double getValueAtQuantile(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        
+        if (totalCount == 0) {
+            return Double.NaN;
+        }
+        
+        long rank = Math.max(1, (long) Math.ceil(quantile * totalCount));
+        // the extremes are tracked exactly
+        if (rank == 1) {
+            return min;
+        } else if (rank >= totalCount) {
+            return max;
+        }
+        
+        long cumulativeCount = 0;
+        for (int i = 0; i <= maxIndex; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= rank) {
+                // constrained by the recorded extremes
+                return Math.max(min, Math.min(max, getRepresentativeValue(i)));
+            }
+        }
+        
+        return max;
+    }
+    
+    public long getTotalCount() {
+        return totalCount;
+    }
+    
+    public int getPrecision() {
+        return precision;
+    }
+    
+    long getMin() {
+        return min;
+    }
+    
+    long getMax() {
+        return max;
+    }
+    
+    int getMaxIndex() {
+        return maxIndex;
+    }
+    
+    long getCount(int idx) {
+        return counts[idx];
+    }
+    
+    /*
+     * Middle of the value range of the given bucket
+     */
+    long getRepresentativeValue(int idx) {
+        return getLowestValue(idx) + (getBucketWidth(idx) >> 1);
+    }
+    
+    private int getIndex(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        
+        int shift = 64 - Long.numberOfLeadingZeros(value) - subBucketBits;
+        int subBucket = (int) (value >>> shift);
+        return subBucketCount + (shift - 1) * subBucketHalfCount + (subBucket - subBucketHalfCount);
+    }
+    
+    private long getLowestValue(int idx) {
+        if (idx < subBucketCount) {
+            return idx;
+        }
+        
+        int offset = idx - subBucketCount;
+        int shift = offset / subBucketHalfCount + 1;
+        long subBucket = offset % subBucketHalfCount + subBucketHalfCount;
+        return subBucket << shift;
+    }
+    
+    private long getBucketWidth(int idx) {
+        if (idx < subBucketCount) {
+            return 1;
+        }
+        
+        return 1L << ((idx - subBucketCount) / subBucketHalfCount + 1);
+    }
+
+}
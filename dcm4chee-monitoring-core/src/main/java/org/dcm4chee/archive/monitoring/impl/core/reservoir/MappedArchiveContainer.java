@@ -0,0 +1,274 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Archive container storing the archives of its ring-buffer in fixed-size records of a 
+ * memory-mapped archive file (see {@link MappedArchiveStore}).
+ * 
+ * Records are updated in place by absolute reads and writes on the mapped buffer, so 
+ * recording neither allocates nor serializes. On construction the container is re-attached
+ * to the archives of a former instance if the file holds the persisted history.
+ * 
+ * Only the aggregated values are persisted, raw values and histograms are not kept.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+class MappedArchiveContainer extends RoundRobinReservoir.ArchiveContainer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedArchiveContainer.class);
+    
+    private static final long UNUSED = Long.MIN_VALUE;
+    
+    // record layout, one long per field
+    private static final int START = 0;
+    private static final int END = 1;
+    private static final int SIZE = 2;
+    private static final int SUM = 3;
+    private static final int MEAN = 4;
+    private static final int M2 = 5;
+    private static final int MIN = 6;
+    private static final int MAX = 7;
+    private static final int MIN_TIMESTAMP = 8;
+    private static final int MAX_TIMESTAMP = 9;
+    private static final int FIRST_USAGE = 10;
+    private static final int LAST_USAGE = 11;
+    private static final int LAST_VALUE = 12;
+    private static final int FIELD_COUNT = 13;
+    
+    static final int RECORD_SIZE = FIELD_COUNT * 8;
+    
+    private final ByteBuffer buffer;
+    private final int offset;
+    
+    MappedArchiveContainer(long resolution, int size, long start, long end, MappedArchiveStore.MappedFile file, int containerIdx) {
+        super(resolution, size, start, end);
+        
+        this.buffer = file.getBuffer();
+        this.offset = file.getContainerOffset(containerIdx);
+        
+        if (file.isReattached() && reattach(start)) {
+            LOGGER.debug("Re-attached persisted archives of {}", this);
+        } else {
+            for (int i = 0; i < size; i++) {
+                putLong(i, START, UNUSED);
+            }
+            
+            resetSlot(0, start);
+            putLong(0, END, end);
+        }
+    }
+    
+    private long getLong(int idx, int field) {
+        return buffer.getLong(offset + idx * RECORD_SIZE + field * 8);
+    }
+    
+    private void putLong(int idx, int field, long value) {
+        buffer.putLong(offset + idx * RECORD_SIZE + field * 8, value);
+    }
+    
+    private double getDouble(int idx, int field) {
+        return buffer.getDouble(offset + idx * RECORD_SIZE + field * 8);
+    }
+    
+    private void putDouble(int idx, int field, double value) {
+        buffer.putDouble(offset + idx * RECORD_SIZE + field * 8, value);
+    }
+    
+    @Override
+    protected void resetSlot(int idx, long start) {
+        putLong(idx, START, start);
+        putLong(idx, END, start + resolution - 1);
+        putLong(idx, SIZE, 0);
+        putLong(idx, SUM, Long.MIN_VALUE);
+        putDouble(idx, MEAN, Double.NaN);
+        putDouble(idx, M2, 0.0);
+        putLong(idx, MIN, Long.MAX_VALUE);
+        putLong(idx, MAX, Long.MIN_VALUE);
+        putLong(idx, MIN_TIMESTAMP, Long.MIN_VALUE);
+        putLong(idx, MAX_TIMESTAMP, Long.MIN_VALUE);
+        putLong(idx, FIRST_USAGE, Long.MIN_VALUE);
+        putLong(idx, LAST_USAGE, Long.MIN_VALUE);
+        putLong(idx, LAST_VALUE, Long.MIN_VALUE);
+    }
+
+    @Override
+    protected boolean isSlotUsed(int idx) {
+        return getLong(idx, START) != UNUSED;
+    }
+
+    @Override
+    protected long getSlotStart(int idx) {
+        return getLong(idx, START);
+    }
+
+    @Override
+    protected long getSlotEnd(int idx) {
+        return getLong(idx, END);
+    }
+
+    @Override
+    protected void updateSlot(int idx, long now, long value) {
+        putLong(idx, LAST_USAGE, now);
+        if (getLong(idx, FIRST_USAGE) == Long.MIN_VALUE) {
+            putLong(idx, FIRST_USAGE, now);
+        }
+        
+        putLong(idx, LAST_VALUE, value);
+        
+        long sum = getLong(idx, SUM);
+        putLong(idx, SUM, (sum == Long.MIN_VALUE) ? value : sum + value);
+        
+        long size = getLong(idx, SIZE) + 1;
+        putLong(idx, SIZE, size);
+        
+        // D. Knuths Online Variance algorithm, see PrimitiveArchiveContainer
+        double mean = (size == 1) ? 0.0 : getDouble(idx, MEAN);
+        double delta = value - mean;
+        mean = mean + delta / size;
+        putDouble(idx, MEAN, mean);
+        putDouble(idx, M2, getDouble(idx, M2) + delta * (value - mean));
+        
+        if (value < getLong(idx, MIN)) {
+            putLong(idx, MIN, value);
+            putLong(idx, MIN_TIMESTAMP, now);
+        }
+        if (value > getLong(idx, MAX)) {
+            putLong(idx, MAX, value);
+            putLong(idx, MAX_TIMESTAMP, now);
+        }
+    }
+    
+    @Override
+    protected void mergeSlot(int idx, AggregatedReservoirSnapshotImpl snapshot) {
+        long n = snapshot.size();
+        if (n == 0) {
+            return;
+        }
+        
+        if (getLong(idx, FIRST_USAGE) == Long.MIN_VALUE) {
+            putLong(idx, FIRST_USAGE, snapshot.getFirstUsageTimestamp());
+        }
+        if (snapshot.getLastUsageTimestamp() >= getLong(idx, LAST_USAGE)) {
+            putLong(idx, LAST_USAGE, snapshot.getLastUsageTimestamp());
+            putLong(idx, LAST_VALUE, snapshot.getLastValue());
+        }
+        
+        long sum = getLong(idx, SUM);
+        putLong(idx, SUM, (sum == Long.MIN_VALUE) ? snapshot.getSum() : sum + snapshot.getSum());
+        
+        // parallel variant of the online variance algorithm (Chan et al.)
+        long size = getLong(idx, SIZE);
+        double snapshotM2 = (n < 2) ? 0.0 : snapshot.getStdDev() * snapshot.getStdDev() * (n - 1);
+        if (size == 0) {
+            putDouble(idx, MEAN, snapshot.getMean());
+            putDouble(idx, M2, snapshotM2);
+        } else {
+            long total = size + n;
+            double mean = getDouble(idx, MEAN);
+            double delta = snapshot.getMean() - mean;
+            putDouble(idx, MEAN, mean + delta * n / total);
+            putDouble(idx, M2, getDouble(idx, M2) + snapshotM2 + delta * delta * ((double) size * n / total));
+        }
+        putLong(idx, SIZE, size + n);
+        
+        if (snapshot.getMin() < getLong(idx, MIN)) {
+            putLong(idx, MIN, snapshot.getMin());
+            putLong(idx, MIN_TIMESTAMP, snapshot.getMinTimestamp());
+        }
+        if (snapshot.getMax() > getLong(idx, MAX)) {
+            putLong(idx, MAX, snapshot.getMax());
+            putLong(idx, MAX_TIMESTAMP, snapshot.getMaxTimestamp());
+        }
+    }
+
+    @Override
+    protected AggregatedReservoirSnapshotImpl copySlotToSnapshot(int idx) {
+        long size = getLong(idx, SIZE);
+        
+        AggregatedReservoirSnapshotImpl snapshot = new AggregatedReservoirSnapshotImpl();
+        snapshot.setStart(getLong(idx, START));
+        snapshot.setEnd(getLong(idx, END));
+        snapshot.setSize(size);
+        snapshot.setValues(null);
+        snapshot.setLastValue(getLong(idx, LAST_VALUE));
+        snapshot.setSum(getLong(idx, SUM));
+        snapshot.setMean((size == 0) ? Double.NaN : getDouble(idx, MEAN));
+        snapshot.setStdDev((size < 2) ? Double.NaN : Math.sqrt(getDouble(idx, M2) / (size - 1)));
+        snapshot.setMin(getLong(idx, MIN));
+        snapshot.setMinTimestamp(getLong(idx, MIN_TIMESTAMP));
+        snapshot.setMax(getLong(idx, MAX));
+        snapshot.setMaxTimestamp(getLong(idx, MAX_TIMESTAMP));
+        snapshot.setFirstUsageTimestamp(getLong(idx, FIRST_USAGE));
+        snapshot.setLastUsageTimestamp(getLong(idx, LAST_USAGE));
+        return snapshot;
+    }
+    
+    @Override
+    protected void copySlotToRecord(int idx, ArchiveRecord record) {
+        long size = getLong(idx, SIZE);
+        
+        record.setStart(getLong(idx, START));
+        record.setEnd(getLong(idx, END));
+        record.setSize(size);
+        record.setLastValue(getLong(idx, LAST_VALUE));
+        record.setSum(getLong(idx, SUM));
+        record.setMean((size == 0) ? Double.NaN : getDouble(idx, MEAN));
+        record.setStdDev((size < 2) ? Double.NaN : Math.sqrt(getDouble(idx, M2) / (size - 1)));
+        record.setMin(getLong(idx, MIN));
+        record.setMinTimestamp(getLong(idx, MIN_TIMESTAMP));
+        record.setMax(getLong(idx, MAX));
+        record.setMaxTimestamp(getLong(idx, MAX_TIMESTAMP));
+        record.setFirstUsageTimestamp(getLong(idx, FIRST_USAGE));
+        record.setLastUsageTimestamp(getLong(idx, LAST_USAGE));
+    }
+    
+    @Override
+    protected double getSlotValue(int idx, double quantile) {
+        // value distributions are not persisted
+        return Double.NaN;
+    }
+
+}
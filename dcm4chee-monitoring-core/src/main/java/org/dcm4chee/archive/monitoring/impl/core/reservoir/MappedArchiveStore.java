@@ -0,0 +1,402 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store of memory-mapped archive files, which keeps the history of round-robin reservoirs
+ * across restarts.
+ * 
+ * Every reservoir is stored in a file of its own (RRD-style). The file starts with a header 
+ * identifying the metric (type, reservoir name and context path) and the layout of its archive 
+ * containers (step size, resolutions and number of archives). The header is followed by the 
+ * ring-buffers of the archive containers, each archive stored in a fixed-size record. 
+ * Reservoirs update their records in place, see {@link MappedArchiveContainer}.
+ * 
+ * If the layout of an existing file does not match the reservoir configuration anymore,
+ * the persisted history is discarded.
+ * 
+ * The store has to be {@link #close() closed} on shutdown, so the records updated in memory 
+ * are written to the files.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class MappedArchiveStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedArchiveStore.class);
+    
+    private static final int MAGIC = 0x52524131; // "RRA1"
+    private static final int VERSION = 1;
+    private static final String FILE_SUFFIX = ".rra";
+    
+    private final File directory;
+    
+    // mappings of the opened files, dropped once their reservoirs were garbage collected
+    private final List<WeakReference<MappedByteBuffer>> mappings = new ArrayList<>();
+    private boolean closed;
+    
+    public static enum METRIC_TYPE {
+        TIMER,
+        COUNTER,
+        METER,
+        SUM_AGGREGATE,
+        SIMPLE_AGGREGATE,
+        CPU_TIMER,
+        WAIT_TIMER,
+        GAUGE
+    }
+    
+    public MappedArchiveStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create archive store directory " + directory);
+        }
+        this.directory = directory;
+    }
+    
+    public File getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * @return Returns the keys of all reservoirs persisted in the store
+     */
+    public List<Key> getKeys() {
+        List<Key> keys = new ArrayList<>();
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(FILE_SUFFIX);
+            }
+        });
+        
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    keys.add(readHeader(file).key);
+                } catch (IOException e) {
+                    LOGGER.warn("Ignoring unreadable archive file {}: {}", file, e.getMessage());
+                }
+            }
+        }
+        
+        return keys;
+    }
+    
+    /**
+     * Maps the archive file of the given reservoir. An existing file with matching layout is 
+     * reattached, otherwise the file is (re-)initialized.
+     */
+    synchronized MappedFile open(Key key, long step, long[] resolutions, int[] sizes) throws IOException {
+        if (closed) {
+            throw new IOException("Archive store " + directory + " is closed");
+        }
+        
+        Header header = new Header(key, step, resolutions, sizes);
+        File file = new File(directory, getFileName(key));
+        
+        boolean reattach = false;
+        if (file.exists()) {
+            try {
+                reattach = header.matches(readHeader(file)) && file.length() == header.getFileLength();
+            } catch (IOException e) {
+                LOGGER.warn("Could not read archive file {}: {}", file, e.getMessage());
+            }
+            
+            if (!reattach) {
+                LOGGER.info("Layout of archive file {} changed, discarding persisted history of {}", file, key);
+            }
+        }
+        
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (!reattach) {
+                raf.setLength(0);
+                raf.write(header.toBytes());
+                raf.setLength(header.getFileLength());
+            }
+            
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, header.getFileLength());
+            mappings.add(new WeakReference<>(buffer));
+            return new MappedFile(buffer, header, reattach);
+        }
+    }
+    
+    /**
+     * Writes the records updated in memory to the files of all reservoirs
+     */
+    public synchronized void force() {
+        Iterator<WeakReference<MappedByteBuffer>> refs = mappings.iterator();
+        while (refs.hasNext()) {
+            MappedByteBuffer buffer = refs.next().get();
+            if (buffer != null) {
+                buffer.force();
+            } else {
+                refs.remove();
+            }
+        }
+    }
+    
+    /**
+     * Forces the records to the files and closes the store, no reservoirs are persisted from then on. 
+     * The mappings themselves are released once the reservoirs are garbage collected.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        
+        force();
+        mappings.clear();
+        closed = true;
+    }
+    
+    private static Header readHeader(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an archive file of version " + VERSION);
+            }
+            in.readInt(); // header length
+            
+            METRIC_TYPE metricType;
+            try {
+                metricType = METRIC_TYPE.valueOf(in.readUTF());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+            String reservoirName = in.readUTF();
+            String[] path = new String[in.readInt()];
+            for (int i = 0; i < path.length; i++) {
+                path[i] = in.readUTF();
+            }
+            
+            long step = in.readLong();
+            int containerCount = in.readInt();
+            long[] resolutions = new long[containerCount];
+            int[] sizes = new int[containerCount];
+            for (int i = 0; i < containerCount; i++) {
+                resolutions[i] = in.readLong();
+                sizes[i] = in.readInt();
+            }
+            
+            return new Header(new Key(metricType, reservoirName, path), step, resolutions, sizes);
+        }
+    }
+    
+    private static String getFileName(Key key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(key.getMetricType().name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(key.getReservoirName().getBytes(StandardCharsets.UTF_8));
+            for (String pathElement : key.getPath()) {
+                digest.update((byte) 0);
+                digest.update(pathElement.getBytes(StandardCharsets.UTF_8));
+            }
+            
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.append(FILE_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Identifies the reservoir of a metric
+     */
+    public static class Key {
+        private final METRIC_TYPE metricType;
+        private final String reservoirName;
+        private final String[] path;
+        
+        public Key(METRIC_TYPE metricType, String reservoirName, String[] path) {
+            this.metricType = metricType;
+            this.reservoirName = reservoirName;
+            this.path = path;
+        }
+        
+        public METRIC_TYPE getMetricType() {
+            return metricType;
+        }
+        
+        public String getReservoirName() {
+            return reservoirName;
+        }
+        
+        public String[] getPath() {
+            return path;
+        }
+        
+        @Override
+        public String toString() {
+            return metricType + " " + reservoirName + " " + Arrays.toString(path);
+        }
+    }
+    
+    /**
+     * Mapped archive file, the ring-buffer of container <code>i</code> starts at {@link #getContainerOffset(int)}
+     */
+    static class MappedFile {
+        private final ByteBuffer buffer;
+        private final int[] containerOffsets;
+        private final boolean reattached;
+        
+        private MappedFile(ByteBuffer buffer, Header header, boolean reattached) {
+            this.buffer = buffer;
+            this.reattached = reattached;
+            
+            containerOffsets = new int[header.sizes.length];
+            int offset = header.getDataOffset();
+            for (int i = 0; i < containerOffsets.length; i++) {
+                containerOffsets[i] = offset;
+                offset += header.sizes[i] * MappedArchiveContainer.RECORD_SIZE;
+            }
+        }
+        
+        ByteBuffer getBuffer() {
+            return buffer;
+        }
+        
+        int getContainerOffset(int containerIdx) {
+            return containerOffsets[containerIdx];
+        }
+        
+        /**
+         * @return Returns <code>true</code> if the file holds the persisted history of the reservoir
+         */
+        boolean isReattached() {
+            return reattached;
+        }
+    }
+    
+    private static class Header {
+        private final Key key;
+        private final long step;
+        private final long[] resolutions;
+        private final int[] sizes;
+        private byte[] bytes;
+        
+        private Header(Key key, long step, long[] resolutions, int[] sizes) {
+            this.key = key;
+            this.step = step;
+            this.resolutions = resolutions;
+            this.sizes = sizes;
+        }
+        
+        private boolean matches(Header header) {
+            return key.metricType == header.key.metricType 
+                    && key.reservoirName.equals(header.key.reservoirName)
+                    && Arrays.equals(key.path, header.key.path)
+                    && step == header.step
+                    && Arrays.equals(resolutions, header.resolutions)
+                    && Arrays.equals(sizes, header.sizes);
+        }
+        
+        private byte[] toBytes() throws IOException {
+            if (bytes == null) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bos);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0); // header length, patched below
+                out.writeUTF(key.metricType.name());
+                out.writeUTF(key.reservoirName);
+                out.writeInt(key.path.length);
+                for (String pathElement : key.path) {
+                    out.writeUTF(pathElement);
+                }
+                out.writeLong(step);
+                out.writeInt(resolutions.length);
+                for (int i = 0; i < resolutions.length; i++) {
+                    out.writeLong(resolutions[i]);
+                    out.writeInt(sizes[i]);
+                }
+                out.flush();
+                
+                // records are aligned to 8 bytes
+                int length = (bos.size() + 7) & ~7;
+                bytes = Arrays.copyOf(bos.toByteArray(), length);
+                ByteBuffer.wrap(bytes).putInt(8, length);
+            }
+            return bytes;
+        }
+        
+        private int getDataOffset() {
+            try {
+                return toBytes().length;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        private long getFileLength() {
+            long length = getDataOffset();
+            for (int size : sizes) {
+                length += (long) size * MappedArchiveContainer.RECORD_SIZE;
+            }
+            return length;
+        }
+    }
+
+}
@@ -0,0 +1,391 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Archive container storing the archives of its ring-buffer in parallel primitive 
+ * arrays (one column per aggregated value) indexed by slot.
+ * 
+ * All columns are allocated at construction. Rolling over to a new archive resets 
+ * the slot in place, so recording does not allocate (raw values arrays only grow 
+ * until they reach their high-water mark, histograms are allocated when a slot records its 
+ * first value and are reset in place).
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+class PrimitiveArchiveContainer extends RoundRobinReservoir.ArchiveContainer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrimitiveArchiveContainer.class);
+    
+    private static final long UNUSED = Long.MIN_VALUE;
+    private static final int INITIAL_VALUES_CAPACITY = 10;
+    
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] sizes;
+    private final long[] sums;
+    private final double[] means;
+    private final double[] m2s;
+    private final long[] mins;
+    private final long[] maxs;
+    private final long[] minTimestamps;
+    private final long[] maxTimestamps;
+    private final long[] firstUsages;
+    private final long[] lastUsages;
+    private final long[] lastValues;
+    
+    // raw values per slot, only maintained if maxRawValues > 0
+    private final int maxRawValues;
+    private final long[][] values;
+    // number of raw values per slot, -1 if the maximum was exceeded
+    private final int[] valueCounts;
+    // random samples of maxRawValues values per slot, replacing the raw values if sampling is enabled
+    private final ValueSample[] samples;
+    
+    // value histograms per slot, only maintained if histogramPrecision > 0, allocated on first use
+    private final int histogramPrecision;
+    private final LogLinearHistogram[] histograms;
+    
+    PrimitiveArchiveContainer(long resolution, int size, long start, long end, int maxRawValues, boolean sampleValues, int histogramPrecision) {
+        super(resolution, size, start, end);
+        
+        starts = new long[size];
+        ends = new long[size];
+        sizes = new long[size];
+        sums = new long[size];
+        means = new double[size];
+        m2s = new double[size];
+        mins = new long[size];
+        maxs = new long[size];
+        minTimestamps = new long[size];
+        maxTimestamps = new long[size];
+        firstUsages = new long[size];
+        lastUsages = new long[size];
+        lastValues = new long[size];
+        
+        this.maxRawValues = maxRawValues;
+        if (maxRawValues > 0 && !sampleValues) {
+            values = new long[size][];
+            valueCounts = new int[size];
+        } else {
+            values = null;
+            valueCounts = null;
+        }
+        
+        if (maxRawValues > 0 && sampleValues) {
+            samples = new ValueSample[size];
+            for (int i = 0; i < size; i++) {
+                samples[i] = new ValueSample(maxRawValues, start);
+            }
+        } else {
+            samples = null;
+        }
+        
+        this.histogramPrecision = histogramPrecision;
+        histograms = (histogramPrecision > 0) ? new LogLinearHistogram[size] : null;
+        
+        Arrays.fill(starts, UNUSED);
+        
+        resetSlot(0, start);
+        ends[0] = end;
+    }
+    
+    @Override
+    protected void resetSlot(int idx, long start) {
+        starts[idx] = start;
+        ends[idx] = start + resolution - 1;
+        sizes[idx] = 0;
+        sums[idx] = Long.MIN_VALUE;
+        means[idx] = Double.NaN;
+        m2s[idx] = 0.0;
+        mins[idx] = Long.MAX_VALUE;
+        maxs[idx] = Long.MIN_VALUE;
+        minTimestamps[idx] = Long.MIN_VALUE;
+        maxTimestamps[idx] = Long.MIN_VALUE;
+        firstUsages[idx] = Long.MIN_VALUE;
+        lastUsages[idx] = Long.MIN_VALUE;
+        lastValues[idx] = Long.MIN_VALUE;
+        
+        if (valueCounts != null) {
+            valueCounts[idx] = 0;
+        }
+        
+        if (samples != null) {
+            samples[idx].reset(start);
+        }
+        
+        if (histograms != null && histograms[idx] != null) {
+            histograms[idx].reset();
+        }
+    }
+
+    @Override
+    protected boolean isSlotUsed(int idx) {
+        return starts[idx] != UNUSED;
+    }
+
+    @Override
+    protected long getSlotStart(int idx) {
+        return starts[idx];
+    }
+
+    @Override
+    protected long getSlotEnd(int idx) {
+        return ends[idx];
+    }
+
+    @Override
+    protected void updateSlot(int idx, long now, long value) {
+        lastUsages[idx] = now;
+        if (firstUsages[idx] == Long.MIN_VALUE) {
+            firstUsages[idx] = now;
+        }
+        
+        lastValues[idx] = value;
+        
+        sums[idx] = (sums[idx] == Long.MIN_VALUE) ? value : sums[idx] + value;
+        
+        long size = ++sizes[idx];
+        
+        /*
+         * Calculation of mean and variance based on D. Knuths Online Variance algorithm
+         * see: http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance (section Online algorithm)
+         */
+        double mean = (size == 1) ? 0.0 : means[idx];
+        double delta = value - mean;
+        mean = mean + delta / size;
+        means[idx] = mean;
+        m2s[idx] += delta * (value - mean);
+        
+        if (value < mins[idx]) {
+            mins[idx] = value;
+            minTimestamps[idx] = now;
+        }
+        if (value > maxs[idx]) {
+            maxs[idx] = value;
+            maxTimestamps[idx] = now;
+        }
+        
+        if (values != null) {
+            addValue(idx, value);
+        }
+        
+        if (samples != null) {
+            samples[idx].add(value);
+        }
+        
+        if (histograms != null) {
+            getHistogram(idx).record(value);
+        }
+    }
+    
+    @Override
+    protected void mergeSlot(int idx, AggregatedReservoirSnapshotImpl snapshot) {
+        long n = snapshot.size();
+        if (n == 0) {
+            return;
+        }
+        
+        if (firstUsages[idx] == Long.MIN_VALUE) {
+            firstUsages[idx] = snapshot.getFirstUsageTimestamp();
+        }
+        if (snapshot.getLastUsageTimestamp() >= lastUsages[idx]) {
+            lastUsages[idx] = snapshot.getLastUsageTimestamp();
+            lastValues[idx] = snapshot.getLastValue();
+        }
+        
+        sums[idx] = (sums[idx] == Long.MIN_VALUE) ? snapshot.getSum() : sums[idx] + snapshot.getSum();
+        
+        // parallel variant of the online variance algorithm (Chan et al.)
+        long size = sizes[idx];
+        double snapshotM2 = (n < 2) ? 0.0 : snapshot.getStdDev() * snapshot.getStdDev() * (n - 1);
+        if (size == 0) {
+            means[idx] = snapshot.getMean();
+            m2s[idx] = snapshotM2;
+        } else {
+            long total = size + n;
+            double delta = snapshot.getMean() - means[idx];
+            means[idx] += delta * n / total;
+            m2s[idx] += snapshotM2 + delta * delta * ((double) size * n / total);
+        }
+        sizes[idx] = size + n;
+        
+        if (snapshot.getMin() < mins[idx]) {
+            mins[idx] = snapshot.getMin();
+            minTimestamps[idx] = snapshot.getMinTimestamp();
+        }
+        if (snapshot.getMax() > maxs[idx]) {
+            maxs[idx] = snapshot.getMax();
+            maxTimestamps[idx] = snapshot.getMaxTimestamp();
+        }
+        
+        if (values != null) {
+            long[] snapshotValues = snapshot.getValues(false);
+            if (snapshotValues == null) {
+                // values of the finer archive exceeded its maximum
+                valueCounts[idx] = -1;
+            } else {
+                for (long value : snapshotValues) {
+                    addValue(idx, value);
+                }
+            }
+        }
+        
+        if (samples != null && snapshot.getValues(false) != null) {
+            double weight = snapshot.getValueWeight();
+            for (long value : snapshot.getValues(false)) {
+                samples[idx].add(value, weight);
+            }
+        }
+        
+        if (histograms != null && snapshot.getHistogram() != null) {
+            getHistogram(idx).add(snapshot.getHistogram());
+        }
+    }
+    
+    private LogLinearHistogram getHistogram(int idx) {
+        LogLinearHistogram histogram = histograms[idx];
+        if (histogram == null) {
+            histogram = histograms[idx] = new LogLinearHistogram(histogramPrecision);
+        }
+        return histogram;
+    }
+    
+    private void addValue(int idx, long value) {
+        int count = valueCounts[idx];
+        if (count < 0) {
+            return;
+        }
+        
+        if (count == maxRawValues) {
+            LOGGER.error("Archive exceeds allowed maximum of values: {}", maxRawValues);
+            valueCounts[idx] = -1;
+            return;
+        }
+        
+        long[] slotValues = values[idx];
+        if (slotValues == null) {
+            slotValues = values[idx] = new long[Math.min(INITIAL_VALUES_CAPACITY, maxRawValues)];
+        } else if (count == slotValues.length) {
+            slotValues = values[idx] = Arrays.copyOf(slotValues, (int)Math.min(2L * count, maxRawValues));
+        }
+        
+        slotValues[count] = value;
+        valueCounts[idx] = count + 1;
+    }
+
+    @Override
+    protected AggregatedReservoirSnapshotImpl createEmptySnapshot(long start, long end) {
+        AggregatedReservoirSnapshotImpl snapshot = super.createEmptySnapshot(start, end);
+        snapshot.setValues((values != null || samples != null) ? new long[0] : null);
+        snapshot.setHistogram((histograms != null) ? new LogLinearHistogram(histogramPrecision) : null);
+        return snapshot;
+    }
+
+    @Override
+    protected AggregatedReservoirSnapshotImpl copySlotToSnapshot(int idx) {
+        long size = sizes[idx];
+        
+        AggregatedReservoirSnapshotImpl snapshot = new AggregatedReservoirSnapshotImpl();
+        snapshot.setStart(starts[idx]);
+        snapshot.setEnd(ends[idx]);
+        snapshot.setSize(size);
+        snapshot.setValues(getValuesCopy(idx));
+        snapshot.setValueWeight((samples != null) ? samples[idx].getWeight() : 1.0);
+        snapshot.setHistogram((histograms != null) ? getHistogram(idx).copy() : null);
+        snapshot.setLastValue(lastValues[idx]);
+        snapshot.setSum(sums[idx]);
+        snapshot.setMean((size == 0) ? Double.NaN : means[idx]);
+        snapshot.setStdDev((size < 2) ? Double.NaN : Math.sqrt(m2s[idx] / (size - 1)));
+        snapshot.setMin(mins[idx]);
+        snapshot.setMinTimestamp(minTimestamps[idx]);
+        snapshot.setMax(maxs[idx]);
+        snapshot.setMaxTimestamp(maxTimestamps[idx]);
+        snapshot.setFirstUsageTimestamp(firstUsages[idx]);
+        snapshot.setLastUsageTimestamp(lastUsages[idx]);
+        return snapshot;
+    }
+    
+    @Override
+    protected void copySlotToRecord(int idx, ArchiveRecord record) {
+        long size = sizes[idx];
+        
+        record.setStart(starts[idx]);
+        record.setEnd(ends[idx]);
+        record.setSize(size);
+        record.setLastValue(lastValues[idx]);
+        record.setSum(sums[idx]);
+        record.setMean((size == 0) ? Double.NaN : means[idx]);
+        record.setStdDev((size < 2) ? Double.NaN : Math.sqrt(m2s[idx] / (size - 1)));
+        record.setMin(mins[idx]);
+        record.setMinTimestamp(minTimestamps[idx]);
+        record.setMax(maxs[idx]);
+        record.setMaxTimestamp(maxTimestamps[idx]);
+        record.setFirstUsageTimestamp(firstUsages[idx]);
+        record.setLastUsageTimestamp(lastUsages[idx]);
+    }
+    
+    @Override
+    protected double getSlotValue(int idx, double quantile) {
+        if (histograms != null) {
+            return (histograms[idx] != null) ? histograms[idx].getValueAtQuantile(quantile) : Double.NaN;
+        }
+        return getValueAtQuantile(getValuesCopy(idx), quantile);
+    }
+    
+    private long[] getValuesCopy(int idx) {
+        if (samples != null) {
+            return samples[idx].copyValues();
+        }
+        
+        if (values == null || valueCounts[idx] < 0) {
+            return null;
+        }
+        
+        long[] slotValues = values[idx];
+        return (slotValues == null) ? new long[0] : Arrays.copyOf(slotValues, valueCounts[idx]);
+    }
+
+}
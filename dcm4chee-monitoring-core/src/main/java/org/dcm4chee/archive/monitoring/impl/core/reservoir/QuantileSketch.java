@@ -0,0 +1,313 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+/**
+ * Compact mergeable quantile sketch (DDSketch, Masson et al. 2019).
+ * 
+ * Values are counted in logarithmic buckets: bucket <code>i</code> holds the values in 
+ * <code>(gamma^(i-1), gamma^i]</code> with <code>gamma = (1 + a) / (1 - a)</code>. Every quantile 
+ * reported for values greater or equal 1 is within a relative error of <code>a</code> (the
+ * relative accuracy) of the exact quantile, also after any number of merges. Values below 1 
+ * (including negative values) are counted as 0.
+ * 
+ * Only the range of buckets between the smallest and the largest value is stored. 
+ * The number of buckets is bounded: if the range exceeds the bound the lowest buckets 
+ * are collapsed, which only affects the accuracy of the lowest quantiles. With the default 
+ * relative accuracy of 1% the default bound of 2048 buckets covers values spanning 
+ * more than 17 orders of magnitude.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class QuantileSketch {
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    public static final int DEFAULT_MAX_BUCKETS = 2048;
+    
+    private static final int INITIAL_CAPACITY = 32;
+    private static final long[] EMPTY = new long[0];
+    
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final int maxBuckets;
+    
+    // dense store for the bucket range [minIndex, maxIndex], counts[i - offset] holds bucket i
+    private long[] counts = EMPTY;
+    private int offset;
+    private int minIndex = Integer.MAX_VALUE;
+    private int maxIndex = Integer.MIN_VALUE;
+    
+    private long zeroCount;
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BUCKETS);
+    }
+    
+    public QuantileSketch(double relativeAccuracy, int maxBuckets) {
+        if (relativeAccuracy <= 0.0 || relativeAccuracy >= 1.0) {
+            throw new IllegalArgumentException("Relative accuracy must be in (0..1)");
+        }
+        if (maxBuckets < 1) {
+            throw new IllegalArgumentException("Maximum number of buckets must be greater 0");
+        }
+        
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.maxBuckets = maxBuckets;
+    }
+    
+    /**
+     * Creates a sketch from the buckets of the given histogram. The error of the 
+     * sketch adds to the error of the histogram.
+     */
+    public static QuantileSketch of(LogLinearHistogram histogram) {
+        QuantileSketch sketch = new QuantileSketch();
+        int maxIdx = histogram.getMaxIndex();
+        for (int i = 0; i <= maxIdx; i++) {
+            long bucketCount = histogram.getCount(i);
+            if (bucketCount > 0) {
+                sketch.add(histogram.getRepresentativeValue(i), bucketCount);
+            }
+        }
+        
+        if (sketch.count > 0) {
+            sketch.min = histogram.getMin();
+            sketch.max = histogram.getMax();
+        }
+        return sketch;
+    }
+    
+    /**
+     * Creates a sketch from raw values
+     */
+    public static QuantileSketch of(long[] values) {
+        return of(values, 1);
+    }
+    
+    /**
+     * Creates a sketch from sampled values, each value counting for the given number of samples
+     */
+    public static QuantileSketch of(long[] values, long n) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (long value : values) {
+            sketch.add(value, n);
+        }
+        return sketch;
+    }
+    
+    public void add(long value) {
+        add(value, 1);
+    }
+    
+    public void add(long value, long n) {
+        if (n <= 0) {
+            return;
+        }
+        
+        count += n;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        
+        if (value < 1) {
+            zeroCount += n;
+        } else {
+            increment(getIndex(value), n);
+        }
+    }
+    
+    /**
+     * Adds the content of the given sketch to this sketch.
+     * @param sketch Sketch of the same relative accuracy
+     */
+    public void merge(QuantileSketch sketch) {
+        if (sketch.gamma != gamma) {
+            throw new IllegalArgumentException("Sketches of different relative accuracy can not be merged");
+        }
+        
+        if (sketch.count == 0) {
+            return;
+        }
+        
+        if (sketch.minIndex <= sketch.maxIndex) {
+            if (minIndex > maxIndex) {
+                extendRange(sketch.minIndex, sketch.maxIndex);
+            } else if (sketch.minIndex < minIndex || sketch.maxIndex > maxIndex) {
+                extendRange(Math.min(minIndex, sketch.minIndex), Math.max(maxIndex, sketch.maxIndex));
+            }
+            
+            for (int i = sketch.minIndex; i <= sketch.maxIndex; i++) {
+                long bucketCount = sketch.counts[i - sketch.offset];
+                if (bucketCount > 0) {
+                    counts[Math.max(i, minIndex) - offset] += bucketCount;
+                }
+            }
+        }
+        
+        zeroCount += sketch.zeroCount;
+        count += sketch.count;
+        min = Math.min(min, sketch.min);
+        max = Math.max(max, sketch.max);
+    }
+    
+    public QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch(relativeAccuracy, maxBuckets);
+        copy.merge(this);
+        return copy;
+    }
+    
+    /**
+     * Returns the value at the given quantile.
+     * 
+     * @param quantile a given quantile, in {@code [0..1]}
+     * @return the value at {@code quantile} or NaN if the sketch is empty
+     */
+    public double getValueAtQuantile(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        
+        if (count == 0) {
+            return Double.NaN;
+        }
+        
+        // the extremes are tracked exactly
+        if (quantile == 0.0) {
+            return min;
+        } else if (quantile == 1.0) {
+            return max;
+        }
+        
+        double rank = quantile * (count - 1);
+        long cumulativeCount = zeroCount;
+        double value = Double.NaN;
+        if (cumulativeCount > rank) {
+            value = 0;
+        } else {
+            for (int i = minIndex; i <= maxIndex; i++) {
+                cumulativeCount += counts[i - offset];
+                if (cumulativeCount > rank) {
+                    value = 2 * Math.pow(gamma, i) / (gamma + 1);
+                    break;
+                }
+            }
+        }
+        
+        return Double.isNaN(value) ? max : Math.max(min, Math.min(max, value));
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+    
+    /**
+     * @return Returns the number of buckets currently spanned by the sketch
+     */
+    public int getBucketCount() {
+        return (minIndex <= maxIndex) ? maxIndex - minIndex + 1 : 0;
+    }
+    
+    private int getIndex(long value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+    
+    private void increment(int idx, long n) {
+        if (minIndex > maxIndex) {
+            extendRange(idx, idx);
+        } else if (idx < minIndex) {
+            extendRange(idx, maxIndex);
+        } else if (idx > maxIndex) {
+            extendRange(minIndex, idx);
+        }
+        
+        // index may fall into the collapsed range
+        counts[Math.max(idx, minIndex) - offset] += n;
+    }
+    
+    /*
+     * Extends the stored bucket range. If the range exceeds the maximum number of buckets 
+     * the lowest buckets are collapsed into the lowest remaining bucket.
+     */
+    private void extendRange(int newMinIndex, int newMaxIndex) {
+        if (newMaxIndex - newMinIndex + 1 > maxBuckets) {
+            newMinIndex = newMaxIndex - maxBuckets + 1;
+        }
+        
+        int length = newMaxIndex - newMinIndex + 1;
+        long[] target = counts;
+        int targetOffset = offset;
+        if (newMinIndex < offset || newMaxIndex >= offset + counts.length) {
+            int capacity = Math.min(maxBuckets, Math.max(INITIAL_CAPACITY, length + length / 2));
+            target = new long[capacity];
+            targetOffset = newMinIndex - (capacity - length) / 2;
+        }
+        
+        for (int i = minIndex; i <= maxIndex; i++) {
+            long bucketCount = counts[i - offset];
+            int targetIdx = Math.max(i, newMinIndex);
+            if (bucketCount == 0 || (target == counts && targetIdx == i)) {
+                continue;
+            }
+            
+            if (target == counts) {
+                counts[i - offset] = 0;
+            }
+            target[targetIdx - targetOffset] += bucketCount;
+        }
+        
+        counts = target;
+        offset = targetOffset;
+        minIndex = newMinIndex;
+        maxIndex = newMaxIndex;
+    }
+
+}
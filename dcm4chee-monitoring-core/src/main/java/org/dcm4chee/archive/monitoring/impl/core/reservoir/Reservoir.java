@@ -49,4 +49,13 @@ public interface Reservoir {
 	
 	void update(MonitoringContext context, long now, long value);
 	
+	/**
+	 * Updates the reservoir with a batch of values, equivalent to calling {@link #update} 
+	 * for each value in order but synchronizing and rolling over archives only once per batch.
+	 * @param timestamps Time-stamps of the values, must not decrease within the batch
+	 * @param values Values
+	 * @param len Number of values of the arrays to update the reservoir with
+	 */
+	void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len);
+	
 }
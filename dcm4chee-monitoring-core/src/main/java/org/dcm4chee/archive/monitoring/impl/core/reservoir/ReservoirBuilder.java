@@ -52,10 +52,52 @@ public interface ReservoirBuilder {
         CURRENT_SEC
     }
     
+    /**
+     * Storage layout of the archive ring-buffers of round-robin reservoirs
+     */
+    public static enum ARCHIVE_CONTAINER_TYPE {
+        // one archive object per slot
+        OBJECT,
+        // parallel primitive arrays indexed by slot, no allocation after construction
+        PRIMITIVE,
+        // fixed-size records in a memory-mapped file of the archive store, persisted across restarts
+        MAPPED,
+        // blocks of primitive arrays, blocks of older archives are frozen into delta/XOR encoded blocks,
+        // archives keeping value distributions are stored like PRIMITIVE
+        COMPRESSED
+    }
+    
+    /**
+     * Kind of value distribution kept by archives with <code>maxRawValues > 0</code>
+     */
+    public static enum VALUE_ARCHIVE_TYPE {
+        // raw values, up to maxRawValues per archive
+        RAW,
+        // fixed-size log-linear histogram
+        HISTOGRAM,
+        // uniform random sample of maxRawValues values
+        SAMPLED
+    }
+    
+    /**
+     * How the archives of the different resolutions of round-robin reservoirs are updated
+     */
+    public static enum ARCHIVE_UPDATE_MODE {
+        // every sample updates the archives of all resolutions
+        PER_SAMPLE,
+        // every sample only updates the finest resolution, coarser archives are rolled up from completed finer archives
+        ROLL_UP
+    }
+    
     ReservoirBuilder clock(Clock clock);
     
     ReservoirBuilder resolutionStepSize(long stepSize);
     
+    /**
+     * @return Returns the step size of the built reservoirs, 0 if their archives do not move on in steps
+     */
+    long getResolutionStepSize();
+    
     ReservoirBuilder resolutions(long[] resolutions);
     
     ReservoirBuilder maxRawValues(int[] valueReservoirs);
@@ -64,6 +106,27 @@ public interface ReservoirBuilder {
     
     ReservoirBuilder start(START_SPECIFICATION start);
     
+    ReservoirBuilder containerType(ARCHIVE_CONTAINER_TYPE containerType);
+    
+    ReservoirBuilder valueArchiveType(VALUE_ARCHIVE_TYPE valueArchiveType);
+    
+    ReservoirBuilder histogramPrecision(int histogramPrecision);
+    
+    ReservoirBuilder updateMode(ARCHIVE_UPDATE_MODE updateMode);
+    
+    ReservoirBuilder archiveStore(MappedArchiveStore archiveStore);
+    
+    /**
+     * Sets the ticker moving on the archives of round-robin reservoirs, may be <code>null</code>
+     */
+    ReservoirBuilder rolloverTicker(RolloverTicker ticker);
+    
     AggregatedReservoir build();
     
+    /**
+     * Builds a reservoir whose archives are persisted under the given key if the reservoir 
+     * has container type {@link ARCHIVE_CONTAINER_TYPE#MAPPED}
+     */
+    AggregatedReservoir build(MappedArchiveStore.Key storeKey);
+    
 }
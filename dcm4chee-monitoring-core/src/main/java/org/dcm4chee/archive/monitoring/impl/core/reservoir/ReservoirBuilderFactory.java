@@ -50,19 +50,55 @@ import org.dcm4chee.archive.monitoring.impl.core.Meter;
 import org.dcm4chee.archive.monitoring.impl.core.Timer;
 import org.dcm4chee.archive.monitoring.impl.core.Util;
 import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.MappedArchiveStore.METRIC_TYPE;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.ARCHIVE_CONTAINER_TYPE;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.ARCHIVE_UPDATE_MODE;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.START_SPECIFICATION;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.VALUE_ARCHIVE_TYPE;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
  *
  */
 public class ReservoirBuilderFactory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReservoirBuilderFactory.class);
+    
 	private final Map<String,ReservoirBuilder> reservoirBuilders = new HashMap<>();
 	private final Clock clock;
+	private final MappedArchiveStore archiveStore;
+	private final RolloverTicker rolloverTicker;
 	
 	public ReservoirBuilderFactory(List<MetricReservoirConfiguration> reservoirConfigurations, Clock clock) {
-		this.clock = clock;
-		init(reservoirConfigurations);
+		this(reservoirConfigurations, clock, null);
+	}
+	
+	/**
+	 * @param archiveStore Store persisting the archives of reservoirs with container type 
+	 * {@link ARCHIVE_CONTAINER_TYPE#MAPPED}, may be <code>null</code>
+	 */
+	public ReservoirBuilderFactory(List<MetricReservoirConfiguration> reservoirConfigurations, Clock clock, MappedArchiveStore archiveStore) {
+	    this(reservoirConfigurations, clock, archiveStore, null);
+	}
+	
+	/**
+	 * @param rolloverTicker Ticker moving on the archives of round-robin reservoirs, may be <code>null</code>
+	 */
+	public ReservoirBuilderFactory(List<MetricReservoirConfiguration> reservoirConfigurations, Clock clock, MappedArchiveStore archiveStore, 
+	        RolloverTicker rolloverTicker) {
+	    this.clock = clock;
+	    this.archiveStore = archiveStore;
+	    this.rolloverTicker = rolloverTicker;
+	    init(reservoirConfigurations);
+	}
+	
+	public MappedArchiveStore getArchiveStore() {
+	    return archiveStore;
+	}
+	
+	public RolloverTicker getRolloverTicker() {
+	    return rolloverTicker;
 	}
 	
 	private void init(List<MetricReservoirConfiguration> reservoirConfigurations) {
@@ -77,13 +113,27 @@ public class ReservoirBuilderFactory {
                     .clock(clock);
                 break;
             case ROUND_ROBIN:
-                builder = new DefaultReservoirBuilderImpl()
+            case STRIPED_ROUND_ROBIN:
+                builder = new DefaultReservoirBuilderImpl(type == RESERVOIR_TYPE.STRIPED_ROUND_ROBIN)
                     .clock(clock)
                     .resolutionStepSize(reservoirCfg.getResolutionStepSize())
                     .resolutions(reservoirCfg.getResolutions())
                     .maxRawValues(reservoirCfg.getMaxRawValues())
                     .retentions(reservoirCfg.getRetentions())
-                    .start(reservoirCfg.getStart());
+                    .start(reservoirCfg.getStart())
+                    .containerType(reservoirCfg.getContainerType())
+                    .valueArchiveType(reservoirCfg.getValueArchiveType())
+                    .histogramPrecision(reservoirCfg.getHistogramPrecision())
+                    .updateMode(reservoirCfg.getUpdateMode())
+                    .archiveStore(archiveStore)
+                    .rolloverTicker(rolloverTicker);
+                break;
+            case SLIDING_WINDOW:
+                builder = new SlidingWindowReservoirBuilderImpl()
+                    .clock(clock)
+                    .resolutionStepSize(reservoirCfg.getResolutionStepSize())
+                    .resolutions(reservoirCfg.getResolutions())
+                    .histogramPrecision(reservoirCfg.getHistogramPrecision());
                 break;
             default:
                 break;
@@ -94,7 +144,31 @@ public class ReservoirBuilderFactory {
 	    }
 	}
 	
+	/**
+	 * @return Returns <code>true</code> if the reservoirs of the given name keep a single open 
+	 * resolution archive (reservoir type {@link RESERVOIR_TYPE#OPEN_RESOLUTION})
+	 */
+	public boolean isOneValueReservoir(String name) {
+	    return reservoirBuilders.get(name) instanceof OneValueReservoirBuilderImpl;
+	}
+	
 	public AggregatedReservoir createTimerReservoirContainer(Timer.TYPE type) {
+	    return createTimerReservoirContainer(type, null);
+	}
+	
+	/**
+	 * @param path Context path of the timer, identifies the persisted archives of the reservoir
+	 */
+	public AggregatedReservoir createTimerReservoirContainer(Timer.TYPE type, String[] path) {
+	    return createTimerReservoirContainer(type, METRIC_TYPE.TIMER, path);
+	}
+	
+	/**
+	 * @param metricType Either {@link METRIC_TYPE#TIMER}, {@link METRIC_TYPE#CPU_TIMER} or {@link METRIC_TYPE#WAIT_TIMER}, 
+	 * distinguishes the persisted archives of the paired reservoirs of a timer
+	 * @param path Context path of the timer, identifies the persisted archives of the reservoir
+	 */
+	public AggregatedReservoir createTimerReservoirContainer(Timer.TYPE type, METRIC_TYPE metricType, String[] path) {
 	    ReservoirBuilder builder = null;
 	    switch (type) {
 			case ONE_SHOT:
@@ -108,7 +182,7 @@ public class ReservoirBuilderFactory {
 		}
 	    
 	    if(builder != null ) {
-	        return builder.build();
+	        return builder.build(createStoreKey(metricType, type.toString(), path));
 	    } else {
 	        throw new IllegalArgumentException("No reservoir builder registered for timer type " + type);
 	    }
@@ -116,6 +190,13 @@ public class ReservoirBuilderFactory {
 	}
 	
 	public AggregatedReservoir createCounterReservoirContainer(Counter.TYPE type) {
+	    return createCounterReservoirContainer(type, null);
+	}
+	
+	/**
+	 * @param path Context path of the counter, identifies the persisted archives of the reservoir
+	 */
+	public AggregatedReservoir createCounterReservoirContainer(Counter.TYPE type, String[] path) {
 	    ReservoirBuilder builder = null;
         switch (type) {
             case ONE_SHOT:
@@ -129,13 +210,20 @@ public class ReservoirBuilderFactory {
         }
         
         if(builder != null ) {
-            return builder.build();
+            return builder.build(createStoreKey(METRIC_TYPE.COUNTER, type.toString(), path));
         } else {
             throw new IllegalArgumentException("No reservoir builder registered for counter type " + type);
         }
     }
 	
 	public AggregatedReservoir createMeterReservoirContainer(Meter.TYPE type) {
+	    return createMeterReservoirContainer(type, null);
+	}
+	
+	/**
+	 * @param path Context path of the meter, identifies the persisted archives of the reservoir
+	 */
+	public AggregatedReservoir createMeterReservoirContainer(Meter.TYPE type, String[] path) {
 	    ReservoirBuilder builder = null;
         switch (type) {
             case OPEN_RESOLUTION:
@@ -149,23 +237,58 @@ public class ReservoirBuilderFactory {
         }
         
         if(builder != null ) {
-            return builder.build();
+            return builder.build(createStoreKey(METRIC_TYPE.METER, type.toString(), path));
         } else {
             throw new IllegalArgumentException("No reservoir builder registered for meter type " + type);
         }
     }
 	
+	/**
+	 * Creates the reservoir of a gauge from the default reservoir builder
+	 * 
+	 * @param path Context path of the gauge, identifies the persisted archives of the reservoir
+	 */
+	public AggregatedReservoir createGaugeReservoirContainer(String[] path) {
+	    ReservoirBuilder builder = reservoirBuilders.get("DEFAULT");
+	    
+	    if(builder != null ) {
+	        return builder.build(createStoreKey(METRIC_TYPE.GAUGE, "DEFAULT", path));
+	    } else {
+	        throw new IllegalArgumentException("No reservoir builder registered for gauges");
+	    }
+	}
+	
+	/**
+	 * Returns the step of the reservoirs of gauges, gauges are sampled once per step
+	 */
+	public long getGaugeSampleStep() {
+	    ReservoirBuilder builder = reservoirBuilders.get("DEFAULT");
+	    return (builder != null) ? builder.getResolutionStepSize() : 0;
+	}
+	
 	public AggregatedReservoir createAggregateReservoirContainer() {
+	    return createAggregateReservoirContainer(null, null);
+	}
+	
+	/**
+	 * @param aggregateType Either {@link METRIC_TYPE#SUM_AGGREGATE} or {@link METRIC_TYPE#SIMPLE_AGGREGATE}
+	 * @param path Context path of the aggregate, identifies the persisted archives of the reservoir
+	 */
+	public AggregatedReservoir createAggregateReservoirContainer(METRIC_TYPE aggregateType, String[] path) {
 	    ReservoirBuilder builder = null;
         builder = reservoirBuilders.get("DEFAULT");
                 
         if(builder != null ) {
-            return builder.build();
+            return builder.build(createStoreKey(aggregateType, "DEFAULT", path));
         } else {
             throw new IllegalArgumentException("No reservoir builder registered for type ");
         }
 	}
 	
+	private static MappedArchiveStore.Key createStoreKey(METRIC_TYPE metricType, String reservoirName, String[] path) {
+	    return (metricType != null && path != null) ? new MappedArchiveStore.Key(metricType, reservoirName, path) : null;
+	}
+	
 	private static class OneValueReservoirBuilderImpl implements ReservoirBuilder {
 	    private Clock clock;
        
@@ -179,6 +302,11 @@ public class ReservoirBuilderFactory {
         public ReservoirBuilder resolutionStepSize(long stepSize) {
             return this;
         }
+        
+        @Override
+        public long getResolutionStepSize() {
+            return 0;
+        }
 
         @Override
         public ReservoirBuilder resolutions(long[] resolutions) {
@@ -199,14 +327,142 @@ public class ReservoirBuilderFactory {
         public AggregatedReservoir build() {
             return new OneValueReservoir(clock);
         }
+        
+        @Override
+        public AggregatedReservoir build(MappedArchiveStore.Key storeKey) {
+            return build();
+        }
+        
+        @Override
+        public ReservoirBuilder archiveStore(MappedArchiveStore archiveStore) {
+            return this;
+        }
+
+        @Override
+        public ReservoirBuilder rolloverTicker(RolloverTicker ticker) {
+            return this;
+        }
 
         @Override
         public ReservoirBuilder start(START_SPECIFICATION start) {
             return this;
         }
+        
+        @Override
+        public ReservoirBuilder containerType(ARCHIVE_CONTAINER_TYPE containerType) {
+            return this;
+        }
+        
+        @Override
+        public ReservoirBuilder valueArchiveType(VALUE_ARCHIVE_TYPE valueArchiveType) {
+            return this;
+        }
+        
+        @Override
+        public ReservoirBuilder histogramPrecision(int histogramPrecision) {
+            return this;
+        }
+        
+        @Override
+        public ReservoirBuilder updateMode(ARCHIVE_UPDATE_MODE updateMode) {
+            return this;
+        }
 	    
 	}
 	
+	/*
+	 * Builds sliding window reservoirs: the window is given by the first resolution, 
+	 * the bucket size by the resolution step size
+	 */
+	private static class SlidingWindowReservoirBuilderImpl implements ReservoirBuilder {
+	    private Clock clock;
+	    private long bucketSize;
+	    private long window;
+	    private int histogramPrecision = LogLinearHistogram.DEFAULT_PRECISION;
+	    
+	    @Override
+	    public ReservoirBuilder clock(Clock clock) {
+	        this.clock = clock;
+	        return this;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder resolutionStepSize(long stepSize) {
+	        this.bucketSize = stepSize;
+	        return this;
+	    }
+	    
+	    @Override
+	    public long getResolutionStepSize() {
+	        return bucketSize;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder resolutions(long[] resolutions) {
+	        if (resolutions == null || resolutions.length == 0) {
+	            throw new IllegalArgumentException("Sliding window reservoirs require the window length as resolution");
+	        }
+	        this.window = resolutions[0];
+	        return this;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder retentions(int[] retentions) {
+	        return this;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder maxRawValues(int[] maxRawValues) {
+	        return this;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder start(START_SPECIFICATION start) {
+	        return this;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder containerType(ARCHIVE_CONTAINER_TYPE containerType) {
+	        return this;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder valueArchiveType(VALUE_ARCHIVE_TYPE valueArchiveType) {
+	        return this;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder histogramPrecision(int histogramPrecision) {
+	        this.histogramPrecision = histogramPrecision;
+	        return this;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder updateMode(ARCHIVE_UPDATE_MODE updateMode) {
+	        return this;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder archiveStore(MappedArchiveStore archiveStore) {
+	        return this;
+	    }
+	    
+	    @Override
+	    public ReservoirBuilder rolloverTicker(RolloverTicker ticker) {
+	        return this;
+	    }
+	    
+	    @Override
+	    public AggregatedReservoir build() {
+	        return new SlidingWindowReservoir(clock, window, bucketSize, histogramPrecision);
+	    }
+	    
+	    @Override
+	    public AggregatedReservoir build(MappedArchiveStore.Key storeKey) {
+	        return build();
+	    }
+	}
+	
 	private static class DefaultReservoirBuilderImpl implements ReservoirBuilder {
         private long reservoirResolutionStepSize;
         private long[] reservoirResolutions;
@@ -214,6 +470,17 @@ public class ReservoirBuilderFactory {
         private int[] reservoirRetentions;
         private Clock clock;
         private START_SPECIFICATION start;
+        private ARCHIVE_CONTAINER_TYPE containerType;
+        private VALUE_ARCHIVE_TYPE valueArchiveType;
+        private int histogramPrecision = LogLinearHistogram.DEFAULT_PRECISION;
+        private ARCHIVE_UPDATE_MODE updateMode;
+        private MappedArchiveStore archiveStore;
+        private RolloverTicker rolloverTicker;
+        private final boolean striped;
+        
+        private DefaultReservoirBuilderImpl(boolean striped) {
+            this.striped = striped;
+        }
         
         public DefaultReservoirBuilderImpl clock(Clock clock) {
             this.clock = clock;
@@ -221,15 +488,38 @@ public class ReservoirBuilderFactory {
         }
         
         public AggregatedReservoir build() {
+            return build(null);
+        }
+        
+        public AggregatedReservoir build(MappedArchiveStore.Key storeKey) {
             RoundRobinReservoir.Builder reservoirBuilder  = new RoundRobinReservoir.Builder().clock(clock)
                     .start(createStartTimeMillis(start, clock))
                     .step(reservoirResolutionStepSize);
+            
+            if (containerType == ARCHIVE_CONTAINER_TYPE.MAPPED && (striped || storeKey == null || archiveStore == null)) {
+                if (striped) {
+                    LOGGER.warn("Archives of striped reservoirs can not be persisted, falling back to container type {}", ARCHIVE_CONTAINER_TYPE.PRIMITIVE);
+                }
+                reservoirBuilder.containerType(ARCHIVE_CONTAINER_TYPE.PRIMITIVE);
+            } else if (containerType != null) {
+                reservoirBuilder.containerType(containerType).store(archiveStore, storeKey);
+            }
+            
+            if (valueArchiveType != null) {
+                reservoirBuilder.valueArchiveType(valueArchiveType).histogramPrecision(histogramPrecision);
+            }
+            
+            if (updateMode != null) {
+                reservoirBuilder.updateMode(updateMode);
+            }
+            
+            reservoirBuilder.ticker(rolloverTicker);
         
             for(int i = 0; i < reservoirResolutions.length; i++) {
                 reservoirBuilder.addArchive(reservoirResolutions[i], reservoirRetentions[i], maxRawValues[i]);
             }
             
-            return reservoirBuilder.build();
+            return striped ? new StripedRoundRobinReservoir(reservoirBuilder) : reservoirBuilder.build();
         }
 
         @Override
@@ -237,6 +527,11 @@ public class ReservoirBuilderFactory {
             this.reservoirResolutionStepSize = stepSize;
             return this;
         }
+        
+        @Override
+        public long getResolutionStepSize() {
+            return reservoirResolutionStepSize;
+        }
 
         @Override
         public ReservoirBuilder resolutions(long[] resolutions) {
@@ -261,6 +556,42 @@ public class ReservoirBuilderFactory {
             this.start = start;
             return this;
         }
+        
+        @Override
+        public ReservoirBuilder containerType(ARCHIVE_CONTAINER_TYPE containerType) {
+            this.containerType = containerType;
+            return this;
+        }
+        
+        @Override
+        public ReservoirBuilder valueArchiveType(VALUE_ARCHIVE_TYPE valueArchiveType) {
+            this.valueArchiveType = valueArchiveType;
+            return this;
+        }
+        
+        @Override
+        public ReservoirBuilder histogramPrecision(int histogramPrecision) {
+            this.histogramPrecision = histogramPrecision;
+            return this;
+        }
+        
+        @Override
+        public ReservoirBuilder updateMode(ARCHIVE_UPDATE_MODE updateMode) {
+            this.updateMode = updateMode;
+            return this;
+        }
+        
+        @Override
+        public ReservoirBuilder archiveStore(MappedArchiveStore archiveStore) {
+            this.archiveStore = archiveStore;
+            return this;
+        }
+        
+        @Override
+        public ReservoirBuilder rolloverTicker(RolloverTicker ticker) {
+            this.rolloverTicker = ticker;
+            return this;
+        }
     }	
 	
 	private static long createStartTimeMillis(START_SPECIFICATION start, Clock clock) {
@@ -0,0 +1,242 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimerTask;
+
+import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared scheduler publishing the rollover times of round-robin reservoirs, so writers neither 
+ * read the clock nor check it for skew per sample.
+ * 
+ * Registered reservoirs are kept in a hashed timing wheel (Varghese &amp; Lauck) by the time 
+ * of their next rollover. Every tick only visits the wheel buckets that became due since the
+ * last tick and publishes the current time to the reservoirs whose rollover time passed. The 
+ * ticker does not hold the locks of the metrics owning the reservoirs, so it can not move on 
+ * their archives itself: the next access to a reservoir applies the published time, a single 
+ * archive index computation per step. Archives therefore move on at most one tick period late, 
+ * for reads as well.
+ * 
+ * Clock skew is detected centrally: if the clock is turned back the ticker does not publish any 
+ * time until the clock caught up again, samples are recorded to the current archives meanwhile. 
+ * The published times never decrease, the reservoirs do not check them again.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class RolloverTicker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RolloverTicker.class);
+    
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    
+    private final Clock clock;
+    private final long tickPeriod;
+    private final List<Entry>[] wheel;
+    
+    // last tick processed
+    private long lastTick;
+    private long lastTime = Long.MIN_VALUE;
+    private boolean skewed;
+    private long clockSkewCount;
+    
+    private java.util.Timer timer;
+    
+    public RolloverTicker(Clock clock, long tickPeriod) {
+        this(clock, tickPeriod, DEFAULT_WHEEL_SIZE);
+    }
+    
+    /**
+     * @param tickPeriod Period of the ticks in milliseconds, should not exceed the smallest step size of the reservoirs
+     * @param wheelSize Number of buckets of the timing wheel
+     */
+    @SuppressWarnings("unchecked")
+    public RolloverTicker(Clock clock, long tickPeriod, int wheelSize) {
+        if (tickPeriod <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick period and wheel size must be greater 0");
+        }
+        
+        this.clock = clock;
+        this.tickPeriod = tickPeriod;
+        this.lastTick = clock.getTime() / tickPeriod - 1;
+        this.wheel = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+    
+    /**
+     * Starts ticking in a daemon thread
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        
+        timer = new java.util.Timer("MonitoringRolloverTicker", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error while moving on archives of reservoirs", e);
+                }
+            }
+        }, tickPeriod, tickPeriod);
+    }
+    
+    /**
+     * Stops ticking, the registered reservoirs move on their archives by themselves again
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        
+        for (List<Entry> bucket : wheel) {
+            for (Entry entry : bucket) {
+                RoundRobinReservoir reservoir = entry.reservoir.get();
+                if (reservoir != null) {
+                    reservoir.detachTicker();
+                }
+            }
+            bucket.clear();
+        }
+    }
+    
+    /**
+     * Registers the reservoir, from now on its archives are only moved on by this ticker
+     */
+    public synchronized void register(RoundRobinReservoir reservoir) {
+        reservoir.attachTicker();
+        schedule(new Entry(reservoir), reservoir.getNextRollover(clock.getTime()));
+    }
+    
+    /**
+     * Processes the buckets of the wheel that became due since the last tick
+     */
+    public synchronized void tick() {
+        long now = clock.getTime();
+        if (now < lastTime) {
+            if (!skewed) {
+                skewed = true;
+                clockSkewCount++;
+                LOGGER.warn("Clock was turned back by {} ms -> Archives of reservoirs are not moved on until the clock caught up", lastTime - now);
+            }
+            return;
+        }
+        
+        if (skewed) {
+            skewed = false;
+            LOGGER.info("Clock caught up -> Archives of reservoirs are moved on again");
+        }
+        lastTime = now;
+        
+        long currentTick = now / tickPeriod;
+        long dueTicks = currentTick - lastTick;
+        if (dueTicks > wheel.length) {
+            LOGGER.debug("Ticker fell behind by {} ticks", dueTicks);
+            dueTicks = wheel.length;
+        }
+        
+        List<Entry> fired = new ArrayList<>();
+        for (long tick = currentTick - dueTicks + 1; tick <= currentTick; tick++) {
+            Iterator<Entry> entries = wheel[getBucket(tick)].iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.rolloverTick <= currentTick) {
+                    entries.remove();
+                    fired.add(entry);
+                }
+            }
+        }
+        lastTick = currentTick;
+        
+        for (Entry entry : fired) {
+            RoundRobinReservoir reservoir = entry.reservoir.get();
+            // reservoirs of disposed metrics are dropped
+            if (reservoir != null) {
+                reservoir.publishRollover(now);
+                schedule(entry, reservoir.getNextRollover(now));
+            }
+        }
+    }
+    
+    /**
+     * @return Returns the number of times the clock was detected to be turned back
+     */
+    public synchronized long getClockSkewCount() {
+        return clockSkewCount;
+    }
+    
+    public long getTickPeriod() {
+        return tickPeriod;
+    }
+    
+    private void schedule(Entry entry, long rolloverTime) {
+        entry.rolloverTick = rolloverTime / tickPeriod;
+        if (rolloverTime % tickPeriod != 0) {
+            entry.rolloverTick++;
+        }
+        wheel[getBucket(Math.max(entry.rolloverTick, lastTick + 1))].add(entry);
+    }
+    
+    private int getBucket(long tick) {
+        return (int) (tick % wheel.length);
+    }
+    
+    private static class Entry {
+        private final WeakReference<RoundRobinReservoir> reservoir;
+        private long rolloverTick;
+        
+        private Entry(RoundRobinReservoir reservoir) {
+            this.reservoir = new WeakReference<>(reservoir);
+        }
+    }
+
+}
@@ -41,18 +41,32 @@ package org.dcm4chee.archive.monitoring.impl.core.reservoir;
 
 import static java.lang.String.format;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.ARCHIVE_CONTAINER_TYPE;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.ARCHIVE_UPDATE_MODE;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.VALUE_ARCHIVE_TYPE;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
+ * Reservoir keeping ring-buffers of archives of different resolutions.
+ * 
+ * The reservoir is not thread-safe. Reads change its state as well: they move the archives on 
+ * to the current time and downsampled queries update the access-ordered query cache. Callers 
+ * have to serialize all accesses, including concurrent reads, e.g. by the state lock of the 
+ * owning metric or the stripe locks of {@link StripedRoundRobinReservoir}.
+ * 
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
  *
  */
@@ -63,8 +77,34 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 	private final ArchiveContainer[] containers;
 	private final long step;
 	private final Clock clock;
+	// only the finest resolution is updated per sample, coarser archives are rolled up
+	private final boolean rollUp;
+	// start of the archive grid, bins of downsampled queries are aligned to it
+	private final long origin;
 	
 	private long lastNow = Long.MIN_VALUE;
+	
+	// set while a RolloverTicker publishes the rollover times, samples then update the current archives 
+	// and do not check the clock for skew
+	private volatile boolean ticked;
+	// time published by the ticker, applied by the next access to the reservoir as the ticker 
+	// does not hold the lock of the metric owning the reservoir
+	private volatile long publishedRolloverTime = Long.MIN_VALUE;
+	private long appliedRolloverTime = Long.MIN_VALUE;
+	
+	// incremented per sample, used to detect stale downsampled query results
+	private long updateCount;
+	
+	private static final int MAX_CACHED_QUERIES = 16;
+	
+	// access-ordered, so even a cache hit changes the map: guarded by the lock serializing all accesses
+	@SuppressWarnings("serial")
+	private final Map<DownsamplingQuery, DownsampledSnapshots> downsamplingCache = new LinkedHashMap<DownsamplingQuery, DownsampledSnapshots>(MAX_CACHED_QUERIES, 0.75f, true) {
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<DownsamplingQuery, DownsampledSnapshots> eldest) {
+	        return size() > MAX_CACHED_QUERIES;
+	    }
+	};
 
 	/**
      * 
@@ -78,7 +118,14 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 	    private Clock clock;
 	    private long start;
 	    private long step;
+	    private ARCHIVE_CONTAINER_TYPE containerType = ARCHIVE_CONTAINER_TYPE.OBJECT;
+	    private VALUE_ARCHIVE_TYPE valueArchiveType = VALUE_ARCHIVE_TYPE.RAW;
+	    private int histogramPrecision = LogLinearHistogram.DEFAULT_PRECISION;
+	    private ARCHIVE_UPDATE_MODE updateMode = ARCHIVE_UPDATE_MODE.PER_SAMPLE;
 	    private final List<ArchiveSpec> archiveSpecs = new ArrayList<>();
+	    private MappedArchiveStore store;
+	    private MappedArchiveStore.Key storeKey;
+	    private RolloverTicker ticker;
 	    
 	    public Builder clock(Clock clock) {
 	        this.clock = clock;
@@ -95,13 +142,68 @@ public class RoundRobinReservoir implements AggregatedReservoir {
             return this;
         }
 	    
+	    public Builder containerType(ARCHIVE_CONTAINER_TYPE containerType) {
+	        this.containerType = containerType;
+	        return this;
+	    }
+	    
+	    /**
+	     * Sets how archives with <code>maxRawValues > 0</code> keep track of the value distribution
+	     */
+	    public Builder valueArchiveType(VALUE_ARCHIVE_TYPE valueArchiveType) {
+	        this.valueArchiveType = valueArchiveType;
+	        return this;
+	    }
+	    
+	    /**
+	     * Sets the number of significant decimal digits of histogram value archives
+	     */
+	    public Builder histogramPrecision(int histogramPrecision) {
+	        this.histogramPrecision = histogramPrecision;
+	        return this;
+	    }
+	    
+	    /**
+	     * Sets how archives are updated. With {@link ARCHIVE_UPDATE_MODE#ROLL_UP} only the archives
+	     * of the finest resolution are updated per sample, independent of the number of resolutions.
+	     * Coarser archives are merged from the completed finest archives and the value distribution 
+	     * of coarser archives is limited to the one kept by the finest archives.
+	     */
+	    public Builder updateMode(ARCHIVE_UPDATE_MODE updateMode) {
+	        this.updateMode = updateMode;
+	        return this;
+	    }
+	    
+	    /**
+	     * Sets the store persisting the archives of containers of type {@link ARCHIVE_CONTAINER_TYPE#MAPPED}
+	     * and the key of the reservoir within the store
+	     */
+	    public Builder store(MappedArchiveStore store, MappedArchiveStore.Key storeKey) {
+	        this.store = store;
+	        this.storeKey = storeKey;
+	        return this;
+	    }
+	    
+	    /**
+	     * Sets the ticker publishing the rollover times of the built reservoirs, if not set the 
+	     * archives are moved on by the time of the samples
+	     */
+	    public Builder ticker(RolloverTicker ticker) {
+	        this.ticker = ticker;
+	        return this;
+	    }
+	    
 	    public Builder addArchive(long resolution, int retentions, int maxRawValues) {
 	        archiveSpecs.add(new ArchiveSpec(resolution, retentions, maxRawValues));
 	        return this;
 	    }
 	    
 	    public RoundRobinReservoir build() {
-	        return new RoundRobinReservoir(this);
+	        RoundRobinReservoir reservoir = new RoundRobinReservoir(this);
+	        if (ticker != null) {
+	            ticker.register(reservoir);
+	        }
+	        return reservoir;
 	    }
 	}
 	
@@ -133,7 +235,9 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 	private RoundRobinReservoir(Builder builder) {
         this.clock = builder.clock;
         this.step = builder.step;
+        this.rollUp = builder.updateMode == ARCHIVE_UPDATE_MODE.ROLL_UP;
         containers = new ArchiveContainer[builder.archiveSpecs.size()];
+        MappedArchiveStore.MappedFile mappedFile = (builder.containerType == ARCHIVE_CONTAINER_TYPE.MAPPED) ? openMappedFile(builder) : null;
         for (int i = 0; i < builder.archiveSpecs.size(); i++) {
             ArchiveSpec archiveSpec = builder.archiveSpecs.get(i);
             long resolution = archiveSpec.getResolution();
@@ -150,26 +254,245 @@ public class RoundRobinReservoir implements AggregatedReservoir {
             
             long end = builder.start + resolution;
             int maxRawValues = archiveSpec.getMaxRawValues();
-            Archive firstArchive = (maxRawValues > 0) ? new ValueArchive(builder.start, end, resolution, maxRawValues) : 
-                new Archive(builder.start, end, resolution);
-            ArchiveContainer container = new ArchiveContainer(resolution, archiveSpec.getRetentions(), firstArchive);
+            if (rollUp && i > 0 && maxRawValues > 0 && builder.archiveSpecs.get(0).getMaxRawValues() == 0) {
+                LOGGER.warn("Rolled up archives can not keep values if the archives of the finest resolution do not (resolution: {})", resolution);
+                maxRawValues = 0;
+            }
+            boolean histogram = maxRawValues > 0 && builder.valueArchiveType == VALUE_ARCHIVE_TYPE.HISTOGRAM;
+            boolean sampled = maxRawValues > 0 && builder.valueArchiveType == VALUE_ARCHIVE_TYPE.SAMPLED;
+            ArchiveContainer container;
+            if (mappedFile != null) {
+                container = new MappedArchiveContainer(resolution, archiveSpec.getRetentions(), builder.start, end, mappedFile, i);
+            } else if (builder.containerType == ARCHIVE_CONTAINER_TYPE.COMPRESSED && maxRawValues == 0) {
+                container = new CompressedArchiveContainer(resolution, archiveSpec.getRetentions(), builder.start, end);
+            } else if (builder.containerType != ARCHIVE_CONTAINER_TYPE.OBJECT) {
+                container = new PrimitiveArchiveContainer(resolution, archiveSpec.getRetentions(), builder.start, end, 
+                        histogram ? 0 : maxRawValues, sampled, histogram ? builder.histogramPrecision : 0);
+            } else {
+                Archive firstArchive;
+                if (histogram) {
+                    firstArchive = new HistogramArchive(builder.start, end, resolution, builder.histogramPrecision);
+                } else if (sampled) {
+                    firstArchive = new SampledValueArchive(builder.start, end, resolution, maxRawValues);
+                } else if (maxRawValues > 0) {
+                    firstArchive = new ValueArchive(builder.start, end, resolution, maxRawValues);
+                } else {
+                    firstArchive = new Archive(builder.start, end, resolution);
+                }
+                container = new ObjectArchiveContainer(resolution, archiveSpec.getRetentions(), firstArchive);
+            }
             containers[i] = container;
         }
+        origin = containers[0].getCurrentStart();
     }
 	
+	/*
+	 * Maps the archive file of the reservoir, archive containers fall back to primitive
+	 * containers if the file can not be mapped
+	 */
+	private static MappedArchiveStore.MappedFile openMappedFile(Builder builder) {
+	    if (builder.store == null || builder.storeKey == null) {
+	        LOGGER.warn("No archive store available, archives will not be persisted");
+	        return null;
+	    }
+	    
+	    int containerCount = builder.archiveSpecs.size();
+	    long[] resolutions = new long[containerCount];
+	    int[] sizes = new int[containerCount];
+	    for (int i = 0; i < containerCount; i++) {
+	        resolutions[i] = builder.archiveSpecs.get(i).getResolution();
+	        sizes[i] = builder.archiveSpecs.get(i).getRetentions();
+	    }
+	    
+	    try {
+	        return builder.store.open(builder.storeKey, builder.step, resolutions, sizes);
+	    } catch (IOException e) {
+	        LOGGER.error("Could not map archive file of {}, archives will not be persisted", builder.storeKey, e);
+	        return null;
+	    }
+	}
+	
 	@Override
 	public void update(MonitoringContext context, long now, long value) {
+	    if (ticked) {
+	        applyPublishedRollover();
+	        if (rollUp) {
+	            containers[0].updateSlot(containers[0].getCurrentIndex(), now, value);
+	        } else {
+	            for (int i = 0; i < containers.length; i++) {
+	                containers[i].updateSlot(containers[i].getCurrentIndex(), now, value);
+	            }
+	        }
+	        updateCount++;
+	        return;
+	    }
+	    
 	    if(!saneTime(now)) {
 	        LOGGER.warn("Clock was turned back -> Metric value will be skipped by reservoir");
 	        return;
 	    }
 	    
-		for(int i = 0; i < containers.length; i++) {
-			ArchiveContainer container = containers[i];
-//			Archive currentArchive = container.updateCurrentArchiveOld(now);
-			Archive currentArchive = container.updateCurrentArchive(now);
-			currentArchive.update(now, value);
-		}
+	    updateCount++;
+	    if (rollUp) {
+	        containers[0].updateSlot(updateFinestContainer(now), now, value);
+	    } else {
+	        for(int i = 0; i < containers.length; i++) {
+	            containers[i].update(now, value);
+	        }
+	    }
+	}
+	
+	@Override
+	public void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+	    int containerCount = rollUp ? 1 : containers.length;
+	    if (ticked) {
+	        applyPublishedRollover();
+	        for (int c = 0; c < containerCount; c++) {
+	            ArchiveContainer container = containers[c];
+	            int idx = container.getCurrentIndex();
+	            for (int i = 0; i < len; i++) {
+	                container.updateSlot(idx, timestamps[i], values[i]);
+	            }
+	        }
+	        updateCount += len;
+	        return;
+	    }
+	    
+	    int updated = 0;
+	    long last = lastNow;
+	    for (int c = 0; c < containerCount; c++) {
+	        updated = 0;
+	        last = lastNow;
+	        ArchiveContainer container = containers[c];
+	        int idx = -1;
+	        long currentEnd = Long.MIN_VALUE;
+	        for (int i = 0; i < len; i++) {
+	            long now = timestamps[i];
+	            if (now < last) {
+	                continue;
+	            }
+	            last = now;
+	            
+	            // only roll over if the value is beyond the current archive
+	            if (idx < 0 || now >= currentEnd) {
+	                idx = rollUp ? updateFinestContainer(now) : container.updateCurrentArchive(now);
+	                currentEnd = container.getCurrentStart() + container.resolution;
+	            }
+	            container.updateSlot(idx, now, values[i]);
+	            updated++;
+	        }
+	    }
+	    
+	    if (updated < len) {
+	        LOGGER.warn("Clock was turned back -> {} metric values will be skipped by reservoir", len - updated);
+	    }
+	    lastNow = last;
+	    updateCount += updated;
+	}
+	
+	/*
+	 * Updates the current archive of the finest resolution. In roll-up mode a completed archive 
+	 * of the finest resolution is merged into the archives of the coarser resolutions before.
+	 */
+	private int updateFinestContainer(long now) {
+	    ArchiveContainer finest = containers[0];
+	    if (rollUp && finest.isCompleted(now)) {
+	        AggregatedReservoirSnapshotImpl completed = finest.copySlotToSnapshot(finest.getCurrentIndex());
+	        if (completed.size() > 0) {
+	            for (int i = 1; i < containers.length; i++) {
+	                containers[i].merge(completed);
+	            }
+	        }
+	    }
+	    
+	    return finest.updateCurrentArchive(now);
+	}
+	
+	/*
+	 * In roll-up mode the current archive of the finest resolution is not yet contained in the
+	 * coarser archives, so it is merged into the snapshot of the coarser archive spanning it
+	 */
+	private void addPendingArchive(List<AggregatedReservoirSnapshot> snapshots) {
+	    AggregatedReservoirSnapshot pending = containers[0].getCurrentArchiveSnapshot();
+	    if (pending.size() == 0) {
+	        return;
+	    }
+	    
+	    long timestamp = pending.getLastUsageTimestamp();
+	    for (int i = 0; i < snapshots.size(); i++) {
+	        AggregatedReservoirSnapshot snapshot = snapshots.get(i);
+	        if (snapshot.getStart() <= timestamp && timestamp <= snapshot.getEnd()) {
+	            AggregatedReservoirSnapshotImpl merged = AggregatedReservoirSnapshotImpl.merge(Arrays.asList(snapshot, pending));
+	            merged.setStart(snapshot.getStart());
+	            merged.setEnd(snapshot.getEnd());
+	            snapshots.set(i, merged);
+	            break;
+	        }
+	    }
+	}
+	
+	/*
+	 * Moves on the archives to the time last published by the ticker. The ticker can not move them 
+	 * on itself as it does not hold the lock of the metric, so the first access after a published 
+	 * rollover does it, i.e. once per step. Published times never decrease as the ticker stops 
+	 * publishing while the clock is turned back, so they are not checked for skew again.
+	 */
+	private void applyPublishedRollover() {
+	    long time = publishedRolloverTime;
+	    if (time == appliedRolloverTime) {
+	        return;
+	    }
+	    
+	    appliedRolloverTime = time;
+	    lastNow = time;
+	    if (rollUp) {
+	        updateFinestContainer(time);
+	    } else {
+	        for (ArchiveContainer container : containers) {
+	            container.updateCurrentArchive(time);
+	        }
+	    }
+	}
+	
+	/*
+	 * Returns the time the archives are moved on to before a read, Long.MIN_VALUE if they must not 
+	 * be moved on. Reservoirs attached to a ticker are only moved on to the times published by it.
+	 */
+	private long getReadTime() {
+	    if (ticked) {
+	        applyPublishedRollover();
+	        return appliedRolloverTime;
+	    }
+	    
+	    long now = clock.getTime();
+	    return saneTime(now) ? now : Long.MIN_VALUE;
+	}
+	
+	void attachTicker() {
+	    ticked = true;
+	}
+	
+	void detachTicker() {
+	    ticked = false;
+	}
+	
+	/*
+	 * Called by the ticker thread, only publishes the time
+	 */
+	void publishRollover(long now) {
+	    publishedRolloverTime = now;
+	}
+	
+	/*
+	 * Returns the start of the archive of the finest resolution following the one of the 
+	 * given time, archives of all resolutions only move on at these times
+	 */
+	long getNextRollover(long time) {
+	    long offset = (time - origin) % step;
+	    if (offset < 0) {
+	        offset += step;
+	    }
+	    return time - offset + step;
 	}
 	
 	private boolean checkResolution(long resolution) {
@@ -180,9 +503,9 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 	public AggregatedReservoirSnapshot getCurrentSnapshot() {
 	    ArchiveContainer smallestResolutionContainer = containers[0];
 	    
-	    long now = clock.getTime();
-	    if(saneTime(now)) {
-	        smallestResolutionContainer.updateCurrentArchive(now);
+	    long now = getReadTime();
+	    if (now != Long.MIN_VALUE) {
+	        updateFinestContainer(now);
 	    }
 	    
 	    return smallestResolutionContainer.getCurrentArchiveSnapshot();
@@ -192,20 +515,191 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 	public List<AggregatedReservoirSnapshot> getSnapshots() {
 		ArchiveContainer smallestResolutionContainer = containers[0];
 	    
-	    long now = clock.getTime();
-	    if(saneTime(now)) {
-	        smallestResolutionContainer.updateCurrentArchive(now);
+	    long now = getReadTime();
+	    if (now != Long.MIN_VALUE) {
+	        updateFinestContainer(now);
 	    }
 	    
 	    return smallestResolutionContainer.getSnapshots();
 	}
 	
+	/**
+	 * Returns the archives of the given resolution spanning the given time range. If there is no 
+	 * container of the given resolution the archives of the coarsest finer container are merged 
+	 * into bins of the given resolution, the results are cached per query.
+	 */
 	@Override
 	public List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
+	    if (!hasContainer(resolution)) {
+	        return getDownsampledSnapshots(start, end, resolution);
+	    }
 		return getSnapshots(start, end, resolution, true);
 	}
 	
+	@Override
+	public void forEachArchive(ArchiveVisitor visitor) {
+	    long now = getReadTime();
+	    if (now != Long.MIN_VALUE) {
+	        updateFinestContainer(now);
+	    }
+	    
+	    containers[0].visitArchives(new ArchiveRecord(), visitor);
+	}
+	
+	@Override
+	public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+	    if (!hasContainer(resolution)) {
+	        ArchiveRecord.forEach(getDownsampledSnapshots(start, end, resolution), visitor);
+	        return;
+	    }
+	    
+	    int containerIdx = findSpanningContainer(start, end, resolution, true);
+	    if (containerIdx == -1) {
+	        return;
+	    }
+	    
+	    if (rollUp && containerIdx > 0) {
+	        // the pending archive of the finest resolution has to be merged into a snapshot
+	        ArchiveRecord.forEach(getSpanningSnapshots(containerIdx, start, end), visitor);
+	    } else {
+	        containers[containerIdx].visitSpanningArchives(start, end, new ArchiveRecord(), visitor);
+	    }
+	}
+	
 	private List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution, boolean exactResolution) {
+	    int containerIdx = findSpanningContainer(start, end, resolution, exactResolution);
+	    return (containerIdx != -1) ? getSpanningSnapshots(containerIdx, start, end) : Collections.<AggregatedReservoirSnapshot>emptyList();
+	}
+	
+	private List<AggregatedReservoirSnapshot> getSpanningSnapshots(int containerIdx, long start, long end) {
+	    List<AggregatedReservoirSnapshot> snapshots = containers[containerIdx].getSpanningArchives(start, end);
+	    if (rollUp && containerIdx > 0) {
+	        addPendingArchive(snapshots);
+	    }
+	    return snapshots;
+	}
+	
+	private boolean hasContainer(long resolution) {
+	    for (ArchiveContainer container : containers) {
+	        if (container.resolution == resolution) {
+	            return true;
+	        }
+	    }
+	    return false;
+	}
+	
+	private List<AggregatedReservoirSnapshot> getDownsampledSnapshots(long start, long end, long resolution) {
+	    if (end <= start) {
+	        throw new IllegalArgumentException("Query end date must not be equal or before start date");
+	    }
+	    
+	    if (resolution <= 0 || !checkResolution(resolution)) {
+	        throw new IllegalArgumentException(String.format("Query resolution (%d) must be a multiple of step size (step size is: %d)", resolution, step) );
+	    }
+	    
+	    updateCurrentArchives();
+	    
+	    DownsamplingQuery query = new DownsamplingQuery(start, end, resolution);
+	    DownsampledSnapshots cached = downsamplingCache.get(query);
+	    if (cached != null && isCurrent(cached)) {
+	        return new ArrayList<>(cached.snapshots);
+	    }
+	    
+	    // extend the query to whole bins
+	    long binsStart = getBinStart(start, resolution);
+	    long binsEnd = getBinStart(end, resolution) + resolution - 1;
+	    
+	    boolean supported = false;
+	    for (int i = containers.length - 1; i >= 0; i--) {
+	        ArchiveContainer container = containers[i];
+	        if (container.resolution > resolution || resolution % container.resolution != 0) {
+	            continue;
+	        }
+	        
+	        supported = true;
+	        long spanStart = Math.max(binsStart, Math.min(start, container.start));
+	        long spanEnd = Math.min(binsEnd, Math.max(end, container.end));
+	        if (container.getSpanningStartIndex(spanStart, spanEnd) != -1) {
+	            List<AggregatedReservoirSnapshot> snapshots = mergeIntoBins(getSpanningSnapshots(i, spanStart, spanEnd), resolution);
+	            downsamplingCache.put(query, new DownsampledSnapshots(i, spanStart, 
+	                    spanEnd < containers[0].getCurrentStart(), updateCount, snapshots));
+	            return new ArrayList<>(snapshots);
+	        }
+	    }
+	    
+	    if (!supported) {
+	        LOGGER.warn("Unsupported time resolution: {}", resolution);
+	    }
+	    
+	    return Collections.emptyList();
+	}
+	
+	/*
+	 * A cached result is current if no sample was added since, or if it only covered completed 
+	 * archives when it was cached, as long as none of them was overwritten
+	 */
+	private boolean isCurrent(DownsampledSnapshots cached) {
+	    ArchiveContainer container = containers[cached.containerIdx];
+	    if (container.start > cached.spanStart) {
+	        return false;
+	    }
+	    
+	    return cached.completed || cached.updateCount == updateCount;
+	}
+	
+	private void updateCurrentArchives() {
+	    long now = getReadTime();
+	    if (now != Long.MIN_VALUE) {
+	        if (rollUp) {
+	            updateFinestContainer(now);
+	        }
+	        for (ArchiveContainer container : containers) {
+	            container.updateCurrentArchive(now);
+	        }
+	    }
+	}
+	
+	private long getBinStart(long timestamp, long resolution) {
+	    long offset = (timestamp - origin) % resolution;
+	    return timestamp - ((offset < 0) ? offset + resolution : offset);
+	}
+	
+	/*
+	 * Merges consecutive archives into bins of the given resolution
+	 */
+	private List<AggregatedReservoirSnapshot> mergeIntoBins(List<AggregatedReservoirSnapshot> snapshots, long resolution) {
+	    List<AggregatedReservoirSnapshot> bins = new ArrayList<>();
+	    List<AggregatedReservoirSnapshot> binSnapshots = new ArrayList<>();
+	    long binStart = 0;
+	    for (AggregatedReservoirSnapshot snapshot : snapshots) {
+	        // the first archive of a container overlaps the second one, so archives are binned by their end
+	        long snapshotBinStart = getBinStart(snapshot.getEnd(), resolution);
+	        if (!binSnapshots.isEmpty() && snapshotBinStart != binStart) {
+	            bins.add(mergeBin(binSnapshots, binStart, resolution));
+	            binSnapshots.clear();
+	        }
+	        binStart = snapshotBinStart;
+	        binSnapshots.add(snapshot);
+	    }
+	    
+	    if (!binSnapshots.isEmpty()) {
+	        bins.add(mergeBin(binSnapshots, binStart, resolution));
+	    }
+	    
+	    return bins;
+	}
+	
+	private static AggregatedReservoirSnapshot mergeBin(List<AggregatedReservoirSnapshot> binSnapshots, long binStart, long resolution) {
+	    AggregatedReservoirSnapshotImpl bin = AggregatedReservoirSnapshotImpl.merge(binSnapshots);
+	    bin.setStart(binStart);
+	    bin.setEnd(binStart + resolution - 1);
+	    return bin;
+	}
+	
+	/*
+	 * Find the container of the given resolution holding archives that span the given time range, -1 if there is none
+	 */
+	private int findSpanningContainer(long start, long end, long resolution, boolean exactResolution) {
 		if(end <= start) {
 			throw new IllegalArgumentException("Query end date must not be equal or before start date");
 		}
@@ -233,7 +727,7 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 		if(startContainerIdx == -1)
 		{
 			LOGGER.warn("Unsupported time resolution: {}", resolution);
-			return Collections.emptyList();
+			return -1;
 		}
 		
 		int stopResolution = exactResolution ? startContainerIdx + 1 : containers.length;
@@ -241,18 +735,20 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 		for( int i = startContainerIdx; i < stopResolution; i++) {
 			ArchiveContainer resolutionContainer = containers[i];
 			
-			long now = clock.getTime();
-			if(saneTime(now)) {
+			long now = getReadTime();
+			if (now != Long.MIN_VALUE) {
+			    if (rollUp) {
+			        updateFinestContainer(now);
+			    }
 			    resolutionContainer.updateCurrentArchive(now);
 			}
 			
-			List<AggregatedReservoirSnapshot> snapshots = resolutionContainer.getSpanningArchives(start, end);
-			if ( snapshots != Collections.<AggregatedReservoirSnapshot>emptyList() ) {
-				return snapshots;
+			if (resolutionContainer.getSpanningStartIndex(start, end) != -1) {
+				return i;
 			}
 		}
 		
-		return Collections.emptyList();
+		return -1;
 	}
 	
 	private boolean saneTime(long now) {
@@ -267,6 +763,55 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 	    return containers;
 	}
 	
+	private static class DownsamplingQuery {
+	    private final long start;
+	    private final long end;
+	    private final long resolution;
+	    
+	    private DownsamplingQuery(long start, long end, long resolution) {
+	        this.start = start;
+	        this.end = end;
+	        this.resolution = resolution;
+	    }
+	    
+	    @Override
+	    public int hashCode() {
+	        int result = 31 + (int) (start ^ (start >>> 32));
+	        result = 31 * result + (int) (end ^ (end >>> 32));
+	        return 31 * result + (int) (resolution ^ (resolution >>> 32));
+	    }
+	    
+	    @Override
+	    public boolean equals(Object obj) {
+	        if (this == obj) {
+	            return true;
+	        }
+	        if (!(obj instanceof DownsamplingQuery)) {
+	            return false;
+	        }
+	        DownsamplingQuery other = (DownsamplingQuery) obj;
+	        return start == other.start && end == other.end && resolution == other.resolution;
+	    }
+	}
+	
+	private static class DownsampledSnapshots {
+	    private final int containerIdx;
+	    // start of the merged archives
+	    private final long spanStart;
+	    // true if all merged archives were completed
+	    private final boolean completed;
+	    private final long updateCount;
+	    private final List<AggregatedReservoirSnapshot> snapshots;
+	    
+	    private DownsampledSnapshots(int containerIdx, long spanStart, boolean completed, long updateCount, List<AggregatedReservoirSnapshot> snapshots) {
+	        this.containerIdx = containerIdx;
+	        this.spanStart = spanStart;
+	        this.completed = completed;
+	        this.updateCount = updateCount;
+	        this.snapshots = snapshots;
+	    }
+	}
+	
 	protected static class Archive {
 		protected final long start;
 		protected final long end;
@@ -322,6 +867,49 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 			updateMinMax(value);
 		}
 		
+		/*
+		 * Merges the aggregates of a completed archive of a finer resolution into this archive. 
+		 * Mean and variance are combined with the parallel variant of the online variance algorithm
+		 * (Chan et al.), see: http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance (section Parallel algorithm)
+		 */
+		protected void merge(AggregatedReservoirSnapshotImpl snapshot) {
+		    long n = snapshot.size();
+		    if (n == 0) {
+		        return;
+		    }
+		    
+		    if (firstUsage == Long.MIN_VALUE) {
+		        firstUsage = snapshot.getFirstUsageTimestamp();
+		    }
+		    if (snapshot.getLastUsageTimestamp() >= lastUsage) {
+		        lastUsage = snapshot.getLastUsageTimestamp();
+		        lastValue = snapshot.getLastValue();
+		    }
+		    
+		    sum = (sum == Long.MIN_VALUE) ? snapshot.getSum() : sum + snapshot.getSum();
+		    
+		    double snapshotM2 = (n < 2) ? 0.0 : snapshot.getStdDev() * snapshot.getStdDev() * (n - 1);
+		    if (size == 0) {
+		        mean = snapshot.getMean();
+		        m2 = snapshotM2;
+		    } else {
+		        long total = size + n;
+		        double delta = snapshot.getMean() - mean;
+		        mean += delta * n / total;
+		        m2 += snapshotM2 + delta * delta * ((double) size * n / total);
+		    }
+		    size += n;
+		    
+		    if (snapshot.getMin() < min) {
+		        min = snapshot.getMin();
+		        minTimestamp = snapshot.getMinTimestamp();
+		    }
+		    if (snapshot.getMax() > max) {
+		        max = snapshot.getMax();
+		        maxTimestamp = snapshot.getMaxTimestamp();
+		    }
+		}
+		
 		private void updateUsages(long now) {
 			lastUsage = now;
 			if (firstUsage == Long.MIN_VALUE) {
@@ -372,6 +960,14 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 		    return null;
 		}
 		
+		public double getValueWeight() {
+		    return 1.0;
+		}
+		
+		public LogLinearHistogram getHistogram(boolean copy) {
+		    return null;
+		}
+		
 		public long getMax() {
 			return max;
 		}
@@ -452,6 +1048,27 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 	        }
 	    }
 	    
+	    @Override
+	    protected void merge(AggregatedReservoirSnapshotImpl snapshot) {
+	        super.merge(snapshot);
+	        if (values != null && size() > maxSize) {
+	            LOGGER.error("Archive exceeds allowed maximum of values: {}", maxSize);
+	            values = null;
+	        }
+	        
+	        if (values != null) {
+	            long[] snapshotValues = snapshot.getValues(false);
+	            if (snapshotValues == null) {
+	                // values of the finer archive exceeded its maximum
+	                values = null;
+	            } else {
+	                for (long value : snapshotValues) {
+	                    values.add(value);
+	                }
+	            }
+	        }
+	    }
+	    
 	    @Override
 	    public long[] getValues(boolean copy) {
 	        return (values != null) ? getValuesCopy() : null;
@@ -477,41 +1094,319 @@ public class RoundRobinReservoir implements AggregatedReservoir {
         }
 	}
 	
-	 protected static class ArchiveContainer {
+	/**
+	 * Archive keeping a fixed-size uniform random sample of its values in a {@link ValueSample}
+	 */
+	protected static class SampledValueArchive extends Archive {
+	    private final ValueSample sample;
+	    
+	    protected SampledValueArchive(long start, long end, long resolution, int maxSize) {
+	        super(start, end, resolution);
+	        this.sample = new ValueSample(maxSize, start);
+	    }
+	    
+	    @Override
+	    protected void update(long now, long value) {
+	        super.update(now, value);
+	        sample.add(value);
+	    }
+	    
+	    @Override
+	    protected void merge(AggregatedReservoirSnapshotImpl snapshot) {
+	        super.merge(snapshot);
+	        long[] snapshotValues = snapshot.getValues(false);
+	        if (snapshotValues != null) {
+	            for (long value : snapshotValues) {
+	                sample.add(value, snapshot.getValueWeight());
+	            }
+	        }
+	    }
+	    
+	    @Override
+	    public long[] getValues(boolean copy) {
+	        return sample.copyValues();
+	    }
+	    
+	    @Override
+	    public double getValueWeight() {
+	        return sample.getWeight();
+	    }
+	    
+	    @Override
+	    protected Archive next() {
+	        long nextStart = end + 1;
+	        return createArchive(nextStart);
+	    }
+	    
+	    @Override
+	    protected Archive createArchive(long start) {
+	        return new SampledValueArchive(start, start + resolution - 1, resolution, sample.capacity());
+	    }
+	}
+	
+	/**
+	 * Archive keeping track of the value distribution in a bounded {@link LogLinearHistogram}
+	 */
+	protected static class HistogramArchive extends Archive {
+	    private final LogLinearHistogram histogram;
+	    
+	    protected HistogramArchive(long start, long end, long resolution, int precision) {
+	        super(start, end, resolution);
+	        this.histogram = new LogLinearHistogram(precision);
+	    }
+	    
+	    @Override
+	    protected void update(long now, long value) {
+	        super.update(now, value);
+	        histogram.record(value);
+	    }
+	    
+	    @Override
+	    protected void merge(AggregatedReservoirSnapshotImpl snapshot) {
+	        super.merge(snapshot);
+	        if (snapshot.getHistogram() != null) {
+	            histogram.add(snapshot.getHistogram());
+	        }
+	    }
+	    
+	    @Override
+	    public LogLinearHistogram getHistogram(boolean copy) {
+	        return copy ? histogram.copy() : histogram;
+	    }
+	    
+	    @Override
+	    protected Archive next() {
+	        long nextStart = end + 1;
+	        return new HistogramArchive(nextStart, nextStart + resolution - 1, resolution, histogram.getPrecision());
+	    }
+	    
+	    @Override
+	    protected Archive createArchive(long start) {
+	        return new HistogramArchive(start, start + resolution - 1, resolution, histogram.getPrecision());
+	    }
+	}
+	
+	/**
+	 * Ring-buffer of archives of one resolution.
+	 * 
+	 * The container implements the round-robin arithmetic on slot indices, the storage 
+	 * of the archive data of the individual slots is left to the sub-classes.
+	 */
+	protected static abstract class ArchiveContainer {
 		// start time-stamp of the oldest archive contained
 		private long start;
 		// end time-stamp of the youngest archive contained
 		private long end;
 		// number of archives contained
-		private final int size;
+		protected final int size;
 		// resolution
-		private final long resolution;
+		protected final long resolution;
 		
 		/*
 		 *  ring-buffer holding the archives:
 		 *  1) The archives contained are sorted by increasing time
 		 *  2) Due to ring-buffer nature the oldest archives are overwritten automatically
+		 *  3) Slots skipped while the metric was idle are not reset, they still hold an archive of 
+		 *     a former round of the ring-buffer (unless released by skipSlot()) and are treated as 
+		 *     virtual empty archives
 		 */
-		private final Archive[] archives;
 		// index of the currently active archive in the ring-buffer
 		private int currentIdx = 0;
+		// number of archives contained, including virtual empty ones
+		private int count = 1;
 		
-		private ArchiveContainer(long resolution, int size, Archive firstArchive) {
+		protected ArchiveContainer(long resolution, int size, long start, long end) {
 		    this.resolution = resolution;
 			this.size = size;
-			archives = new Archive[size];
-			archives[currentIdx] = firstArchive;
-			this.start = firstArchive.getStart();
-			this.end = firstArchive.getEnd(); 
+			this.start = start;
+			this.end = end; 
 		}
 		
-		private Archive updateCurrentArchive(long now) {
-            Archive currentArchive = archives[currentIdx];
-            long currentStart = currentArchive.start;
-            
-            if( currentStart == 0) {
-                currentStart = 1;
-            }
+		/**
+		 * Re-initializes the given slot with an empty archive starting at the given time.
+		 */
+		protected abstract void resetSlot(int idx, long start);
+		
+		/**
+		 * @return Returns <code>true</code> if the given slot ever held an archive
+		 */
+		protected abstract boolean isSlotUsed(int idx);
+		
+		protected abstract long getSlotStart(int idx);
+		
+		protected abstract long getSlotEnd(int idx);
+		
+		protected abstract void updateSlot(int idx, long now, long value);
+		
+		protected abstract AggregatedReservoirSnapshotImpl copySlotToSnapshot(int idx);
+		
+		/**
+		 * Copies the aggregated values of the given slot to the record, the value distribution 
+		 * is looked up on request by {@link #getSlotValue(int, double)}.
+		 */
+		protected abstract void copySlotToRecord(int idx, ArchiveRecord record);
+		
+		/**
+		 * Returns the value at the given quantile of the value distribution of the given slot
+		 */
+		protected double getSlotValue(int idx, double quantile) {
+		    return copySlotToSnapshot(idx).getValue(quantile);
+		}
+		
+		/*
+		 * Looks up the quantile in a copy of the raw values of a slot, the copy is sorted in place
+		 */
+		protected static double getValueAtQuantile(long[] valuesCopy, double quantile) {
+		    if (valuesCopy == null || valuesCopy.length == 0) {
+		        return Double.NaN;
+		    }
+		    
+		    Arrays.sort(valuesCopy);
+		    return AggregatedReservoirSnapshotImpl.getValueAtQuantile(valuesCopy, quantile);
+		}
+		
+		/**
+		 * Merges the snapshot of a completed archive of a finer resolution into the given slot.
+		 */
+		protected abstract void mergeSlot(int idx, AggregatedReservoirSnapshotImpl snapshot);
+		
+		/**
+		 * Creates the snapshot of an empty archive, used for slots skipped while the metric was idle.
+		 * Containers keeping a value distribution per archive have to provide an empty one.
+		 */
+		protected AggregatedReservoirSnapshotImpl createEmptySnapshot(long start, long end) {
+		    AggregatedReservoirSnapshotImpl snapshot = new AggregatedReservoirSnapshotImpl();
+		    snapshot.setStart(start);
+		    snapshot.setEnd(end);
+		    snapshot.setSize(0);
+		    snapshot.setLastValue(Long.MIN_VALUE);
+		    snapshot.setSum(Long.MIN_VALUE);
+		    snapshot.setMean(Double.NaN);
+		    snapshot.setStdDev(Double.NaN);
+		    snapshot.setMin(Long.MAX_VALUE);
+		    snapshot.setMinTimestamp(Long.MIN_VALUE);
+		    snapshot.setMax(Long.MIN_VALUE);
+		    snapshot.setMaxTimestamp(Long.MIN_VALUE);
+		    snapshot.setFirstUsageTimestamp(Long.MIN_VALUE);
+		    snapshot.setLastUsageTimestamp(Long.MIN_VALUE);
+		    return snapshot;
+		}
+		
+		/**
+		 * Re-attaches the ring-buffer to slots persisted by a former container. The youngest used
+		 * slot becomes the current archive.
+		 * 
+		 * @return Returns <code>false</code> if there are no usable persisted slots, i.e. none or 
+		 * only ones younger than the given time
+		 */
+		protected boolean reattach(long now) {
+		    int youngestIdx = -1;
+		    for (int i = 0; i < size; i++) {
+		        if (isSlotUsed(i) && (youngestIdx < 0 || getSlotStart(i) > getSlotStart(youngestIdx))) {
+		            youngestIdx = i;
+		        }
+		    }
+		    
+		    if (youngestIdx < 0 || getSlotStart(youngestIdx) > now) {
+		        return false;
+		    }
+		    
+		    currentIdx = youngestIdx;
+		    count = isSlotUsed((youngestIdx + 1) % size) ? size : youngestIdx + 1;
+		    start = getArchiveStart(getOldestArchiveIndex());
+		    end = getSlotEnd(currentIdx);
+		    return true;
+		}
+		
+		private void update(long now, long value) {
+		    updateSlot(updateCurrentArchive(now), now, value);
+		}
+		
+		/*
+		 * Merges the snapshot of a completed archive of a finer resolution into the archive spanning it
+		 */
+		private void merge(AggregatedReservoirSnapshotImpl snapshot) {
+		    long timestamp = snapshot.getLastUsageTimestamp();
+		    int idx = (timestamp > end) ? updateCurrentArchive(timestamp) : findSlot(timestamp);
+		    if (idx >= 0) {
+		        mergeSlot(idx, snapshot);
+		    }
+		}
+		
+		/*
+		 * Find the slot of the archive containing the given time-stamp, -1 if it was already overwritten
+		 */
+		private int findSlot(long timestamp) {
+		    for (int i = 0, idx = currentIdx; i < count; i++, idx = mod(idx - 1, size)) {
+		        if (getArchiveStart(idx) <= timestamp && getArchiveEnd(idx) >= timestamp) {
+		            if (!isArchiveMaterialized(idx)) {
+		                resetSlot(idx, getArchiveStart(idx));
+		            }
+		            return idx;
+		        }
+		    }
+		    return -1;
+		}
+		
+		/**
+		 * Called for a slot skipped while the metric was idle, the slot stands for an empty archive 
+		 * starting at the given time. Slots never used in the first round of the ring-buffer are 
+		 * initialized, so the used slots tell whether the ring-buffer was wrapped (e.g. for 
+		 * re-attaching persisted slots).
+		 */
+		protected void skipSlot(int idx, long start) {
+		    if (count < size && !isSlotUsed(idx)) {
+		        //SET
+		        resetSlot(idx, start);
+		    }
+		}
+		
+		/*
+		 * Returns true if the slot holds an archive of the current round of the ring-buffer, otherwise 
+		 * the slot was skipped while the metric was idle and stands for an empty archive
+		 */
+		private boolean isArchiveMaterialized(int idx) {
+		    // archives of former rounds end at least one round of the ring-buffer earlier, the first 
+		    // archive of a container may end one time unit after the regular end
+		    return isSlotUsed(idx) && Math.abs(getSlotEnd(idx) - getVirtualEnd(idx)) < resolution;
+		}
+		
+		/*
+		 * Returns the end of the archive of the given slot as defined by the distance to the current archive
+		 */
+		private long getVirtualEnd(int idx) {
+		    return end - mod(currentIdx - idx, size) * resolution;
+		}
+		
+		private long getArchiveStart(int idx) {
+		    return isArchiveMaterialized(idx) ? getSlotStart(idx) : getVirtualEnd(idx) - resolution + 1;
+		}
+		
+		private long getArchiveEnd(int idx) {
+		    return isArchiveMaterialized(idx) ? getSlotEnd(idx) : getVirtualEnd(idx);
+		}
+		
+		private AggregatedReservoirSnapshotImpl copyArchiveToSnapshot(int idx) {
+		    if (isArchiveMaterialized(idx)) {
+		        return copySlotToSnapshot(idx);
+		    }
+		    return createEmptySnapshot(getArchiveStart(idx), getArchiveEnd(idx));
+		}
+		
+		/*
+		 * Returns true if the given time is beyond the current archive
+		 */
+		private boolean isCompleted(long now) {
+		    return (now - getCurrentStart()) / resolution != 0;
+		}
+		
+		private long getCurrentStart() {
+		    long currentStart = getSlotStart(currentIdx);
+		    return (currentStart == 0) ? 1 : currentStart;
+		}
+		
+		private int updateCurrentArchive(long now) {
+            long currentStart = getCurrentStart();
             
             long loffset = (now - currentStart) / resolution;
             if(loffset > Integer.MAX_VALUE) {
@@ -520,21 +1415,15 @@ public class RoundRobinReservoir implements AggregatedReservoir {
             
             int offset = (int)loffset;
             if(offset == 0) {
-                return currentArchive;
+                return currentIdx;
             }
             
             long startNew = currentStart + (offset * resolution);
             int currentIdxNew = (currentIdx + offset) % size;
-            Archive newCurrentArchive = currentArchive.createArchive(startNew);
-            
-//            Archive oldArchive = archives[currentIdxNew];
-//            if(oldArchive != null) {
-//                LOGGER.debug("Overriding round-robin archive {} with new archive {}", oldArchive, newCurrentArchive);
-//            }
             
             //SET
-            archives[currentIdxNew] = newCurrentArchive;
-            this.end = newCurrentArchive.getEnd();
+            resetSlot(currentIdxNew, startNew);
+            this.end = getSlotEnd(currentIdxNew);
             
             // if this is a roundtrip (all positions in ringbuffer are overwritten)
             // -> constrain offset to size
@@ -542,84 +1431,118 @@ public class RoundRobinReservoir implements AggregatedReservoir {
                 offset = size;
             }
             
-            fillArchivesBetweenOldAndNewCurrent(newCurrentArchive, currentIdxNew, startNew, offset);
-            
-            Archive oneAfterNewCurrent = archives[(currentIdxNew + 1) % size];
-            if(oneAfterNewCurrent != null ) {
-                //SET
-                this.start = oneAfterNewCurrent.getStart();
+            // skipped slots are not reset, they are detected as virtual empty archives by their end
+            if (offset > 1) {
+                LOGGER.debug("Skipping {} empty round-robin archives of {}", offset - 1, this);
+                for (int i = 1; i < offset; i++) {
+                    skipSlot(mod(currentIdxNew - i, size), startNew - i * resolution);
+                }
             }
             
             currentIdx = currentIdxNew;
-            return newCurrentArchive;
-        }
-		
-		private void fillArchivesBetweenOldAndNewCurrent(Archive archiveFactory, int currentIdxNew, long startNew, int offset) {
-		    long emptyEnd = startNew - 1;
-            for(int i = 1; i < offset; i++) {
-                Archive emptyInBetweenArchive = archiveFactory.createArchive(emptyEnd - resolution + 1);
-                
-                int emptyInBetweenIdx = mod( currentIdxNew - i, size);
-                
-                Archive oldArchive = archives[emptyInBetweenIdx];
-                if(oldArchive != null) {
-                    LOGGER.debug("Overriding round-robin archive {} with new archive {}", oldArchive, emptyInBetweenArchive);
-                }
-                
+            count = Math.min(size, count + offset);
+            if (count == size) {
                 //SET
-                archives[emptyInBetweenIdx] = emptyInBetweenArchive;
-                
-                emptyEnd -= resolution; 
+                this.start = getArchiveStart((currentIdx + 1) % size);
             }
-		}
+            
+            return currentIdx;
+        }
 		
-        private static int mod(int a, int n) {
+        protected static int mod(int a, int n) {
             return a < 0 ? (a % n + n) % n : a % n;
         }
 		
 		/*
-		 * Find archives that when considered appended are spanning the given time range
+		 * Find the slot of the first of the archives that when considered appended are spanning 
+		 * the given time range, -1 if the archives do not span the time range
 		 */
-		private List<AggregatedReservoirSnapshot> getSpanningArchives(long start, long end) {
+		private int getSpanningStartIndex(long start, long end) {
 			if ((this.start <= start) && (this.end >= end)) {
-				int oldestArchiveIdx = getOldestArchiveIndex();
-
-				List<AggregatedReservoirSnapshot> spanningArchives = null;
-				
 				// iterate over ring-buffer starting from the oldest archive
-				for (int i = oldestArchiveIdx;; i = (i + 1) % size) {
-					Archive archive = archives[i];
-
-					if (spanningArchives == null && archive.withinTimeInterval(start)) {
-						spanningArchives = new ArrayList<>();
-					}
-
-					if (spanningArchives != null) {
-						spanningArchives.add(copyToSnapshot(archive));
+				for (int i = getOldestArchiveIndex();; i = (i + 1) % size) {
+					if (getArchiveStart(i) <= start && getArchiveEnd(i) >= start) {
+						return i;
 					}
 					
-					if (archive.getEnd() >= end) {
-						break;
+					if (getArchiveEnd(i) >= end) {
+						return -1;
 					}
 				}
-
-				return (spanningArchives == null) ? Collections.<AggregatedReservoirSnapshot>emptyList(): spanningArchives;
 			} else {
+				return -1;
+			}
+		}
+		
+		/*
+		 * Find archives that when considered appended are spanning the given time range
+		 */
+		private List<AggregatedReservoirSnapshot> getSpanningArchives(long start, long end) {
+			int startIdx = getSpanningStartIndex(start, end);
+			if (startIdx == -1) {
 				return Collections.emptyList();
 			}
+			
+			List<AggregatedReservoirSnapshot> spanningArchives = new ArrayList<>();
+			for (int i = startIdx;; i = (i + 1) % size) {
+				spanningArchives.add(copyArchiveToSnapshot(i));
+				
+				if (getArchiveEnd(i) >= end) {
+					break;
+				}
+			}
+			
+			return spanningArchives;
+		}
+		
+		private void visitSpanningArchives(long start, long end, ArchiveRecord record, ArchiveVisitor visitor) {
+		    int startIdx = getSpanningStartIndex(start, end);
+		    if (startIdx == -1) {
+		        return;
+		    }
+		    
+		    for (int i = startIdx;; i = (i + 1) % size) {
+		        visitSlot(i, record, visitor);
+		        
+		        if (getArchiveEnd(i) >= end) {
+		            break;
+		        }
+		    }
+		}
+		
+		/*
+		 * Visits all archives in the order of getSnapshots(), starting from the current one
+		 */
+		private void visitArchives(ArchiveRecord record, ArchiveVisitor visitor) {
+		    int oldestArchiveIdx = getOldestArchiveIndex();
+		    for(int i = currentIdx;; i = mod(i - 1, size)) {
+		        visitSlot(i, record, visitor);
+		        if(i == oldestArchiveIdx) {
+		            break;
+		        }
+		    }
+		}
+		
+		private void visitSlot(int idx, ArchiveRecord record, ArchiveVisitor visitor) {
+		    if (isArchiveMaterialized(idx)) {
+		        copySlotToRecord(idx, record);
+		        record.setSlot(this, idx);
+		    } else {
+		        record.set(createEmptySnapshot(getArchiveStart(idx), getArchiveEnd(idx)));
+		    }
+		    visitor.visit(record);
 		}
 		
 		private AggregatedReservoirSnapshot getCurrentArchiveSnapshot() {
-		    Archive currentArchive = archives[currentIdx];
-		    return copyToSnapshot(currentArchive);
+		    return copySlotToSnapshot(currentIdx);
 		}
 		
 		private List<AggregatedReservoirSnapshot> getSnapshots() {
 			List<AggregatedReservoirSnapshot> snapshots = new ArrayList<>();
 			
 			int oldestArchiveIdx = getOldestArchiveIndex();
-			for(int i = currentIdx;; i = (i - 1) % size) {
-				snapshots.add(copyToSnapshot(archives[i]));
+			for(int i = currentIdx;; i = mod(i - 1, size)) {
+				snapshots.add(copyArchiveToSnapshot(i));
 				if(i == oldestArchiveIdx) {
 					break;
 				}
@@ -628,12 +1551,136 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 			return snapshots;
 		}
 		
+		/*
+		 * Get index of the oldest archive in the ring-buffer
+		 */
+		private int getOldestArchiveIndex() {
+			/*
+			 * () If the ring-buffer is completely filled (it has been wrapped at least once) the next archive 
+			 * after the current one must be the oldest one
+			 * () If the ring-buffer is not completely filled (no wrapping has happened) the first archive must 
+			 * still be the oldest one
+			 */
+			return (count == size) ? (currentIdx + 1) % size : 0;
+		}
+		
+		public long getResolution() {
+		    return resolution;
+		}
+		
+		public int getCurrentIndex() {
+		    return currentIdx;
+		}
+		
+		@Override
+        public String toString() {
+            Date startDate = new Date(start);
+            Date endDate = new Date(end);
+            return String.format("%s([%s (%d) - %s (%d)], size: %d", getClass().getSimpleName(), startDate, start, endDate, end, size);
+        }
+		
+	}
+	
+	/**
+	 * Archive container holding one {@link Archive} object per slot.
+	 */
+	protected static class ObjectArchiveContainer extends ArchiveContainer {
+		private final Archive[] archives;
+		// prototype used to create new archives of the same kind
+		private final Archive prototype;
+		
+		private ObjectArchiveContainer(long resolution, int size, Archive firstArchive) {
+		    super(resolution, size, firstArchive.getStart(), firstArchive.getEnd());
+			archives = new Archive[size];
+			archives[0] = firstArchive;
+			prototype = firstArchive;
+		}
+		
+		@Override
+		protected void resetSlot(int idx, long start) {
+		    archives[idx] = prototype.createArchive(start);
+		}
+		
+		/*
+		 * A skipped slot does not keep the archive of its former round, an unused slot 
+		 * is taken for a virtual empty archive as well
+		 */
+		@Override
+		protected void skipSlot(int idx, long start) {
+		    archives[idx] = null;
+		}
+		
+		@Override
+		protected boolean isSlotUsed(int idx) {
+		    return archives[idx] != null;
+		}
+		
+		@Override
+		protected long getSlotStart(int idx) {
+		    return archives[idx].getStart();
+		}
+		
+		@Override
+		protected long getSlotEnd(int idx) {
+		    return archives[idx].getEnd();
+		}
+		
+		@Override
+		protected void updateSlot(int idx, long now, long value) {
+		    archives[idx].update(now, value);
+		}
+		
+		@Override
+		protected AggregatedReservoirSnapshotImpl copySlotToSnapshot(int idx) {
+		    return copyToSnapshot(archives[idx]);
+		}
+		
+		@Override
+		protected void mergeSlot(int idx, AggregatedReservoirSnapshotImpl snapshot) {
+		    archives[idx].merge(snapshot);
+		}
+		
+		@Override
+		protected AggregatedReservoirSnapshotImpl createEmptySnapshot(long start, long end) {
+		    // only allocated on request, skipped slots do not hold an archive
+		    return copyToSnapshot(prototype.createArchive(start));
+		}
+		
+		@Override
+		protected void copySlotToRecord(int idx, ArchiveRecord record) {
+		    Archive archive = archives[idx];
+		    record.setStart(archive.getStart());
+		    record.setEnd(archive.getEnd());
+		    record.setSize(archive.size());
+		    record.setLastValue(archive.getLastValue());
+		    record.setSum(archive.getSum());
+		    record.setMean(archive.getMean());
+		    record.setStdDev(archive.getStdDev());
+		    record.setMin(archive.getMin());
+		    record.setMinTimestamp(archive.getMinTimestamp());
+		    record.setMax(archive.getMax());
+		    record.setMaxTimestamp(archive.getMaxTimestamp());
+		    record.setFirstUsageTimestamp(archive.getFirstUsageTimestamp());
+		    record.setLastUsageTimestamp(archive.getLastUsageTimestamp());
+		}
+		
+		@Override
+		protected double getSlotValue(int idx, double quantile) {
+		    LogLinearHistogram histogram = archives[idx].getHistogram(false);
+		    if (histogram != null) {
+		        return histogram.getValueAtQuantile(quantile);
+		    }
+		    return getValueAtQuantile(archives[idx].getValues(true), quantile);
+		}
+		
 		private static AggregatedReservoirSnapshotImpl copyToSnapshot(Archive archive) {
 			AggregatedReservoirSnapshotImpl snapshot = new AggregatedReservoirSnapshotImpl();
 			snapshot.setStart(archive.getStart());
 			snapshot.setEnd(archive.getEnd());
 			snapshot.setSize(archive.size());
 			snapshot.setValues(archive.getValues(true));
+			snapshot.setValueWeight(archive.getValueWeight());
+			snapshot.setHistogram(archive.getHistogram(true));
 			snapshot.setLastValue(archive.getLastValue());
 			snapshot.setSum(archive.getSum());
 			snapshot.setMean(archive.getMean());
@@ -647,35 +1694,10 @@ public class RoundRobinReservoir implements AggregatedReservoir {
 			return snapshot;
 		}
 		
-		/*
-		 * Get index of the oldest archive in the ring-buffer
-		 */
-		private int getOldestArchiveIndex() {
-			int candidateIdx = (currentIdx + 1) % size;
-			/*
-			 * () If the next archive after the current one exists then the ring-buffer has been wrapped (at least once)
-			 * so the next archive must be the oldest one
-			 * () If the next archive after the current one does not exist then the ring-buffer is not completly filled
-			 * (no wrapping has happended) so the first archive must still be the oldest one 
-			 */
-			return (archives[candidateIdx] != null) ? candidateIdx : 0;
-		}
-		
 		public Archive[] getArchives() {
 		    return archives;
 		}
 		
-		public int getCurrentIndex() {
-		    return currentIdx;
-		}
-		
-		@Override
-        public String toString() {
-            Date startDate = new Date(start);
-            Date endDate = new Date(end);
-            return String.format("ArchiveContainer([%s (%d) - %s (%d)], size: %d", startDate, start, endDate, end, size);
-        }
-		
 	}
 
 }
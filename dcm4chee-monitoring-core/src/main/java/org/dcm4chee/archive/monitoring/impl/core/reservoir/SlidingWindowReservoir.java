@@ -0,0 +1,322 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import static java.lang.String.format;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
+import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reservoir aggregating the samples of a sliding time window, e.g. the last 60 seconds. 
+ * 
+ * The window is split into a ring of fixed-size buckets. Each sample updates the bucket of 
+ * the current time, buckets falling out of the window are cleared when the ring moves on. 
+ * The current snapshot merges all buckets of the window, the value distribution is kept 
+ * in a log-linear histogram per bucket. As the histograms only cover the values recorded, 
+ * merging the buckets only touches their used histogram buckets.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class SlidingWindowReservoir extends AbstractAggregatedReservoir {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlidingWindowReservoir.class);
+    
+    private final Clock clock;
+    private final long bucketSize;
+    private final int bucketCount;
+    
+    // per bucket aggregates, indexed by bucket
+    private final long[] sizes;
+    private final long[] sums;
+    private final double[] means;
+    private final double[] m2s;
+    private final long[] mins;
+    private final long[] minTimestamps;
+    private final long[] maxs;
+    private final long[] maxTimestamps;
+    private final long[] firstUsages;
+    private final long[] lastUsages;
+    private final LogLinearHistogram[] histograms;
+    private final int histogramPrecision;
+    
+    // index and start time of the bucket of the current time
+    private int currentIdx;
+    private long currentStart;
+    private long lastValue = Long.MIN_VALUE;
+    
+    /**
+     * @param window Length of the window in milliseconds, must be a multiple of the bucket size
+     * @param bucketSize Length of a bucket in milliseconds, the window moves on in steps of the bucket size
+     * @param histogramPrecision Precision of the value histograms
+     */
+    public SlidingWindowReservoir(Clock clock, long window, long bucketSize, int histogramPrecision) {
+        if (bucketSize <= 0 || window < bucketSize || window % bucketSize != 0) {
+            throw new IllegalArgumentException(format("Window (%d) must be a multiple of the bucket size (%d)", window, bucketSize));
+        }
+        
+        if (window / bucketSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(format("Too many buckets per window (window: %d, bucket size: %d)", window, bucketSize));
+        }
+        
+        this.clock = clock;
+        this.bucketSize = bucketSize;
+        this.bucketCount = (int) (window / bucketSize);
+        this.histogramPrecision = histogramPrecision;
+        
+        sizes = new long[bucketCount];
+        sums = new long[bucketCount];
+        means = new double[bucketCount];
+        m2s = new double[bucketCount];
+        mins = new long[bucketCount];
+        minTimestamps = new long[bucketCount];
+        maxs = new long[bucketCount];
+        maxTimestamps = new long[bucketCount];
+        firstUsages = new long[bucketCount];
+        lastUsages = new long[bucketCount];
+        histograms = new LogLinearHistogram[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            histograms[i] = new LogLinearHistogram(histogramPrecision);
+            clearBucket(i);
+        }
+        
+        long now = clock.getTime();
+        currentStart = now - (now % bucketSize);
+    }
+    
+    @Override
+    public void update(MonitoringContext context, long now, long value) {
+        if (!advance(now)) {
+            LOGGER.warn("Clock was turned back -> Metric value will be skipped by reservoir");
+            return;
+        }
+        
+        int idx = currentIdx;
+        long n = ++sizes[idx];
+        sums[idx] = (n == 1) ? value : sums[idx] + value;
+        
+        // D. Knuths online variance algorithm, see RoundRobinReservoir.Archive
+        double delta = value - means[idx];
+        means[idx] += delta / n;
+        m2s[idx] += delta * (value - means[idx]);
+        
+        if (value < mins[idx]) {
+            mins[idx] = value;
+            minTimestamps[idx] = now;
+        }
+        if (value > maxs[idx]) {
+            maxs[idx] = value;
+            maxTimestamps[idx] = now;
+        }
+        if (n == 1) {
+            firstUsages[idx] = now;
+        }
+        lastUsages[idx] = now;
+        histograms[idx].record(value);
+        
+        lastValue = value;
+    }
+    
+    /*
+     * Moves the ring on to the bucket of the given time, clearing the buckets in between. 
+     * Returns false if the given time lies before the current bucket.
+     */
+    private boolean advance(long now) {
+        if (now < currentStart) {
+            return false;
+        }
+        
+        long offset = (now - currentStart) / bucketSize;
+        if (offset == 0) {
+            return true;
+        }
+        
+        int cleared = (int) Math.min(offset, bucketCount);
+        for (int i = 1; i <= cleared; i++) {
+            clearBucket((currentIdx + i) % bucketCount);
+        }
+        
+        currentIdx = (int) ((currentIdx + offset) % bucketCount);
+        currentStart += offset * bucketSize;
+        if (offset >= bucketCount) {
+            lastValue = Long.MIN_VALUE;
+        }
+        return true;
+    }
+    
+    private void clearBucket(int idx) {
+        sizes[idx] = 0;
+        sums[idx] = Long.MIN_VALUE;
+        means[idx] = 0.0;
+        m2s[idx] = 0.0;
+        mins[idx] = Long.MAX_VALUE;
+        minTimestamps[idx] = Long.MIN_VALUE;
+        maxs[idx] = Long.MIN_VALUE;
+        maxTimestamps[idx] = Long.MIN_VALUE;
+        firstUsages[idx] = Long.MIN_VALUE;
+        lastUsages[idx] = Long.MIN_VALUE;
+        histograms[idx].reset();
+    }
+    
+    /**
+     * Returns the aggregate of the samples of the window ending at the current time, 
+     * including the bucket that is still filling up.
+     */
+    @Override
+    public AggregatedReservoirSnapshot getCurrentSnapshot() {
+        long now = clock.getTime();
+        advance(now);
+        
+        AggregatedReservoirSnapshotImpl snapshot = new AggregatedReservoirSnapshotImpl();
+        snapshot.setStart(currentStart - (bucketCount - 1) * bucketSize);
+        snapshot.setEnd(Math.max(now, currentStart));
+        
+        long size = 0;
+        long sum = Long.MIN_VALUE;
+        double mean = Double.NaN;
+        double m2 = 0.0;
+        long min = Long.MAX_VALUE;
+        long minTimestamp = Long.MIN_VALUE;
+        long max = Long.MIN_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        long firstUsage = Long.MIN_VALUE;
+        long lastUsage = Long.MIN_VALUE;
+        LogLinearHistogram histogram = null;
+        int widestIdx = getWidestHistogram();
+        
+        // oldest bucket first
+        for (int i = 1; i <= bucketCount; i++) {
+            int idx = (currentIdx + i) % bucketCount;
+            long n = sizes[idx];
+            if (n == 0) {
+                continue;
+            }
+            
+            // combination of partial variances, see AggregatedReservoirSnapshotImpl.merge()
+            if (size == 0) {
+                sum = sums[idx];
+                mean = means[idx];
+                m2 = m2s[idx];
+                firstUsage = firstUsages[idx];
+            } else {
+                long total = size + n;
+                double delta = means[idx] - mean;
+                sum += sums[idx];
+                mean += delta * n / total;
+                m2 += m2s[idx] + delta * delta * ((double) size * n / total);
+            }
+            size += n;
+            
+            if (mins[idx] < min) {
+                min = mins[idx];
+                minTimestamp = minTimestamps[idx];
+            }
+            if (maxs[idx] > max) {
+                max = maxs[idx];
+                maxTimestamp = maxTimestamps[idx];
+            }
+            lastUsage = lastUsages[idx];
+            
+            // the merge starts from a copy of the widest histogram, so it is allocated only once
+            if (histogram == null) {
+                histogram = histograms[widestIdx].copy();
+            }
+            if (idx != widestIdx) {
+                histogram.add(histograms[idx]);
+            }
+        }
+        
+        snapshot.setSize(size);
+        snapshot.setSum(sum);
+        snapshot.setMean(mean);
+        snapshot.setStdDev((size < 2) ? Double.NaN : Math.sqrt(m2 / (size - 1)));
+        snapshot.setMin(min);
+        snapshot.setMinTimestamp(minTimestamp);
+        snapshot.setMax(max);
+        snapshot.setMaxTimestamp(maxTimestamp);
+        snapshot.setFirstUsageTimestamp(firstUsage);
+        snapshot.setLastUsageTimestamp(lastUsage);
+        snapshot.setLastValue((size > 0) ? lastValue : Long.MIN_VALUE);
+        snapshot.setHistogram((histogram != null) ? histogram : new LogLinearHistogram(histogramPrecision));
+        return snapshot;
+    }
+    
+    /*
+     * Returns the index of the bucket whose histogram covers the highest value
+     */
+    private int getWidestHistogram() {
+        int widestIdx = 0;
+        for (int i = 1; i < bucketCount; i++) {
+            if (histograms[i].getMaxIndex() > histograms[widestIdx].getMaxIndex()) {
+                widestIdx = i;
+            }
+        }
+        return widestIdx;
+    }
+    
+    @Override
+    public List<AggregatedReservoirSnapshot> getSnapshots() {
+        return Arrays.asList(getCurrentSnapshot());
+    }
+    
+    /**
+     * Returns the current snapshot if the window overlaps the given time range. The window 
+     * is the only archive of the reservoir, so the resolution is not taken into account.
+     */
+    @Override
+    public List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
+        AggregatedReservoirSnapshot snapshot = getCurrentSnapshot();
+        if (snapshot.getStart() <= end && snapshot.getEnd() >= start) {
+            return Arrays.asList(snapshot);
+        }
+        return Collections.emptyList();
+    }
+    
+    public long getWindow() {
+        return bucketCount * bucketSize;
+    }
+
+}
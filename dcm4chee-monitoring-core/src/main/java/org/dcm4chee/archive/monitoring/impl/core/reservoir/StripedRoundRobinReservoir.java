@@ -0,0 +1,335 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
+
+/**
+ * Round-robin reservoir which spreads concurrent writers over a table of independent
+ * {@link RoundRobinReservoir} stripes (in the style of {@link org.dcm4chee.archive.monitoring.impl.util.Striped64}).
+ * 
+ * The write path is not lock-free: a writer takes the {@link ReentrantLock} of the stripe 
+ * selected by its per-thread hash code. Striping only lowers the contention on these locks. If the 
+ * stripe is held by another writer it re-hashes and tries another stripe, on contention the table 
+ * is doubled up to the maximum number of stripes. If the table is at its maximum and a few probed 
+ * stripes are all held, the writer blocks on the last probed stripe instead of spinning.
+ * 
+ * Every stripe is a complete {@link RoundRobinReservoir} with its own archive containers, so the 
+ * memory of the reservoir grows linearly with the number of stripes: N stripes cost N times the 
+ * memory of a single reservoir. The default maximum is therefore kept well below the number of CPUs.
+ * 
+ * Readers lock the stripes one after the other and merge the archives covering the same 
+ * time interval, so the cost of a read grows linearly with the number of stripes as well.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class StripedRoundRobinReservoir implements ConcurrentReservoir {
+    private static final int NCPU = Runtime.getRuntime().availableProcessors();
+    
+    /*
+     * Default upper bound for the number of stripes, every stripe costs a full reservoir
+     */
+    private static final int DEFAULT_MAX_STRIPES = Math.max(2, Math.min(8, NCPU / 4));
+    
+    /*
+     * Number of held stripes probed by a writer before it blocks once the table can not grow anymore
+     */
+    private static final int MAX_PROBES = 3;
+    
+    private static final Random PROBE_SEEDS = new Random();
+    
+    // per-thread hash code used to select a stripe
+    private static final ThreadLocal<int[]> THREAD_PROBE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            int probe = PROBE_SEEDS.nextInt();
+            return new int[] { (probe == 0) ? 1 : probe };
+        }
+    };
+    
+    private final RoundRobinReservoir.Builder stripeBuilder;
+    private final int maxStripes;
+    private final AtomicBoolean resizing = new AtomicBoolean();
+    
+    // table of stripes, size is always a power of two
+    private volatile Stripe[] stripes;
+    
+    public StripedRoundRobinReservoir(RoundRobinReservoir.Builder stripeBuilder) {
+        this(stripeBuilder, DEFAULT_MAX_STRIPES);
+    }
+    
+    /**
+     * @param stripeBuilder Builder used to create the individual stripes
+     * @param maxStripes Upper bound for the number of stripes, rounded up to the next power of two
+     */
+    public StripedRoundRobinReservoir(RoundRobinReservoir.Builder stripeBuilder, int maxStripes) {
+        if (maxStripes < 1) {
+            throw new IllegalArgumentException("Maximum number of stripes must be greater 0");
+        }
+        
+        this.stripeBuilder = stripeBuilder;
+        
+        int n = 1;
+        while (n < maxStripes) {
+            n <<= 1;
+        }
+        this.maxStripes = n;
+        
+        stripes = new Stripe[] { new Stripe(stripeBuilder.build()) };
+    }
+    
+    @Override
+    public void update(MonitoringContext context, long now, long value) {
+        Stripe stripe = lockStripe();
+        try {
+            stripe.reservoir.update(context, now, value);
+        } finally {
+            stripe.unlock();
+        }
+    }
+    
+    @Override
+    public void updateBatch(MonitoringContext context, long[] timestamps, long[] values, int len) {
+        Stripe stripe = lockStripe();
+        try {
+            stripe.reservoir.updateBatch(context, timestamps, values, len);
+        } finally {
+            stripe.unlock();
+        }
+    }
+    
+    /*
+     * Locks a stripe of the calling thread, the caller has to unlock it
+     */
+    private Stripe lockStripe() {
+        int[] probe = THREAD_PROBE.get();
+        int h = probe[0];
+        int probes = 0;
+        for (;;) {
+            Stripe[] ss = stripes;
+            Stripe stripe = ss[h & (ss.length - 1)];
+            if (stripe.tryLock()) {
+                return stripe;
+            }
+            
+            // stripe is busy -> expand the table and/or try another stripe, block if the table is exhausted
+            if (ss.length < maxStripes) {
+                expand(ss);
+            } else if (++probes >= MAX_PROBES) {
+                stripe.lock();
+                return stripe;
+            }
+            
+            // xorshift re-hash (see Striped64)
+            h ^= h << 13;
+            h ^= h >>> 17;
+            h ^= h << 5;
+            probe[0] = h;
+        }
+    }
+    
+    private void expand(Stripe[] current) {
+        if (resizing.compareAndSet(false, true)) {
+            try {
+                // check that no other thread expanded the table in the meantime
+                if (stripes == current) {
+                    Stripe[] expanded = Arrays.copyOf(current, current.length << 1);
+                    for (int i = current.length; i < expanded.length; i++) {
+                        expanded[i] = new Stripe(stripeBuilder.build());
+                    }
+                    stripes = expanded;
+                }
+            } finally {
+                resizing.set(false);
+            }
+        }
+    }
+    
+    @Override
+    public AggregatedReservoirSnapshot getCurrentSnapshot() {
+        Stripe[] ss = stripes;
+        if (ss.length == 1) {
+            return ss[0].getCurrentSnapshot();
+        }
+        
+        List<List<AggregatedReservoirSnapshot>> stripeSnapshots = new ArrayList<>(ss.length);
+        for (Stripe stripe : ss) {
+            stripeSnapshots.add(Collections.singletonList(stripe.getCurrentSnapshot()));
+        }
+        
+        // in case the stripes were read on different sides of an archive boundary the youngest archive wins
+        return mergeByStart(stripeSnapshots, true).get(0);
+    }
+
+    @Override
+    public List<AggregatedReservoirSnapshot> getSnapshots() {
+        Stripe[] ss = stripes;
+        if (ss.length == 1) {
+            return ss[0].getSnapshots();
+        }
+        
+        List<List<AggregatedReservoirSnapshot>> stripeSnapshots = new ArrayList<>(ss.length);
+        for (Stripe stripe : ss) {
+            stripeSnapshots.add(stripe.getSnapshots());
+        }
+        
+        return mergeByStart(stripeSnapshots, true);
+    }
+
+    @Override
+    public List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
+        Stripe[] ss = stripes;
+        if (ss.length == 1) {
+            return ss[0].getSnapshots(start, end, resolution);
+        }
+        
+        List<List<AggregatedReservoirSnapshot>> stripeSnapshots = new ArrayList<>(ss.length);
+        for (Stripe stripe : ss) {
+            stripeSnapshots.add(stripe.getSnapshots(start, end, resolution));
+        }
+        
+        return mergeByStart(stripeSnapshots, false);
+    }
+    
+    /*
+     * The archives of the stripes are merged into snapshots
+     */
+    @Override
+    public void forEachArchive(ArchiveVisitor visitor) {
+        ArchiveRecord.forEach(getSnapshots(), visitor);
+    }
+    
+    @Override
+    public void forEachArchive(long start, long end, long resolution, ArchiveVisitor visitor) {
+        ArchiveRecord.forEach(getSnapshots(start, end, resolution), visitor);
+    }
+    
+    /*
+     * Merges the snapshots of all stripes covering the same archive (identified by its start time)
+     */
+    private static List<AggregatedReservoirSnapshot> mergeByStart(List<List<AggregatedReservoirSnapshot>> stripeSnapshots, boolean youngestFirst) {
+        TreeMap<Long,List<AggregatedReservoirSnapshot>> snapshotsByStart = new TreeMap<>();
+        for (List<AggregatedReservoirSnapshot> snapshots : stripeSnapshots) {
+            for (AggregatedReservoirSnapshot snapshot : snapshots) {
+                List<AggregatedReservoirSnapshot> archiveSnapshots = snapshotsByStart.get(snapshot.getStart());
+                if (archiveSnapshots == null) {
+                    archiveSnapshots = new ArrayList<>(stripeSnapshots.size());
+                    snapshotsByStart.put(snapshot.getStart(), archiveSnapshots);
+                }
+                archiveSnapshots.add(snapshot);
+            }
+        }
+        
+        Map<Long,List<AggregatedReservoirSnapshot>> orderedSnapshots = youngestFirst ? snapshotsByStart.descendingMap() : snapshotsByStart;
+        List<AggregatedReservoirSnapshot> mergedSnapshots = new ArrayList<>(orderedSnapshots.size());
+        for (List<AggregatedReservoirSnapshot> archiveSnapshots : orderedSnapshots.values()) {
+            mergedSnapshots.add(AggregatedReservoirSnapshotImpl.merge(archiveSnapshots));
+        }
+        
+        return mergedSnapshots;
+    }
+    
+    /**
+     * @return Returns the current number of stripes
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+    
+    private static class Stripe {
+        private final RoundRobinReservoir reservoir;
+        private final ReentrantLock lock = new ReentrantLock();
+        
+        private Stripe(RoundRobinReservoir reservoir) {
+            this.reservoir = reservoir;
+        }
+        
+        private boolean tryLock() {
+            return lock.tryLock();
+        }
+        
+        private void lock() {
+            lock.lock();
+        }
+        
+        private void unlock() {
+            lock.unlock();
+        }
+        
+        private AggregatedReservoirSnapshot getCurrentSnapshot() {
+            lock();
+            try {
+                return reservoir.getCurrentSnapshot();
+            } finally {
+                unlock();
+            }
+        }
+        
+        private List<AggregatedReservoirSnapshot> getSnapshots() {
+            lock();
+            try {
+                return reservoir.getSnapshots();
+            } finally {
+                unlock();
+            }
+        }
+        
+        private List<AggregatedReservoirSnapshot> getSnapshots(long start, long end, long resolution) {
+            lock();
+            try {
+                return reservoir.getSnapshots(start, end, resolution);
+            } finally {
+                unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size uniform random sample of the values of an archive (reservoir sampling).
+ * 
+ * Up to the capacity every value is kept. Beyond, the i-th value replaces a randomly 
+ * chosen kept value with probability <code>capacity / i</code> (Vitter's Algorithm R), so 
+ * every value seen so far is kept with the same probability. Values of already sampled 
+ * archives are added with the number of values they represent as weight (Chao's weighted 
+ * reservoir sampling), which keeps the sample uniform when archives are rolled up.
+ * 
+ * The random sequence is seeded per archive (xorshift64*), so equal inputs result in 
+ * equal samples.
+ * 
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+final class ValueSample {
+    private final long[] values;
+    private int count;
+    // total weight of the values added since the last reset
+    private double totalWeight;
+    private long randomState;
+    
+    ValueSample(int capacity, long seed) {
+        values = new long[capacity];
+        reset(seed);
+    }
+    
+    void reset(long seed) {
+        count = 0;
+        totalWeight = 0.0;
+        randomState = seed ^ 0x9E3779B97F4A7C15L;
+        if (randomState == 0) {
+            randomState = 1;
+        }
+    }
+    
+    void add(long value) {
+        add(value, 1.0);
+    }
+    
+    /**
+     * @param weight Number of values represented by the given value
+     */
+    void add(long value, double weight) {
+        totalWeight += weight;
+        if (count < values.length) {
+            values[count++] = value;
+            return;
+        }
+        
+        double p = values.length * weight / totalWeight;
+        double r = nextDouble();
+        if (r < p) {
+            // r / p is uniformly distributed in [0, 1) as well, so it also selects the value to replace
+            values[(int) (r / p * values.length)] = value;
+        }
+    }
+    
+    int size() {
+        return count;
+    }
+    
+    int capacity() {
+        return values.length;
+    }
+    
+    /**
+     * @return Returns the number of values represented by each kept value, 1.0 as long as
+     * no value was dropped
+     */
+    double getWeight() {
+        return (count == 0) ? 1.0 : totalWeight / count;
+    }
+    
+    long[] copyValues() {
+        return Arrays.copyOf(values, count);
+    }
+    
+    private double nextDouble() {
+        randomState ^= randomState >>> 12;
+        randomState ^= randomState << 25;
+        randomState ^= randomState >>> 27;
+        return ((randomState * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+    }
+
+}
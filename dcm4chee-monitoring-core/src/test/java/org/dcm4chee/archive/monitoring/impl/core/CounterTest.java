@@ -124,6 +124,98 @@ public class CounterTest {
 		Assert.assertEquals(0.7, snapshot.getStdDev(), 0.01);
 	}
 	
+	@Test
+	public void testSampledCounterOnlyRecordsSamples() {
+	    MetricSampler sampler = provider.getMetricSampler();
+	    sampler.stop();
+	    
+	    MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+	    Counter serviceCounter = metricFactory.sampledCounter(serviceCxt, Counter.TYPE.DEFAULT);
+	    serviceCounter.inc();
+	    serviceCounter.inc();
+	    serviceCounter.inc();
+	    sampler.sample();
+	    // unchanged count is not recorded again
+	    sampler.sample();
+	    serviceCounter.dec();
+	    
+	    // reading records the current count
+	    AggregatedReservoirSnapshot snapshot = serviceCounter.getSnapshot();
+	    Assert.assertEquals(2, snapshot.size());
+	    Assert.assertEquals(2, snapshot.getMin());
+	    Assert.assertEquals(3, snapshot.getMax());
+	    Assert.assertEquals(2, snapshot.getLastValue());
+	}
+	
+	@Test
+	public void testHierarchicalCounterIncludesChildCounts() {
+	    ManualClock clock = new ManualClock(0, 1, UnitOfTime.SECONDS);
+	    initProvider(clock, createDefaultMetricReservoirConfiguration(), createOneShotMetricReservoirConfiguration());
+	    MetricSampler sampler = provider.getMetricSampler();
+	    sampler.stop();
+	    
+	    MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+	    MonitoringContext stepCxt = serviceCxt.getOrCreateContext("step1");
+	    Counter serviceCounter = metricFactory.hierarchicalCounter(serviceCxt, Counter.TYPE.DEFAULT);
+	    Counter stepCounter = metricFactory.hierarchicalCounter(stepCxt, Counter.TYPE.DEFAULT);
+	    Counter statementCounter = metricFactory.hierarchicalCounter(stepCxt.getOrCreateContext("statement1"), Counter.TYPE.DEFAULT);
+	    
+	    statementCounter.inc();
+	    statementCounter.inc();
+	    stepCounter.inc();
+	    clock.tick();
+	    sampler.sample();
+	    
+	    Assert.assertEquals(3, serviceCounter.getSnapshot().getLastValue());
+	    Assert.assertEquals(3, stepCounter.getSnapshot().getLastValue());
+	    Assert.assertEquals(2, statementCounter.getSnapshot().getLastValue());
+	    
+	    // a decrement drops the totals cached for the current time
+	    statementCounter.dec();
+	    Assert.assertEquals(2, serviceCounter.getSnapshot().getLastValue());
+	    Assert.assertEquals(2, stepCounter.getSnapshot().getLastValue());
+	    clock.tick();
+	    statementCounter.inc();
+	    sampler.sample();
+	    Assert.assertEquals(3, serviceCounter.getSnapshot().getLastValue());
+	}
+	
+	@Test
+	public void testGaugeRecordsPolledValues() {
+	    MetricSampler sampler = provider.getMetricSampler();
+	    sampler.stop();
+	    
+	    final long[] queueDepth = { 5 };
+	    MonitoringContext queueCxt = contextProvider.createActiveContext("test", "queue1");
+	    Gauge gauge = metricFactory.gauge(queueCxt, new Gauge.ValueSupplier() {
+	        @Override
+	        public long getValue() {
+	            return queueDepth[0];
+	        }
+	    });
+	    Assert.assertSame(gauge, metricFactory.gauge(queueCxt, null));
+	    
+	    // reading neither polls nor records the value
+	    Assert.assertEquals(0, gauge.getSnapshot().size());
+	    
+	    // gauges are sampled at the step of their reservoir
+	    Assert.assertNotEquals(60, sampler.getSamplePeriod());
+	    sampler.sample(sampler.getSamplePeriod());
+	    Assert.assertEquals(0, gauge.getSnapshot().size());
+	    sampler.sample(60);
+	    queueDepth[0] = 8;
+	    sampler.sample();
+	    queueDepth[0] = 2;
+	    Assert.assertEquals(2, gauge.getValue());
+	    sampler.sample();
+	    
+	    AggregatedReservoirSnapshot snapshot = gauge.getSnapshot();
+	    Assert.assertEquals(3, snapshot.size());
+	    Assert.assertEquals(2, snapshot.getMin());
+	    Assert.assertEquals(8, snapshot.getMax());
+	    Assert.assertEquals(2, snapshot.getLastValue());
+	}
+	
 	@Test
     public void testDefaultCounterIncrease() {
         MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
@@ -95,6 +95,34 @@ public class MeterTest {
         Assert.assertEquals(5.0, snapshot.getMeanRate(10, UnitOfTime.MILLISECONDS), 0.0);
     }
     
+    @Test
+    public void testMovingAverageRates() {
+        MetricSampler sampler = provider.getMetricSampler();
+        sampler.stop();
+        
+        MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+        Meter meter = metricFactory.meter(serviceCxt, TYPE.OPEN_RESOLUTION);
+        
+        // 10 marks per second for 10 seconds
+        for (int i = 0; i < 10; i++) {
+            meter.mark(10);
+            clock.tick(10);
+            sampler.sample();
+        }
+        
+        Assert.assertEquals(10.0, meter.getOneMinuteRate(), 0.001);
+        Assert.assertEquals(10.0, meter.getFiveMinuteRate(), 0.001);
+        Assert.assertEquals(10.0, meter.getFifteenMinuteRate(), 0.001);
+        
+        // idle for one minute
+        clock.tick(600);
+        sampler.sample();
+        
+        Assert.assertEquals(10.0 * Math.exp(-1.0), meter.getOneMinuteRate(), 0.001);
+        Assert.assertEquals(10.0 * Math.exp(-1.0 / 5), meter.getFiveMinuteRate(), 0.001);
+        Assert.assertEquals(10.0 * Math.exp(-1.0 / 15), meter.getFifteenMinuteRate(), 0.001);
+    }
+    
     @Test
     public void test1SecResolutionMeter() {
         MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
@@ -43,6 +43,7 @@ import java.util.Arrays;
 import java.util.Random;
 
 import org.dcm4chee.archive.monitoring.impl.config.Configuration;
+import org.dcm4chee.archive.monitoring.impl.config.MetricRegistryConfiguration;
 import org.dcm4chee.archive.monitoring.impl.config.MetricReservoirConfiguration;
 import org.dcm4chee.archive.monitoring.impl.config.MetricReservoirConfiguration.RESERVOIR_TYPE;
 import org.dcm4chee.archive.monitoring.impl.config.MonitoringBuilder;
@@ -55,6 +56,8 @@ import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContext;
 import org.dcm4chee.archive.monitoring.impl.core.context.MonitoringContextProvider;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ForwardingPipeline;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.OneValueReservoir;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.START_SPECIFICATION;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.RoundRobinReservoir;
 import org.dcm4chee.archive.monitoring.impl.util.UnitOfTime;
@@ -125,6 +128,56 @@ public class TimerTest {
 		Assert.assertEquals(50000000, snapshot.getMax());
 	}
 	
+	@Test
+	public void testRecordAllEqualsSingleStops() {
+	    MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+	    ManualClock clock = new ManualClock(0, 50, UnitOfTime.MILLISECONDS);
+	    TestReservoirBuilder reservoirBuilder = new TestReservoirBuilder(clock, 0, 1000, 1000);
+	    Timer singleTimer = new TimerImpl(serviceCxt, reservoirBuilder.build(), clock);
+	    Timer batchTimer = new TimerImpl(serviceCxt, reservoirBuilder.build(), clock);
+	    
+	    long[] durations = new long[] { 30, 10, -1, 20, 40 };
+	    for (long duration : durations) {
+	        long start = singleTimer.startNanos() - duration;
+	        singleTimer.stopNanos(start);
+	    }
+	    batchTimer.recordAll(durations, durations.length);
+	    
+	    // a shorter batch re-uses the batch time-stamps of the timer
+	    for (int i = 0; i < 2; i++) {
+	        long start = singleTimer.startNanos() - durations[i];
+	        singleTimer.stopNanos(start);
+	    }
+	    batchTimer.recordAll(durations, 2);
+	    
+	    AggregatedReservoirSnapshot expected = singleTimer.getSnapshot();
+	    AggregatedReservoirSnapshot actual = batchTimer.getSnapshot();
+	    Assert.assertEquals(6, actual.size());
+	    Assert.assertEquals(expected.size(), actual.size());
+	    Assert.assertEquals(expected.getSum(), actual.getSum());
+	    Assert.assertEquals(expected.getMin(), actual.getMin());
+	    Assert.assertEquals(expected.getMax(), actual.getMax());
+	}
+	
+	@Test
+	public void testForwardedBatchSkipsNegativeDurations() {
+	    MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+	    ManualClock clock = new ManualClock(0, 50, UnitOfTime.MILLISECONDS);
+	    TestReservoirBuilder reservoirBuilder = new TestReservoirBuilder(clock, 0, 1000, 1000);
+	    AggregatedReservoir forwardReservoir = reservoirBuilder.build();
+	    Timer timer = new ForwardingTimerImpl(serviceCxt, reservoirBuilder.build(), clock, forwardReservoir);
+	    
+	    long[] durations = new long[] { 30, 10, -1, 20, 40 };
+	    timer.recordAll(durations, durations.length);
+	    timer.stopNanos(timer.startNanos() + 1);
+	    
+	    AggregatedReservoirSnapshot forwarded = forwardReservoir.getCurrentSnapshot();
+	    Assert.assertEquals(4, timer.getSnapshot().size());
+	    Assert.assertEquals(4, forwarded.size());
+	    Assert.assertEquals(100, forwarded.getSum());
+	    Assert.assertEquals(10, forwarded.getMin());
+	}
+	
 	@Test
 	public void testTimerMultiThreaded() {
 	    final ManualClock clock = new ManualClock(0, 50, UnitOfTime.MILLISECONDS);
@@ -184,6 +237,218 @@ public class TimerTest {
 	    
 	}
 	
+	@Test
+	public void testOneShotTimerEqualsOneValueReservoirTimer() {
+	    MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+	    ManualClock clock = new ManualClock(0, 50, UnitOfTime.MILLISECONDS);
+	    Timer oneShotTimer = new OneShotTimer(serviceCxt, null, clock);
+	    Timer reservoirTimer = new TimerImpl(serviceCxt, new OneValueReservoir(clock), clock);
+	    oneShotTimer.setAttribute("user", "admin");
+	    reservoirTimer.setAttribute("user", "admin");
+	    
+	    assertSnapshotEquals(reservoirTimer.getSnapshot(), oneShotTimer.getSnapshot());
+	    
+	    Timer.Split oneShotSplit = oneShotTimer.time();
+	    Timer.Split reservoirSplit = reservoirTimer.time();
+	    clock.tick();
+	    Assert.assertEquals(reservoirSplit.stop(), oneShotSplit.stop());
+	    
+	    assertSnapshotEquals(reservoirTimer.getSnapshot(), oneShotTimer.getSnapshot());
+	    Assert.assertEquals(1, oneShotTimer.getSnapshots().size());
+	}
+	
+	@Test
+	public void testOneShotTimerIsForwarded() {
+	    MetricReservoirConfiguration oneShotCfg = new MetricReservoirConfiguration();
+	    oneShotCfg.setType(RESERVOIR_TYPE.OPEN_RESOLUTION);
+	    oneShotCfg.setName("ONE_SHOT");
+	    initProvider(Clocks.defaultClock(), createDefaultMetricReservoirConfiguration(), oneShotCfg);
+	    
+	    MonitoringContext serviceCxt = contextProvider.getNodeContext().getOrCreateContext("test", "service1");
+	    metricFactory.simpleAggregate(serviceCxt);
+	    MonitoringContext instanceCxt = contextProvider.createActiveContext(serviceCxt.getOrCreateContext("1"));
+	    
+	    Timer timer = metricFactory.timerWithForward(instanceCxt, Timer.TYPE.ONE_SHOT, serviceCxt);
+	    Assert.assertTrue(timer instanceof OneShotTimer);
+	    try (Timer.Split split = timer.time()) {
+	        randomDurationMethod(2, 5);
+	    }
+	    
+	    Assert.assertEquals(1, timer.getSnapshot().size());
+	    AggregateSnapshot serviceSnapshot = (AggregateSnapshot)metricFactory.simpleAggregate(serviceCxt).getSnapshot();
+	    Assert.assertEquals(timer.getSnapshot().getMax(), serviceSnapshot.getMax());
+	}
+	
+	@Test
+	public void testBufferedTimerEqualsUnbufferedTimer() throws InterruptedException {
+	    final ManualClock clock = new ManualClock(0, 50, UnitOfTime.MILLISECONDS);
+	    MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+	    AggregatedReservoir bufferedReservoir = new TestReservoirBuilder(clock, 0, 1000, 1000).build();
+	    final TimerImpl bufferedTimer = new TimerImpl(serviceCxt, bufferedReservoir, clock);
+	    final Timer timer = new TimerImpl(serviceCxt, new TestReservoirBuilder(clock, 0, 1000, 1000).build(), clock);
+	    bufferedTimer.setRecordingBuffer(new RecordingBuffer(4, 1000));
+	    
+	    Runnable client = new Runnable() {
+	        @Override
+	        public void run() {
+	            for (int i = 0; i < 5; i++) {
+	                Timer.Split split = timer.time();
+	                Timer.Split bufferedSplit = bufferedTimer.time();
+	                clock.tick();
+	                bufferedSplit.stop();
+	                split.stop();
+	            }
+	        }
+	    };
+	    
+	    Thread t = new Thread(client);
+	    t.start();
+	    t.join();
+	    
+	    // the full buffer was flushed, the last stop is still buffered
+	    Assert.assertEquals(4, bufferedReservoir.getCurrentSnapshot().size());
+	    
+	    client.run();
+	    assertSnapshotEquals(timer.getSnapshot(), bufferedTimer.getSnapshot());
+	    Assert.assertEquals(10, bufferedTimer.getSnapshot().size());
+	}
+	
+	@Test
+	public void testStartedBufferIsFlushedByDaemon() throws InterruptedException {
+	    final ManualClock clock = new ManualClock(0, 50, UnitOfTime.MILLISECONDS);
+	    MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+	    final TimerImpl bufferedTimer = new TimerImpl(serviceCxt, new TestReservoirBuilder(clock, 0, 1000, 1000).build(), clock);
+	    RecordingBuffer recordingBuffer = new RecordingBuffer(4, 60000);
+	    bufferedTimer.setRecordingBuffer(recordingBuffer);
+	    recordingBuffer.start();
+	    
+	    Runnable client = new Runnable() {
+	        @Override
+	        public void run() {
+	            for (int i = 0; i < 25; i++) {
+	                bufferedTimer.stopNanos(bufferedTimer.startNanos());
+	            }
+	        }
+	    };
+	    
+	    Thread[] threads = new Thread[4];
+	    for (int i = 0; i < threads.length; i++) {
+	        threads[i] = new Thread(client);
+	        threads[i].start();
+	    }
+	    for (Thread thread : threads) {
+	        thread.join();
+	    }
+	    
+	    try {
+	        Assert.assertEquals(100, bufferedTimer.getSnapshot().size());
+	    } finally {
+	        recordingBuffer.stop();
+	    }
+	}
+	
+	@Test
+	public void testCpuTimerRecordsCpuAndWaitTime() throws InterruptedException {
+	    ManualClock clock = new ManualClock(0, 50, UnitOfTime.MILLISECONDS);
+	    ManualClock cpuClock = new ManualClock(0, 20, UnitOfTime.MILLISECONDS);
+	    MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+	    final CpuTimer timer = new CpuTimerImpl(serviceCxt, new TestReservoirBuilder(clock, 0, 1000, 1000).build(),
+	            new TestReservoirBuilder(clock, 0, 1000, 1000).build(), new TestReservoirBuilder(clock, 0, 1000, 1000).build(),
+	            clock, cpuClock, null, 1);
+	    
+	    Timer.Split split = timer.time();
+	    clock.tick();
+	    cpuClock.tick();
+	    split.stop();
+	    
+	    // splits stopped by another thread only record the wall-clock time
+	    final Timer.Split otherThreadSplit = timer.time();
+	    clock.tick();
+	    Thread t = new Thread(new Runnable() {
+	        @Override
+	        public void run() {
+	            otherThreadSplit.stop();
+	        }
+	    });
+	    t.start();
+	    t.join();
+	    
+	    Assert.assertEquals(2, timer.getSnapshot().size());
+	    Assert.assertEquals(50000000, timer.getSnapshot().getMax());
+	    AggregatedReservoirSnapshot cpuSnapshot = timer.getCpuSnapshot();
+	    Assert.assertEquals(1, cpuSnapshot.size());
+	    Assert.assertEquals(20000000, cpuSnapshot.getMax());
+	    AggregatedReservoirSnapshot waitSnapshot = timer.getWaitSnapshot();
+	    Assert.assertEquals(1, waitSnapshot.size());
+	    Assert.assertEquals(30000000, waitSnapshot.getMax());
+	    
+	    // measurements without split are sampled as well, of nested ones only the innermost
+	    long outerStart = timer.startNanos();
+	    long start = timer.startNanos();
+	    clock.tick();
+	    cpuClock.tick();
+	    timer.stopNanos(start);
+	    clock.tick();
+	    timer.stopNanos(outerStart);
+	    
+	    Assert.assertEquals(4, timer.getSnapshot().size());
+	    Assert.assertEquals(2, timer.getCpuSnapshot().size());
+	    Assert.assertEquals(20000000, timer.getCpuSnapshot().getMax());
+	    Assert.assertEquals(2, timer.getWaitSnapshot().size());
+	}
+	
+	@Test
+	public void testPrimitiveTimingEqualsSplit() {
+	    ManualClock clock = new ManualClock(0, 50, UnitOfTime.MILLISECONDS);
+	    MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+	    Timer splitTimer = new TimerImpl(serviceCxt, new TestReservoirBuilder(clock, 0, 1000, 1000).build(), clock);
+	    Timer primitiveTimer = new TimerImpl(serviceCxt, new TestReservoirBuilder(clock, 0, 1000, 1000).build(), clock);
+	    Timer reusableSplitTimer = new TimerImpl(serviceCxt, new TestReservoirBuilder(clock, 0, 1000, 1000).build(), clock);
+	    
+	    for (int i = 1; i <= 3; i++) {
+	        Timer.Split split = splitTimer.time();
+	        long start = primitiveTimer.startNanos();
+	        try (Timer.Split outer = ReusableSplit.start(reusableSplitTimer)) {
+	            // nested measurement of the same thread uses the next split
+	            try (Timer.Split inner = ReusableSplit.start(reusableSplitTimer)) {
+	                Assert.assertNotSame(outer, inner);
+	                clock.tick(i);
+	            }
+	        }
+	        Assert.assertEquals(i * 50000000L, primitiveTimer.stopNanos(start));
+	        split.stop();
+	    }
+	    
+	    assertSnapshotEquals(splitTimer.getSnapshot(), primitiveTimer.getSnapshot());
+	    Assert.assertEquals(6, reusableSplitTimer.getSnapshot().size());
+	    Assert.assertEquals(splitTimer.getSnapshot().getSum() * 2, reusableSplitTimer.getSnapshot().getSum());
+	    
+	    // splits are reused by later measurements
+	    Timer.Split split = ReusableSplit.start(reusableSplitTimer);
+	    split.stop();
+	    Timer.Split reused = ReusableSplit.start(reusableSplitTimer);
+	    Assert.assertSame(split, reused);
+	    reused.stop();
+	}
+	
+	private static void assertSnapshotEquals(AggregatedReservoirSnapshot expected, AggregatedReservoirSnapshot actual) {
+	    Assert.assertEquals(expected.getStart(), actual.getStart());
+	    Assert.assertEquals(expected.getEnd(), actual.getEnd());
+	    Assert.assertEquals(expected.size(), actual.size());
+	    Assert.assertEquals(expected.getLastValue(), actual.getLastValue());
+	    Assert.assertEquals(expected.getSum(), actual.getSum());
+	    Assert.assertEquals(expected.getMean(), actual.getMean(), 0.0);
+	    Assert.assertEquals(expected.getStdDev(), actual.getStdDev(), 0.0);
+	    Assert.assertEquals(expected.getMin(), actual.getMin());
+	    Assert.assertEquals(expected.getMinTimestamp(), actual.getMinTimestamp());
+	    Assert.assertEquals(expected.getMax(), actual.getMax());
+	    Assert.assertEquals(expected.getMaxTimestamp(), actual.getMaxTimestamp());
+	    Assert.assertEquals(expected.getFirstUsageTimestamp(), actual.getFirstUsageTimestamp());
+	    Assert.assertEquals(expected.getLastUsageTimestamp(), actual.getLastUsageTimestamp());
+	    Assert.assertEquals(expected.getPath(), actual.getPath());
+	    Assert.assertEquals(expected.getAttributes(), actual.getAttributes());
+	}
+	
 	@Test
 	public void testIfSubContextTimerIsPropagated() {
 		initProvider(Clocks.defaultClock(), createDefaultMetricReservoirConfiguration());
@@ -209,6 +474,142 @@ public class TimerTest {
 		Assert.assertTrue(((AggregateSnapshot)serviceAggregate.getSnapshot()).getMax()>0);
 	}
 	
+	@Test
+	public void testPipelinedForwardIsAppliedOnFlush() {
+	    initPipelinedProvider(Clocks.defaultClock(), 2);
+	    
+	    try {
+	        MonitoringContext rootCxt = contextProvider.createActiveContext("test");
+	        Aggregate rootAggregate = metricFactory.sumAggregate(rootCxt);
+	        MonitoringContext serviceCxt = contextProvider.getActiveContext().getOrCreateContext("service1");
+	        serviceCxt.attachContext(rootCxt);
+	        Aggregate serviceAggregate = metricFactory.sumAggregate(serviceCxt);
+	        MonitoringContext stepCxt = serviceCxt.getOrCreateContext("step1");
+	        stepCxt.attachContext(serviceCxt);
+	        Timer stepTimer = metricFactory.timer(stepCxt);
+	        
+	        stepTimer.time().stop();
+	        stepTimer.time().stop();
+	        
+	        // the values are enqueued, not forwarded yet
+	        ForwardingPipeline pipeline = provider.getForwardingPipeline();
+	        Assert.assertEquals(2, pipeline.getLag());
+	        
+	        // the third value overflows, the fourth follows it into the overflow queue to keep the order
+	        stepTimer.time().stop();
+	        stepTimer.time().stop();
+	        Assert.assertEquals(4, pipeline.getLag());
+	        Assert.assertEquals(2, pipeline.getOverflowCount());
+	        
+	        // reading an aggregate applies the enqueued values first
+	        Assert.assertEquals(4, serviceAggregate.getSnapshot().size());
+	        Assert.assertEquals(0, pipeline.getLag());
+	        Assert.assertEquals(4, pipeline.getMaxLag());
+	        Assert.assertEquals(4, rootAggregate.getSnapshot().size());
+	        
+	        // the ring is used again once the overflow queue is drained
+	        stepTimer.time().stop();
+	        Assert.assertEquals(1, pipeline.getLag());
+	        Assert.assertEquals(2, pipeline.getOverflowCount());
+	    } finally {
+	        provider.shutdown();
+	    }
+	}
+	
+	@Test(timeout = 10000)
+	public void testPipelineOverflowWhileAggregateIsLocked() {
+	    // the direct updates of the service aggregate must not be newer than the enqueued value
+	    ManualClock clock = new ManualClock(0, 1, UnitOfTime.SECONDS);
+	    initPipelinedProvider(clock, 2);
+	    
+	    try {
+	        MonitoringContext rootCxt = contextProvider.createActiveContext("test");
+	        Aggregate rootAggregate = metricFactory.sumAggregate(rootCxt);
+	        MonitoringContext serviceCxt = contextProvider.getActiveContext().getOrCreateContext("service1");
+	        serviceCxt.attachContext(rootCxt);
+	        Aggregate serviceAggregate = metricFactory.sumAggregate(serviceCxt);
+	        MonitoringContext stepCxt = serviceCxt.getOrCreateContext("step1");
+	        stepCxt.attachContext(serviceCxt);
+	        Timer stepTimer = metricFactory.timer(stepCxt);
+	        
+	        // enqueues a value forwarded to the service aggregate
+	        stepTimer.time().stop();
+	        
+	        // the service aggregate forwards to the root aggregate while its state is locked, the 
+	        // second value overflows and must not apply the enqueued value to the locked aggregate
+	        long now = clock.getTime();
+	        serviceAggregate.update(serviceCxt, now, 5);
+	        serviceAggregate.update(serviceCxt, now, 5);
+	        
+	        ForwardingPipeline pipeline = provider.getForwardingPipeline();
+	        Assert.assertEquals(3, pipeline.getLag());
+	        Assert.assertEquals(1, pipeline.getOverflowCount());
+	        
+	        Assert.assertEquals(3, rootAggregate.getSnapshot().size());
+	        Assert.assertEquals(3, serviceAggregate.getSnapshot().size());
+	        Assert.assertEquals(0, pipeline.getLag());
+	    } finally {
+	        provider.shutdown();
+	    }
+	}
+	
+	private void initPipelinedProvider(ClockProvider clock, int forwardingBufferSize) {
+	    MetricRegistryConfiguration registryCfg = new MetricRegistryConfiguration();
+	    registryCfg.setForwardingBufferSize(forwardingBufferSize);
+	    // no drain by the daemon thread within the test
+	    registryCfg.setForwardingDrainPeriod(1000000);
+	    Configuration cfg = new Configuration();
+	    cfg.setClockProvider(clock);
+	    cfg.setMetricReservoirConfigurations(Arrays.asList(createDefaultMetricReservoirConfiguration()));
+	    cfg.setRegistryConfiguration(registryCfg);
+	    provider = new MonitoringBuilder(cfg).createMetricProvider();
+	    contextProvider = provider.getMonitoringContextProvider();
+	    metricFactory = provider.getMetricFactory();
+	}
+	
+	@Test
+	public void testStripedSumAggregateEqualsSumAggregate() throws InterruptedException {
+	    initProvider(Clocks.defaultClock(), createDefaultMetricReservoirConfiguration());
+	    provider.getMetricSampler().stop();
+	    
+	    MonitoringContext serviceCxt = contextProvider.createActiveContext("test", "service1");
+	    final Aggregate sumAggregate = metricFactory.sumAggregate(serviceCxt.getOrCreateContext("sum"));
+	    final Aggregate stripedAggregate = metricFactory.stripedSumAggregate(serviceCxt.getOrCreateContext("striped"));
+	    final MonitoringContext instanceCxt = serviceCxt.getOrCreateContext("instance");
+	    // same time for all updates, the reservoir skips values older than the last one
+	    final long now = System.currentTimeMillis();
+	    
+	    Thread[] threads = new Thread[4];
+	    for (int i = 0; i < threads.length; i++) {
+	        threads[i] = new Thread(new Runnable() {
+	            @Override
+	            public void run() {
+	                for (int j = 1; j <= 1000; j++) {
+	                    sumAggregate.update(instanceCxt, now, j);
+	                    stripedAggregate.update(instanceCxt, now, j);
+	                }
+	            }
+	        });
+	        threads[i].start();
+	    }
+	    for (Thread t : threads) {
+	        t.join();
+	    }
+	    
+	    // the striped aggregate only records the total sampled when read
+	    AggregateSnapshot sumSnapshot = (AggregateSnapshot)sumAggregate.getSnapshot();
+	    AggregateSnapshot stripedSnapshot = (AggregateSnapshot)stripedAggregate.getSnapshot();
+	    Assert.assertEquals(4 * 500500, sumSnapshot.getMax());
+	    Assert.assertEquals(sumSnapshot.getMax(), stripedSnapshot.getMax());
+	    Assert.assertEquals(1, stripedSnapshot.size());
+	    
+	    stripedAggregate.update(instanceCxt, System.currentTimeMillis(), 10);
+	    provider.getMetricSampler().sample();
+	    stripedSnapshot = (AggregateSnapshot)stripedAggregate.getSnapshot();
+	    Assert.assertEquals(4 * 500500 + 10, stripedSnapshot.getMax());
+	    Assert.assertEquals(2, stripedSnapshot.size());
+	}
+	
 	@Test
 	public void testIfNestedSubContextTimerIsPropagated() {
 		initProvider(Clocks.defaultClock(), createDefaultMetricReservoirConfiguration());
@@ -41,6 +41,8 @@ package org.dcm4chee.archive.monitoring.impl.core.context;
 
 
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.dcm4chee.archive.monitoring.impl.config.Configuration;
 import org.dcm4chee.archive.monitoring.impl.config.MetricReservoirConfiguration;
@@ -51,6 +53,7 @@ import org.dcm4chee.archive.monitoring.impl.core.ManualClock;
 import org.dcm4chee.archive.monitoring.impl.core.Metric;
 import org.dcm4chee.archive.monitoring.impl.core.MetricFactory;
 import org.dcm4chee.archive.monitoring.impl.core.MetricProvider;
+import org.dcm4chee.archive.monitoring.impl.core.MetricRegistry;
 import org.dcm4chee.archive.monitoring.impl.core.metric.NoCounter;
 import org.dcm4chee.archive.monitoring.impl.core.registry.MetricFilters;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.START_SPECIFICATION;
@@ -303,6 +306,49 @@ public class MonitoringContextTreeTest {
         Assert.assertFalse(l2Counter instanceof NoCounter);
     }
 	
+	@Test
+	public void testConcurrentMetricCreationRegistersOneMetric() throws InterruptedException {
+	    final MonitoringContext cxt = contextProvider.getNodeContext().getOrCreateContext("service");
+	    final Counter created = metricFactory.counter(contextProvider.getNodeContext().getOrCreateContext("other"), Counter.TYPE.DEFAULT);
+	    final int threadCount = 8;
+	    final Counter[] counters = new Counter[threadCount];
+	    final AtomicInteger creations = new AtomicInteger();
+	    final CountDownLatch start = new CountDownLatch(1);
+	    Thread[] threads = new Thread[threadCount];
+	    for (int i = 0; i < threadCount; i++) {
+	        final int idx = i;
+	        threads[i] = new Thread() {
+	            @Override
+	            public void run() {
+	                try {
+	                    start.await();
+	                } catch (InterruptedException e) {
+	                    return;
+	                }
+	                counters[idx] = metricRegistry.getOrRegister(Counter.class, cxt, new MetricRegistry.MetricCreator<Counter>() {
+	                    @Override
+	                    public Counter create() {
+	                        creations.incrementAndGet();
+	                        return created;
+	                    }
+	                });
+	            }
+	        };
+	        threads[i].start();
+	    }
+	    
+	    start.countDown();
+	    for (Thread thread : threads) {
+	        thread.join();
+	    }
+	    
+	    Assert.assertEquals(1, creations.get());
+	    for (Counter counter : counters) {
+	        Assert.assertSame(created, counter);
+	    }
+	    Assert.assertSame(created, metricFactory.counter(cxt, Counter.TYPE.DEFAULT));
+	}
+	
 	private static void sleep(long timeMillis) {
 	    try {
             Thread.sleep(timeMillis);
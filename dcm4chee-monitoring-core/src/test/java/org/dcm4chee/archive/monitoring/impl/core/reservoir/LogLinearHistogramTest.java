@@ -0,0 +1,129 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class LogLinearHistogramTest {
+    
+    @Test
+    public void testQuantilesWithinPrecision() {
+        LogLinearHistogram histogram = new LogLinearHistogram(2);
+        
+        // uniformly distributed latencies between 1 microsecond and 1 second (in nanoseconds)
+        Random random = new Random(4711);
+        int n = 1000000;
+        for (int i = 0; i < n; i++) {
+            histogram.record(1000 + (long) (random.nextDouble() * 999999000L));
+        }
+        
+        Assert.assertEquals(n, histogram.getTotalCount());
+        assertWithinRelativeError(0.5 * 1e9, histogram.getValueAtQuantile(0.5), 0.01);
+        assertWithinRelativeError(0.95 * 1e9, histogram.getValueAtQuantile(0.95), 0.01);
+        assertWithinRelativeError(0.99 * 1e9, histogram.getValueAtQuantile(0.99), 0.01);
+        assertWithinRelativeError(0.999 * 1e9, histogram.getValueAtQuantile(0.999), 0.01);
+    }
+    
+    @Test
+    public void testSmallValuesAreExact() {
+        LogLinearHistogram histogram = new LogLinearHistogram(2);
+        for (long v = 1; v <= 100; v++) {
+            histogram.record(v);
+        }
+        
+        Assert.assertEquals(50.0, histogram.getValueAtQuantile(0.5), 0.0);
+        Assert.assertEquals(99.0, histogram.getValueAtQuantile(0.99), 0.0);
+        Assert.assertEquals(1.0, histogram.getValueAtQuantile(0.0), 0.0);
+        Assert.assertEquals(100.0, histogram.getValueAtQuantile(1.0), 0.0);
+    }
+    
+    @Test
+    public void testAddAndReset() {
+        LogLinearHistogram h1 = new LogLinearHistogram(2);
+        LogLinearHistogram h2 = new LogLinearHistogram(2);
+        for (long v = 1; v <= 50; v++) {
+            h1.record(v * 1000);
+            h2.record((v + 50) * 1000);
+        }
+        
+        h1.add(h2);
+        Assert.assertEquals(100, h1.getTotalCount());
+        assertWithinRelativeError(50000, h1.getValueAtQuantile(0.5), 0.01);
+        Assert.assertEquals(100000.0, h1.getValueAtQuantile(1.0), 0.0);
+        
+        h1.reset();
+        Assert.assertEquals(0, h1.getTotalCount());
+        Assert.assertTrue(Double.isNaN(h1.getValueAtQuantile(0.5)));
+    }
+    
+    @Test
+    public void testBucketsGrowWithRecordedValues() {
+        LogLinearHistogram small = new LogLinearHistogram(2);
+        small.record(10);
+        LogLinearHistogram copy = small.copy();
+        
+        LogLinearHistogram large = new LogLinearHistogram(2);
+        large.record(Long.MAX_VALUE);
+        large.record(1000000000L);
+        
+        copy.add(large);
+        copy.record(Long.MAX_VALUE);
+        Assert.assertEquals(4, copy.getTotalCount());
+        Assert.assertEquals(10.0, copy.getValueAtQuantile(0.0), 0.0);
+        assertWithinRelativeError(1000000000L, copy.getValueAtQuantile(0.5), 0.01);
+        Assert.assertEquals((double) Long.MAX_VALUE, copy.getValueAtQuantile(1.0), 0.0);
+        
+        // the original is not affected by the growth of its copy
+        Assert.assertEquals(1, small.getTotalCount());
+        Assert.assertEquals(10.0, small.getValueAtQuantile(1.0), 0.0);
+    }
+    
+    private static void assertWithinRelativeError(double expected, double actual, double relativeError) {
+        Assert.assertEquals(expected, actual, expected * relativeError);
+    }
+
+}
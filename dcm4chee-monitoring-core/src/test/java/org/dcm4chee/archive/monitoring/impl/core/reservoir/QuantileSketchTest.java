@@ -0,0 +1,168 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class QuantileSketchTest {
+    private static final double[] QUANTILES = { 0.0, 0.25, 0.5, 0.75, 0.95, 0.99, 0.999, 1.0 };
+    
+    @Test
+    public void testQuantilesWithinRelativeAccuracy() {
+        long[] values = createValues(100000);
+        QuantileSketch sketch = QuantileSketch.of(values);
+        
+        Assert.assertEquals(values.length, sketch.getCount());
+        assertQuantiles(values, sketch);
+    }
+    
+    @Test
+    public void testMergeEqualsSingleSketch() {
+        long[] values = createValues(60000);
+        QuantileSketch single = QuantileSketch.of(values);
+        
+        // e.g. 60 one-minute archives rolled up into one hour
+        QuantileSketch merged = new QuantileSketch();
+        for (int i = 0; i < 60; i++) {
+            merged.merge(QuantileSketch.of(Arrays.copyOfRange(values, i * 1000, (i + 1) * 1000)));
+        }
+        
+        Assert.assertEquals(single.getCount(), merged.getCount());
+        for (double q : QUANTILES) {
+            Assert.assertEquals(single.getValueAtQuantile(q), merged.getValueAtQuantile(q), 0.0);
+        }
+        assertQuantiles(values, merged);
+    }
+    
+    @Test
+    public void testNumberOfBucketsIsBounded() {
+        QuantileSketch sketch = new QuantileSketch(QuantileSketch.DEFAULT_RELATIVE_ACCURACY, 100);
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            // spanning 12 orders of magnitude
+            values[i] = (long) Math.pow(10, 12.0 * i / values.length);
+            sketch.add(values[i]);
+        }
+        
+        Assert.assertEquals(100, sketch.getBucketCount());
+        Assert.assertEquals(values.length, sketch.getCount());
+        // only the lowest quantiles are affected by collapsing
+        assertWithinRelativeError(exactQuantile(values, 0.99), sketch.getValueAtQuantile(0.99), 0.01);
+        Assert.assertEquals(1.0, sketch.getValueAtQuantile(0.0), 0.0);
+    }
+    
+    @Test
+    public void testMergeSnapshotsWithDifferentValueArchives() {
+        long[] values = createValues(20000);
+        
+        AggregatedReservoirSnapshotImpl rawSnapshot = createSnapshot(Arrays.copyOfRange(values, 0, 10000));
+        rawSnapshot.setValues(Arrays.copyOfRange(values, 0, 10000));
+        
+        AggregatedReservoirSnapshotImpl histogramSnapshot = createSnapshot(Arrays.copyOfRange(values, 10000, 20000));
+        LogLinearHistogram histogram = new LogLinearHistogram(3);
+        for (int i = 10000; i < 20000; i++) {
+            histogram.record(values[i]);
+        }
+        histogramSnapshot.setHistogram(histogram);
+        
+        AggregatedReservoirSnapshot merged = rawSnapshot.merge(histogramSnapshot);
+        
+        Assert.assertEquals(values.length, merged.size());
+        Assert.assertNull(merged.getValues(false));
+        Assert.assertNotNull(merged.getSketch());
+        // error of the histogram adds to the error of the sketch
+        assertWithinRelativeError(exactQuantile(values, 0.5), merged.getMedian(), 0.011);
+        assertWithinRelativeError(exactQuantile(values, 0.99), merged.getValue(0.99), 0.011);
+    }
+    
+    private static AggregatedReservoirSnapshotImpl createSnapshot(long[] values) {
+        AggregatedReservoirSnapshotImpl snapshot = new AggregatedReservoirSnapshotImpl();
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (long value : values) {
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        snapshot.setSize(values.length);
+        snapshot.setSum(sum);
+        snapshot.setMean((double) sum / values.length);
+        snapshot.setStdDev(0.0);
+        snapshot.setMin(min);
+        snapshot.setMax(max);
+        return snapshot;
+    }
+    
+    private static long[] createValues(int n) {
+        // log-normally distributed latencies around 1 millisecond (in nanoseconds)
+        Random random = new Random(4711);
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = (long) (1000000 * Math.exp(random.nextGaussian()));
+        }
+        return values;
+    }
+    
+    private static void assertQuantiles(long[] values, QuantileSketch sketch) {
+        for (double q : QUANTILES) {
+            assertWithinRelativeError(exactQuantile(values, q), sketch.getValueAtQuantile(q), 0.01);
+        }
+    }
+    
+    private static double exactQuantile(long[] values, double quantile) {
+        long[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        return sorted[(int) (quantile * (sorted.length - 1))];
+    }
+    
+    private static void assertWithinRelativeError(double expected, double actual, double relativeError) {
+        Assert.assertEquals(expected, actual, expected * relativeError);
+    }
+
+}
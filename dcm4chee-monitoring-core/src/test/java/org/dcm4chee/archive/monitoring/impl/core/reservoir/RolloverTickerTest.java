@@ -0,0 +1,128 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import org.dcm4chee.archive.monitoring.impl.core.ManualClock2;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class RolloverTickerTest {
+    
+    @Test
+    public void testArchivesMoveOnWithTicks() {
+        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+        // wheel smaller than the step size, so entries have to wait for several wheel rounds
+        RolloverTicker ticker = new RolloverTicker(clock, 1, 2);
+        RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+                .clock(clock).start(0).step(5).ticker(ticker)
+                .addArchive(5, 4, 0)
+                .addArchive(10, 3, 0).build();
+        
+        for (int i = 1; i <= 30; i++) {
+            long now = clock.tock();
+            ticker.tick();
+            reservoir.update(null, now, i);
+            
+            RoundRobinReservoir.ArchiveContainer finest = reservoir.getContainers()[0];
+            int currentIdx = finest.getCurrentIndex();
+            Assert.assertTrue(finest.getSlotStart(currentIdx) <= now && now <= finest.getSlotEnd(currentIdx));
+        }
+        
+        Assert.assertEquals(5, reservoir.getSnapshots(26, 30, 5).get(0).size());
+        Assert.assertEquals(10, reservoir.getSnapshots(21, 30, 10).get(0).size());
+    }
+    
+    @Test
+    public void testSamplesAreRecordedToCurrentArchiveUntilNextTick() {
+        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+        RolloverTicker ticker = new RolloverTicker(clock, 1);
+        RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+                .clock(clock).start(0).step(5).ticker(ticker)
+                .addArchive(5, 4, 0).build();
+        
+        for (int i = 1; i <= 5; i++) {
+            reservoir.update(null, clock.tock(), i);
+        }
+        
+        // no tick yet
+        reservoir.update(null, clock.tock(2), 6);
+        ticker.tick();
+        reservoir.update(null, clock.getTime(), 7);
+        
+        Assert.assertEquals(6, reservoir.getSnapshots(0, 5, 5).get(0).size());
+        Assert.assertEquals(1, reservoir.getSnapshots(6, 10, 5).get(0).size());
+        
+        // samples are not skipped if the clock is turned back
+        reservoir.update(null, clock.tock(-3), 8);
+        ticker.tick();
+        Assert.assertEquals(1, ticker.getClockSkewCount());
+        Assert.assertEquals(2, reservoir.getSnapshots(6, 10, 5).get(0).size());
+        
+        // the reservoir moves on its archives by itself again once the ticker is stopped
+        ticker.stop();
+        reservoir.update(null, clock.tock(8), 9);
+        Assert.assertEquals(1, reservoir.getSnapshots(11, 15, 5).get(0).size());
+    }
+    
+    @Test
+    public void testReadsOnlyApplyPublishedRollovers() {
+        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+        RolloverTicker ticker = new RolloverTicker(clock, 1);
+        RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+                .clock(clock).start(0).step(5).ticker(ticker)
+                .addArchive(5, 4, 0).build();
+        
+        reservoir.update(null, clock.tock(3), 1);
+        
+        // the clock moved on to the next archive, but the ticker did not publish it yet
+        clock.tock(4);
+        Assert.assertEquals(1, reservoir.getCurrentSnapshot().size());
+        
+        ticker.tick();
+        AggregatedReservoirSnapshot current = reservoir.getCurrentSnapshot();
+        Assert.assertEquals(0, current.size());
+        Assert.assertEquals(6, current.getStart());
+    }
+
+}
@@ -39,19 +39,29 @@
 
 package org.dcm4chee.archive.monitoring.impl.core.reservoir;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
 import org.dcm4chee.archive.monitoring.impl.core.ManualClock2;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.ARCHIVE_CONTAINER_TYPE;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.ARCHIVE_UPDATE_MODE;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ReservoirBuilder.VALUE_ARCHIVE_TYPE;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.RoundRobinReservoir.ArchiveContainer;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
  *
  */
 public class RoundRobinReservoirTest {
+    
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
 
 	@Test
 	public void testReservoirWithPrimaryResolutionQuery() {
@@ -329,4 +339,503 @@ public class RoundRobinReservoirTest {
         Assert.assertEquals(1.0,  resolution5Reservoir1.getValue(0.0), 0.0);
     }
 	
+	@Test
+    public void testReservoirWithSampledValueArchives() {
+        long[] objectValues = null;
+        for (ARCHIVE_CONTAINER_TYPE containerType : new ARCHIVE_CONTAINER_TYPE[] { ARCHIVE_CONTAINER_TYPE.OBJECT, ARCHIVE_CONTAINER_TYPE.PRIMITIVE }) {
+            ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+            RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+                    .clock(clock).start(0).step(5).containerType(containerType)
+                    .valueArchiveType(VALUE_ARCHIVE_TYPE.SAMPLED)
+                    .updateMode(ARCHIVE_UPDATE_MODE.ROLL_UP)
+                    .addArchive(5, 4, 100)
+                    .addArchive(10, 3, 100).build();
+            
+            // 10000 values in the first archive, 10 in the second one
+            long now = clock.tock();
+            for (int i = 1; i <= 10000; i++) {
+                reservoir.update(null, now, i);
+            }
+            now = clock.tock(6);
+            for (int i = 1; i <= 10; i++) {
+                reservoir.update(null, now, i);
+            }
+            
+            AggregatedReservoirSnapshot sampled = reservoir.getSnapshots(0, 4, 5).get(0);
+            Assert.assertEquals(10000, sampled.size());
+            Assert.assertEquals(100, sampled.getValues(false).length);
+            Assert.assertEquals(100.0, sampled.getValueWeight(), 0.0);
+            Assert.assertEquals(1, sampled.getMin());
+            Assert.assertEquals(10000, sampled.getMax());
+            Assert.assertEquals(5000.0, sampled.getMedian(), 1500.0);
+            
+            AggregatedReservoirSnapshot complete = reservoir.getSnapshots(6, 10, 5).get(0);
+            Assert.assertArrayEquals(new long[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 }, complete.getValues(false));
+            Assert.assertEquals(1.0, complete.getValueWeight(), 0.0);
+            
+            // rolled up sample still represents all 10010 values once the second archive is completed
+            clock.tock(5);
+            AggregatedReservoirSnapshot rolledUp = reservoir.getSnapshots(0, 10, 10).get(0);
+            Assert.assertEquals(10010, rolledUp.size());
+            Assert.assertEquals(100, rolledUp.getValues(false).length);
+            Assert.assertEquals(100.1, rolledUp.getValueWeight(), 1e-9);
+            
+            // sampled values are seeded per archive
+            if (objectValues == null) {
+                objectValues = sampled.getValues(true);
+            } else {
+                Assert.assertArrayEquals(objectValues, sampled.getValues(false));
+            }
+        }
+    }
+	
+	@Test
+	public void testCompressedContainerEqualsPrimitiveContainer() {
+	    ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+	    RoundRobinReservoir primitiveReservoir = new RoundRobinReservoir.Builder()
+	            .clock(clock).start(0).step(5).containerType(ARCHIVE_CONTAINER_TYPE.PRIMITIVE)
+	            .updateMode(ARCHIVE_UPDATE_MODE.ROLL_UP)
+	            .addArchive(5, 200, 0)
+	            .addArchive(10, 150, 0).build();
+	    RoundRobinReservoir compressedReservoir = new RoundRobinReservoir.Builder()
+	            .clock(clock).start(0).step(5).containerType(ARCHIVE_CONTAINER_TYPE.COMPRESSED)
+	            .updateMode(ARCHIVE_UPDATE_MODE.ROLL_UP)
+	            .addArchive(5, 200, 0)
+	            .addArchive(10, 150, 0).build();
+	    
+	    // wraps the finest ring-buffer, including idle periods and values of varying magnitude
+	    for (int i = 0; i < 1200; i++) {
+	        long now = clock.tock((i % 97 == 0) ? 37 : 1);
+	        long value = (i % 13 == 0) ? -i * 100003L : i % 17;
+	        primitiveReservoir.update(null, now, value);
+	        compressedReservoir.update(null, now, value);
+	    }
+	    
+	    assertSnapshotsEqual(primitiveReservoir.getSnapshots(), compressedReservoir.getSnapshots());
+	    long now = clock.getTime();
+	    assertSnapshotsEqual(primitiveReservoir.getSnapshots(now - 500, now, 10), compressedReservoir.getSnapshots(now - 500, now, 10));
+	    assertArchivesEqual(primitiveReservoir.getSnapshots(), compressedReservoir, -1, -1, -1);
+	    
+	    CompressedArchiveContainer finest = (CompressedArchiveContainer)compressedReservoir.getContainers()[0];
+	    Assert.assertEquals(5, finest.getFrozenBlockCount());
+	    // two hot blocks of 32 archives with 13 fields each, the frozen blocks take less than half of it
+	    int blockLongs = 13 * CompressedArchiveContainer.BLOCK_SIZE;
+	    Assert.assertTrue(finest.getAllocatedLongs() - 2 * blockLongs < 5 * blockLongs / 2);
+	}
+	
+	@Test
+	public void testIdleArchivesAreNotMaterialized() {
+	    ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+	    RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+	            .clock(clock).start(0).step(5).containerType(ARCHIVE_CONTAINER_TYPE.OBJECT)
+	            .addArchive(5, 4, 10).build();
+	    
+	    // fill the ring-buffer once: [21 - 25], [6 - 10], [11 - 15], [16 - 20]
+	    for (int i = 0; i < 5; i++) {
+	        reservoir.update(null, clock.tock(i == 0 ? 1 : 5), i);
+	    }
+	    RoundRobinReservoir.Archive[] archives = ((RoundRobinReservoir.ObjectArchiveContainer)reservoir.getContainers()[0]).getArchives();
+	    Assert.assertNotNull(archives[1]);
+	    Assert.assertNotNull(archives[2]);
+	    
+	    // idle for two archives, the skipped slots release the archives of the former round
+	    reservoir.update(null, clock.tock(15), 5);
+	    Assert.assertNull(archives[1]);
+	    Assert.assertNull(archives[2]);
+	    
+	    List<AggregatedReservoirSnapshot> snapshots = reservoir.getSnapshots();
+	    Assert.assertEquals(4, snapshots.size());
+	    long[] starts = new long[] { 36, 31, 26, 21 };
+	    long[] sizes = new long[] { 1, 0, 0, 1 };
+	    for (int i = 0; i < snapshots.size(); i++) {
+	        Assert.assertEquals(starts[i], snapshots.get(i).getStart());
+	        Assert.assertEquals(starts[i] + 4, snapshots.get(i).getEnd());
+	        Assert.assertEquals(sizes[i], snapshots.get(i).size());
+	    }
+	    
+	    List<AggregatedReservoirSnapshot> empty = reservoir.getSnapshots(26, 35, 5);
+	    Assert.assertEquals(2, empty.size());
+	    Assert.assertEquals(26, empty.get(0).getStart());
+	    Assert.assertEquals(Long.MIN_VALUE, empty.get(0).getSum());
+	    Assert.assertEquals(0, empty.get(0).getValues(false).length);
+	    Assert.assertTrue(Double.isNaN(empty.get(1).getMean()));
+	    Assert.assertTrue(reservoir.getSnapshots(11, 20, 5).isEmpty());
+	    assertArchivesEqual(snapshots, reservoir, -1, -1, -1);
+	}
+	
+	@Test
+	public void testCollectedRecordsOfRolledOverArchives() {
+	    ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+	    RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+	            .clock(clock).start(0).step(5).containerType(ARCHIVE_CONTAINER_TYPE.OBJECT)
+	            .addArchive(5, 4, 10).build();
+	    
+	    reservoir.update(null, clock.tock(1), 1);
+	    reservoir.update(null, clock.tock(1), 3);
+	    ArchiveRecordCollector records = new ArchiveRecordCollector();
+	    reservoir.forEachArchive(records);
+	    
+	    final List<ArchiveRecord> visited = new ArrayList<>();
+	    ArchiveVisitor visitor = new ArchiveVisitor() {
+	        @Override
+	        public void visit(ArchiveRecord archive) {
+	            visited.add(archive);
+	        }
+	    };
+	    records.visitAll(visitor);
+	    Assert.assertEquals(0, visited.get(0).getStart());
+	    Assert.assertEquals(3.0, visited.get(0).getValue(1.0), 0.0);
+	    
+	    // the slot of the collected archive is reused, the aggregated values of the record stay valid
+	    reservoir.update(null, clock.tock(20), 5);
+	    visited.clear();
+	    records.visitAll(visitor);
+	    Assert.assertEquals(2, visited.get(0).size());
+	    Assert.assertEquals(3, visited.get(0).getMax());
+	    Assert.assertTrue(Double.isNaN(visited.get(0).getMedian()));
+	}
+	
+	@Test
+    public void testPrimitiveContainerEqualsObjectContainer() {
+        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+        RoundRobinReservoir objectReservoir = new RoundRobinReservoir.Builder()
+                .clock(clock).start(0).step(5)
+                .addArchive(5, 4, 3)
+                .addArchive(10, 3, 0).build();
+        RoundRobinReservoir primitiveReservoir = new RoundRobinReservoir.Builder()
+                .clock(clock).start(0).step(5).containerType(ARCHIVE_CONTAINER_TYPE.PRIMITIVE)
+                .addArchive(5, 4, 3)
+                .addArchive(10, 3, 0).build();
+        
+        int[] tocks = new int[] { 1, 1, 1, 1, 9, 1, 8, 12, 1, 1, 3, 2, 1, 1, 1, 1 };
+        for (int i = 0; i < tocks.length; i++) {
+            long now = clock.tock(tocks[i]);
+            objectReservoir.update(null, now, i * 7 % 11);
+            primitiveReservoir.update(null, now, i * 7 % 11);
+        }
+        
+        assertSnapshotsEqual(objectReservoir.getSnapshots(), primitiveReservoir.getSnapshots());
+        assertSnapshotsEqual(objectReservoir.getSnapshots(31, 44, 5), primitiveReservoir.getSnapshots(31, 44, 5));
+        assertSnapshotsEqual(objectReservoir.getSnapshots(21, 44, 10), primitiveReservoir.getSnapshots(21, 44, 10));
+        
+        Assert.assertEquals(objectReservoir.getContainers()[0].getCurrentIndex(), primitiveReservoir.getContainers()[0].getCurrentIndex());
+    }
+	
+	@Test
+    public void testReservoirWithHistogramArchives() {
+        for (ARCHIVE_CONTAINER_TYPE containerType : ARCHIVE_CONTAINER_TYPE.values()) {
+            ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+            RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+                    .clock(clock).start(0).step(5).containerType(containerType)
+                    .valueArchiveType(VALUE_ARCHIVE_TYPE.HISTOGRAM).histogramPrecision(2)
+                    .addArchive(5, 5, 10)
+                    .addArchive(10, 5, 0).build();
+            
+            // far more values than maxRawValues, in descending order
+            for (int i = 1000; i > 0; i--) {
+                reservoir.update(null, 1, i);
+            }
+            
+            AggregatedReservoirSnapshot snapshot = reservoir.getCurrentSnapshot();
+            Assert.assertEquals(1000, snapshot.size());
+            Assert.assertNull(snapshot.getValues(false));
+            Assert.assertEquals(500.0, snapshot.getMedian(), 5.0);
+            Assert.assertEquals(990.0, snapshot.getValue(0.99), 9.9);
+            Assert.assertEquals(999.0, snapshot.getValue(0.999), 9.99);
+            Assert.assertEquals(1000.0, snapshot.getValue(1.0), 0.0);
+        }
+    }
+	
+	@Test
+    public void testQuantilesOfUnsortedValues() {
+        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+        RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+                .clock(clock).start(0).step(5)
+                .addArchive(5, 5, 100).build();
+        
+        long[] values = new long[] { 5, 1, 4, 2, 3 };
+        for (long value : values) {
+            reservoir.update(null, 1, value);
+        }
+        
+        AggregatedReservoirSnapshot snapshot = reservoir.getCurrentSnapshot();
+        Assert.assertArrayEquals(values, snapshot.getValues(false));
+        Assert.assertEquals(3.0, snapshot.getMedian(), 0.0);
+        Assert.assertEquals(1.0, snapshot.getValue(0.0), 0.0);
+        Assert.assertEquals(5.0, snapshot.getValue(1.0), 0.0);
+    }
+	
+	@Test
+	public void testRollUpEqualsPerSampleUpdate() {
+	    for (ARCHIVE_CONTAINER_TYPE containerType : ARCHIVE_CONTAINER_TYPE.values()) {
+	        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+	        RoundRobinReservoir perSampleReservoir = new RoundRobinReservoir.Builder()
+	                .clock(clock).start(0).step(5).containerType(containerType)
+	                .addArchive(5, 4, 20)
+	                .addArchive(10, 3, 40)
+	                .addArchive(20, 3, 0).build();
+	        RoundRobinReservoir rollUpReservoir = new RoundRobinReservoir.Builder()
+	                .clock(clock).start(0).step(5).containerType(containerType)
+	                .updateMode(ARCHIVE_UPDATE_MODE.ROLL_UP)
+	                .addArchive(5, 4, 20)
+	                .addArchive(10, 3, 40)
+	                .addArchive(20, 3, 0).build();
+	        
+	        int[] tocks = new int[] { 1, 1, 1, 1, 9, 1, 8, 12, 1, 1, 3, 2, 1, 1, 1, 1 };
+	        for (int i = 0; i < tocks.length; i++) {
+	            long now = clock.tock(tocks[i]);
+	            perSampleReservoir.update(null, now, i * 7 % 11);
+	            rollUpReservoir.update(null, now, i * 7 % 11);
+	            
+	            if (i == 8) {
+	                // query moves the coarser archives ahead of the finest ones
+	                assertSnapshotsEqual(perSampleReservoir.getSnapshots(21, now, 10), rollUpReservoir.getSnapshots(21, now, 10), 1e-9);
+	            }
+	        }
+	        
+	        assertSnapshotsEqual(perSampleReservoir.getSnapshots(), rollUpReservoir.getSnapshots(), 0.0);
+	        assertSnapshotsEqual(perSampleReservoir.getSnapshots(31, 44, 5), rollUpReservoir.getSnapshots(31, 44, 5), 0.0);
+	        assertSnapshotsEqual(perSampleReservoir.getSnapshots(21, 44, 10), rollUpReservoir.getSnapshots(21, 44, 10), 1e-9);
+	        assertSnapshotsEqual(perSampleReservoir.getSnapshots(1, 44, 20), rollUpReservoir.getSnapshots(1, 44, 20), 1e-9);
+	    }
+	}
+	
+	@Test
+	public void testDownsampledQueryMergesFinerArchives() {
+	    ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+	    RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+	            .clock(clock).start(0).step(5)
+	            .addArchive(5, 10, 0)
+	            .addArchive(10, 5, 0).build();
+	    
+	    for (int i = 1; i <= 40; i++) {
+	        reservoir.update(null, clock.tock(), i);
+	    }
+	    
+	    // merged from the archives of resolution 10
+	    List<AggregatedReservoirSnapshot> snapshots = reservoir.getSnapshots(11, 40, 20);
+	    Assert.assertEquals(2, snapshots.size());
+	    assertBin(snapshots.get(0), 1, 20, 1, 20);
+	    assertBin(snapshots.get(1), 21, 40, 21, 40);
+	    
+	    // merged from the archives of resolution 5
+	    snapshots = reservoir.getSnapshots(1, 30, 15);
+	    Assert.assertEquals(2, snapshots.size());
+	    assertBin(snapshots.get(0), 1, 15, 1, 15);
+	    assertBin(snapshots.get(1), 16, 30, 16, 30);
+	}
+	
+	@Test
+	public void testDownsampledQueryIsCached() {
+	    ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+	    RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+	            .clock(clock).start(0).step(5)
+	            .addArchive(5, 10, 0)
+	            .addArchive(10, 5, 0).build();
+	    
+	    for (int i = 1; i <= 35; i++) {
+	        reservoir.update(null, clock.tock(), i);
+	    }
+	    
+	    List<AggregatedReservoirSnapshot> snapshots = reservoir.getSnapshots(21, 40, 20);
+	    assertBin(snapshots.get(0), 21, 40, 21, 35);
+	    Assert.assertSame(snapshots.get(0), reservoir.getSnapshots(21, 40, 20).get(0));
+	    
+	    // a new sample invalidates results spanning the current archive
+	    reservoir.update(null, clock.tock(), 36);
+	    assertBin(reservoir.getSnapshots(21, 40, 20).get(0), 21, 40, 21, 36);
+	    
+	    for (int i = 37; i <= 45; i++) {
+	        reservoir.update(null, clock.tock(), i);
+	    }
+	    snapshots = reservoir.getSnapshots(21, 40, 20);
+	    assertBin(snapshots.get(0), 21, 40, 21, 40);
+	    
+	    // results of completed archives stay valid
+	    reservoir.update(null, clock.tock(), 46);
+	    Assert.assertSame(snapshots.get(0), reservoir.getSnapshots(21, 40, 20).get(0));
+	}
+	
+	private static void assertBin(AggregatedReservoirSnapshot bin, long start, long end, long min, long max) {
+	    Assert.assertEquals(start, bin.getStart());
+	    Assert.assertEquals(end, bin.getEnd());
+	    Assert.assertEquals(min, bin.getMin());
+	    Assert.assertEquals(max, bin.getMax());
+	    Assert.assertEquals(max - min + 1, bin.size());
+	}
+	
+	@Test
+	public void testMappedContainerReattachesPersistedArchives() throws IOException {
+	    MappedArchiveStore store = new MappedArchiveStore(tmpFolder.newFolder());
+	    MappedArchiveStore.Key key = new MappedArchiveStore.Key(MappedArchiveStore.METRIC_TYPE.TIMER, "DEFAULT", new String[] { "a", "b" });
+	    
+	    ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+	    RoundRobinReservoir.Builder mappedBuilder = new RoundRobinReservoir.Builder()
+	            .clock(clock).start(0).step(5).containerType(ARCHIVE_CONTAINER_TYPE.MAPPED)
+	            .store(store, key)
+	            .addArchive(5, 4, 0)
+	            .addArchive(10, 3, 0);
+	    RoundRobinReservoir primitiveReservoir = new RoundRobinReservoir.Builder()
+	            .clock(clock).start(0).step(5).containerType(ARCHIVE_CONTAINER_TYPE.PRIMITIVE)
+	            .addArchive(5, 4, 0)
+	            .addArchive(10, 3, 0).build();
+	    
+	    RoundRobinReservoir mappedReservoir = mappedBuilder.build();
+	    int[] tocks = new int[] { 1, 1, 1, 1, 9, 1, 8, 12, 1, 1, 3, 2, 1, 1, 1, 1 };
+	    for (int i = 0; i < tocks.length; i++) {
+	        long now = clock.tock(tocks[i]);
+	        primitiveReservoir.update(null, now, i * 7 % 11);
+	        mappedReservoir.update(null, now, i * 7 % 11);
+	        
+	        if (i == 8) {
+	            // simulate restart, the new reservoir continues the persisted history
+	            mappedReservoir = mappedBuilder.start(now).build();
+	            assertSnapshotsEqual(primitiveReservoir.getSnapshots(), mappedReservoir.getSnapshots());
+	        }
+	    }
+	    
+	    Assert.assertEquals(1, store.getKeys().size());
+	    Assert.assertArrayEquals(key.getPath(), store.getKeys().get(0).getPath());
+	    
+	    mappedReservoir = mappedBuilder.start(clock.getTime()).build();
+	    assertSnapshotsEqual(primitiveReservoir.getSnapshots(), mappedReservoir.getSnapshots());
+	    assertSnapshotsEqual(primitiveReservoir.getSnapshots(21, 44, 10), mappedReservoir.getSnapshots(21, 44, 10));
+	    
+	    // changed layout discards the persisted history
+	    mappedReservoir = new RoundRobinReservoir.Builder()
+	            .clock(clock).start(clock.getTime()).step(5).containerType(ARCHIVE_CONTAINER_TYPE.MAPPED)
+	            .store(store, key)
+	            .addArchive(5, 6, 0).build();
+	    Assert.assertEquals(1, mappedReservoir.getSnapshots().size());
+	    Assert.assertEquals(0, mappedReservoir.getCurrentSnapshot().size());
+	    
+	    // a closed store does not persist the archives of new reservoirs anymore
+	    store.close();
+	    mappedReservoir = mappedBuilder.start(clock.getTime()).build();
+	    Assert.assertFalse(mappedReservoir.getContainers()[0] instanceof MappedArchiveContainer);
+	}
+	
+	@Test
+	public void testForEachArchiveEqualsSnapshots() {
+	    for (ARCHIVE_CONTAINER_TYPE containerType : ARCHIVE_CONTAINER_TYPE.values()) {
+	        for (VALUE_ARCHIVE_TYPE valueArchiveType : VALUE_ARCHIVE_TYPE.values()) {
+	            ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+	            RoundRobinReservoir reservoir = new RoundRobinReservoir.Builder()
+	                    .clock(clock).start(0).step(5).containerType(containerType)
+	                    .valueArchiveType(valueArchiveType)
+	                    .updateMode(ARCHIVE_UPDATE_MODE.ROLL_UP)
+	                    .addArchive(5, 4, 20)
+	                    .addArchive(10, 3, 40).build();
+	            
+	            int[] tocks = new int[] { 1, 1, 1, 1, 9, 1, 8, 12, 1, 1, 3, 2, 1, 1, 1, 1 };
+	            for (int i = 0; i < tocks.length; i++) {
+	                reservoir.update(null, clock.tock(tocks[i]), i * 7 % 11);
+	            }
+	            
+	            assertArchivesEqual(reservoir.getSnapshots(), reservoir, -1, -1, -1);
+	            assertArchivesEqual(reservoir.getSnapshots(31, 44, 5), reservoir, 31, 44, 5);
+	            assertArchivesEqual(reservoir.getSnapshots(21, 44, 10), reservoir, 21, 44, 10);
+	        }
+	    }
+	}
+	
+	@Test
+	public void testUpdateBatchEqualsSingleUpdates() {
+	    for (ARCHIVE_UPDATE_MODE updateMode : ARCHIVE_UPDATE_MODE.values()) {
+	        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(44, 1).build();
+	        RoundRobinReservoir singleReservoir = new RoundRobinReservoir.Builder()
+	                .clock(clock).start(0).step(5).updateMode(updateMode)
+	                .addArchive(5, 4, 20)
+	                .addArchive(10, 3, 40).build();
+	        RoundRobinReservoir batchReservoir = new RoundRobinReservoir.Builder()
+	                .clock(clock).start(0).step(5).updateMode(updateMode)
+	                .addArchive(5, 4, 20)
+	                .addArchive(10, 3, 40).build();
+	        
+	        // spans several archives, skips some and contains a time-stamp turned back
+	        long[] times = new long[] { 1, 2, 3, 3, 9, 10, 18, 17, 30, 31, 34, 36, 37, 38, 0 };
+	        long[] values = new long[times.length];
+	        for (int i = 0; i < times.length; i++) {
+	            values[i] = i * 7 % 11;
+	        }
+	        
+	        int len = times.length - 1;
+	        for (int i = 0; i < len; i++) {
+	            singleReservoir.update(null, times[i], values[i]);
+	        }
+	        batchReservoir.updateBatch(null, times, values, len);
+	        
+	        assertSnapshotsEqual(singleReservoir.getSnapshots(), batchReservoir.getSnapshots());
+	        assertSnapshotsEqual(singleReservoir.getSnapshots(21, 44, 10), batchReservoir.getSnapshots(21, 44, 10), 1e-9);
+	    }
+	}
+	
+	/*
+	 * Visits the archives and asserts that the visited records and their copies equal the given snapshots
+	 */
+	private static void assertArchivesEqual(final List<AggregatedReservoirSnapshot> expected, RoundRobinReservoir reservoir, long start, long end, long resolution) {
+	    Assert.assertFalse(expected.isEmpty());
+	    final int[] visited = new int[1];
+	    ArchiveVisitor visitor = new ArchiveVisitor() {
+	        @Override
+	        public void visit(ArchiveRecord a) {
+	            AggregatedReservoirSnapshot e = expected.get(visited[0]++);
+	            Assert.assertEquals(e.getStart(), a.getStart());
+	            Assert.assertEquals(e.getEnd(), a.getEnd());
+	            Assert.assertEquals(e.size(), a.size());
+	            Assert.assertEquals(e.getSum(), a.getSum());
+	            Assert.assertEquals(e.getMean(), a.getMean(), 0.0);
+	            Assert.assertEquals(e.getStdDev(), a.getStdDev(), 0.0);
+	            Assert.assertEquals(e.getMin(), a.getMin());
+	            Assert.assertEquals(e.getMinTimestamp(), a.getMinTimestamp());
+	            Assert.assertEquals(e.getMax(), a.getMax());
+	            Assert.assertEquals(e.getMaxTimestamp(), a.getMaxTimestamp());
+	            Assert.assertEquals(e.getLastValue(), a.getLastValue());
+	            Assert.assertEquals(e.getMedian(), a.getMedian(), 0.0);
+	            Assert.assertEquals(e.getValue(0.95), a.getValue(0.95), 0.0);
+	        }
+	    };
+	    
+	    ArchiveRecordCollector records = new ArchiveRecordCollector();
+	    if (resolution == -1) {
+	        reservoir.forEachArchive(visitor);
+	        reservoir.forEachArchive(records);
+	    } else {
+	        reservoir.forEachArchive(start, end, resolution, visitor);
+	        reservoir.forEachArchive(start, end, resolution, records);
+	    }
+	    Assert.assertEquals(expected.size(), visited[0]);
+	    
+	    visited[0] = 0;
+	    records.visitAll(visitor);
+	    Assert.assertEquals(expected.size(), visited[0]);
+	}
+	
+	private static void assertSnapshotsEqual(List<AggregatedReservoirSnapshot> expected, List<AggregatedReservoirSnapshot> actual) {
+	    assertSnapshotsEqual(expected, actual, 0.0);
+	}
+	
+	private static void assertSnapshotsEqual(List<AggregatedReservoirSnapshot> expected, List<AggregatedReservoirSnapshot> actual, double delta) {
+	    Assert.assertFalse(expected.isEmpty());
+	    Assert.assertEquals(expected.size(), actual.size());
+	    for (int i = 0; i < expected.size(); i++) {
+	        AggregatedReservoirSnapshot e = expected.get(i);
+	        AggregatedReservoirSnapshot a = actual.get(i);
+	        Assert.assertEquals(e.getStart(), a.getStart());
+	        Assert.assertEquals(e.getEnd(), a.getEnd());
+	        Assert.assertEquals(e.size(), a.size());
+	        Assert.assertEquals(e.getSum(), a.getSum());
+	        Assert.assertEquals(e.getMean(), a.getMean(), delta);
+	        Assert.assertEquals(e.getStdDev(), a.getStdDev(), delta);
+	        Assert.assertEquals(e.getMin(), a.getMin());
+	        Assert.assertEquals(e.getMax(), a.getMax());
+	        Assert.assertEquals(e.getMinTimestamp(), a.getMinTimestamp());
+	        Assert.assertEquals(e.getMaxTimestamp(), a.getMaxTimestamp());
+	        Assert.assertEquals(e.getFirstUsageTimestamp(), a.getFirstUsageTimestamp());
+	        Assert.assertEquals(e.getLastUsageTimestamp(), a.getLastUsageTimestamp());
+	        Assert.assertEquals(e.getLastValue(), a.getLastValue());
+	        Assert.assertArrayEquals(e.getValues(false), a.getValues(false));
+	    }
+	}
+	
 }
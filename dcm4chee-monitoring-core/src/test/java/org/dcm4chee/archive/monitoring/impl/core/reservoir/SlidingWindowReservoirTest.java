@@ -0,0 +1,129 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.List;
+
+import org.dcm4chee.archive.monitoring.impl.core.ManualClock2;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class SlidingWindowReservoirTest {
+    
+    @Test
+    public void testSnapshotCoversWindow() {
+        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+        SlidingWindowReservoir reservoir = new SlidingWindowReservoir(clock, 10, 2, LogLinearHistogram.DEFAULT_PRECISION);
+        
+        // one sample per time unit, the value being the time
+        for (int i = 1; i <= 25; i++) {
+            long now = clock.tock();
+            reservoir.update(null, now, now);
+        }
+        
+        // window [16, 25] including the bucket still filling up
+        AggregatedReservoirSnapshot snapshot = reservoir.getCurrentSnapshot();
+        Assert.assertEquals(16, snapshot.getStart());
+        Assert.assertEquals(25, snapshot.getEnd());
+        Assert.assertEquals(10, snapshot.size());
+        Assert.assertEquals(16, snapshot.getMin());
+        Assert.assertEquals(16, snapshot.getMinTimestamp());
+        Assert.assertEquals(25, snapshot.getMax());
+        Assert.assertEquals(25, snapshot.getLastValue());
+        Assert.assertEquals(205, snapshot.getSum());
+        Assert.assertEquals(20.5, snapshot.getMean(), 1e-9);
+        Assert.assertEquals(Math.sqrt(110.0 / 12.0), snapshot.getStdDev(), 1e-9);
+        Assert.assertEquals(25.0, snapshot.getValue(1.0), 0.0);
+        Assert.assertEquals(20.0, snapshot.getMedian(), 1.0);
+        
+        // the window moves on without samples
+        clock.tock(6);
+        snapshot = reservoir.getCurrentSnapshot();
+        Assert.assertEquals(4, snapshot.size());
+        Assert.assertEquals(22, snapshot.getMin());
+        
+        clock.tock(10);
+        snapshot = reservoir.getCurrentSnapshot();
+        Assert.assertEquals(0, snapshot.size());
+        Assert.assertEquals(Long.MIN_VALUE, snapshot.getLastValue());
+        Assert.assertTrue(Double.isNaN(snapshot.getMean()));
+    }
+    
+    @Test
+    public void testSamplesBeforeCurrentBucketAreSkipped() {
+        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+        SlidingWindowReservoir reservoir = new SlidingWindowReservoir(clock, 10, 2, LogLinearHistogram.DEFAULT_PRECISION);
+        
+        reservoir.update(null, clock.tock(5), 1);
+        reservoir.update(null, 1, 2);
+        
+        Assert.assertEquals(1, reservoir.getCurrentSnapshot().size());
+    }
+    
+    @Test
+    public void testSnapshotsOfOverlappingRange() {
+        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+        SlidingWindowReservoir reservoir = new SlidingWindowReservoir(clock, 10, 2, LogLinearHistogram.DEFAULT_PRECISION);
+        
+        for (int i = 1; i <= 25; i++) {
+            long now = clock.tock();
+            reservoir.update(null, now, 1000 * now);
+        }
+        
+        // window [16, 25]
+        List<AggregatedReservoirSnapshot> snapshots = reservoir.getSnapshots(20, 40, 5);
+        Assert.assertEquals(1, snapshots.size());
+        Assert.assertEquals(10, snapshots.get(0).size());
+        Assert.assertEquals(25000.0, snapshots.get(0).getValue(1.0), 0.0);
+        Assert.assertEquals(1, reservoir.getSnapshots(0, 16, 5).size());
+        Assert.assertTrue(reservoir.getSnapshots(0, 15, 5).isEmpty());
+        Assert.assertTrue(reservoir.getSnapshots(26, 40, 5).isEmpty());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowMustBeMultipleOfBucketSize() {
+        new SlidingWindowReservoir(new ManualClock2.Builder().build(), 10, 3, LogLinearHistogram.DEFAULT_PRECISION);
+    }
+
+}
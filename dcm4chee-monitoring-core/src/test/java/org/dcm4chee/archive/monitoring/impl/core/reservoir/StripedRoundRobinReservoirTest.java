@@ -0,0 +1,145 @@
+//
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.monitoring.impl.core.reservoir;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.dcm4chee.archive.monitoring.impl.core.ManualClock2;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
+ *
+ */
+public class StripedRoundRobinReservoirTest {
+    
+    @Test
+    public void testConcurrentUpdatesAreMerged() throws InterruptedException {
+        assertConcurrentUpdatesAreMerged(8);
+    }
+    
+    @Test
+    public void testWritersBlockOnExhaustedStripes() throws InterruptedException {
+        StripedRoundRobinReservoir reservoir = assertConcurrentUpdatesAreMerged(1);
+        Assert.assertEquals(1, reservoir.getStripeCount());
+    }
+    
+    private static StripedRoundRobinReservoir assertConcurrentUpdatesAreMerged(int maxStripes) throws InterruptedException {
+        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(1, 1).build();
+        final StripedRoundRobinReservoir reservoir = new StripedRoundRobinReservoir(new RoundRobinReservoir.Builder()
+                .clock(clock).start(0).step(5)
+                .addArchive(5, 5, 0)
+                .addArchive(10, 5, 0), maxStripes);
+        
+        final int threads = 8;
+        final int updatesPerThread = 10000;
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        Thread[] writers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 1; j <= updatesPerThread; j++) {
+                        reservoir.update(null, 1, j);
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        
+        startSignal.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        
+        AggregatedReservoirSnapshot snapshot = reservoir.getCurrentSnapshot();
+        Assert.assertEquals(threads * updatesPerThread, snapshot.size());
+        Assert.assertEquals(threads * (updatesPerThread * (updatesPerThread + 1L) / 2), snapshot.getSum());
+        Assert.assertEquals(1, snapshot.getMin());
+        Assert.assertEquals(updatesPerThread, snapshot.getMax());
+        Assert.assertEquals((updatesPerThread + 1) / 2.0, snapshot.getMean(), 0.0001);
+        
+        List<AggregatedReservoirSnapshot> snapshots = reservoir.getSnapshots(0, 9, 10);
+        Assert.assertEquals(1, snapshots.size());
+        Assert.assertEquals(threads * updatesPerThread, snapshots.get(0).size());
+        return reservoir;
+    }
+    
+    @Test
+    public void testMergedSnapshotEqualsSingleArchive() {
+        ManualClock2 clock = new ManualClock2.Builder().tick(0, 1).tock(0, 1).build();
+        RoundRobinReservoir.Builder builder = new RoundRobinReservoir.Builder()
+                .clock(clock).start(0).step(5)
+                .addArchive(5, 5, 100);
+        
+        RoundRobinReservoir all = builder.build();
+        RoundRobinReservoir stripe1 = builder.build();
+        RoundRobinReservoir stripe2 = builder.build();
+        
+        long[] values = new long[] { 3, 17, 4, 9, 1, 12, 8 };
+        for (int i = 0; i < values.length; i++) {
+            all.update(null, i % 5, values[i]);
+            ((i < 2) ? stripe1 : stripe2).update(null, i % 5, values[i]);
+        }
+        
+        AggregatedReservoirSnapshot expected = all.getCurrentSnapshot();
+        AggregatedReservoirSnapshot merged = AggregatedReservoirSnapshotImpl.merge(
+                Arrays.asList(stripe1.getCurrentSnapshot(), stripe2.getCurrentSnapshot()));
+        
+        Assert.assertEquals(expected.size(), merged.size());
+        Assert.assertEquals(expected.getSum(), merged.getSum());
+        Assert.assertEquals(expected.getMean(), merged.getMean(), 1e-9);
+        Assert.assertEquals(expected.getStdDev(), merged.getStdDev(), 1e-9);
+        Assert.assertEquals(expected.getMin(), merged.getMin());
+        Assert.assertEquals(expected.getMax(), merged.getMax());
+        Assert.assertEquals(expected.getFirstUsageTimestamp(), merged.getFirstUsageTimestamp());
+        Assert.assertEquals(expected.getLastUsageTimestamp(), merged.getLastUsageTimestamp());
+        Assert.assertEquals(expected.getValues(false).length, merged.getValues(false).length);
+    }
+    
+}
@@ -130,12 +130,12 @@ public final class JdbcWrapper {
 		}
 		
 		private void incUsedConnectionCounter() {
-			Counter usedConnectionCounter = getMetricFactory().counter(getContextProvider().getNodeContext().getOrCreateContext(USED_CONNECTIONS_CXT), Counter.TYPE.DEFAULT);
+			Counter usedConnectionCounter = getMetricFactory().sampledCounter(getContextProvider().getNodeContext().getOrCreateContext(USED_CONNECTIONS_CXT), Counter.TYPE.DEFAULT);
 			usedConnectionCounter.inc();
 		}
 		
 		private void decUsedConnectionCounter() {
-			Counter usedConnectionCounter = getMetricFactory().counter(getContextProvider().getNodeContext().getOrCreateContext(USED_CONNECTIONS_CXT), Counter.TYPE.DEFAULT);
+			Counter usedConnectionCounter = getMetricFactory().sampledCounter(getContextProvider().getNodeContext().getOrCreateContext(USED_CONNECTIONS_CXT), Counter.TYPE.DEFAULT);
 			usedConnectionCounter.dec();
 		}
 
@@ -283,7 +283,8 @@ public final class JdbcWrapper {
 
 //		boolean systemError = true;
 		
-		Timer.Split timerSplit = levelStrategy.createTimerForStatement(statementMonitoringContext).time();
+		Timer timer = levelStrategy.createTimerForStatement(statementMonitoringContext);
+		long start = timer.startNanos();
 		try {
 			incActiveConnectionCounter();
 			
@@ -305,17 +306,17 @@ public final class JdbcWrapper {
 //			if ( systemError ) {
 //				timerContext.setAttribute("sql.error", "true");
 //			}
-			timerSplit.stop();
+			timer.stopNanos(start);
 		}
 	}
 	
 	private void incActiveConnectionCounter() {
-		Counter activeConnectionCounter = getMetricFactory().counter(getContextProvider().getNodeContext().getOrCreateContext(ACTIVE_CONNECTIONS_CXT), Counter.TYPE.DEFAULT);
+		Counter activeConnectionCounter = getMetricFactory().sampledCounter(getContextProvider().getNodeContext().getOrCreateContext(ACTIVE_CONNECTIONS_CXT), Counter.TYPE.DEFAULT);
 		activeConnectionCounter.inc();
 	}
 	
 	private void decActiveConnectionCounter() {
-		Counter activeConnectionCounter = getMetricFactory().counter(getContextProvider().getNodeContext().getOrCreateContext(ACTIVE_CONNECTIONS_CXT), Counter.TYPE.DEFAULT);
+		Counter activeConnectionCounter = getMetricFactory().sampledCounter(getContextProvider().getNodeContext().getOrCreateContext(ACTIVE_CONNECTIONS_CXT), Counter.TYPE.DEFAULT);
 		activeConnectionCounter.dec();
 	}
 
@@ -42,6 +42,7 @@ package org.dcm4chee.archive.monitoring.init;
 import static java.lang.String.format;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
 import javax.inject.Inject;
@@ -49,6 +50,7 @@ import javax.inject.Inject;
 import org.dcm4chee.archive.monitoring.impl.config.Configuration;
 import org.dcm4chee.archive.monitoring.impl.config.MonitoringBuilder;
 import org.dcm4chee.archive.monitoring.impl.config.json.JsonMonitoringConfigurationProvider;
+import org.dcm4chee.archive.monitoring.impl.core.MetricProvider;
 import org.dcm4chee.archive.monitoring.impl.core.clocks.Clocks;
 import org.dcm4chee.archive.monitoring.impl.core.module.MonitoringModuleManager;
 import org.slf4j.Logger;
@@ -73,6 +75,8 @@ public class MonitoringInitializer {
     @Inject
     private MonitoringModuleManager moduleManager;
     
+    private MetricProvider metricProvider;
+    
 	@PostConstruct
 	public void initialize() {
 	    ClassLoader classloader = this.getClass().getClassLoader();
@@ -119,7 +123,14 @@ public class MonitoringInitializer {
 	    monitoringCfg.setClockProvider(Clocks.defaultClock());
 	    monitoringCfg.setModuleManager(moduleManager);
 	    
-	    new MonitoringBuilder(monitoringCfg).createMetricProvider();
+	    metricProvider = new MonitoringBuilder(monitoringCfg).createMetricProvider();
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+	    if (metricProvider != null) {
+	        metricProvider.shutdown();
+	    }
 	}
 	
 }
@@ -44,6 +44,7 @@ import javax.xml.bind.annotation.XmlElement;
 
 import org.dcm4chee.archive.monitoring.impl.core.aggregate.AggregateSnapshot;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveRecord;
 import org.dcm4chee.archive.monitoring.impl.util.UnitOfTime;
 
 /**
@@ -92,10 +93,35 @@ public class AggregateTimerResponse extends MetricResponse {
 		response.setMaxTimestamp(snapshot.getMaxTimestamp(), UnitOfTime.MILLISECONDS);
 		response.setMean(snapshot.getMean(), UnitOfTime.NANOSECONDS);
 		response.setStdDev(snapshot.getStdDev(), timeUnit.scaleFromNano());
+		response.setMedian(snapshot.getMedian(), UnitOfTime.NANOSECONDS);
+		response.setP95(snapshot.getValue(0.95), UnitOfTime.NANOSECONDS);
+		response.setP99(snapshot.getValue(0.99), UnitOfTime.NANOSECONDS);
 		response.setSum(snapshot.getSum(), UnitOfTime.NANOSECONDS);
 		return response;
 	}
 	
+	public static AggregateTimerResponse create(ArchiveRecord archive, UnitOfTime timeUnit) {
+		AggregateTimerResponse response = new AggregateTimerResponse(timeUnit);
+		response.setPath(archive.getPath());
+		response.setAttributes(archive.getAttributes());
+		response.setStart(archive.getStart(), UnitOfTime.MILLISECONDS);
+		response.setEnd(archive.getEnd(), UnitOfTime.MILLISECONDS);
+		response.setSize(archive.size());
+		response.setFirstUsageTimestamp(archive.getFirstUsageTimestamp(), UnitOfTime.MILLISECONDS);
+		response.setLastUsageTimestamp(archive.getLastUsageTimestamp(), UnitOfTime.MILLISECONDS);
+		response.setMin(archive.getMin(), UnitOfTime.NANOSECONDS);
+		response.setMinTimestamp(archive.getMinTimestamp(), UnitOfTime.MILLISECONDS);
+		response.setMax(archive.getMax(), UnitOfTime.NANOSECONDS);
+		response.setMaxTimestamp(archive.getMaxTimestamp(), UnitOfTime.MILLISECONDS);
+		response.setMean(archive.getMean(), UnitOfTime.NANOSECONDS);
+		response.setStdDev(archive.getStdDev(), timeUnit.scaleFromNano());
+		response.setMedian(archive.getMedian(), UnitOfTime.NANOSECONDS);
+		response.setP95(archive.getValue(0.95), UnitOfTime.NANOSECONDS);
+		response.setP99(archive.getValue(0.99), UnitOfTime.NANOSECONDS);
+		response.setSum(archive.getSum(), UnitOfTime.NANOSECONDS);
+		return response;
+	}
+	
 	@XmlAttribute
 	public String getTimeUnit() {
 		return timeUnit.toString();
@@ -128,6 +154,18 @@ public class AggregateTimerResponse extends MetricResponse {
 	    }
 	}
 	
+	public void setP95(double p95, UnitOfTime unit) {
+	    if(!Double.isNaN(p95)) {
+	        this.p95 = convert(p95, unit);
+	    }
+	}
+	
+	public void setP99(double p99, UnitOfTime unit) {
+	    if(!Double.isNaN(p99)) {
+	        this.p99 = convert(p99, unit);
+	    }
+	}
+	
 	public void setSum(long sum, UnitOfTime unit) {
 	    if(sum != Long.MIN_VALUE) {
             this.sum = convert(sum, unit);
@@ -43,6 +43,7 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlType;
 
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveRecord;
 import org.dcm4chee.archive.monitoring.impl.util.UnitOfTime;
 
 /**
@@ -75,6 +76,22 @@ public class CounterResponse extends MetricResponse {
         response.setCount(snapshot.getLastValue());
         return response;
     }
+	
+	public static CounterResponse create(ArchiveRecord archive) {
+        CounterResponse response = new CounterResponse();
+        response.setPath(archive.getPath());
+        response.setStart(archive.getStart(), UnitOfTime.MILLISECONDS);
+        response.setEnd(archive.getEnd(), UnitOfTime.MILLISECONDS);
+        response.setAttributes(archive.getAttributes());
+        response.setFirstUsageTimestamp(archive.getFirstUsageTimestamp(), UnitOfTime.MILLISECONDS);
+        response.setLastUsageTimestamp(archive.getLastUsageTimestamp(), UnitOfTime.MILLISECONDS);
+        response.setMin(archive.getMin());
+        response.setMinTimestamp(archive.getMinTimestamp(), UnitOfTime.MILLISECONDS);
+        response.setMax(archive.getMax());
+        response.setMaxTimestamp(archive.getMaxTimestamp(), UnitOfTime.MILLISECONDS);
+        response.setCount(archive.getLastValue());
+        return response;
+    }
 
 	public void setMin(long min) {
 	    if(min != Long.MAX_VALUE) {
@@ -62,12 +62,12 @@ import org.dcm4chee.archive.monitoring.impl.util.UnitOfTime;
 @XmlAccessorType(XmlAccessType.NONE)
 @XmlType(propOrder={
 		"path", "start", "end", "attributes", "firstUsageTimestamp", "lastUsageTimestamp", 
-		"minTimestamp", "min", "maxTimestamp", "max", "median", "mean", "stdDev", "sum"
+		"minTimestamp", "min", "maxTimestamp", "max", "median", "p95", "p99", "mean", "stdDev", "sum"
 })
 
 @JsonPropertyOrder({
 		"path", "start", "end", "attributes", "firstUsageTimestamp", "lastUsageTimestamp", 
-		"minTimestamp", "min", "maxTimestamp", "max", "median", "mean", "stdDev", "sum"
+		"minTimestamp", "min", "maxTimestamp", "max", "median", "p95", "p99", "mean", "stdDev", "sum"
 })
 public class MetricResponse {
 	private String path;
@@ -81,6 +81,8 @@ public class MetricResponse {
 	protected Long max;
 	protected Long min;
 	protected Double median;
+	protected Double p95;
+	protected Double p99;
 	protected Double mean;
 	protected Long sum;
 	private Double stdDev;
@@ -102,6 +104,16 @@ public class MetricResponse {
 		return (median != null) ? decimalFormat.format(median) : null;
 	}
 
+	@XmlElement
+	public String getP95() {
+		return (p95 != null) ? decimalFormat.format(p95) : null;
+	}
+	
+	@XmlElement
+	public String getP99() {
+		return (p99 != null) ? decimalFormat.format(p99) : null;
+	}
+
 	@XmlElement
 	public String getMax() {
 		return (max != null) ? Long.toString(max) : null;
@@ -60,9 +60,9 @@ import org.codehaus.jackson.annotate.JsonPropertyOrder;
  */
 @XmlAccessorType(XmlAccessType.NONE)
 @XmlRootElement(name = "metrics")
-@XmlType(propOrder={"counterResponses", "timerResponses", "aggregateResponses"})
+@XmlType(propOrder={"counterResponses", "timerResponses", "aggregateResponses", "meterResponses", "gaugeResponses"})
 
-@JsonPropertyOrder({"size", "counterResponses", "timerResponses", "aggregateResponses"})
+@JsonPropertyOrder({"size", "counterResponses", "timerResponses", "aggregateResponses", "meterResponses", "gaugeResponses"})
 public class MetricResponses {
 	@JsonProperty("timers")
 	private final List<TimerResponse> timerResponses = new ArrayList<>();
@@ -70,6 +70,10 @@ public class MetricResponses {
 	private final List<CounterResponse> counterResponses = new ArrayList<>();
 	@JsonProperty("aggregates")
 	private final List<AggregateTimerResponse> aggregateResponses = new ArrayList<>();
+	@JsonProperty("meters")
+	private final List<MeterResponse> meterResponses = new ArrayList<>();
+	@JsonProperty("gauges")
+	private final List<GaugeResponse> gaugeResponses = new ArrayList<>();
 	 
 	public void addCounter(CounterResponse counter) {
 		counterResponses.add(counter);
@@ -82,10 +86,18 @@ public class MetricResponses {
 	public void addAggregate(AggregateTimerResponse aggregate) {
 		aggregateResponses.add(aggregate);
 	}
+	
+	public void addMeter(MeterResponse meter) {
+		meterResponses.add(meter);
+	}
+	
+	public void addGauge(GaugeResponse gauge) {
+		gaugeResponses.add(gauge);
+	}
 
 	@XmlAttribute
 	public int getSize() {
-		return timerResponses.size() + counterResponses.size() + aggregateResponses.size();
+		return timerResponses.size() + counterResponses.size() + aggregateResponses.size() + meterResponses.size() + gaugeResponses.size();
 	}
 
 	@XmlElementWrapper(name = "counters")
@@ -106,4 +118,16 @@ public class MetricResponses {
 		return aggregateResponses;
 	}
 	
+	@XmlElementWrapper(name = "meters")
+	@XmlElement(name = "meter")
+	public List<MeterResponse> getMeterResponses() {
+		return meterResponses;
+	}
+	
+	@XmlElementWrapper(name = "gauges")
+	@XmlElement(name = "gauge")
+	public List<GaugeResponse> getGaugeResponses() {
+		return gaugeResponses;
+	}
+	
 }
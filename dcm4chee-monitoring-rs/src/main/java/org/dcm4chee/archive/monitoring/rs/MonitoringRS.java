@@ -39,6 +39,7 @@
 
 package org.dcm4chee.archive.monitoring.rs;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -52,6 +53,8 @@ import javax.ws.rs.core.Response;
 
 import org.dcm4chee.archive.monitoring.impl.core.ApplicationMonitoringRegistry;
 import org.dcm4chee.archive.monitoring.impl.core.Counter;
+import org.dcm4chee.archive.monitoring.impl.core.Gauge;
+import org.dcm4chee.archive.monitoring.impl.core.Meter;
 import org.dcm4chee.archive.monitoring.impl.core.Metric;
 import org.dcm4chee.archive.monitoring.impl.core.MetricProvider;
 import org.dcm4chee.archive.monitoring.impl.core.MetricRegistry;
@@ -65,6 +68,8 @@ import org.dcm4chee.archive.monitoring.impl.core.context.PrefixMonitoringContext
 import org.dcm4chee.archive.monitoring.impl.core.registry.MetricFilter;
 import org.dcm4chee.archive.monitoring.impl.core.registry.MetricFilters;
 import org.dcm4chee.archive.monitoring.impl.core.reservoir.AggregatedReservoirSnapshot;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveRecord;
+import org.dcm4chee.archive.monitoring.impl.core.reservoir.ArchiveVisitor;
 import org.dcm4chee.archive.monitoring.impl.util.UnitOfTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,6 +86,8 @@ import org.slf4j.LoggerFactory;
  *   <li>time resolution</li>
  *   <li>time interval</li>
  * </ul>
+ * If <code>rollup</code> is requested the snapshots of a metric are merged into a single
+ * response spanning the requested time interval, including quantiles of the merged value distribution.
  * @author Alexander Hoermandinger <alexander.hoermandinger@agfa.com>
  *
  */
@@ -90,6 +97,8 @@ public class MonitoringRS {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MonitoringRS.class);
 	private static final String COUNTER_TYPE_STRING = "counter";
 	private static final String TIMER_TYPE_STRING = "timer";
+	private static final String METER_TYPE_STRING = "meter";
+	private static final String GAUGE_TYPE_STRING = "gauge";
 
 	@Inject @ApplicationMonitoringRegistry
 	private MetricProvider metricProvider;
@@ -128,11 +137,12 @@ public class MonitoringRS {
             @QueryParam("start") String startTime, @QueryParam("end") String stopTime, 
             @QueryParam("resolution") String resolution, 
             @QueryParam("time") String timeFormat, 
-            @QueryParam("consume") boolean consume) {
+            @QueryParam("consume") boolean consume,
+            @QueryParam("rollup") boolean rollup) {
         
         UnitOfTime timeUnit = createTimeUnit(timeFormat);
         TimeSpec timeSpec = createTimeSpec(startTime, stopTime, resolution);
-        MetricResponses metricResponse = getMetricsInt(pattern, type, timeSpec, timeUnit, consume);
+        MetricResponses metricResponse = getMetricsInt(pattern, type, timeSpec, timeUnit, consume, rollup);
         
         Response res = Response.ok().entity(xmlOutputProvider.entity(metricResponse)).build();
         return res;
@@ -147,11 +157,12 @@ public class MonitoringRS {
 			@QueryParam("start") String startTime, @QueryParam("end") String stopTime, 
 			@QueryParam("resolution") String resolution, 
 			@QueryParam("time") String timeFormat, 
-			@QueryParam("consume") boolean consume) {
+			@QueryParam("consume") boolean consume,
+			@QueryParam("rollup") boolean rollup) {
 		
 		UnitOfTime timeUnit = createTimeUnit(timeFormat);
 		TimeSpec timeSpec = createTimeSpec(startTime, stopTime, resolution);
-		MetricResponses metricResponse = getMetricsInt(pattern, type, timeSpec, timeUnit, consume);
+		MetricResponses metricResponse = getMetricsInt(pattern, type, timeSpec, timeUnit, consume, rollup);
 		
 		Response res = Response.ok().entity(jsonOutputProvider.entity(metricResponse)).build();
 		return res;
@@ -160,9 +171,14 @@ public class MonitoringRS {
 	
 	public MetricResponses getMetricsInt(String pattern, String type, TimeSpec timeSpec, 
 			UnitOfTime timeUnit, boolean consume) {
+		return getMetricsInt(pattern, type, timeSpec, timeUnit, consume, false);
+	}
+	
+	public MetricResponses getMetricsInt(String pattern, String type, TimeSpec timeSpec, 
+			UnitOfTime timeUnit, boolean consume, boolean rollup) {
 		MonitoringContextFilter cxtFilter = createContextFilter(pattern);
 		MetricFilter metricFilter = createMetricFilter(type);
-		return buildMetricResponse(cxtFilter, metricFilter, timeSpec, timeUnit, consume);
+		return buildMetricResponse(cxtFilter, metricFilter, timeSpec, timeUnit, consume, rollup);
 	}
 	
 	private MonitoringContextFilter createContextFilter(String pattern) {
@@ -179,6 +195,10 @@ public class MonitoringRS {
 			return MetricFilters.TIMER_FILTER;
 		} else if (COUNTER_TYPE_STRING.equals(type.toLowerCase())) {
 			return MetricFilters.COUNTER_FILTER;
+		} else if (METER_TYPE_STRING.equals(type.toLowerCase())) {
+			return MetricFilters.METER_FILTER;
+		} else if (GAUGE_TYPE_STRING.equals(type.toLowerCase())) {
+			return MetricFilters.GAUGE_FILTER;
 		} else {
 			LOGGER.warn("Unknown metrics type {}", type);
 			return MetricFilters.ALL_FILTER;
@@ -202,19 +222,22 @@ public class MonitoringRS {
 	}
 	
 	private MetricResponses buildMetricResponse(MonitoringContextFilter cxtFilter, MetricFilter metricFilter, 
-			TimeSpec timeSpec, UnitOfTime timeUnit, boolean consume) {
+			TimeSpec timeSpec, UnitOfTime timeUnit, boolean consume, boolean rollup) {
 		MetricResponses metricResponse = new MetricResponses();
 		
+		// apply buffered timer values once, so all metrics of the response are consistent
+		metricProvider.flushRecordings();
+		
 		MetricRegistry registry = metricProvider.getMetricRegistry();
 		MonitoringContext rootContext = metricProvider.getMonitoringContextProvider().getRootContext();
-		traverseAndCollectMetrics(registry, rootContext, cxtFilter, metricFilter, timeSpec, timeUnit, consume, metricResponse);
+		traverseAndCollectMetrics(registry, rootContext, cxtFilter, metricFilter, timeSpec, timeUnit, consume, rollup, metricResponse);
 		
 		return metricResponse;
 	}
 	
 	private void traverseAndCollectMetrics(MetricRegistry registry, MonitoringContext cxt, 
 			MonitoringContextFilter cxtFilter, MetricFilter metricFilter, 
-			TimeSpec timeSpec, UnitOfTime timeUnit, boolean consume, MetricResponses metricResponse) {
+			TimeSpec timeSpec, UnitOfTime timeUnit, boolean consume, boolean rollup, MetricResponses metricResponse) {
 		boolean cxtMatch = true;
 		MonitoringContextFilter.FilterResult filterResult = cxtFilter.matches(cxt);
 		if (!filterResult.matches()) {
@@ -236,84 +259,174 @@ public class MonitoringRS {
 			if (metric != null) {
 				if (metric instanceof Timer) {
 					Timer timer = (Timer)metric;
-					if(timeSpec == TimeSpec.ALL) {
-//						AggregatedReservoirSnapshot snapshot = timer.getSnapshot();
-//						if( snapshot != null) {
-//						    TimerResponse timerResponse = TimerResponse.create(snapshot, timeUnit);
-//	                        metricResponse.addTimer(timerResponse);
-//						}
-						List<AggregatedReservoirSnapshot> snapshots = timer.getSnapshots();
-						for (AggregatedReservoirSnapshot snapshot : snapshots) {
+					if (rollup) {
+						List<AggregatedReservoirSnapshot> snapshots = (timeSpec == TimeSpec.ALL) ? timer.getSnapshots() 
+								: timer.getSnapshots(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution());
+						for (AggregatedReservoirSnapshot snapshot : rollUp(snapshots)) {
 							if(snapshot.size() > 0) {
 								TimerResponse timerResponse = TimerResponse.create(snapshot, timeUnit);
 								metricResponse.addTimer(timerResponse);
 							}
 						}
+					} else if(timeSpec == TimeSpec.ALL) {
+						timer.forEachArchive(new TimerResponseCollector(metricResponse, timeUnit));
 					} else {
-						List<AggregatedReservoirSnapshot> snapshots = timer.getSnapshots(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution());
-						for (AggregatedReservoirSnapshot snapshot : snapshots) {
-							if(snapshot.size() > 0) {
-								TimerResponse timerResponse = TimerResponse.create(snapshot, timeUnit);
-								metricResponse.addTimer(timerResponse);
-							}
-						}
+						timer.forEachArchive(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution(), 
+								new TimerResponseCollector(metricResponse, timeUnit));
 					}
 				} else if (metric instanceof Counter) {
 					Counter counter = (Counter)metric;
-					if(timeSpec == TimeSpec.ALL) {
-//						AggregatedReservoirSnapshot snapshot = counter.getSnapshot();
-//						if(snapshot != null) {
-//						    CounterResponse counterResponse = CounterResponse.create(snapshot);
-//	                        metricResponse.addCounter(counterResponse);
-//						}
-						List<AggregatedReservoirSnapshot> snapshots = counter.getSnapshots();
-						for (AggregatedReservoirSnapshot snapshot : snapshots) {
+					if (rollup) {
+						List<AggregatedReservoirSnapshot> snapshots = (timeSpec == TimeSpec.ALL) ? counter.getSnapshots() 
+								: counter.getSnapshots(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution());
+						for (AggregatedReservoirSnapshot snapshot : rollUp(snapshots)) {
 							if(snapshot.size() > 0) {
 								CounterResponse counterResponse = CounterResponse.create(snapshot);
 								metricResponse.addCounter(counterResponse);
 							}
 						}
-						
+					} else if(timeSpec == TimeSpec.ALL) {
+						counter.forEachArchive(new CounterResponseCollector(metricResponse));
 					} else {
-						List<AggregatedReservoirSnapshot> snapshots = counter.getSnapshots(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution());
-						for (AggregatedReservoirSnapshot snapshot : snapshots) {
-							if(snapshot.size() > 0) {
-								CounterResponse counterResponse = CounterResponse.create(snapshot);
-								metricResponse.addCounter(counterResponse);
-							}
-						}
+						counter.forEachArchive(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution(), 
+								new CounterResponseCollector(metricResponse));
 					}
 				} else if (metric instanceof Aggregate) {
 					Aggregate aggregate = (Aggregate)metric;
-					if(timeSpec == TimeSpec.ALL) {
-//						AggregateSnapshot snapshot = aggregate.getSnapshot();
-//						if(snapshot != null) {
-//						    AggregateTimerResponse aggregateResponse = AggregateTimerResponse.create(snapshot, timeUnit);
-//	                        metricResponse.addAggregate(aggregateResponse);
-//						}
-						List<AggregatedReservoirSnapshot> snapshots = aggregate.getSnapshots();
-						for (AggregatedReservoirSnapshot snapshot : snapshots) {
+					if (rollup) {
+						List<AggregatedReservoirSnapshot> snapshots = (timeSpec == TimeSpec.ALL) ? aggregate.getSnapshots() 
+								: aggregate.getSnapshots(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution());
+						for (AggregatedReservoirSnapshot snapshot : rollUp(snapshots)) {
 							if(snapshot.size() > 0) {
 								AggregateTimerResponse aggregateResponse = AggregateTimerResponse.create(snapshot, timeUnit);
 								metricResponse.addAggregate(aggregateResponse);
 							}
 						}
+					} else if(timeSpec == TimeSpec.ALL) {
+						aggregate.forEachArchive(new AggregateResponseCollector(metricResponse, timeUnit));
+					} else {
+						aggregate.forEachArchive(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution(), 
+								new AggregateResponseCollector(metricResponse, timeUnit));
+					}
+				} else if (metric instanceof Meter) {
+					Meter meter = (Meter)metric;
+					if (timeSpec == TimeSpec.ALL) {
+						// the moving average rates are only reported with the current snapshot
+						AggregatedReservoirSnapshot snapshot = meter.getSnapshot();
+						if (snapshot != null && (snapshot.size() > 0 || meter.getFifteenMinuteRate() > 0.0)) {
+							metricResponse.addMeter(MeterResponse.create(snapshot, meter));
+						}
 					} else {
-						List<AggregatedReservoirSnapshot> snapshots = aggregate.getSnapshots(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution());
+						List<AggregatedReservoirSnapshot> snapshots = meter.getSnapshots(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution());
+						if (rollup) {
+							snapshots = rollUp(snapshots);
+						}
 						for (AggregatedReservoirSnapshot snapshot : snapshots) {
 							if(snapshot.size() > 0) {
-								AggregateTimerResponse aggregateResponse = AggregateTimerResponse.create(snapshot, timeUnit);
-								metricResponse.addAggregate(aggregateResponse);
+								metricResponse.addMeter(MeterResponse.create(snapshot));
 							}
 						}
 					}
-
+				} else if (metric instanceof Gauge) {
+					Gauge gauge = (Gauge)metric;
+					if (rollup) {
+						List<AggregatedReservoirSnapshot> snapshots = (timeSpec == TimeSpec.ALL) ? gauge.getSnapshots() 
+								: gauge.getSnapshots(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution());
+						for (AggregatedReservoirSnapshot snapshot : rollUp(snapshots)) {
+							if(snapshot.size() > 0) {
+								metricResponse.addGauge(GaugeResponse.create(snapshot));
+							}
+						}
+					} else if(timeSpec == TimeSpec.ALL) {
+						gauge.forEachArchive(new GaugeResponseCollector(metricResponse));
+					} else {
+						gauge.forEachArchive(timeSpec.getStart(), timeSpec.getEnd(), timeSpec.getResolution(), 
+								new GaugeResponseCollector(metricResponse));
+					}
 				}
 			}
 		}
 		
 		for (MonitoringContext child : cxt.getChildren(true)) {
-			traverseAndCollectMetrics(registry, child, cxtFilter, metricFilter, timeSpec, timeUnit, consume, metricResponse);
+			traverseAndCollectMetrics(registry, child, cxtFilter, metricFilter, timeSpec, timeUnit, consume, rollup, metricResponse);
+		}
+	}
+	
+	private static List<AggregatedReservoirSnapshot> rollUp(List<AggregatedReservoirSnapshot> snapshots) {
+		if (snapshots.size() < 2) {
+			return snapshots;
+		}
+		
+		AggregatedReservoirSnapshot first = snapshots.get(0);
+		List<AggregatedReservoirSnapshot> others = snapshots.subList(1, snapshots.size());
+		AggregatedReservoirSnapshot merged = first.merge(others.toArray(new AggregatedReservoirSnapshot[others.size()]));
+		return Collections.singletonList(merged);
+	}
+	
+	/*
+	 * Visitors creating the responses directly from the archives of the metrics
+	 */
+	private static class TimerResponseCollector implements ArchiveVisitor {
+		private final MetricResponses metricResponse;
+		private final UnitOfTime timeUnit;
+		
+		private TimerResponseCollector(MetricResponses metricResponse, UnitOfTime timeUnit) {
+			this.metricResponse = metricResponse;
+			this.timeUnit = timeUnit;
+		}
+		
+		@Override
+		public void visit(ArchiveRecord archive) {
+			if (archive.size() > 0) {
+				metricResponse.addTimer(TimerResponse.create(archive, timeUnit));
+			}
+		}
+	}
+	
+	private static class CounterResponseCollector implements ArchiveVisitor {
+		private final MetricResponses metricResponse;
+		
+		private CounterResponseCollector(MetricResponses metricResponse) {
+			this.metricResponse = metricResponse;
+		}
+		
+		@Override
+		public void visit(ArchiveRecord archive) {
+			if (archive.size() > 0) {
+				metricResponse.addCounter(CounterResponse.create(archive));
+			}
+		}
+	}
+	
+	private static class GaugeResponseCollector implements ArchiveVisitor {
+		private final MetricResponses metricResponse;
+		
+		private GaugeResponseCollector(MetricResponses metricResponse) {
+			this.metricResponse = metricResponse;
+		}
+		
+		@Override
+		public void visit(ArchiveRecord archive) {
+			if (archive.size() > 0) {
+				metricResponse.addGauge(GaugeResponse.create(archive));
+			}
+		}
+	}
+	
+	private static class AggregateResponseCollector implements ArchiveVisitor {
+		private final MetricResponses metricResponse;
+		private final UnitOfTime timeUnit;
+		
+		private AggregateResponseCollector(MetricResponses metricResponse, UnitOfTime timeUnit) {
+			this.metricResponse = metricResponse;
+			this.timeUnit = timeUnit;
+		}
+		
+		@Override
+		public void visit(ArchiveRecord archive) {
+			if (archive.size() > 0) {
+				metricResponse.addAggregate(AggregateTimerResponse.create(archive, timeUnit));
+			}
 		}
 	}
 	
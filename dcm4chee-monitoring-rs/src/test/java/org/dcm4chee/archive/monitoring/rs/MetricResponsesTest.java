@@ -50,6 +50,7 @@ import javax.xml.bind.Marshaller;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
 import org.dcm4chee.archive.monitoring.impl.core.CounterImpl;
+import org.dcm4chee.archive.monitoring.impl.core.MeterImpl;
 import org.dcm4chee.archive.monitoring.impl.core.Timer;
 import org.dcm4chee.archive.monitoring.impl.core.TimerImpl;
 import org.dcm4chee.archive.monitoring.impl.core.clocks.Clock;
@@ -163,12 +164,16 @@ public class MetricResponsesTest {
                 "<maxTimestamp>1970-01-01 01:00:00.200</maxTimestamp>" +
                 "<max>50</max>" +
                 "<median>50</median>" +
+                "<p95>50</p95>" +
+                "<p99>50</p99>" +
                 "<mean>50</mean>" +
                 "<sum>50</sum>" +
                 "<size>1</size>" +
             "</timer>" +
             "</timers>" +
             "<aggregates/>" +
+            "<meters/>" +
+            "<gauges/>" +
             "</metrics>",
             out.toString());
 	    } finally {
@@ -265,6 +270,8 @@ public class MetricResponsesTest {
         			    "\"max\":\"50000000\"," +
         			    "\"min\":\"50000000\"," +
         			    "\"median\":\"50000000\"," +
+        			    "\"p95\":\"50000000\"," +
+        			    "\"p99\":\"50000000\"," +
         			    "\"mean\":\"50000000\"," +
         			    "\"sum\":\"50000000\"," +
         			    "\"maxTimestamp\":\"1970-01-01 01:00:00.200\"," +
@@ -274,7 +281,9 @@ public class MetricResponsesTest {
         			    "\"attributes\":{}," +
         			    "\"size\":1" +
         			  "}]," +
-        			  "\"aggregates\":[]" +
+        			  "\"aggregates\":[]," +
+        			  "\"meters\":[]," +
+        			  "\"gauges\":[]" +
         			"}",
         			json);
 	    } finally {
@@ -282,6 +291,46 @@ public class MetricResponsesTest {
 	    }
 	}
 	
+	@Test
+	public void testMeterResponseJsonMarshalling() throws IOException {
+	    TimeZone origDefaultTimeZone = TimeZone.getDefault();
+	    
+	    try {
+	        TimeZone.setDefault(TimeZone.getTimeZone("CET"));
+	        
+	        TestReservoirBuilder reservoirBuilder = new TestReservoirBuilder(clock, 0, 60 * 1000,
+	                60 * 1000);
+	        MeterImpl meter = new MeterImpl(new MonitoringContextTree(clock).getRoot(),
+	                reservoirBuilder.build(), clock);
+	        meter.mark(60);
+	        // 60 marks in the first 1.2 seconds
+	        clock.tick(24);
+	        meter.sample(clock.getTime());
+	        
+	        MeterResponse meterResponse = MeterResponse.create(meter.getSnapshot(), meter);
+	        String json = new ObjectMapper().setSerializationInclusion(Inclusion.NON_NULL)
+	                .writeValueAsString(meterResponse);
+	        
+	        Assert.assertEquals(
+	                "{" +
+	                  "\"path\":\"\"," +
+	                  "\"start\":\"1970-01-01 01:00:00.000\"," +
+	                  "\"end\":\"1970-01-01 01:01:00.000\"," +
+	                  "\"attributes\":{}," +
+	                  "\"firstUsageTimestamp\":\"1970-01-01 01:00:00.000\"," +
+	                  "\"lastUsageTimestamp\":\"1970-01-01 01:00:00.000\"," +
+	                  "\"count\":\"60\"," +
+	                  "\"meanRate\":\"1\"," +
+	                  "\"oneMinuteRate\":\"50\"," +
+	                  "\"fiveMinuteRate\":\"50\"," +
+	                  "\"fifteenMinuteRate\":\"50\"" +
+	                "}",
+	                json);
+	    } finally {
+	        TimeZone.setDefault(origDefaultTimeZone);
+	    }
+	}
+	
 	private static class TestReservoirBuilder {
         private final Clock clock;
         private long start;
@@ -252,6 +252,29 @@ public class MonitoringRSTest {
 //		Assert.assertEquals(2, snapshot.size());
 	}
 	
+	@Test
+	public void testMonitoringRSWithRollup() {
+		MonitoringContext cxt = metricProvider.getMonitoringContextProvider().getNodeContext().getOrCreateContext("service");
+		
+		time(cxt.getOrCreateContext("timer"), 3);
+		// 70 ms, ends in the second archive
+		time(cxt.getOrCreateContext("timer"), 70000000);
+		
+		TimeSpec timeSpec = TimeSpec.createFromTimeMillis(1, 100, 60);
+		MetricResponses metricList = monitoringRS.getMetricsInt(Util.createPath(cxt.getPath()), null, timeSpec, 
+				org.dcm4chee.archive.monitoring.impl.util.UnitOfTime.NANOSECONDS, false);
+		Assert.assertEquals(2, metricList.getTimerResponses().size());
+		
+		metricList = monitoringRS.getMetricsInt(Util.createPath(cxt.getPath()), null, timeSpec, 
+				org.dcm4chee.archive.monitoring.impl.util.UnitOfTime.NANOSECONDS, true, true);
+		Assert.assertEquals(1, metricList.getTimerResponses().size());
+		TimerResponse snapshot = metricList.getTimerResponses().iterator().next();
+		Assert.assertEquals(2, snapshot.getSize());
+		Assert.assertEquals("70000000", snapshot.getMax());
+		Assert.assertEquals("3", snapshot.getMin());
+		Assert.assertEquals("70000000", snapshot.getP99());
+	}
+	
 	@Test
 	public void testClearingOfMetrics() {
 		MonitoringContext cxt = metricProvider.getMonitoringContextProvider().getNodeContext().getOrCreateContext("service1");